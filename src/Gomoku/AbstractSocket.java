@@ -1,12 +1,12 @@
 package Gomoku;
 
-import java.io.*;
 import java.util.List;
 import java.util.ArrayList;
 
 public abstract class AbstractSocket {
     protected int socketId; // socket 编号
-    public static final int headLength = 6; // 报文头长度
+    protected int sessionId; // 会话编号，同一连接上的多个对局以此区分。
+    public static final int headLength = 10; // 报文头长度（内存中的报文格式，线路上的编码见 WireCodec）
     public static final int NEW_GAME = 0;                 // server 向双方 client 发送新建游戏命令
     public static final int INQUIRE_TO_NEW_GAME = 1;      // client 请求新建游戏，server 直接转发对方 client。
     public static final int ACCEPT_TO_NEW_GAME = 2;       // client 同意新建游戏，server 新建游戏，并向双方 client 发送新建游戏命令。
@@ -22,36 +22,16 @@ public abstract class AbstractSocket {
     public static final int CHOOSE_PLAYER_COLOR = 12;     // client 选择执子颜色
     public static final int SET_PLAYER_COLOR = 13;        // server 指定玩家执子颜色
     public static final int CHAT_TEXT = 14;               // client 发送聊天消息，server 直接转发对方 client。
-    
-    
-    /**
-     * 打印报文内容
-     *
-     * @param message 接收到的报文
-     */
-    public void printMessage(byte[] message) {
-        int srcSocketId = parseSocketId(message);
-        StringBuilder builder = new StringBuilder();
-        if (srcSocketId == 0)
-            builder.append("server0");
-        else
-            builder.append("client").append(srcSocketId);
-        builder.append(" --> ");
-        if (socketId == 0)
-            builder.append("server0");
-        else
-            builder.append("client").append(socketId);
-        builder.append(": { ");
-        boolean flag = false;
-        for (byte b : message) {
-            if (flag)
-                builder.append(", ");
-            flag = true;
-            builder.append(b & 0xFF);
-        }
-        builder.append(" }");
-        System.out.println(builder.toString());
-    }
+    public static final int HELLO = 15;                   // 协议版本协商，由传输层处理，不交给房间。
+    public static final int JOIN_LOBBY = 16;              // client 在新的会话上进入大厅，由 server 处理，不交给房间。
+    public static final int RESUME_TOKEN = 17;            // server 向 client 发送会话恢复令牌，由 client 的会话复用器保存。
+    public static final int RESUME = 18;                  // client 断线重连后用令牌恢复会话，由 server 处理，不交给房间。
+    public static final int STATE_SYNC = 19;              // server 向 client 发送完整的对局状态
+    public static final int INQUIRE_TO_RETRACT_TO = 20;   // client 请求悔棋至指定手数，server 直接转发对方 client，对方以 ACCEPT/REJECT_TO_RETRACT_STONE 回应。
+    public static final int RETRACT_TO = 21;              // server 向双方 client 发送悔棋至指定手数命令
+    public static final int CLOCK_SYNC = 22;              // server 向双方 client 发送计时状态
+    public static final int PING = 23;                    // server 测量往返时间，由 client 的会话复用器以 PONG 回复，不交给房间。
+    public static final int PONG = 24;                    // client 回复 PING，由 server 处理，不交给房间。
     
     
     /**
@@ -71,48 +51,28 @@ public abstract class AbstractSocket {
     
     
     /**
-     * 获取报文长度
-     *
-     * @param head 接收到的报文头
+     * 获取会话编号
      */
-    public static int getMessageLength(byte[] head) {
-        return (((head[1] & 0xFF) << 24) + ((head[2] & 0xFF) << 16) + ((head[3] & 0xFF) << 8) + (head[4] & 0xFF));
+    public int getSessionId() {
+        return sessionId;
     }
     
     
     /**
-     * 从输入流接收报文
-     *
-     * @param is 输入流
+     * 设置会话编号
      */
-    public static byte[] receivePacket(InputStream is) throws IOException {
-        byte[] headBuffer = new byte[headLength];
-        is.read(headBuffer);
-        byte[] restBuffer = new byte[getMessageLength(headBuffer)];
-        is.read(restBuffer);
-        byte[] message = new byte[headLength + restBuffer.length];
-        System.arraycopy(headBuffer, 0, message, 0, headLength);
-        System.arraycopy(restBuffer, 0, message, headLength, restBuffer.length);
-        return message;
+    public void setSessionId(int sessionId) {
+        this.sessionId = sessionId;
     }
     
     
     /**
-     * 向输出流发送报文
+     * 获取报文长度
      *
-     * @param os      输出流
-     * @param message 待发送的报文
+     * @param head 接收到的报文头
      */
-    public static void sendPacket(OutputStream os, byte[] message) {
-        while (true) {
-            try {
-                os.write(message);
-                os.flush();
-                break;
-            }
-            catch (IOException ignored) {
-            }
-        }
+    public static int getMessageLength(byte[] head) {
+        return (((head[5] & 0xFF) << 24) + ((head[6] & 0xFF) << 16) + ((head[7] & 0xFF) << 8) + (head[8] & 0xFF));
     }
     
     
@@ -136,6 +96,16 @@ public abstract class AbstractSocket {
     }
     
     
+    /**
+     * 解析报文的会话编号
+     *
+     * @param message 接收到的报文
+     */
+    protected static int parseSessionId(byte[] message) {
+        return (((message[1] & 0xFF) << 24) + ((message[2] & 0xFF) << 16) + ((message[3] & 0xFF) << 8) + (message[4] & 0xFF));
+    }
+    
+    
     /**
      * 处理接收到的报文
      *
@@ -189,6 +159,18 @@ public abstract class AbstractSocket {
             case CHAT_TEXT:
                 handleChatText(message);
                 break;
+            case STATE_SYNC:               // server 向 client 发送完整的对局状态
+                handleStateSync(message);
+                break;
+            case INQUIRE_TO_RETRACT_TO:    // client 请求悔棋至指定手数，server 直接转发对方 client。
+                handleInquireToRetractTo(message);
+                break;
+            case RETRACT_TO:               // server 向双方 client 发送悔棋至指定手数命令
+                handleRetractTo(message);
+                break;
+            case CLOCK_SYNC:               // server 向双方 client 发送计时状态
+                handleClockSync(message);
+                break;
         }
     }
     
@@ -342,6 +324,46 @@ public abstract class AbstractSocket {
      */
     protected abstract void handleChatText(byte[] message);
     
+    /**
+     * server 向 client 发送完整的对局状态，client 据此重建棋盘。
+     *
+     * @param message 接收到的报文
+     *
+     * @implNote messageType = STATE_SYNC
+     * @implNote server 不可能接收到这个消息
+     */
+    protected abstract void handleStateSync(byte[] message);
+    
+    /**
+     * client 请求悔棋至指定手数，server 直接转发对方 client。
+     * client 弹出窗口，让用户选择是否同意，以 ACCEPT_TO_RETRACT_STONE 或 REJECT_TO_RETRACT_STONE 回应。
+     *
+     * @param message 接收到的报文
+     *
+     * @implNote messageType = INQUIRE_TO_RETRACT_TO
+     */
+    protected abstract void handleInquireToRetractTo(byte[] message);
+    
+    /**
+     * server 向双方 client 发送悔棋至指定手数命令，一次移走多个棋子。
+     *
+     * @param message 接收到的报文
+     *
+     * @implNote messageType = RETRACT_TO
+     * @implNote server 不可能接收到这个消息
+     */
+    protected abstract void handleRetractTo(byte[] message);
+    
+    /**
+     * server 向双方 client 发送计时状态，client 据此显示回合的剩余时间。
+     *
+     * @param message 接收到的报文
+     *
+     * @implNote messageType = CLOCK_SYNC
+     * @implNote server 不可能接收到这个消息
+     */
+    protected abstract void handleClockSync(byte[] message);
+    
     
     /**
      * 向待发送的报文添加报文头
@@ -355,12 +377,16 @@ public abstract class AbstractSocket {
         byte[] packedMessage = new byte[headLength + message.length];
         System.arraycopy(message, 0, packedMessage, headLength, message.length);
         packedMessage[0] = (byte) socketId;
+        packedMessage[1] = (byte) ((sessionId >>> 24) & 0xFF);
+        packedMessage[2] = (byte) ((sessionId >>> 16) & 0xFF);
+        packedMessage[3] = (byte) ((sessionId >>> 8) & 0xFF);
+        packedMessage[4] = (byte) (sessionId & 0xFF);
         int length = message.length;
-        packedMessage[1] = (byte) ((length >>> 24) & 0xFF);
-        packedMessage[2] = (byte) ((length >>> 16) & 0xFF);
-        packedMessage[3] = (byte) ((length >>> 8) & 0xFF);
-        packedMessage[4] = (byte) (length & 0xFF);
-        packedMessage[5] = (byte) messageType;
+        packedMessage[5] = (byte) ((length >>> 24) & 0xFF);
+        packedMessage[6] = (byte) ((length >>> 16) & 0xFF);
+        packedMessage[7] = (byte) ((length >>> 8) & 0xFF);
+        packedMessage[8] = (byte) (length & 0xFF);
+        packedMessage[9] = (byte) messageType;
         return packedMessage;
     }
     
@@ -498,7 +524,25 @@ public abstract class AbstractSocket {
         catch (StoneOutOfBoardRangeException ignored) {
         }
         int historySize = (message[headLength + 6] & 0xFF);
-        return new Object[]{stone, previousStone, historySize};
+        ClockState clock = (message.length >= headLength + 7 + ClockState.LENGTH ? readClock(message, headLength + 7) : null);
+        return new Object[]{stone, previousStone, historySize, clock};
+    }
+    
+    
+    /**
+     * 打包附带计时状态的落子报文，计时状态在落子内容之后，旧版 client 读取落子内容时忽略。
+     *
+     * @param clock 落子完成后的计时状态
+     *
+     * @implNote @messageType PUT_STONE
+     * @implNote @messageArg  stone, previousStone, historySize, clock
+     */
+    protected byte[] packPutStone(Stone stone, Stone previousStone, int historySize, ClockState clock) {
+        byte[] putStoneMessage = packPutStone(stone, previousStone, historySize);
+        byte[] message = new byte[putStoneMessage.length - headLength + ClockState.LENGTH];
+        System.arraycopy(putStoneMessage, headLength, message, 0, putStoneMessage.length - headLength);
+        writeClock(message, putStoneMessage.length - headLength, clock);
+        return packMessage(PUT_STONE, message);
     }
     
     
@@ -652,8 +696,281 @@ public abstract class AbstractSocket {
         String chatText = new String(message, headLength, message.length - headLength);
         return new Object[]{chatText};
     }
+    
+    
+    /**
+     * 打包会话恢复令牌报文
+     *
+     * @param messageType RESUME_TOKEN 或 RESUME
+     * @param token       会话恢复令牌
+     *
+     * @implNote @messageType RESUME_TOKEN, RESUME
+     * @implNote @messageArg  token 会话恢复令牌
+     */
+    protected byte[] packResumeToken(int messageType, long token) {
+        byte[] message = new byte[8];
+        for (int index = 0; index < 8; ++index)
+            message[index] = (byte) (token >>> (56 - 8 * index));
+        return packMessage(messageType, message);
+    }
+    
+    
+    /**
+     * 拆包会话恢复令牌报文
+     *
+     * @implNote @messageType RESUME_TOKEN, RESUME
+     * @implNote @messageArg  token 会话恢复令牌
+     */
+    protected Object[] unpackResumeToken(byte[] message) {
+        long token = 0;
+        for (int index = 0; index < 8; ++index)
+            token = (token << 8) | (message[headLength + index] & 0xFF);
+        return new Object[]{token};
+    }
+    
+    
+    /**
+     * 打包对局状态报文
+     * 棋子按落子顺序排列，每个棋子占一个字节（见 GameRecord.cellIndex），颜色由落子顺序决定，不单独传输。
+     * 计时时计时状态附在最后（与 PUT_STONE 相同），client 不需要再等一个 CLOCK_SYNC。
+     *
+     * @param playerNumber      本方玩家号，尚未开始游戏时为 0。
+     * @param gameStarted       游戏是否正在进行
+     * @param playerStoneType   本方执子颜色，尚未选择时为 SPACE。
+     * @param presetStoneNumber 预先放置的棋子数
+     * @param history           棋盘上的棋子
+     * @param gameMillis        游戏已进行的时间（毫秒）
+     * @param clock             计时状态，不计时的时候为 null。
+     *
+     * @implNote @messageType STATE_SYNC
+     * @implNote @messageArg  playerNumber, gameStarted, playerStoneType, presetStoneNumber, history, gameMillis, clock
+     */
+    protected byte[] packStateSync(int playerNumber, boolean gameStarted, StoneType playerStoneType, int presetStoneNumber,
+                                   List<Stone> history, long gameMillis, ClockState clock) {
+        int historySize = history.size();
+        byte[] message = new byte[9 + historySize + (clock != null ? ClockState.LENGTH : 0)];
+        message[0] = (byte) playerNumber;
+        message[1] = (byte) (gameStarted ? 1 : 0);
+        message[2] = (byte) (playerStoneType == StoneType.BLACK ? 1 : (playerStoneType == StoneType.WHITE ? 2 : 0));
+        message[3] = (byte) presetStoneNumber;
+        message[4] = (byte) historySize;
+        for (int index = 0; index < historySize; ++index) {
+            Stone stone = history.get(index);
+            message[5 + index] = (byte) GameRecord.cellIndex(stone.getI(), stone.getJ());
+        }
+        writeInt(message, 5 + historySize, gameMillis);
+        if (clock != null)
+            writeClock(message, 9 + historySize, clock);
+        return packMessage(STATE_SYNC, message);
+    }
+    
+    
+    /**
+     * 拆包对局状态报文
+     *
+     * @implNote @messageType STATE_SYNC
+     * @implNote @messageArg  playerNumber, gameStarted, playerStoneType, presetStoneNumber, history, gameMillis, clock（不计时的时候为 null）
+     */
+    protected Object[] unpackStateSync(byte[] message) {
+        int playerNumber = message[headLength];
+        boolean gameStarted = (message[headLength + 1] == 1);
+        StoneType playerStoneType = StoneType.SPACE;
+        if (message[headLength + 2] == 1)
+            playerStoneType = StoneType.BLACK;
+        else if (message[headLength + 2] == 2)
+            playerStoneType = StoneType.WHITE;
+        int presetStoneNumber = message[headLength + 3];
+        int historySize = (message[headLength + 4] & 0xFF);
+        List<Stone> history = new ArrayList<Stone>();
+        for (int index = 0; index < historySize; ++index) {
+            int cell = (message[headLength + 5 + index] & 0xFF);
+            try {
+                history.add(new Stone(GameRecord.cellI(cell), GameRecord.cellJ(cell), (index % 2 == 0 ? StoneType.BLACK : StoneType.WHITE)));
+            }
+            catch (StoneOutOfBoardRangeException ignored) {
+            }
+        }
+        int position = headLength + 5 + historySize;
+        long gameMillis = readInt(message, position);
+        ClockState clock = (message.length >= position + 4 + ClockState.LENGTH ? readClock(message, position + 4) : null);
+        return new Object[]{playerNumber, gameStarted, playerStoneType, presetStoneNumber, history, gameMillis, clock};
+    }
+    
+    
+    /**
+     * 打包请求悔棋至指定手数报文
+     *
+     * @param historySize 悔棋完成后棋盘上的棋子数
+     *
+     * @implNote @messageType INQUIRE_TO_RETRACT_TO
+     * @implNote @messageArg  historySize 悔棋完成后棋盘上的棋子数
+     */
+    protected byte[] packInquireToRetractTo(int historySize) {
+        byte[] message = {(byte) historySize};
+        return packMessage(INQUIRE_TO_RETRACT_TO, message);
+    }
+    
+    
+    /**
+     * 拆包请求悔棋至指定手数报文
+     *
+     * @implNote @messageType INQUIRE_TO_RETRACT_TO
+     * @implNote @messageArg  historySize 悔棋完成后棋盘上的棋子数
+     */
+    protected Object[] unpackInquireToRetractTo(byte[] message) {
+        int historySize = (message[headLength] & 0xFF);
+        return new Object[]{historySize};
+    }
+    
+    
+    /**
+     * 打包悔棋至指定手数报文
+     * 报文内容为 [historySize][previousStone][被移走的 stone...]，每个 stone 占一个字节，颜色由手数的奇偶决定。
+     *
+     * @param retractedStones 被移走的 stone，按从后往前的顺序。
+     * @param previousStone   悔棋完成后的最后一个 stone，因为悔棋不会移走预先放置的棋子，必然是非 null。
+     * @param historySize     悔棋完成后棋盘上的棋子数
+     *
+     * @implNote @messageType RETRACT_TO
+     * @implNote @messageArg  retractedStones 被移走的 stone，按从后往前的顺序。
+     * @implNote @messageArg  previousStone   悔棋完成后的最后一个 stone
+     * @implNote @messageArg  historySize     悔棋完成后棋盘上的棋子数
+     */
+    protected byte[] packRetractTo(List<Stone> retractedStones, Stone previousStone, int historySize) {
+        byte[] message = new byte[2 + retractedStones.size()];
+        message[0] = (byte) historySize;
+        message[1] = (byte) GameRecord.cellIndex(previousStone.getI(), previousStone.getJ());
+        for (int index = 0; index < retractedStones.size(); ++index) {
+            Stone stone = retractedStones.get(index);
+            message[2 + index] = (byte) GameRecord.cellIndex(stone.getI(), stone.getJ());
+        }
+        return packMessage(RETRACT_TO, message);
+    }
+    
+    
+    /**
+     * 拆包悔棋至指定手数报文
+     *
+     * @implNote @messageType RETRACT_TO
+     * @implNote @messageArg  retractedStones, previousStone, historySize
+     */
+    protected Object[] unpackRetractTo(byte[] message) {
+        int historySize = (message[headLength] & 0xFF);
+        int retractedNumber = message.length - headLength - 2;
+        Stone previousStone = null;
+        List<Stone> retractedStones = new ArrayList<Stone>();
+        try {
+            previousStone = stoneFromCell(message[headLength + 1], historySize - 1);
+            for (int index = 0; index < retractedNumber; ++index)
+                retractedStones.add(stoneFromCell(message[headLength + 2 + index], historySize + retractedNumber - 1 - index));
+        }
+        catch (StoneOutOfBoardRangeException ignored) {
+        }
+        return new Object[]{retractedStones, previousStone, historySize};
+    }
+    
+    
+    /**
+     * 打包计时状态报文
+     *
+     * @param clock 计时状态
+     *
+     * @implNote @messageType CLOCK_SYNC
+     * @implNote @messageArg  clock 计时状态
+     */
+    protected byte[] packClockSync(ClockState clock) {
+        byte[] message = new byte[ClockState.LENGTH];
+        writeClock(message, 0, clock);
+        return packMessage(CLOCK_SYNC, message);
+    }
+    
+    
+    /**
+     * 拆包计时状态报文
+     *
+     * @implNote @messageType CLOCK_SYNC
+     * @implNote @messageArg  clock 计时状态
+     */
+    protected Object[] unpackClockSync(byte[] message) {
+        return new Object[]{readClock(message, headLength)};
+    }
+    
+    
+    /**
+     * 把计时状态写入报文内容，共 ClockState.LENGTH 个字节，整数按大端序排列：
+     * [turnPlayerNumber][running][gameMillis 4]，然后每方 [remainingMillis 4][periods 1]，periods 的最高位表示已进入读秒。
+     */
+    private static void writeClock(byte[] content, int offset, ClockState clock) {
+        content[offset] = (byte) clock.getTurnPlayerNumber();
+        content[offset + 1] = (byte) (clock.isRunning() ? 1 : 0);
+        writeInt(content, offset + 2, clock.getGameMillis());
+        for (int playerNumber = 1; playerNumber <= 2; ++playerNumber) {
+            int position = offset + 6 + 5 * (playerNumber - 1);
+            writeInt(content, position, clock.getRemainingMillis(playerNumber));
+            content[position + 4] = (byte) ((clock.isOvertime(playerNumber) ? 0x80 : 0) | Math.min(0x7F, clock.getPeriods(playerNumber)));
+        }
+    }
+    
+    
+    private static ClockState readClock(byte[] message, int offset) {
+        int turnPlayerNumber = message[offset];
+        boolean running = (message[offset + 1] == 1);
+        long gameMillis = readInt(message, offset + 2);
+        int periods1 = (message[offset + 10] & 0xFF), periods2 = (message[offset + 15] & 0xFF);
+        return new ClockState(turnPlayerNumber, running, gameMillis,
+                              readInt(message, offset + 6), periods1 & 0x7F, (periods1 & 0x80) != 0,
+                              readInt(message, offset + 11), periods2 & 0x7F, (periods2 & 0x80) != 0);
+    }
+    
+    
+    private static void writeInt(byte[] content, int offset, long value) {
+        int clamped = (int) Math.max(0, Math.min(Integer.MAX_VALUE, value));
+        for (int index = 0; index < 4; ++index)
+            content[offset + index] = (byte) (clamped >>> (24 - 8 * index));
+    }
+    
+    
+    private static long readInt(byte[] message, int offset) {
+        long value = 0;
+        for (int index = 0; index < 4; ++index)
+            value = (value << 8) | (message[offset + index] & 0xFF);
+        return value;
+    }
+    
+    
+    /**
+     * 打包往返时间测量报文，PONG 原样带回 PING 中 server 的发送时间。
+     *
+     * @param messageType PING 或 PONG
+     * @param sentNanos   server 发送 PING 的时间（System.nanoTime）
+     *
+     * @implNote @messageType PING, PONG
+     * @implNote @messageArg  sentNanos server 发送 PING 的时间
+     */
+    protected byte[] packPing(int messageType, long sentNanos) {
+        return packResumeToken(messageType, sentNanos);
+    }
+    
+    
+    /**
+     * 拆包往返时间测量报文
+     *
+     * @implNote @messageType PING, PONG
+     * @implNote @messageArg  sentNanos server 发送 PING 的时间
+     */
+    protected Object[] unpackPing(byte[] message) {
+        return unpackResumeToken(message);
+    }
+    
+    
+    /**
+     * 由棋盘格编号和手数还原 stone，第偶数手（从 0 开始）为黑子。
+     */
+    private static Stone stoneFromCell(byte cell, int index) throws StoneOutOfBoardRangeException {
+        int value = (cell & 0xFF);
+        return new Stone(GameRecord.cellI(value), GameRecord.cellJ(value), (index % 2 == 0 ? StoneType.BLACK : StoneType.WHITE));
+    }
 }
 
 
 
-
@@ -144,6 +144,11 @@ public class Board {
     }
     
     
+    public int getPresetStoneNumber() {
+        return presetStoneNumber;
+    }
+    
+    
     public Stack<Stone> getHistory() {
         return history;
     }
@@ -169,6 +174,14 @@ public class Board {
     }
     
     
+    /**
+     * 获取格点上的棋子类型，棋盘外一圈 (0 或 n + 1) 为 SPACE。
+     */
+    public StoneType getStoneType(int i, int j) {
+        return board[i][j];
+    }
+    
+    
     public StoneType getNextStoneType() {
         return (history.size() % 2 == 0 ? StoneType.BLACK : StoneType.WHITE);
     }
@@ -208,6 +221,37 @@ public class Board {
     }
     
     
+    /**
+     * 一次悔棋至指定手数
+     *
+     * @param historySize 悔棋完成后棋盘上的棋子数，不能少于预先放置的棋子数。
+     *
+     * @return 被移走的 stone，按从后往前的顺序。
+     */
+    public List<Stone> retractTo(int historySize) throws GameNotStartedException, EmptyStackException {
+        if (!isGameStarted())
+            throw new GameNotStartedException();
+        if (!canRetractTo(historySize))
+            throw new EmptyStackException();
+        List<Stone> retractedStones = new ArrayList<Stone>(history.size() - historySize);
+        while (history.size() > historySize) {
+            Stone lastStone = history.pop();
+            board[lastStone.getI()][lastStone.getJ()] = StoneType.SPACE;
+            retractedStones.add(lastStone);
+        }
+        rowStonesUpdated = false;
+        return retractedStones;
+    }
+    
+    
+    public boolean canRetractTo(int historySize) {
+        if (isGameStarted())
+            return (historySize >= presetStoneNumber && historySize < history.size());
+        else
+            return false;
+    }
+    
+    
     public boolean canRetractStone() {
         if (isGameStarted())
             return (history.size() > presetStoneNumber);
@@ -0,0 +1,470 @@
+package Gomoku;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.EmptyStackException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 机器人 client
+ * 作为 GameClient 的监听器，用本地镜像棋盘跟踪对局，轮到本方时由引擎选择落子位置，按 Swap2 规则随机选择执子颜色。
+ * 开始后请求新游戏，每局结束后再次请求，直到下完指定局数；对方的新游戏和悔棋请求一律同意。
+ * 可以设置思考时间，以及轮到本方时按概率请求悔棋、认输或附带聊天消息，用于负载测试（见 LoadGenerator）。
+ * 所有回调都在 GameClient 的工作线程上执行，多个机器人可以共用一个 RoomExecutor；思考时间由共用的定时器等待，不占用工作线程。
+ *
+ * 用法：java Gomoku.Bot [-connect 主机:端口] [-count 机器人数] [-games 每个机器人的局数] [-engine pattern|random] [-seed 随机种子]
+ */
+public class Bot implements GameListener {
+    private final GameClient client;
+    private final Engine engine;
+    private final Random random;
+    private final int maxGames; // 下完后不再请求新游戏，0 表示不限。
+    private final Board board; // 本地镜像棋盘
+    private final CountDownLatch finished; // 下完指定局数或连接断开
+    private int playerNumber; // 本方玩家号
+    private volatile boolean paired; // 已在 server 配对进入房间
+    private boolean continueAllowed; // 选择执子颜色时是否可以选择继续
+    private volatile int gamesPlayed;
+    private volatile int wins;
+    private volatile int draws;
+    private volatile int movesPlayed; // 本方的落子数
+    private volatile int retractions; // 本方请求悔棋的次数
+    private volatile int chats; // 本方发送聊天消息的次数
+    private volatile int defeats; // 本方认输的次数
+    private ScheduledExecutorService scheduler; // 等待思考时间的定时器，为 null 时立即行动。
+    private long thinkMillis; // 平均思考时间，实际在 0 到 2 倍之间均匀分布。
+    private double retractRate; // 轮到本方落子时请求悔棋的概率
+    private double chatRate; // 落子时附带聊天消息的概率
+    private double defeatRate; // 轮到本方落子时认输的概率
+    private int generation; // 对局状态每次变化时加一，思考结束时状态已变化则放弃行动。
+    private boolean retracting; // 已请求悔棋，正在等待回应。
+    private int requestedCell; // 已请求但尚未收到的落子位置，没有时为 -1。
+    private long requestNanos; // 发送请求落子报文的时间
+    private final LatencyHistogram moveLatency; // 从请求落子到收到本方落子的往返延迟
+    
+    private static final String CHAT_TEXT = "gg";
+    
+    
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String host = "localhost";
+        int port = Server.PORT;
+        int count = 1;
+        int games = 1;
+        String engineName = "pattern";
+        long seed = System.nanoTime();
+        for (int index = 0; index < args.length; ++index) {
+            switch (args[index]) {
+                case "-connect":
+                    String address = args[++index];
+                    host = address.substring(0, address.lastIndexOf(':'));
+                    port = Integer.parseInt(address.substring(address.lastIndexOf(':') + 1));
+                    break;
+                case "-count":
+                    count = Integer.parseInt(args[++index]);
+                    break;
+                case "-games":
+                    games = Integer.parseInt(args[++index]);
+                    break;
+                case "-engine":
+                    engineName = args[++index];
+                    break;
+                case "-seed":
+                    seed = Long.parseLong(args[++index]);
+                    break;
+                default:
+                    System.err.println("unknown option: " + args[index]);
+                    System.exit(2);
+            }
+        }
+        
+        RoomExecutor executor = new RoomExecutor(RoomExecutor.DEFAULT_WORKER_COUNT, "bot-worker");
+        executor.start();
+        List<Bot> bots = new ArrayList<Bot>(count);
+        for (int index = 0; index < count; ++index) {
+            Random random = new Random(seed + index);
+            Engine engine = (engineName.equals("random") ? new RandomEngine(random) : new PatternEngine(random));
+            Transport transport = StreamTransport.connect(new InetSocketAddress(host, port));
+            Bot bot = new Bot(new GameClient(new SessionMultiplexer(transport), executor), engine, random, games);
+            bots.add(bot);
+            bot.start();
+        }
+        for (int index = 0; index < count; ++index) {
+            Bot bot = bots.get(index);
+            bot.awaitFinished();
+            System.out.printf("bot %d: %d games, %d wins, %d draws, %d losses, %d moves%n", index + 1, bot.getGamesPlayed(), bot.getWins(),
+                              bot.getDraws(), bot.getGamesPlayed() - bot.getWins() - bot.getDraws(), bot.getMovesPlayed());
+        }
+        System.exit(0);
+    }
+    
+    
+    /**
+     * @param client   未开始的 client
+     * @param engine   落子引擎
+     * @param random   选择执子颜色用的随机数
+     * @param maxGames 下完后不再请求新游戏，0 表示不限。
+     */
+    public Bot(GameClient client, Engine engine, Random random, int maxGames) {
+        this.client = client;
+        this.engine = engine;
+        this.random = random;
+        this.maxGames = maxGames;
+        board = new Board();
+        finished = new CountDownLatch(1);
+        playerNumber = 0;
+        paired = false;
+        continueAllowed = false;
+        gamesPlayed = 0;
+        wins = 0;
+        draws = 0;
+        movesPlayed = 0;
+        retractions = 0;
+        chats = 0;
+        defeats = 0;
+        scheduler = null;
+        thinkMillis = 0;
+        retractRate = 0;
+        chatRate = 0;
+        defeatRate = 0;
+        generation = 0;
+        retracting = false;
+        requestedCell = -1;
+        requestNanos = 0;
+        moveLatency = new LatencyHistogram();
+    }
+    
+    
+    /**
+     * 设置思考时间，需在 start 之前调用。
+     *
+     * @param scheduler   等待思考时间的定时器，可以被多个机器人共用。
+     * @param thinkMillis 平均思考时间（毫秒）
+     */
+    public void setThinkTime(ScheduledExecutorService scheduler, long thinkMillis) {
+        this.scheduler = scheduler;
+        this.thinkMillis = thinkMillis;
+    }
+    
+    
+    /**
+     * 设置轮到本方落子时各动作的概率，需在 start 之前调用。
+     *
+     * @param retractRate 请求悔棋的概率
+     * @param chatRate    落子时附带聊天消息的概率
+     * @param defeatRate  认输的概率
+     */
+    public void setActionRates(double retractRate, double chatRate, double defeatRate) {
+        this.retractRate = retractRate;
+        this.chatRate = chatRate;
+        this.defeatRate = defeatRate;
+    }
+    
+    
+    /**
+     * 进入大厅并请求新游戏，配对前的请求由 server 暂存，配对后提交给房间。
+     */
+    public void start() {
+        client.start(this);
+        client.inquireToNewGame();
+    }
+    
+    
+    /**
+     * 等待直到下完指定局数或连接断开
+     */
+    public void awaitFinished() throws InterruptedException {
+        finished.await();
+    }
+    
+    
+    public boolean isFinished() {
+        return finished.getCount() == 0;
+    }
+    
+    
+    /**
+     * 是否已在 server 配对进入房间（收到过 NEW_GAME 或 STATE_SYNC）
+     */
+    public boolean isPaired() {
+        return paired;
+    }
+    
+    
+    public GameClient getClient() {
+        return client;
+    }
+    
+    
+    public int getGamesPlayed() {
+        return gamesPlayed;
+    }
+    
+    
+    public int getWins() {
+        return wins;
+    }
+    
+    
+    public int getDraws() {
+        return draws;
+    }
+    
+    
+    public int getMovesPlayed() {
+        return movesPlayed;
+    }
+    
+    
+    public int getRetractions() {
+        return retractions;
+    }
+    
+    
+    public int getChats() {
+        return chats;
+    }
+    
+    
+    public int getDefeats() {
+        return defeats;
+    }
+    
+    
+    /**
+     * 获取落子往返延迟的直方图，在 awaitFinished 返回后读取。
+     */
+    public LatencyHistogram getMoveLatency() {
+        return moveLatency;
+    }
+    
+    
+    private boolean wantsMoreGames() {
+        return (maxGames == 0 || gamesPlayed < maxGames);
+    }
+    
+    
+    /**
+     * 对局状态变化后，若轮到本方行动，等待思考时间后行动。
+     */
+    private void play() {
+        int currentGeneration = ++generation;
+        if (!board.isGameStarted() || retracting || !isMyTurn())
+            return;
+        if (scheduler == null || thinkMillis <= 0)
+            act();
+        else {
+            long delay = (long) (random.nextDouble() * 2 * thinkMillis);
+            scheduler.schedule(() -> client.execute(() -> {
+                if (generation == currentGeneration)
+                    act();
+            }), delay, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    
+    /**
+     * 是否轮到本方：需要选择执子颜色时由 GameClient 给出的玩家选择，否则按落子顺序。
+     */
+    private boolean isMyTurn() {
+        if (client.getColorChooserNumber() != 0)
+            return (client.getColorChooserNumber() == playerNumber);
+        return (board.getNextPlayerNumber() == playerNumber);
+    }
+    
+    
+    private void act() {
+        if (client.getColorChooserNumber() != 0) {
+            client.choosePlayerColor(random.nextInt(continueAllowed ? 3 : 2)); // 0 执黑 1 执白 2 继续
+            return;
+        }
+        if (defeatRate > 0 && random.nextDouble() < defeatRate) {
+            ++defeats;
+            client.admitDefeat();
+            return;
+        }
+        if (retractRate > 0 && board.canRetractStone() && random.nextDouble() < retractRate) {
+            ++retractions;
+            retracting = true;
+            client.inquireToRetractStone();
+            return;
+        }
+        int cell = engine.chooseMove(board);
+        if (cell < 0)
+            return;
+        if (chatRate > 0 && random.nextDouble() < chatRate) {
+            ++chats;
+            client.sendChatText(CHAT_TEXT);
+        }
+        ++movesPlayed;
+        requestedCell = cell;
+        requestNanos = System.nanoTime();
+        client.inquireToPutStone(GameRecord.cellI(cell), GameRecord.cellJ(cell));
+    }
+    
+    
+    @Override
+    public void onNewGame(int playerNumber) {
+        paired = true;
+        this.playerNumber = playerNumber;
+        board.newGame();
+        retracting = false;
+        requestedCell = -1;
+        play();
+    }
+    
+    
+    @Override
+    public boolean onInquireToNewGame() {
+        return (!board.isGameStarted() && wantsMoreGames());
+    }
+    
+    
+    @Override
+    public void onRejectToNewGame() {
+    }
+    
+    
+    @Override
+    public void onGameOver(int winnerNumber, List<Integer> indexOfRowStones, List<Stone> rowStones) {
+        board.reset();
+        ++generation;
+        retracting = false;
+        if (winnerNumber == playerNumber)
+            ++wins;
+        else if (winnerNumber == 0)
+            ++draws;
+        ++gamesPlayed;
+        if (wantsMoreGames())
+            client.inquireToNewGame();
+        else
+            finished.countDown();
+    }
+    
+    
+    @Override
+    public void onPutStone(Stone stone, Stone previousStone, int historySize) {
+        if (GameRecord.cellIndex(stone.getI(), stone.getJ()) == requestedCell) {
+            moveLatency.record(System.nanoTime() - requestNanos);
+            requestedCell = -1;
+        }
+        try {
+            board.putStone(stone.getI(), stone.getJ());
+        }
+        catch (GameNotStartedException | BadInputStoneException e) {
+            return;
+        }
+        board.getIndexOfRowStones(); // 成五时结束本地对局，等待 server 的 GAME_OVER。
+        if (client.getColorChooserNumber() == 0) // 需要选择执子颜色时在 onChoosePlayerColor 中行动
+            play();
+    }
+    
+    
+    @Override
+    public void onRetractStone(Stone stone, Stone previousStone, int historySize) {
+        onRetractTo(null, previousStone, historySize);
+    }
+    
+    
+    @Override
+    public void onRetractTo(List<Stone> retractedStones, Stone previousStone, int historySize) {
+        retracting = false;
+        try {
+            board.retractTo(historySize);
+        }
+        catch (GameNotStartedException | EmptyStackException e) {
+            return;
+        }
+        play();
+    }
+    
+    
+    @Override
+    public boolean onInquireToRetractStone() {
+        return true;
+    }
+    
+    
+    @Override
+    public boolean onInquireToRetractTo(int historySize) {
+        return true;
+    }
+    
+    
+    @Override
+    public void onRejectToRetractStone() {
+        retracting = false;
+        play();
+    }
+    
+    
+    @Override
+    public void onSetPlayerColor(StoneType playerStoneType, int presetStoneNumber) {
+        if (playerStoneType != StoneType.SPACE) {
+            StoneType otherStoneType = (playerStoneType == StoneType.BLACK ? StoneType.WHITE : StoneType.BLACK);
+            board.choosePlayer1Color(playerNumber == 1 ? playerStoneType : otherStoneType);
+        }
+        play();
+    }
+    
+    
+    @Override
+    public void onChoosePlayerColor(int playerNumber, boolean continueAllowed) {
+        this.continueAllowed = continueAllowed;
+        play();
+    }
+    
+    
+    @Override
+    public void onChatText(String chatText) {
+    }
+    
+    
+    @Override
+    public void onStateSync(int playerNumber, boolean gameStarted, StoneType playerStoneType, int presetStoneNumber,
+                            List<Stone> history, long gameMillis) {
+        paired = true;
+        this.playerNumber = playerNumber;
+        board.newGame();
+        retracting = false;
+        requestedCell = -1;
+        try {
+            for (int index = 0; index < history.size(); ++index) {
+                if (index == presetStoneNumber && playerStoneType != StoneType.SPACE) {
+                    StoneType otherStoneType = (playerStoneType == StoneType.BLACK ? StoneType.WHITE : StoneType.BLACK);
+                    board.choosePlayer1Color(playerNumber == 1 ? playerStoneType : otherStoneType);
+                }
+                board.putStone(history.get(index).getI(), history.get(index).getJ());
+            }
+        }
+        catch (GameNotStartedException | BadInputStoneException e) {
+            board.reset();
+            return;
+        }
+        if (!gameStarted) {
+            board.reset();
+            return;
+        }
+        if (playerStoneType != StoneType.SPACE && !board.isPlayerColorChosen()) {
+            StoneType otherStoneType = (playerStoneType == StoneType.BLACK ? StoneType.WHITE : StoneType.BLACK);
+            board.choosePlayer1Color(playerNumber == 1 ? playerStoneType : otherStoneType);
+        }
+        if (client.getColorChooserNumber() == 0) // 需要选择执子颜色时在 onChoosePlayerColor 中行动
+            play();
+    }
+    
+    
+    @Override
+    public void onClockSync(ClockState clock) {
+    }
+    
+    
+    @Override
+    public void onClose() {
+        finished.countDown();
+    }
+}
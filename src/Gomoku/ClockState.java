@@ -0,0 +1,62 @@
+package Gomoku;
+
+/**
+ * server 发给 client 的计时状态（不可变）
+ * 每方的剩余时间是当前阶段的剩余时间：总时间未用完时为总时间的剩余，读秒时为本次读秒的剩余。
+ * 线路上占 16 个字节（见 AbstractSocket.packClockSync），单独作为 CLOCK_SYNC 发送，或附在 PUT_STONE 和 STATE_SYNC 之后。
+ */
+public final class ClockState {
+    public static final int LENGTH = 16; // 编码后的字节数
+    
+    private final int turnPlayerNumber; // 正在计时的玩家号，没有计时的时候为 0。
+    private final boolean running; // 是否正在计时，等待对方回答请求时暂停。
+    private final long gameMillis; // 游戏已进行的时间
+    private final long[] remainingMillis; // 下标为玩家号
+    private final int[] periods; // 剩余的读秒次数
+    private final boolean[] overtime; // 是否已进入读秒
+    
+    
+    public ClockState(int turnPlayerNumber, boolean running, long gameMillis,
+                      long player1RemainingMillis, int player1Periods, boolean player1Overtime,
+                      long player2RemainingMillis, int player2Periods, boolean player2Overtime) {
+        this.turnPlayerNumber = turnPlayerNumber;
+        this.running = running;
+        this.gameMillis = gameMillis;
+        remainingMillis = new long[]{0, player1RemainingMillis, player2RemainingMillis};
+        periods = new int[]{0, player1Periods, player2Periods};
+        overtime = new boolean[]{false, player1Overtime, player2Overtime};
+    }
+    
+    
+    public int getTurnPlayerNumber() {
+        return turnPlayerNumber;
+    }
+    
+    
+    public boolean isRunning() {
+        return running;
+    }
+    
+    
+    public long getGameMillis() {
+        return gameMillis;
+    }
+    
+    
+    /**
+     * @param playerNumber 玩家号（1 或 2）
+     */
+    public long getRemainingMillis(int playerNumber) {
+        return remainingMillis[playerNumber];
+    }
+    
+    
+    public int getPeriods(int playerNumber) {
+        return periods[playerNumber];
+    }
+    
+    
+    public boolean isOvertime(int playerNumber) {
+        return overtime[playerNumber];
+    }
+}
@@ -0,0 +1,153 @@
+package Gomoku;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * server 端的 client 连接
+ * 连接上的每个会话对应一个座位（Seat），各自在大厅中配对后加入房间。
+ */
+public abstract class Connection {
+    public static final int MAX_QUEUED_BYTES = 1 << 20; // 每个连接待发送的字节数上限，client 不读取导致超过时关闭连接。
+    
+    private static final AtomicInteger nextConnectionId = new AtomicInteger(1);
+    
+    private final int connectionId; // 连接编号，按连接建立的顺序递增，用于跟踪记录。
+    private final ConcurrentHashMap<Integer, Seat> seats; // 会话编号到座位的映射
+    private volatile long pingSentNanos; // 最近一次 PING 的发送时间，PONG 必须带回这个值。
+    private volatile long rttNanos; // 平滑后的往返时间，尚未测量时为 -1。
+    private volatile long lastReceivedNanos; // 最近一次收到报文的时间，用于回收空闲的连接。
+    
+    
+    protected Connection() {
+        connectionId = nextConnectionId.getAndIncrement();
+        seats = new ConcurrentHashMap<Integer, Seat>();
+        pingSentNanos = -1;
+        rttNanos = -1;
+        lastReceivedNanos = System.nanoTime();
+    }
+    
+    
+    public int getConnectionId() {
+        return connectionId;
+    }
+    
+    
+    /**
+     * 获取会话对应的座位
+     *
+     * @param sessionId 会话编号
+     *
+     * @return 座位，会话尚未加入大厅时为 null。
+     */
+    public Seat getSeat(int sessionId) {
+        return seats.get(sessionId);
+    }
+    
+    
+    /**
+     * 添加座位
+     *
+     * @return 是否添加成功，会话已有座位时失败。
+     */
+    public boolean addSeat(Seat seat) {
+        return seats.putIfAbsent(seat.getSessionId(), seat) == null;
+    }
+    
+    
+    /**
+     * 移除座位
+     *
+     * @return 是否移除成功，会话的座位已不是 seat 时失败。
+     */
+    public boolean removeSeat(Seat seat) {
+        return seats.remove(seat.getSessionId(), seat);
+    }
+    
+    
+    public Collection<Seat> getSeats() {
+        return seats.values();
+    }
+    
+    
+    /**
+     * 记录收到报文的时间，任何报文（包括 PONG）都说明连接仍然存活。
+     */
+    public void onReceived(long now) {
+        lastReceivedNanos = now;
+    }
+    
+    
+    /**
+     * 距离最近一次收到报文的时间
+     */
+    public long getIdleNanos(long now) {
+        return now - lastReceivedNanos;
+    }
+    
+    
+    /**
+     * 记录发送 PING 的时间
+     */
+    public void onPingSent(long sentNanos) {
+        pingSentNanos = sentNanos;
+    }
+    
+    
+    /**
+     * 收到 PONG，按 TCP 的方式平滑往返时间（新样本的权重为 1/8）。
+     * 带回的时间不是最近一次 PING 的发送时间时忽略，client 不能伪造时间戳；但仍可以故意推迟 PONG 拉长往返时间，
+     * 因此每手的延迟补偿最多只有 Room.MAX_LAG_CREDIT_MILLIS。
+     *
+     * @param sentNanos PONG 带回的发送时间
+     * @param now       收到 PONG 的时间
+     */
+    public void onPong(long sentNanos, long now) {
+        if (sentNanos != pingSentNanos)
+            return;
+        pingSentNanos = -1;
+        long sample = now - sentNanos;
+        long rtt = rttNanos;
+        rttNanos = (rtt < 0 ? sample : rtt + (sample - rtt) / 8);
+    }
+    
+    
+    /**
+     * 获取平滑后的往返时间，尚未测量时为 0。
+     */
+    public long getRttNanos() {
+        return Math.max(0, rttNanos);
+    }
+    
+    
+    /**
+     * 获取与 client 协商的协议版本，旧版 client 不认识的报文只发给新版 client。
+     */
+    public int getVersion() {
+        return WireCodec.MAX_VERSION;
+    }
+    
+    
+    /**
+     * 开始接收报文
+     */
+    public abstract void start();
+    
+    
+    /**
+     * 向 client 发送报文（可被任意线程调用）
+     *
+     * @param message 待发送的报文
+     */
+    public abstract void send(byte[] message);
+    
+    
+    /**
+     * 关闭连接
+     */
+    public abstract void close();
+    
+    
+    public abstract boolean isClosed();
+}
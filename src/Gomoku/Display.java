@@ -67,7 +67,7 @@ public class Display extends JPanel {
         boardCenterY = stoneCenterY[8];
         
         timerPanel = new TimerPanel();
-        countDownPanel = new CountDownPanel(this);
+        countDownPanel = new CountDownPanel();
         timeManager = new TimeManager(countDownPanel, timerPanel);
         
         initLayout();
@@ -156,52 +156,31 @@ public class Display extends JPanel {
     
     
     /**
-     * 选择执子颜色
-     */
-    public void choosePlayerColor() {
-        timeManager.onDialog();
-        if (getHistorySize() == 3) {
-            String message = (playerNumber == 2 ? "本方" : "对方") + "玩家选择执子颜色";
-            messageLabel.setText(message);
-            if (playerNumber == 2) {
-                String[] options = {"执黑", "执白", "继续"};
-                int state = JOptionPane.showOptionDialog(this,
-                                                         message,
-                                                         "",
-                                                         JOptionPane.YES_NO_CANCEL_OPTION,
-                                                         JOptionPane.QUESTION_MESSAGE,
-                                                         null,
-                                                         options,
-                                                         options[0]);
-                /**
-                 * 向 server 发送按键选择
-                 * @messageType CHOOSE_PLAYER_COLOR
-                 * @arg state 按键选择
-                 */
-                client.choosePlayerColor(state);
-            }
-        }
-        else if (!isPlayerColorChosen() && getHistorySize() == 5) {
-            String message = (playerNumber == 1 ? "本方" : "对方") + "玩家选择执子颜色";
-            messageLabel.setText(message);
-            if (playerNumber == 1) {
-                String[] options = {"执黑", "执白"};
-                int state = JOptionPane.showOptionDialog(this,
-                                                         message,
-                                                         "",
-                                                         JOptionPane.YES_NO_OPTION,
-                                                         JOptionPane.QUESTION_MESSAGE,
-                                                         null,
-                                                         options,
-                                                         options[0]);
-                /**
-                 * 向 server 发送按键选择
-                 * @messageType CHOOSE_PLAYER_COLOR
-                 * @arg state 按键选择
-                 */
-                client.choosePlayerColor(state);
-            }
-        }
+     * 选择执子颜色，轮到本方选择时弹出对话框。
+     *
+     * @param choosingPlayerNumber 选择执子颜色的玩家号
+     * @param continueAllowed      是否可以选择继续落子
+     */
+    public void choosePlayerColor(int choosingPlayerNumber, boolean continueAllowed) {
+        String message = (choosingPlayerNumber == playerNumber ? "本方" : "对方") + "玩家选择执子颜色";
+        messageLabel.setText(message);
+        if (choosingPlayerNumber != playerNumber)
+            return;
+        String[] options = (continueAllowed ? new String[]{"执黑", "执白", "继续"} : new String[]{"执黑", "执白"});
+        int state = JOptionPane.showOptionDialog(this,
+                                                 message,
+                                                 "",
+                                                 (continueAllowed ? JOptionPane.YES_NO_CANCEL_OPTION : JOptionPane.YES_NO_OPTION),
+                                                 JOptionPane.QUESTION_MESSAGE,
+                                                 null,
+                                                 options,
+                                                 options[0]);
+        /**
+         * 向 server 发送按键选择
+         * @messageType CHOOSE_PLAYER_COLOR
+         * @arg state 按键选择
+         */
+        client.choosePlayerColor(state);
     }
     
     
@@ -213,15 +192,12 @@ public class Display extends JPanel {
      * @param historySize   落子完成后棋盘上的棋子数
      */
     public void putStone(Stone stone, Stone previousStone, int historySize) {
-        timeManager.onPutStone();
         Graphics2D g2D = (Graphics2D) getGraphics();
         if (previousStone != null)
             paintStoneWithIndex(g2D, previousStone, historySize - 2, false);
         paintStoneWithIndex(g2D, stone, historySize - 1, true);
         setHistorySize(historySize);
-        if (!isPlayerColorChosen())
-            choosePlayerColor();
-        else
+        if (isPlayerColorChosen()) // 没有选择颜色时等待 choosePlayerColor
             paintPlayer(g2D);
     }
     
@@ -234,7 +210,6 @@ public class Display extends JPanel {
      * @param historySize   悔棋完成后棋盘上的棋子数
      */
     public void retractStone(Stone stone, Stone previousStone, int historySize) {
-        timeManager.onRetractStone();
         Graphics2D g2D = (Graphics2D) getGraphics();
         eraseStone(g2D, stone.getI(), stone.getJ());
         paintStoneIndex(g2D, previousStone, historySize - 1, true);
@@ -243,6 +218,63 @@ public class Display extends JPanel {
     }
     
     
+    /**
+     * 一次悔棋至指定手数，所有被移走的棋子在一次绘制中擦除。
+     *
+     * @param retractedStones 被移走的 stone，按从后往前的顺序。
+     * @param previousStone   悔棋完成后的最后一个 stone
+     * @param historySize     悔棋完成后棋盘上的棋子数
+     */
+    public void retractTo(List<Stone> retractedStones, Stone previousStone, int historySize) {
+        Graphics2D g2D = (Graphics2D) getGraphics();
+        for (Stone stone : retractedStones)
+            eraseStone(g2D, stone.getI(), stone.getJ());
+        paintStoneIndex(g2D, previousStone, historySize - 1, true);
+        setHistorySize(historySize);
+        paintPlayer(g2D);
+    }
+    
+    
+    /**
+     * 按 server 发来的完整对局状态重建界面，所有棋子在一次绘制中画出。
+     *
+     * @param playerNumber      本方玩家号
+     * @param gameStarted       游戏是否正在进行
+     * @param playerStoneType   本方执子颜色
+     * @param presetStoneNumber 预先放置的棋子数
+     * @param history           棋盘上的棋子
+     * @param gameMillis        游戏已进行的时间（毫秒）
+     */
+    public void syncState(int playerNumber, boolean gameStarted, StoneType playerStoneType, int presetStoneNumber,
+                          List<Stone> history, long gameMillis) {
+        reset();
+        this.playerNumber = playerNumber;
+        this.playerStoneType = playerStoneType;
+        this.presetStoneNumber = presetStoneNumber;
+        Graphics2D g2D = (Graphics2D) getGraphics();
+        paintBoard(g2D);
+        int historySize = history.size();
+        for (int index = 0; index < historySize; ++index)
+            paintStoneWithIndex(g2D, history.get(index), index, index == historySize - 1);
+        setHistorySize(historySize);
+        if (!gameStarted)
+            return;
+        gameStartedChangeSupport.setValue(true);
+        paintPlayer(g2D);
+        timeManager.onSync(gameMillis);
+    }
+    
+    
+    /**
+     * 按 server 发来的计时状态显示回合倒计时
+     *
+     * @param clock 计时状态
+     */
+    public void syncClock(ClockState clock) {
+        timeManager.onClockSync(clock);
+    }
+    
+    
     /**
      * 向 server 请求落子
      *
@@ -295,7 +327,6 @@ public class Display extends JPanel {
         this.playerStoneType = playerStoneType;
         this.presetStoneNumber = presetStoneNumber;
         paintPlayer((Graphics2D) getGraphics());
-        timeManager.onDialogClose();
         if (isPlayerColorChosen())
             JOptionPane.showMessageDialog(this, "本方执" + (playerStoneType == StoneType.BLACK ? "黑" : "白") + " 对方执" + (playerStoneType == StoneType.BLACK ? "白" : "黑"), "", JOptionPane.INFORMATION_MESSAGE);
     }
@@ -0,0 +1,17 @@
+package Gomoku;
+
+/**
+ * 落子引擎
+ * 根据棋盘选择下一手的位置，供机器人 client、自对弈等不依赖界面的场合使用。
+ * 落子位置的编码见 GameRecord.cellIndex，与 RETRACT_TO 报文和棋谱库中的格点编码相同。
+ */
+public interface Engine {
+    /**
+     * 选择下一手的位置，轮到 board.getNextStoneType() 一方落子。
+     *
+     * @param board 当前棋盘，不会被修改。
+     *
+     * @return 落子位置的编码，棋盘已满时为 -1。
+     */
+    int chooseMove(Board board);
+}
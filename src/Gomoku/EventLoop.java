@@ -0,0 +1,113 @@
+package Gomoku;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * NIO 事件循环
+ * 每个事件循环线程拥有一个 Selector，复用大量 client 连接的读写事件。
+ */
+public class EventLoop implements Runnable {
+    public static final int READ_BUFFER_SIZE = 64 * 1024; // 读缓冲区大小，由同一事件循环上的所有连接共享。
+    
+    private final Selector selector;
+    private final ByteBuffer readBuffer;
+    private final ConcurrentLinkedQueue<Runnable> tasks; // 由其他线程提交、在事件循环线程上执行的任务
+    private final AtomicBoolean wakeupPending; // 是否已唤醒 Selector，避免重复唤醒。
+    private final Thread thread;
+    
+    
+    public EventLoop(String name) throws IOException {
+        selector = Selector.open();
+        readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        tasks = new ConcurrentLinkedQueue<Runnable>();
+        wakeupPending = new AtomicBoolean(false);
+        thread = new Thread(this, name);
+    }
+    
+    
+    public void start() {
+        thread.start();
+    }
+    
+    
+    /**
+     * 当前线程是否是事件循环线程
+     */
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+    
+    
+    /**
+     * 在事件循环线程上执行任务
+     *
+     * @param task 待执行的任务
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (!inEventLoop() && wakeupPending.compareAndSet(false, true))
+            selector.wakeup();
+    }
+    
+    
+    /**
+     * 将连接注册到 Selector 上
+     *
+     * @param connection 待注册的连接
+     */
+    public void register(NioConnection connection) {
+        execute(() -> {
+            try {
+                SelectionKey key = connection.getChannel().register(selector, SelectionKey.OP_READ, connection);
+                connection.setSelectionKey(key);
+            }
+            catch (IOException e) {
+                connection.close();
+            }
+        });
+    }
+    
+    
+    @Override
+    public void run() {
+        while (selector.isOpen()) {
+            try {
+                selector.select();
+            }
+            catch (IOException e) {
+                break;
+            }
+            wakeupPending.set(false);
+            runTasks();
+            Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+            while (iterator.hasNext()) {
+                SelectionKey key = iterator.next();
+                iterator.remove();
+                NioConnection connection = (NioConnection) key.attachment();
+                try {
+                    if (key.isValid() && key.isReadable())
+                        connection.onReadable(readBuffer);
+                    if (key.isValid() && key.isWritable())
+                        connection.flush();
+                }
+                catch (RuntimeException e) { // 一个连接的异常报文不能结束整个事件循环
+                    System.err.println("event loop: connection " + connection.getConnectionId() + ": " + e);
+                    connection.close();
+                }
+            }
+        }
+    }
+    
+    
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null)
+            task.run();
+    }
+}
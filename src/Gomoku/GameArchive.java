@@ -0,0 +1,635 @@
+package Gomoku;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * 棋谱库：保存所有已结束的对局，并按局面索引
+ * <pre>
+ * 对局按 GameRecord 的编码追加到段文件（games-段.gma），写满 segmentSize 后换下一段。对局的地址为 段号 << 32 | 段内偏移，可以直接读取。
+ * 局面索引是对局中每一手之后的局面的 Zobrist 散列到对局地址的映射，分为内存中的缓冲和磁盘上按散列排序的若干段（positions-层-编号.idx，每项 16 字节）：
+ * 缓冲满 runEntries 项时排序写成第 0 层的一段；某层积累 MERGE_FAN_IN 段时由后台线程归并为上一层的一段，段数只随总量对数增长。
+ * 每段在内存中保留每 BLOCK_ENTRIES 项的第一个散列，查询在内存中定位后每段只读一个块，数千万局、数十亿个局面也能在毫秒级返回。
+ * positions.mark 记录已写入索引段的对局的结束地址，打开时重新索引之后的对局，段文件末尾不完整的对局被截断。
+ * </pre>
+ * server 的房间用 submit 提交对局，由单独的线程写入，不阻塞房间的工作线程；导入等批量写入直接调用 append。
+ * 写入的对局只保证在进程崩溃时不丢失已 flush 的部分，不主动写盘。
+ */
+public class GameArchive implements Closeable {
+    /**
+     * 遍历对局
+     */
+    public interface Visitor {
+        /**
+         * @param address 对局的地址
+         * @param record  对局
+         */
+        void visit(long address, GameRecord record);
+    }
+    
+    
+    public static final long DEFAULT_SEGMENT_SIZE = 1L << 30; // 每段对局文件的大小上限
+    public static final int DEFAULT_RUN_ENTRIES = 1 << 20; // 内存中的索引缓冲满这么多项时写成一段
+    private static final int MERGE_FAN_IN = 4; // 每层积累这么多段时归并
+    private static final int BLOCK_ENTRIES = 4096; // 索引段的块大小（项）
+    private static final int INDEX_ENTRY_LENGTH = 16; // [散列 8][对局地址 8]
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+    
+    private final Path directory;
+    private final long segmentSize;
+    private final int runEntries;
+    private final List<FileChannel> segments; // 下标为段号
+    private final ByteBuffer writeBuffer; // 尚未写入当前段的对局
+    private long segmentLength; // 当前段已写入文件的长度
+    private long indexedAddress; // 已加入索引（缓冲或索引段）的对局的结束地址
+    private final long[] pendingEntries; // 内存中的索引缓冲，[散列, 地址] 交替排列。
+    private int pendingCount;
+    private final List<IndexRun> runs;
+    private int nextRunNumber;
+    private final ByteBuffer blockBuffer; // 查询时读取索引段的块
+    private final ExecutorService writer; // 写入 server 提交的对局
+    private final AtomicInteger submitted; // 已提交尚未写入的对局数
+    private final Thread merger;
+    private volatile boolean closed;
+    
+    
+    public GameArchive(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_RUN_ENTRIES);
+    }
+    
+    
+    /**
+     * 打开棋谱库，目录不存在时创建。
+     *
+     * @param segmentSize 每段对局文件的大小上限
+     * @param runEntries  内存中的索引缓冲的大小（项）
+     */
+    public GameArchive(Path directory, long segmentSize, int runEntries) throws IOException {
+        Files.createDirectories(directory);
+        this.directory = directory;
+        this.segmentSize = Math.min(segmentSize, 1L << 32);
+        this.runEntries = Math.max(1, runEntries);
+        segments = new ArrayList<FileChannel>();
+        writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+        pendingEntries = new long[2 * this.runEntries];
+        pendingCount = 0;
+        runs = new ArrayList<IndexRun>();
+        nextRunNumber = 0;
+        blockBuffer = ByteBuffer.allocate(BLOCK_ENTRIES * INDEX_ENTRY_LENGTH);
+        submitted = new AtomicInteger(0);
+        closed = false;
+        for (Path file : list("games-\\d{6}\\.gma"))
+            segments.add(FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE));
+        if (segments.isEmpty())
+            openSegment();
+        segmentLength = segments.get(segments.size() - 1).size();
+        for (Path file : list("positions-\\d{2}-\\d{6}\\.idx.tmp"))
+            Files.delete(file); // 上次运行未完成的归并
+        for (Path file : list("positions-\\d{2}-\\d{6}\\.idx")) {
+            String name = file.getFileName().toString();
+            runs.add(IndexRun.open(file, Integer.parseInt(name.substring(10, 12))));
+            nextRunNumber = Math.max(nextRunNumber, Integer.parseInt(name.substring(13, 19)) + 1);
+        }
+        Path mark = directory.resolve("positions.mark");
+        indexedAddress = (Files.exists(mark) ? Long.parseLong(Files.readString(mark).trim()) : 0);
+        recover();
+        writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "game-archive");
+            thread.setDaemon(true);
+            return thread;
+        });
+        merger = new Thread(this::mergeLoop, "game-archive-merge");
+        merger.setDaemon(true);
+        merger.start();
+    }
+    
+    
+    private List<Path> list(String pattern) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> matched = new ArrayList<Path>();
+            files.filter(file -> file.getFileName().toString().matches(pattern)).forEach(matched::add);
+            matched.sort(null);
+            return matched;
+        }
+    }
+    
+    
+    private void openSegment() throws IOException {
+        Path file = directory.resolve(String.format("games-%06d.gma", segments.size()));
+        segments.add(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+        segmentLength = 0;
+    }
+    
+    
+    /**
+     * 重新索引 positions.mark 之后的对局，截断最后一段末尾不完整的对局。
+     */
+    private void recover() throws IOException {
+        long address = indexedAddress;
+        indexedAddress = 0;
+        long end;
+        try {
+            end = scan(address, (gameAddress, record) -> {
+                try {
+                    index(gameAddress, record);
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        int lastSegment = segments.size() - 1;
+        if ((int) (end >>> 32) == lastSegment && (end & 0xFFFFFFFFL) < segmentLength) {
+            segments.get(lastSegment).truncate(end & 0xFFFFFFFFL);
+            segmentLength = end & 0xFFFFFFFFL;
+        }
+        indexedAddress = Math.max(indexedAddress, address);
+    }
+    
+    
+    /**
+     * 由单独的线程追加对局，server 的房间在对局结束时调用。
+     */
+    public void submit(GameRecord record) {
+        submitted.incrementAndGet();
+        writer.execute(() -> {
+            try {
+                append(record);
+                if (submitted.decrementAndGet() == 0)
+                    flush(); // 没有更多等待写入的对局时写入文件
+            }
+            catch (IOException e) {
+                System.err.println("game archive: " + e);
+            }
+        });
+    }
+    
+    
+    /**
+     * 追加一局棋，并把每一手之后的局面加入索引。
+     *
+     * @return 对局的地址
+     */
+    public synchronized long append(GameRecord record) throws IOException {
+        int length = record.getEncodedLength();
+        if (segmentLength + writeBuffer.position() + length > segmentSize) {
+            flush();
+            openSegment();
+        }
+        else if (writeBuffer.remaining() < length)
+            flush();
+        long address = ((long) (segments.size() - 1) << 32) | (segmentLength + writeBuffer.position());
+        record.encode(writeBuffer);
+        index(address, record);
+        return address;
+    }
+    
+    
+    private void index(long address, GameRecord record) throws IOException {
+        long hash = 0;
+        for (int ply = 0; ply < record.getMoveCount(); ++ply) {
+            hash ^= Zobrist.key(record.getCell(ply), ply);
+            if (pendingCount == runEntries)
+                writeRun();
+            pendingEntries[2 * pendingCount] = hash;
+            pendingEntries[2 * pendingCount + 1] = address;
+            ++pendingCount;
+        }
+        indexedAddress = address + record.getEncodedLength();
+    }
+    
+    
+    /**
+     * 把缓冲中的对局写入文件
+     */
+    public synchronized void flush() throws IOException {
+        writeBuffer.flip();
+        FileChannel segment = segments.get(segments.size() - 1);
+        while (writeBuffer.hasRemaining())
+            segmentLength += segment.write(writeBuffer, segmentLength);
+        writeBuffer.clear();
+    }
+    
+    
+    /**
+     * 把内存中的索引缓冲排序后写成第 0 层的一段，再更新 positions.mark。
+     */
+    private void writeRun() throws IOException {
+        flush(); // 索引段引用的对局必须先写入文件
+        sort(pendingEntries, 0, pendingCount);
+        runs.add(IndexRun.write(directory, 0, nextRunNumber++, pendingEntries, pendingCount));
+        pendingCount = 0;
+        Path mark = directory.resolve("positions.mark"), temporary = directory.resolve("positions.mark.tmp");
+        Files.writeString(temporary, Long.toString(indexedAddress));
+        Files.move(temporary, mark, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        notifyAll(); // 唤醒归并线程
+    }
+    
+    
+    /**
+     * 查询到达过某个局面的对局
+     *
+     * @param positionHash 局面的 Zobrist 散列
+     * @param limit        最多返回的对局数
+     *
+     * @return 对局的地址，顺序不定。
+     */
+    public synchronized List<Long> findGames(long positionHash, int limit) throws IOException {
+        Set<Long> addresses = new LinkedHashSet<Long>(); // 归并中断时同一项可能出现在两段中
+        for (int index = 0; index < pendingCount && addresses.size() < limit; ++index) {
+            if (pendingEntries[2 * index] == positionHash)
+                addresses.add(pendingEntries[2 * index + 1]);
+        }
+        for (int index = runs.size() - 1; index >= 0 && addresses.size() < limit; --index)
+            runs.get(index).find(positionHash, addresses, limit, blockBuffer);
+        return new ArrayList<Long>(addresses);
+    }
+    
+    
+    /**
+     * 查询到达过棋盘当前局面的对局
+     */
+    public List<Long> findGames(Board board, int limit) throws IOException {
+        return findGames(Zobrist.hash(board), limit);
+    }
+    
+    
+    /**
+     * 读取一局棋
+     *
+     * @param address 对局的地址（append 或 findGames 的返回值）
+     */
+    public synchronized GameRecord read(long address) throws IOException {
+        int segment = (int) (address >>> 32);
+        long offset = address & 0xFFFFFFFFL;
+        if (segment == segments.size() - 1 && offset >= segmentLength)
+            flush();
+        ByteBuffer buffer = ByteBuffer.allocate(GameRecord.MAX_LENGTH);
+        FileChannel channel = segments.get(segment);
+        while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) > 0) {
+        }
+        buffer.flip();
+        return GameRecord.decode(buffer);
+    }
+    
+    
+    /**
+     * 按写入顺序遍历所有对局
+     */
+    public void forEach(Visitor visitor) throws IOException {
+        flush();
+        scan(0, visitor);
+    }
+    
+    
+    /**
+     * 从 address 开始按顺序读取对局，每段读到末尾或第一条损坏的对局为止。
+     *
+     * @return 最后一段读到的位置（地址）
+     */
+    private long scan(long address, Visitor visitor) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+        long end = address;
+        List<FileChannel> channels;
+        synchronized (this) {
+            channels = new ArrayList<FileChannel>(segments);
+        }
+        for (int segment = (int) (address >>> 32); segment < channels.size(); ++segment) {
+            FileChannel channel = channels.get(segment);
+            long offset = (segment == (int) (address >>> 32) ? address & 0xFFFFFFFFL : 0);
+            long size = channel.size();
+            buffer.clear().limit(0);
+            while (offset < size) {
+                if (buffer.remaining() < GameRecord.MAX_LENGTH) {
+                    buffer.compact();
+                    while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) > 0) {
+                    }
+                    buffer.flip();
+                }
+                if (buffer.remaining() < 2)
+                    break;
+                int length = buffer.getShort(buffer.position()) & 0xFFFF;
+                if (length < GameRecord.HEADER_LENGTH || length > buffer.remaining())
+                    break;
+                GameRecord record;
+                try {
+                    record = GameRecord.decode(buffer.slice(buffer.position(), length));
+                }
+                catch (IllegalArgumentException e) {
+                    break;
+                }
+                visitor.visit(((long) segment << 32) | offset, record);
+                buffer.position(buffer.position() + length);
+                offset += length;
+            }
+            end = ((long) segment << 32) | offset;
+        }
+        return end;
+    }
+    
+    
+    /**
+     * 后台归并：某层积累 MERGE_FAN_IN 段时归并为上一层的一段。归并时不持有锁，只在替换索引段时加锁。
+     */
+    private void mergeLoop() {
+        while (true) {
+            List<IndexRun> group = null;
+            int number;
+            synchronized (this) {
+                while (!closed && (group = findMergeGroup()) == null) {
+                    try {
+                        wait();
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed)
+                    return;
+                number = nextRunNumber++;
+            }
+            try {
+                IndexRun merged = IndexRun.merge(directory, group.get(0).level + 1, number, group);
+                synchronized (this) {
+                    runs.removeAll(group);
+                    runs.add(merged);
+                    for (IndexRun run : group)
+                        run.delete();
+                }
+            }
+            catch (IOException e) {
+                if (!closed) // 关闭时中断归并，临时文件在下次打开时删除。
+                    System.err.println("game archive merge: " + e);
+                return;
+            }
+        }
+    }
+    
+    
+    private List<IndexRun> findMergeGroup() {
+        for (IndexRun run : runs) {
+            List<IndexRun> group = new ArrayList<IndexRun>();
+            for (IndexRun other : runs) {
+                if (other.level == run.level)
+                    group.add(other);
+            }
+            if (group.size() >= MERGE_FAN_IN)
+                return group.subList(0, MERGE_FAN_IN);
+        }
+        return null;
+    }
+    
+    
+    /**
+     * 写入所有对局，把内存中的索引写成一段，停止后台线程。
+     */
+    @Override
+    public void close() throws IOException {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException ignored) {
+        }
+        synchronized (this) {
+            if (closed)
+                return;
+            if (pendingCount > 0)
+                writeRun();
+            flush();
+            closed = true;
+            notifyAll();
+        }
+        merger.interrupt();
+        try {
+            merger.join();
+        }
+        catch (InterruptedException ignored) {
+        }
+        synchronized (this) {
+            for (FileChannel segment : segments)
+                segment.close();
+            for (IndexRun run : runs)
+                run.channel.close();
+        }
+    }
+    
+    
+    /**
+     * 按散列对 [散列, 地址] 交替排列的项排序
+     *
+     * @param from 第一项
+     * @param to   最后一项之后
+     */
+    private static void sort(long[] entries, int from, int to) {
+        while (to - from > 16) {
+            long pivot = entries[2 * ((from + to) >>> 1)];
+            int i = from, j = to - 1;
+            while (i <= j) {
+                while (entries[2 * i] < pivot)
+                    ++i;
+                while (entries[2 * j] > pivot)
+                    --j;
+                if (i <= j)
+                    swap(entries, i++, j--);
+            }
+            if (j + 1 - from < to - i) { // 递归较短的一侧
+                sort(entries, from, j + 1);
+                from = i;
+            }
+            else {
+                sort(entries, i, to);
+                to = j + 1;
+            }
+        }
+        for (int i = from + 1; i < to; ++i) {
+            for (int j = i; j > from && entries[2 * j - 2] > entries[2 * j]; --j)
+                swap(entries, j - 1, j);
+        }
+    }
+    
+    
+    private static void swap(long[] entries, int i, int j) {
+        long hash = entries[2 * i], address = entries[2 * i + 1];
+        entries[2 * i] = entries[2 * j];
+        entries[2 * i + 1] = entries[2 * j + 1];
+        entries[2 * j] = hash;
+        entries[2 * j + 1] = address;
+    }
+    
+    
+    /**
+     * 磁盘上按散列排序的一段索引（写入后不再修改）
+     */
+    private static final class IndexRun {
+        final int level;
+        final Path file;
+        final FileChannel channel;
+        final long entryCount;
+        final long[] fences; // 每块第一项的散列
+        
+        
+        private IndexRun(int level, Path file, FileChannel channel, long entryCount, long[] fences) {
+            this.level = level;
+            this.file = file;
+            this.channel = channel;
+            this.entryCount = entryCount;
+            this.fences = fences;
+        }
+        
+        
+        static Path path(Path directory, int level, int number) {
+            return directory.resolve(String.format("positions-%02d-%06d.idx", level, number));
+        }
+        
+        
+        static IndexRun open(Path file, int level) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            long entryCount = channel.size() / INDEX_ENTRY_LENGTH;
+            long[] fences = new long[(int) ((entryCount + BLOCK_ENTRIES - 1) / BLOCK_ENTRIES)];
+            ByteBuffer hash = ByteBuffer.allocate(8);
+            for (int block = 0; block < fences.length; ++block) {
+                hash.clear();
+                channel.read(hash, (long) block * BLOCK_ENTRIES * INDEX_ENTRY_LENGTH);
+                fences[block] = hash.getLong(0);
+            }
+            return new IndexRun(level, file, channel, entryCount, fences);
+        }
+        
+        
+        /**
+         * 把已排序的项写成一段
+         */
+        static IndexRun write(Path directory, int level, int number, long[] entries, int count) throws IOException {
+            Path file = path(directory, level, number);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.allocate(BLOCK_ENTRIES * INDEX_ENTRY_LENGTH);
+                for (int index = 0; index < count; ++index) {
+                    buffer.putLong(entries[2 * index]).putLong(entries[2 * index + 1]);
+                    if (!buffer.hasRemaining() || index == count - 1) {
+                        buffer.flip();
+                        while (buffer.hasRemaining())
+                            channel.write(buffer);
+                        buffer.clear();
+                    }
+                }
+            }
+            return open(file, level);
+        }
+        
+        
+        /**
+         * 归并若干段为一段，先写入临时文件，完成后改名。
+         */
+        static IndexRun merge(Path directory, int level, int number, List<IndexRun> group) throws IOException {
+            Path file = path(directory, level, number), temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            DataInputStream[] inputs = new DataInputStream[group.size()];
+            long[] hashes = new long[group.size()], addresses = new long[group.size()];
+            boolean[] exhausted = new boolean[group.size()];
+            try (FileChannel output = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                for (int index = 0; index < inputs.length; ++index) {
+                    inputs[index] = new DataInputStream(new BufferedInputStream(Files.newInputStream(group.get(index).file), 1 << 16));
+                    exhausted[index] = !advance(inputs[index], hashes, addresses, index);
+                }
+                ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+                while (true) {
+                    int smallest = -1;
+                    for (int index = 0; index < inputs.length; ++index) {
+                        if (!exhausted[index] && (smallest < 0 || hashes[index] < hashes[smallest]))
+                            smallest = index;
+                    }
+                    if (smallest < 0 || !buffer.hasRemaining()) {
+                        buffer.flip();
+                        while (buffer.hasRemaining())
+                            output.write(buffer);
+                        buffer.clear();
+                        if (smallest < 0)
+                            break;
+                    }
+                    buffer.putLong(hashes[smallest]).putLong(addresses[smallest]);
+                    exhausted[smallest] = !advance(inputs[smallest], hashes, addresses, smallest);
+                }
+            }
+            finally {
+                for (DataInputStream input : inputs) {
+                    if (input != null)
+                        input.close();
+                }
+            }
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+            return open(file, level);
+        }
+        
+        
+        private static boolean advance(DataInputStream input, long[] hashes, long[] addresses, int index) throws IOException {
+            try {
+                hashes[index] = input.readLong();
+                addresses[index] = input.readLong();
+                return true;
+            }
+            catch (EOFException e) {
+                return false;
+            }
+        }
+        
+        
+        /**
+         * 查找散列为 hash 的项：在内存中按块的第一个散列定位，再按顺序读取块，直到散列大于 hash。
+         */
+        void find(long hash, Set<Long> addresses, int limit, ByteBuffer buffer) throws IOException {
+            int low = 0, high = fences.length; // 第一个散列不小于 hash 的块
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (fences[middle] < hash)
+                    low = middle + 1;
+                else
+                    high = middle;
+            }
+            for (int block = Math.max(0, low - 1); block < fences.length; ++block) {
+                buffer.clear();
+                long position = (long) block * BLOCK_ENTRIES * INDEX_ENTRY_LENGTH;
+                while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) > 0) {
+                }
+                buffer.flip();
+                while (buffer.remaining() >= INDEX_ENTRY_LENGTH) {
+                    long entryHash = buffer.getLong(), address = buffer.getLong();
+                    if (entryHash > hash)
+                        return;
+                    if (entryHash == hash) {
+                        addresses.add(address);
+                        if (addresses.size() >= limit)
+                            return;
+                    }
+                }
+            }
+        }
+        
+        
+        void delete() throws IOException {
+            channel.close();
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,513 @@
+package Gomoku;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 不依赖界面的 client 核心
+ * 负责协议的收发和报文解析，收到的报文解析后交给 GameListener，对方的请求按监听器的返回值回答。
+ * 报文在 RoomExecutor 的工作线程上按 client 编号分片处理，同一 client 的报文依次处理；
+ * 多个 client 可以共用一个 RoomExecutor，一个 JVM 中运行大量 client 时线程数不随 client 数增长。
+ */
+public class GameClient extends AbstractSocket {
+    private static final AtomicInteger nextClientKey = new AtomicInteger(0); // 在 RoomExecutor 中分片用的 client 编号
+    
+    private final SessionMultiplexer client;
+    private final RoomExecutor executor; // 处理报文的工作线程
+    private final int clientKey;
+    private GameListener listener;
+    private boolean playerColorChosen; // 本局是否已选择执子颜色
+    private boolean continued; // 玩家 2 在第三手后选择了继续
+    private int colorChooserNumber; // 正在选择执子颜色的玩家号，没有时为 0。
+    
+    
+    /**
+     * 连接断开后自动重连同一地址，并恢复对局。
+     */
+    public GameClient(Socket client) throws IOException {
+        this(new SessionMultiplexer(negotiate(new StreamTransport(client)),
+                                    () -> StreamTransport.connect(client.getRemoteSocketAddress(), WireCodec.HELLO_RESUMING)));
+    }
+    
+    
+    private static StreamTransport negotiate(StreamTransport transport) throws IOException {
+        transport.negotiate(0);
+        return transport;
+    }
+    
+    
+    public GameClient(Transport client) {
+        this(new SessionMultiplexer(client));
+    }
+    
+    
+    /**
+     * 使用单独的服务线程处理报文
+     *
+     * @param client 连接的会话复用器
+     */
+    public GameClient(SessionMultiplexer client) {
+        this(client, newServiceExecutor());
+    }
+    
+    
+    /**
+     * @param client   连接的会话复用器，可以与其他 client 共用一个连接。
+     * @param executor 处理报文的工作线程，可以与其他 client 共用，需已调用 start。
+     */
+    public GameClient(SessionMultiplexer client, RoomExecutor executor) {
+        this.client = client;
+        this.executor = executor;
+        clientKey = nextClientKey.getAndIncrement();
+        listener = null;
+        playerColorChosen = false;
+        continued = false;
+        colorChooserNumber = 0;
+    }
+    
+    
+    private static RoomExecutor newServiceExecutor() {
+        RoomExecutor executor = new RoomExecutor(1, "client-service");
+        executor.start();
+        return executor;
+    }
+    
+    
+    /**
+     * 设置监听器，并打开会话进入大厅，之后收到的报文交给监听器。
+     *
+     * @param listener 监听器
+     */
+    public void start(GameListener listener) {
+        this.listener = listener;
+        sessionId = client.openSession(new Transport.Listener() {
+            @Override
+            public void onMessage(byte[] message) {
+                executor.execute(clientKey, () -> handleMessage(message));
+            }
+            
+            
+            @Override
+            public void onClose() {
+                executor.execute(clientKey, listener::onClose);
+            }
+        });
+    }
+    
+    
+    /**
+     * 在处理本 client 报文的工作线程上执行任务，与监听器的回调不会并发执行。
+     *
+     * @param task 待执行的任务
+     */
+    public void execute(Runnable task) {
+        executor.execute(clientKey, task);
+    }
+    
+    
+    public void sendToServer(byte[] message) {
+        client.send(message);
+    }
+    
+    
+    /**
+     * server 向双方 client 发送新建游戏命令
+     *
+     * @param message 接收到的报文
+     *
+     * @implNote messageType = NEW_GAME
+     * @implNote server 不可能接收到这个消息
+     */
+    @Override
+    protected void handleNewGame(byte[] message) {
+        Object[] messageArgs = unpackNewGame(message);
+        int playerNumber = (Integer) messageArgs[0]; // 从 message 解析 playerNumber
+        playerColorChosen = false;
+        continued = false;
+        colorChooserNumber = 0;
+        listener.onNewGame(playerNumber);
+    }
+    
+    
+    /**
+     * client 请求新建游戏，server 直接转发对方 client。
+     * 由监听器决定是否开始。
+     * server 直接转发对方 client
+     *
+     * @param message 接收到的报文
+     *
+     * @implNote messageType = INQUIRE_TO_NEW_GAME
+     */
+    @Override
+    protected void handleInquireToNewGame(byte[] message) {
+        byte[] newMessage = packMessage(listener.onInquireToNewGame() ? ACCEPT_TO_NEW_GAME : REJECT_TO_NEW_GAME, null);
+        sendToServer(newMessage);
+    }
+    
+    
+    /**
+     * client 同意新建游戏，server 新建游戏，并向双方 client 发送新建游戏命令。
+     *
+     * @param message 接收到的报文
+     *
+     * @implNote messageType = ACCEPT_TO_NEW_GAME
+     * @implNote client 不可能接收到这个消息
+     */
+    @Override
+    protected void handleAcceptToNewGame(byte[] message) {
+    }
+    
+    
+    /**
+     * client 拒绝新建游戏，server 直接转发对方 client。
+     *
+     * @param message 接收到的报文
+     *
+     * @implNote messageType = REJECT_TO_NEW_GAME
+     */
+    @Override
+    protected void handleRejectToNewGame(byte[] message) {
+        listener.onRejectToNewGame();
+    }
+    
+    
+    /**
+     * server 向双方 client 发送游戏结束命令
+     *
+     * @param message 接收到的报文
+     *
+     * @implNote messageType = GAME_OVER
+     * @implNote server 不可能接收到这个消息
+     */
+    @Override
+    protected void handleGameOver(byte[] message) {
+        Object[] messageArgs = unpackGameOver(message);
+        int winnerNumber = (Integer) messageArgs[0]; // 从 message 解析 (winnerNumber, indexOfRowStones, rowStones)
+        List<Integer> indexOfRowStones = listArg(messageArgs[1]);
+        List<Stone> rowStones = listArg(messageArgs[2]);
+        colorChooserNumber = 0;
+        listener.onGameOver(winnerNumber, indexOfRowStones, rowStones);
+    }
+    
+    
+    /**
+     * client 认输，server 结束游戏，server 接收后向双方 client 发送游戏结束命令。
+     *
+     * @param message 接收到的报文
+     *
+     * @implNote messageType = ADMIT_DEFEAT
+     * @implNote client 不可能接收到这个消息
+     */
+    @Override
+    protected void handleAdmitDefeat(byte[] message) {
+    }
+    
+    
+    /**
+     * server 向双方 client 发送落子命令
+     *
+     * @param message 接收到的报文
+     *
+     * @implNote messageType = PUT_STONE
+     * @implNote server 不可能接收到这个消息
+     */
+    @Override
+    protected void handlePutStone(byte[] message) {
+        Object[] messageArgs = unpackPutStone(message);
+        Stone stone = (Stone) messageArgs[0]; // 从 message 解析 (stone, previousStone, historySize, clock)
+        Stone previousStone = (Stone) messageArgs[1];
+        int historySize = (Integer) messageArgs[2];
+        ClockState clock = (ClockState) messageArgs[3]; // 旧版 server 不附带计时状态
+        updateColorChooser(historySize);
+        listener.onPutStone(stone, previousStone, historySize);
+        if (colorChooserNumber != 0)
+            listener.onChoosePlayerColor(colorChooserNumber, historySize == 3);
+        if (clock != null)
+            listener.onClockSync(clock);
+    }
+    
+    
+    /**
+     * client 请求落子，server 进行处理，若可以落子则向双方 client 发送落子命令。
+     *
+     * @param message 接收到的报文
+     *
+     * @implNote messageType = INQUIRE_TO_PUT_STONE
+     * @implNote client 不可能接收到这个消息
+     */
+    @Override
+    protected void handleInquireToPutStone(byte[] message) {
+    }
+    
+    
+    /**
+     * server 向双方 client 发送悔棋命令
+     *
+     * @param message 接收到的报文
+     *
+     * @implNote messageType = RETRACT_STONE
+     * @implNote server 不可能接收到这个消息
+     */
+    @Override
+    protected void handleRetractStone(byte[] message) {
+        Object[] messageArgs = unpackRetractStone(message);
+        Stone stone = (Stone) messageArgs[0]; // 从 message 解析 (stone, previousStone, historySize)
+        Stone previousStone = (Stone) messageArgs[1];
+        int historySize = (Integer) messageArgs[2];
+        listener.onRetractStone(stone, previousStone, historySize);
+    }
+    
+    
+    /**
+     * client 请求悔棋，server 直接转发对方 client。
+     * 由监听器决定是否同意。
+     * server 直接转发对方 client
+     *
+     * @param message 报文
+     *
+     * @implNote messageType = INQUIRE_TO_RETRACT_STONE
+     */
+    @Override
+    protected void handleInquireToRetractStone(byte[] message) {
+        byte[] newMessage = packMessage(listener.onInquireToRetractStone() ? ACCEPT_TO_RETRACT_STONE : REJECT_TO_RETRACT_STONE, null);
+        sendToServer(newMessage);
+    }
+    
+    
+    /**
+     * client 同意悔棋，server 悔棋，并向双方 client 发送悔棋命令。
+     *
+     * @param message 接收到的报文
+     *
+     * @implNote messageType = ACCEPT_TO_RETRACT_STONE
+     * @implNote client 不可能接收到这个消息
+     */
+    @Override
+    protected void handleAcceptToRetractStone(byte[] message) {
+    }
+    
+    
+    /**
+     * client 拒绝悔棋，server 直接转发对方 client。
+     *
+     * @param message 接收到的报文
+     *
+     * @implNote messageType = REJECT_TO_RETRACT_STONE
+     */
+    @Override
+    protected void handleRejectToRetractStone(byte[] message) {
+        listener.onRejectToRetractStone();
+    }
+    
+    
+    /**
+     * client 选择执子颜色
+     *
+     * @param message 接收到的报文
+     *
+     * @implNote messageType = CHOOSE_PLAYER_COLOR
+     * @implNote client 不可能接收到这个消息
+     */
+    @Override
+    protected void handleChoosePlayerColor(byte[] message) {
+    }
+    
+    
+    /**
+     * server 指定玩家执子颜色
+     *
+     * @param message 接收到的报文
+     *
+     * @implNote messageType = SET_PLAYER_COLOR
+     * @implNote server 不可能接收到这个消息
+     */
+    @Override
+    protected void handleSetPlayerColor(byte[] message) {
+        Object[] messageArgs = unpackSetPlayerColor(message);
+        StoneType playerStoneType = (StoneType) messageArgs[0]; // 从 message 解析 (playerStoneType, playerNumber)
+        int presetStoneNumber = (Integer) messageArgs[1];
+        if (playerStoneType == StoneType.SPACE)
+            continued = true;
+        else
+            playerColorChosen = true;
+        colorChooserNumber = 0;
+        listener.onSetPlayerColor(playerStoneType, presetStoneNumber);
+    }
+    
+    
+    /**
+     * client 发送聊天消息，server 直接转发对方 client。
+     *
+     * @param message 接收到的报文
+     *
+     * @implNote messageType = CHAT_TEXT
+     */
+    @Override
+    protected void handleChatText(byte[] message) {
+        Object[] messageArgs = unpackChatText(message);
+        String chatText = (String) messageArgs[0]; // 从 message 解析 chatText
+        listener.onChatText(chatText);
+    }
+    
+    
+    /**
+     * server 向 client 发送完整的对局状态，client 据此重建棋盘。
+     *
+     * @param message 接收到的报文
+     *
+     * @implNote messageType = STATE_SYNC
+     * @implNote server 不可能接收到这个消息
+     */
+    @Override
+    protected void handleStateSync(byte[] message) {
+        Object[] messageArgs = unpackStateSync(message);
+        int playerNumber = (Integer) messageArgs[0]; // 从 message 解析 (playerNumber, gameStarted, playerStoneType, presetStoneNumber, history, gameMillis, clock)
+        boolean gameStarted = (Boolean) messageArgs[1];
+        StoneType playerStoneType = (StoneType) messageArgs[2];
+        int presetStoneNumber = (Integer) messageArgs[3];
+        List<Stone> history = listArg(messageArgs[4]);
+        long gameMillis = (Long) messageArgs[5];
+        ClockState clock = (ClockState) messageArgs[6];
+        playerColorChosen = (playerStoneType != StoneType.SPACE);
+        continued = (!playerColorChosen && history.size() > 3);
+        if (gameStarted)
+            updateColorChooser(history.size());
+        else
+            colorChooserNumber = 0;
+        listener.onStateSync(playerNumber, gameStarted, playerStoneType, presetStoneNumber, history, gameMillis);
+        if (clock != null)
+            listener.onClockSync(clock);
+        if (colorChooserNumber != 0)
+            listener.onChoosePlayerColor(colorChooserNumber, history.size() == 3);
+    }
+    
+    
+    /**
+     * client 请求悔棋至指定手数，server 直接转发对方 client。
+     * 由监听器决定是否同意。
+     *
+     * @param message 接收到的报文
+     *
+     * @implNote messageType = INQUIRE_TO_RETRACT_TO
+     */
+    @Override
+    protected void handleInquireToRetractTo(byte[] message) {
+        int historySize = (Integer) unpackInquireToRetractTo(message)[0]; // 从 message 解析 historySize
+        byte[] newMessage = packMessage(listener.onInquireToRetractTo(historySize) ? ACCEPT_TO_RETRACT_STONE : REJECT_TO_RETRACT_STONE, null);
+        sendToServer(newMessage);
+    }
+    
+    
+    /**
+     * server 向双方 client 发送悔棋至指定手数命令
+     *
+     * @param message 接收到的报文
+     *
+     * @implNote messageType = RETRACT_TO
+     * @implNote server 不可能接收到这个消息
+     */
+    @Override
+    protected void handleRetractTo(byte[] message) {
+        Object[] messageArgs = unpackRetractTo(message);
+        List<Stone> retractedStones = listArg(messageArgs[0]); // 从 message 解析 (retractedStones, previousStone, historySize)
+        Stone previousStone = (Stone) messageArgs[1];
+        int historySize = (Integer) messageArgs[2];
+        listener.onRetractTo(retractedStones, previousStone, historySize);
+    }
+    
+    
+    /**
+     * server 发送计时状态，交给监听器显示。
+     *
+     * @param message 接收到的报文
+     *
+     * @implNote messageType = CLOCK_SYNC
+     */
+    @Override
+    protected void handleClockSync(byte[] message) {
+        Object[] messageArgs = unpackClockSync(message);
+        ClockState clock = (ClockState) messageArgs[0]; // 从 message 解析 clock
+        listener.onClockSync(clock);
+    }
+    
+    
+    /**
+     * 按 Swap2 开局确定是否需要选择执子颜色：第三手后由玩家 2 选择，玩家 2 选择继续时第五手后由玩家 1 选择。
+     *
+     * @param historySize 棋盘上的棋子数
+     */
+    private void updateColorChooser(int historySize) {
+        if (playerColorChosen)
+            colorChooserNumber = 0;
+        else if (historySize == 3 && !continued)
+            colorChooserNumber = 2;
+        else if (historySize == 5)
+            colorChooserNumber = 1;
+        else
+            colorChooserNumber = 0;
+    }
+    
+    
+    /**
+     * 正在选择执子颜色的玩家号，没有时为 0；在监听器的回调中调用时已按当前报文更新。
+     */
+    public int getColorChooserNumber() {
+        return colorChooserNumber;
+    }
+    
+    
+    @SuppressWarnings("unchecked") // 列表由 AbstractSocket 的 unpack 方法按报文类型构造，元素类型是确定的。
+    private static <T> List<T> listArg(Object arg) {
+        return (List<T>) arg;
+    }
+    
+    
+    public void inquireToNewGame() {
+        byte[] message = packMessage(INQUIRE_TO_NEW_GAME, null);
+        sendToServer(message);
+    }
+    
+    
+    public void admitDefeat() {
+        byte[] message = packMessage(ADMIT_DEFEAT, null);
+        sendToServer(message);
+    }
+    
+    
+    public void inquireToPutStone(int i, int j) {
+        byte[] message = packInquireToPutStone(i, j);
+        sendToServer(message);
+    }
+    
+    
+    public void choosePlayerColor(int state) {
+        byte[] message = packChoosePlayerColor(state);
+        sendToServer(message);
+    }
+    
+    
+    public void inquireToRetractStone() {
+        byte[] message = packMessage(INQUIRE_TO_RETRACT_STONE, null);
+        sendToServer(message);
+    }
+    
+    
+    /**
+     * 请求悔棋至指定手数
+     *
+     * @param historySize 悔棋完成后棋盘上的棋子数
+     */
+    public void inquireToRetractTo(int historySize) {
+        byte[] message = packInquireToRetractTo(historySize);
+        sendToServer(message);
+    }
+    
+    
+    public void sendChatText(String chatText) {
+        byte[] message = packChatText(chatText);
+        sendToServer(message);
+    }
+}
+
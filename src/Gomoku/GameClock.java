@@ -0,0 +1,238 @@
+package Gomoku;
+
+/**
+ * 一局棋双方的计时（server 端）
+ * 只记录双方的剩余时间和当前一段计时的开始时间，不占用线程，超时由房间在时间轮上登记。
+ * 只由房间所在的工作线程访问，不需要加锁。
+ */
+public class GameClock {
+    private final TimeControl timeControl;
+    private final long periodNanos; // 每次读秒的时间
+    private final long[] mainNanos; // 每方剩余的总时间，下标为玩家号。
+    private final int[] periods; // 每方剩余的读秒次数（包括正在进行的一次）
+    private long periodElapsedNanos; // 当前回合在本次读秒中已用的时间
+    private int turnPlayerNumber; // 正在计时的玩家号，没有计时的时候为 0。
+    private boolean running; // 是否正在计时
+    private long segmentStartNanos; // 本段计时的开始时间，暂停和扣除时间时重新开始。
+    
+    
+    public GameClock(TimeControl timeControl) {
+        this.timeControl = timeControl;
+        periodNanos = timeControl.getPeriodMillis() * 1000000;
+        mainNanos = new long[3];
+        periods = new int[3];
+        reset();
+    }
+    
+    
+    public TimeControl getTimeControl() {
+        return timeControl;
+    }
+    
+    
+    /**
+     * 新的一局，双方恢复全部时间。
+     */
+    public void reset() {
+        for (int playerNumber = 1; playerNumber <= 2; ++playerNumber) {
+            mainNanos[playerNumber] = timeControl.getMainMillis() * 1000000;
+            periods[playerNumber] = timeControl.getPeriods();
+        }
+        periodElapsedNanos = 0;
+        turnPlayerNumber = 0;
+        running = false;
+    }
+    
+    
+    public int getTurnPlayerNumber() {
+        return turnPlayerNumber;
+    }
+    
+    
+    public boolean isRunning() {
+        return running;
+    }
+    
+    
+    /**
+     * 一方剩余的总时间（毫秒），不包括正在计时的这一段，写入日志用。
+     *
+     * @param playerNumber 玩家号
+     */
+    public long getMainMillis(int playerNumber) {
+        return mainNanos[playerNumber] / 1000000;
+    }
+    
+    
+    /**
+     * 一方剩余的读秒次数
+     */
+    public int getPeriods(int playerNumber) {
+        return periods[playerNumber];
+    }
+    
+    
+    /**
+     * 按日志恢复一方的剩余时间，从日志恢复房间时调用。
+     */
+    public void restore(int playerNumber, long mainMillis, int periods) {
+        mainNanos[playerNumber] = mainMillis * 1000000;
+        this.periods[playerNumber] = periods;
+    }
+    
+    
+    /**
+     * 开始一方的回合
+     *
+     * @param playerNumber 玩家号
+     * @param now          当前时间（System.nanoTime）
+     */
+    public void startTurn(int playerNumber, long now) {
+        turnPlayerNumber = playerNumber;
+        periodElapsedNanos = 0;
+        running = true;
+        segmentStartNanos = now;
+    }
+    
+    
+    /**
+     * 当前回合的玩家完成一手，扣除用时并按规则加秒或重置读秒。
+     *
+     * @param now         当前时间
+     * @param creditNanos 补偿给玩家的网络延迟
+     *
+     * @return 玩家是否在时间内走完这一手
+     */
+    public boolean completeTurn(long now, long creditNanos) {
+        if (turnPlayerNumber == 0)
+            return true;
+        if (running)
+            spend(now - segmentStartNanos - creditNanos);
+        if (isFlagged(turnPlayerNumber))
+            return false;
+        if (timeControl.getMode() == TimeControl.Mode.FISCHER)
+            mainNanos[turnPlayerNumber] += timeControl.getIncrementMillis() * 1000000;
+        periodElapsedNanos = 0;
+        segmentStartNanos = now;
+        return true;
+    }
+    
+    
+    /**
+     * 暂停计时，扣除本段用时。
+     */
+    public void pause(long now) {
+        if (!running)
+            return;
+        spend(now - segmentStartNanos);
+        running = false;
+    }
+    
+    
+    public void resume(long now) {
+        if (turnPlayerNumber == 0 || running)
+            return;
+        segmentStartNanos = now;
+        running = true;
+    }
+    
+    
+    /**
+     * 停止计时，一局结束。
+     */
+    public void stop(long now) {
+        pause(now);
+        turnPlayerNumber = 0;
+    }
+    
+    
+    /**
+     * 当前回合的玩家还剩多少时间（包括总时间和所有读秒）
+     *
+     * @param now 当前时间
+     */
+    public long getRemainingNanos(long now) {
+        if (turnPlayerNumber == 0)
+            return 0;
+        long remaining = mainNanos[turnPlayerNumber];
+        if (timeControl.getMode() == TimeControl.Mode.BYO_YOMI)
+            remaining += periods[turnPlayerNumber] * periodNanos - periodElapsedNanos;
+        if (running)
+            remaining -= now - segmentStartNanos;
+        return Math.max(0, remaining);
+    }
+    
+    
+    /**
+     * 当前回合的玩家在当前阶段还剩多少时间：总时间未用完时为总时间的剩余，读秒时为本次读秒的剩余。
+     *
+     * @param now 当前时间
+     */
+    public long getPhaseRemainingNanos(long now) {
+        if (turnPlayerNumber == 0)
+            return 0;
+        long main = mainNanos[turnPlayerNumber], elapsed = (running ? now - segmentStartNanos : 0);
+        if (main > elapsed || timeControl.getMode() != TimeControl.Mode.BYO_YOMI || periodNanos == 0)
+            return Math.max(0, main - elapsed);
+        return periodNanos - (periodElapsedNanos + elapsed - main) % periodNanos;
+    }
+    
+    
+    /**
+     * 生成发给 client 的计时状态
+     *
+     * @param now        当前时间
+     * @param gameMillis 游戏已进行的时间（毫秒）
+     */
+    public ClockState snapshot(long now, long gameMillis) {
+        long[] remainingMillis = new long[3];
+        int[] periodsLeft = new int[3];
+        boolean[] overtime = new boolean[3];
+        for (int playerNumber = 1; playerNumber <= 2; ++playerNumber) {
+            long main = mainNanos[playerNumber], periodElapsed = 0;
+            int left = periods[playerNumber];
+            if (playerNumber == turnPlayerNumber) {
+                periodElapsed = periodElapsedNanos;
+                long elapsed = (running ? now - segmentStartNanos : 0);
+                long fromMain = Math.min(main, elapsed);
+                main -= fromMain;
+                periodElapsed += elapsed - fromMain;
+                if (periodNanos > 0) {
+                    left -= (int) Math.min(left, periodElapsed / periodNanos);
+                    periodElapsed %= periodNanos;
+                }
+            }
+            overtime[playerNumber] = (main == 0 && timeControl.getMode() == TimeControl.Mode.BYO_YOMI);
+            remainingMillis[playerNumber] = (overtime[playerNumber] ? (left > 0 ? periodNanos - periodElapsed : 0) : main) / 1000000;
+            periodsLeft[playerNumber] = left;
+        }
+        return new ClockState(turnPlayerNumber, running, gameMillis, remainingMillis[1], periodsLeft[1], overtime[1],
+                              remainingMillis[2], periodsLeft[2], overtime[2]);
+    }
+    
+    
+    /**
+     * 从当前回合的玩家扣除时间：先用总时间，读秒制再用读秒，每用完一次读秒减少一次。
+     */
+    private void spend(long elapsedNanos) {
+        if (elapsedNanos <= 0)
+            return;
+        long fromMain = Math.min(mainNanos[turnPlayerNumber], elapsedNanos);
+        mainNanos[turnPlayerNumber] -= fromMain;
+        elapsedNanos -= fromMain;
+        if (elapsedNanos == 0 || timeControl.getMode() != TimeControl.Mode.BYO_YOMI)
+            return;
+        periodElapsedNanos += elapsedNanos;
+        while (periodElapsedNanos >= periodNanos && periods[turnPlayerNumber] > 0) {
+            periodElapsedNanos -= periodNanos;
+            --periods[turnPlayerNumber];
+        }
+    }
+    
+    
+    private boolean isFlagged(int playerNumber) {
+        if (mainNanos[playerNumber] > 0)
+            return false;
+        return (timeControl.getMode() != TimeControl.Mode.BYO_YOMI || periods[playerNumber] == 0);
+    }
+}
@@ -0,0 +1,92 @@
+package Gomoku;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * 基准测试使用的对局驱动
+ * 以同步方式驱动同一房间的两个 client 按 Swap2 规则随机落子，并记录从发送请求落子报文到收到落子报文的往返延迟。
+ * client 1 请求新游戏、client 2 同意，因此 client 1 为玩家 1；前三手后玩家 2 选择执黑。
+ */
+public class GameDriver {
+    private final Transport[] clients; // 下标为 clientId（1 或 2）
+    private final MessagePacker[] packers;
+    private final Random random;
+    private final int maxMoves; // 每局最多落子数，超过后认输。
+    private final Board board; // 本地镜像棋盘，用于选择合法落子位置。
+    
+    
+    public GameDriver(Transport client1, Transport client2, Random random, int maxMoves) {
+        clients = new Transport[]{null, client1, client2};
+        packers = new MessagePacker[]{null, new MessagePacker(1), new MessagePacker(2)};
+        this.random = random;
+        this.maxMoves = maxMoves;
+        board = new Board();
+    }
+    
+    
+    /**
+     * 完整地进行一局游戏
+     *
+     * @param histogram 记录落子往返延迟的直方图
+     */
+    public void playGame(LatencyHistogram histogram) throws IOException {
+        send(1, packers[1].packMessage(AbstractSocket.INQUIRE_TO_NEW_GAME, null));
+        expect(2, AbstractSocket.INQUIRE_TO_NEW_GAME);
+        send(2, packers[2].packMessage(AbstractSocket.ACCEPT_TO_NEW_GAME, null));
+        expect(1, AbstractSocket.NEW_GAME);
+        expect(2, AbstractSocket.NEW_GAME);
+        board.newGame();
+        while (!board.isGameOver() && board.getHistorySize() < maxMoves) {
+            int clientId = board.getNextPlayerNumber();
+            int i, j;
+            do {
+                i = 1 + random.nextInt(Board.n);
+                j = 1 + random.nextInt(Board.n);
+            } while (!tryPutStone(i, j));
+            long startTime = System.nanoTime();
+            send(clientId, packers[clientId].packInquireToPutStone(i, j));
+            expect(clientId, AbstractSocket.PUT_STONE);
+            histogram.record(System.nanoTime() - startTime);
+            expect(3 - clientId, AbstractSocket.PUT_STONE);
+            if (board.getHistorySize() == 3) {
+                send(2, packers[2].packChoosePlayerColor(0));
+                expect(1, AbstractSocket.SET_PLAYER_COLOR);
+                expect(2, AbstractSocket.SET_PLAYER_COLOR);
+                board.choosePlayer1Color(StoneType.WHITE);
+            }
+            else
+                board.getIndexOfRowStones();
+        }
+        if (!board.isGameOver())
+            send(1, packers[1].packMessage(AbstractSocket.ADMIT_DEFEAT, null));
+        expect(1, AbstractSocket.GAME_OVER);
+        expect(2, AbstractSocket.GAME_OVER);
+        board.reset();
+    }
+    
+    
+    private boolean tryPutStone(int i, int j) {
+        try {
+            board.putStone(i, j);
+            return true;
+        }
+        catch (GameNotStartedException | BadInputStoneException e) {
+            return false;
+        }
+    }
+    
+    
+    private void send(int clientId, byte[] message) throws IOException {
+        clients[clientId].send(message);
+    }
+    
+    
+    /**
+     * 接收报文直到收到指定类型的报文
+     */
+    private void expect(int clientId, int messageType) throws IOException {
+        while (AbstractSocket.parseMessageType(clients[clientId].receive()) != messageType)
+            ;
+    }
+}
@@ -0,0 +1,286 @@
+package Gomoku;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 把 .psq 和 .pgn 棋谱批量导入棋谱库，或把棋谱库导出为一个棋谱文件
+ * <pre>
+ * java Gomoku.GameImporter import 棋谱库目录 文件或目录 [线程数]
+ * java Gomoku.GameImporter export 棋谱库目录 文件.psq|文件.pgn
+ * </pre>
+ * 导入分三步：主线程按顺序读取文件，在对局的边界处切成若干块（每块几千行）并依次编号；线程池并行解析各块并检查着法；
+ * 单独的写线程按编号的顺序逐块写入棋谱库，所以对局在棋谱库中的顺序（和地址）与输入的顺序相同，不随线程数和调度变化。
+ * 同时在解析和等待写入的块数有上限，导入几百万局时内存占用不随棋谱的大小增长。
+ * 不合法的对局（重复落子、坐标越界、不是 15x15 的棋盘等）被跳过并计数。
+ */
+public class GameImporter {
+    /**
+     * 导入的结果
+     */
+    public static final class Summary {
+        private final long importedCount;
+        private final long skippedCount;
+        private final int fileCount;
+        
+        
+        Summary(long importedCount, long skippedCount, int fileCount) {
+            this.importedCount = importedCount;
+            this.skippedCount = skippedCount;
+            this.fileCount = fileCount;
+        }
+        
+        
+        public long getImportedCount() {
+            return importedCount;
+        }
+        
+        
+        public long getSkippedCount() {
+            return skippedCount;
+        }
+        
+        
+        public int getFileCount() {
+            return fileCount;
+        }
+        
+        
+        @Override
+        public String toString() {
+            return "imported " + importedCount + " games, skipped " + skippedCount + " from " + fileCount + " files";
+        }
+    }
+    
+    
+    private static final int CHUNK_LINES = 8192; // 每块至少这么多行（在下一局的开始处切分）
+    private static final Chunk END = new Chunk(-1, new ArrayList<GameRecord>());
+    
+    
+    /**
+     * 解析完的一块：编号和其中的对局（按在块中的顺序）
+     */
+    private static final class Chunk {
+        private final long sequence;
+        private final List<GameRecord> records;
+        
+        
+        Chunk(long sequence, List<GameRecord> records) {
+            this.sequence = sequence;
+            this.records = records;
+        }
+    }
+    
+    
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 3 || !(args[0].equals("import") || args[0].equals("export"))) {
+            System.err.println("usage: GameImporter import <archive directory> <file or directory> [threads]");
+            System.err.println("       GameImporter export <archive directory> <file.psq|file.pgn>");
+            System.exit(1);
+        }
+        try (GameArchive archive = new GameArchive(Paths.get(args[1]))) {
+            long start = System.nanoTime();
+            if (args[0].equals("import")) {
+                int threads = (args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors());
+                Summary summary = importGames(archive, Paths.get(args[2]), threads);
+                System.out.println(summary + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+            }
+            else {
+                long count = exportGames(archive, Paths.get(args[2]));
+                System.out.println("exported " + count + " games in " + (System.nanoTime() - start) / 1000000 + " ms");
+            }
+        }
+    }
+    
+    
+    /**
+     * 是否为支持的棋谱文件（按扩展名）
+     */
+    public static boolean isGameFile(Path file) {
+        String name = file.getFileName().toString().toLowerCase();
+        return name.endsWith(".psq") || name.endsWith(".pgn");
+    }
+    
+    
+    private static boolean isPgn(Path file) {
+        return file.getFileName().toString().toLowerCase().endsWith(".pgn");
+    }
+    
+    
+    /**
+     * 按扩展名打开棋谱文件的读取器
+     */
+    public static GameReader openReader(Path file) throws IOException {
+        BufferedReader input = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+        return (isPgn(file) ? PgnFormat.reader(input) : PsqFormat.reader(input));
+    }
+    
+    
+    /**
+     * 按扩展名创建棋谱文件的写入器
+     */
+    public static GameWriter openWriter(Path file) throws IOException {
+        BufferedWriter output = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+        return (isPgn(file) ? PgnFormat.writer(output) : PsqFormat.writer(output));
+    }
+    
+    
+    /**
+     * 导入一个棋谱文件或目录（包括子目录）中的所有棋谱文件
+     *
+     * @param threads 解析的线程数
+     */
+    public static Summary importGames(GameArchive archive, Path source, int threads) throws IOException, InterruptedException {
+        List<Path> files = new ArrayList<Path>();
+        try (Stream<Path> paths = Files.walk(source)) {
+            paths.filter(path -> Files.isRegularFile(path) && isGameFile(path)).sorted().forEach(files::add);
+        }
+        int maxChunks = 2 * threads; // 同时在解析和等待写入的块数
+        BlockingQueue<Chunk> queue = new ArrayBlockingQueue<Chunk>(maxChunks + 1);
+        Semaphore chunks = new Semaphore(maxChunks);
+        AtomicLong skippedCount = new AtomicLong();
+        IOException[] writeError = new IOException[1];
+        long[] importedCount = new long[1];
+        Thread writer = new Thread(() -> {
+            Map<Long, Chunk> parsed = new HashMap<Long, Chunk>(); // 先于前面的块解析完的块
+            long next = 0;
+            try {
+                Chunk chunk;
+                while ((chunk = queue.take()) != END) {
+                    parsed.put(chunk.sequence, chunk);
+                    while ((chunk = parsed.remove(next)) != null) {
+                        ++next;
+                        for (GameRecord record : chunk.records) {
+                            if (writeError[0] != null)
+                                break; // 继续取出，避免解析线程阻塞。
+                            try {
+                                archive.append(record);
+                                ++importedCount[0];
+                            }
+                            catch (IOException e) {
+                                writeError[0] = e;
+                            }
+                        }
+                        chunks.release();
+                    }
+                }
+            }
+            catch (InterruptedException ignored) {
+            }
+        }, "game importer writer");
+        writer.start();
+        ExecutorService parsers = Executors.newFixedThreadPool(threads);
+        long[] sequence = new long[1];
+        try {
+            for (Path file : files) {
+                boolean pgn = isPgn(file);
+                try (BufferedReader input = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                    StringBuilder chunk = new StringBuilder();
+                    int lineCount = 0;
+                    boolean inTags = false; // 上一行是否为 PGN 标签（与 PgnFormat 相同，标签后的空行结束标签部分）
+                    String line;
+                    while ((line = input.readLine()) != null) {
+                        boolean startsGame = (pgn ? line.startsWith("[") && !inTags : line.startsWith("Piskvorky"));
+                        if (pgn)
+                            inTags = line.startsWith("[");
+                        if (startsGame && lineCount >= CHUNK_LINES) {
+                            submit(parsers, chunks, sequence[0]++, chunk.toString(), pgn, queue, skippedCount);
+                            chunk.setLength(0);
+                            lineCount = 0;
+                        }
+                        chunk.append(line).append('\n');
+                        ++lineCount;
+                    }
+                    if (lineCount > 0)
+                        submit(parsers, chunks, sequence[0]++, chunk.toString(), pgn, queue, skippedCount);
+                }
+            }
+        }
+        finally {
+            parsers.shutdown();
+            parsers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            queue.put(END);
+            writer.join();
+        }
+        if (writeError[0] != null)
+            throw writeError[0];
+        archive.flush();
+        return new Summary(importedCount[0], skippedCount.get(), files.size());
+    }
+    
+    
+    /**
+     * 在线程池中解析一块棋谱，解析完后把整块交给写线程；正在解析和等待写入的块数达到上限时等待。
+     * 出错的块也交给写线程（只含出错前解析出的对局），否则写线程会一直等待这一块。
+     */
+    private static void submit(ExecutorService parsers, Semaphore chunks, long sequence, String text, boolean pgn,
+                               BlockingQueue<Chunk> queue, AtomicLong skippedCount) throws InterruptedException {
+        chunks.acquire();
+        parsers.execute(() -> {
+            List<GameRecord> records = new ArrayList<GameRecord>();
+            BufferedReader input = new BufferedReader(new StringReader(text));
+            try (GameReader reader = (pgn ? PgnFormat.reader(input) : PsqFormat.reader(input))) {
+                GameRecord record;
+                while ((record = reader.read()) != null)
+                    records.add(record);
+                skippedCount.addAndGet(reader.getSkippedCount());
+            }
+            catch (IOException e) {
+                System.err.println("game importer: " + e);
+            }
+            try {
+                queue.put(new Chunk(sequence, records)); // 块数受 chunks 限制，队列不会满。
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+    
+    
+    /**
+     * 按写入顺序把棋谱库中的所有对局导出为一个 .psq 或 .pgn 文件
+     *
+     * @return 导出的对局数
+     */
+    public static long exportGames(GameArchive archive, Path file) throws IOException {
+        long[] count = new long[1];
+        try (GameWriter writer = openWriter(file)) {
+            try {
+                archive.forEach((address, record) -> {
+                    try {
+                        writer.write(record);
+                        ++count[0];
+                    }
+                    catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+            catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            writer.flush();
+        }
+        return count[0];
+    }
+}
@@ -0,0 +1,153 @@
+package Gomoku;
+
+import java.util.List;
+
+/**
+ * GameClient 的回调接口
+ * 所有回调都在 client 的服务线程上依次调用，同一 client 的回调不会并发执行。
+ * 对方的请求通过返回值回答，返回后 GameClient 立即向 server 发送同意或拒绝。
+ */
+public interface GameListener {
+    /**
+     * 新建游戏
+     *
+     * @param playerNumber 本方玩家号
+     */
+    void onNewGame(int playerNumber);
+    
+    
+    /**
+     * 对方请求新建游戏
+     *
+     * @return 是否同意
+     */
+    boolean onInquireToNewGame();
+    
+    
+    /**
+     * 对方拒绝新建游戏
+     */
+    void onRejectToNewGame();
+    
+    
+    /**
+     * 游戏结束
+     *
+     * @param winnerNumber     胜者的玩家号，平局时为 0。
+     * @param indexOfRowStones 连珠的棋子编号
+     * @param rowStones        连珠的棋子
+     */
+    void onGameOver(int winnerNumber, List<Integer> indexOfRowStones, List<Stone> rowStones);
+    
+    
+    /**
+     * 落子（包括本方的落子）
+     *
+     * @param stone         落子的 stone
+     * @param previousStone 落子的 stone 的前一个 stone，若没有则为 null。
+     * @param historySize   落子完成后棋盘上的棋子数
+     */
+    void onPutStone(Stone stone, Stone previousStone, int historySize);
+    
+    
+    /**
+     * 悔棋一步
+     *
+     * @param stone         被移走的 stone
+     * @param previousStone 被移走的 stone 的前一个 stone
+     * @param historySize   悔棋完成后棋盘上的棋子数
+     */
+    void onRetractStone(Stone stone, Stone previousStone, int historySize);
+    
+    
+    /**
+     * 一次悔棋至指定手数
+     *
+     * @param retractedStones 被移走的 stone，按从后往前的顺序。
+     * @param previousStone   悔棋完成后的最后一个 stone
+     * @param historySize     悔棋完成后棋盘上的棋子数
+     */
+    void onRetractTo(List<Stone> retractedStones, Stone previousStone, int historySize);
+    
+    
+    /**
+     * 对方请求悔棋一步
+     *
+     * @return 是否同意
+     */
+    boolean onInquireToRetractStone();
+    
+    
+    /**
+     * 对方请求悔棋至指定手数
+     *
+     * @param historySize 悔棋完成后棋盘上的棋子数
+     *
+     * @return 是否同意
+     */
+    boolean onInquireToRetractTo(int historySize);
+    
+    
+    /**
+     * 对方拒绝悔棋
+     */
+    void onRejectToRetractStone();
+    
+    
+    /**
+     * server 指定玩家执子颜色
+     *
+     * @param playerStoneType   本方执子颜色，对方选择继续落子时为 SPACE。
+     * @param presetStoneNumber 预先放置的棋子数
+     */
+    void onSetPlayerColor(StoneType playerStoneType, int presetStoneNumber);
+    
+    
+    /**
+     * 开局需要选择执子颜色，在 onPutStone 或 onStateSync 之后调用，双方都会收到。
+     * 轮到本方选择时调用 GameClient.choosePlayerColor 回答：0 执黑、1 执白、2 继续（只在可以继续时）。
+     *
+     * @param playerNumber    选择执子颜色的玩家号
+     * @param continueAllowed 是否可以选择继续落子（第三手后由玩家 2 选择时）
+     */
+    void onChoosePlayerColor(int playerNumber, boolean continueAllowed);
+    
+    
+    /**
+     * 对方发来聊天消息
+     *
+     * @param chatText 聊天消息
+     */
+    void onChatText(String chatText);
+    
+    
+    /**
+     * 断线重连后按 server 发来的完整对局状态重建
+     * 计时的时候紧接着用同一报文中的计时状态调用 onClockSync。
+     *
+     * @param playerNumber      本方玩家号
+     * @param gameStarted       游戏是否正在进行
+     * @param playerStoneType   本方执子颜色
+     * @param presetStoneNumber 预先放置的棋子数
+     * @param history           棋盘上的棋子
+     * @param gameMillis        游戏已进行的时间（毫秒）
+     */
+    void onStateSync(int playerNumber, boolean gameStarted, StoneType playerStoneType, int presetStoneNumber,
+                     List<Stone> history, long gameMillis);
+    
+    
+    /**
+     * server 发来计时状态，client 只负责显示，超时由 server 判负。
+     *
+     * 新版 server 在每次落子后紧接着 onPutStone 通知一次。
+     *
+     * @param clock 计时状态
+     */
+    void onClockSync(ClockState clock);
+    
+    
+    /**
+     * 连接已断开且无法恢复
+     */
+    void onClose();
+}
@@ -0,0 +1,21 @@
+package Gomoku;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * 按顺序读取棋谱文件中的对局，每次只解析一局，文件再大也只占用固定的内存。
+ * 无法表示为本程序棋盘上的对局（棋盘大小不同、坐标越界、重复落子）被跳过并计数。
+ */
+public interface GameReader extends Closeable {
+    /**
+     * @return 下一局，没有更多对局时为 null。
+     */
+    GameRecord read() throws IOException;
+    
+    
+    /**
+     * @return 已跳过的对局数
+     */
+    long getSkippedCount();
+}
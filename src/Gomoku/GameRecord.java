@@ -0,0 +1,320 @@
+package Gomoku;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 一局已结束的棋（不可变），棋谱库（GameArchive）中的一条记录
+ * 每手棋只占一个字节（格子编号 0 到 224），悔掉的棋子不记录；开局的选择（第 3 或第 5 手后玩家 1 的颜色）记在头部。
+ * <pre>
+ * 编码：[总长度 2][版本 1][手数 1][结果 1：高 4 位为结束原因，低 4 位为胜者的玩家号][预先放置的棋子数 1][玩家 1 的颜色 1]
+ *      [房间编号 4][玩家 1 编号 4][玩家 2 编号 4][开始时间（epoch 毫秒）8][用时（毫秒）4]
+ *      [计时方式 1][读秒次数 1][总时间（毫秒）4][加秒或读秒时间（毫秒）4][玩家 1 剩余时间（毫秒）4][玩家 2 剩余时间（毫秒）4]
+ *      [每手的格子编号 手数]
+ * </pre>
+ * 玩家编号为对局结束时双方连接的编号，server 没有账号，只用于区分同一段时间内的玩家。
+ */
+public final class GameRecord {
+    /**
+     * 对局结束的原因
+     */
+    public enum Reason {
+        FIVE,    // 连珠
+        DRAW,    // 棋盘下满
+        RESIGN,  // 认输
+        TIMEOUT, // 超时
+        UNKNOWN  // 导入的棋谱没有记录原因
+    }
+    
+    
+    public static final int HEADER_LENGTH = 49;
+    public static final int MAX_LENGTH = HEADER_LENGTH + Board.n * Board.n;
+    private static final int VERSION = 1;
+    
+    private final int roomId;
+    private final int player1Id;
+    private final int player2Id;
+    private final int winnerNumber; // 胜者的玩家号，平局为 0。
+    private final Reason reason;
+    private final int presetStoneNumber; // 选择颜色时棋盘上的棋子数（3 或 5）
+    private final StoneType player1StoneType; // 玩家 1 的颜色，没有选择颜色时为 SPACE。
+    private final long startEpochMillis;
+    private final long durationMillis;
+    private final TimeControl timeControl; // 为 null 时不计时
+    private final long[] remainingMillis; // 结束时双方剩余的总时间，下标为玩家号。
+    private final byte[] cells; // 按顺序排列的格子编号
+    
+    
+    /**
+     * @param cells 按顺序排列的格子编号，见 cellIndex。
+     */
+    public GameRecord(int roomId, int player1Id, int player2Id, int winnerNumber, Reason reason, int presetStoneNumber, StoneType player1StoneType,
+                      long startEpochMillis, long durationMillis, TimeControl timeControl, long player1RemainingMillis, long player2RemainingMillis,
+                      byte[] cells) {
+        if (cells.length > Board.n * Board.n)
+            throw new IllegalArgumentException("too many moves: " + cells.length);
+        this.roomId = roomId;
+        this.player1Id = player1Id;
+        this.player2Id = player2Id;
+        this.winnerNumber = winnerNumber;
+        this.reason = reason;
+        this.presetStoneNumber = presetStoneNumber;
+        this.player1StoneType = player1StoneType;
+        this.startEpochMillis = startEpochMillis;
+        this.durationMillis = durationMillis;
+        this.timeControl = timeControl;
+        remainingMillis = new long[]{0, player1RemainingMillis, player2RemainingMillis};
+        this.cells = cells.clone();
+    }
+    
+    
+    /**
+     * 格子编号，整个项目（报文、棋谱库、落子引擎）都用这一种编码。
+     *
+     * @param i 行（1 到 Board.n）
+     * @param j 列（1 到 Board.n）
+     */
+    public static int cellIndex(int i, int j) {
+        return (i - 1) * Board.n + (j - 1);
+    }
+    
+    
+    public static int cellI(int cell) {
+        return cell / Board.n + 1;
+    }
+    
+    
+    public static int cellJ(int cell) {
+        return cell % Board.n + 1;
+    }
+    
+    
+    /**
+     * 棋盘上按顺序排列的格子编号
+     */
+    public static byte[] cellsOf(Board board) {
+        List<Stone> history = board.getHistory();
+        byte[] cells = new byte[history.size()];
+        for (int ply = 0; ply < cells.length; ++ply)
+            cells[ply] = (byte) cellIndex(history.get(ply).getI(), history.get(ply).getJ());
+        return cells;
+    }
+    
+    
+    public int getRoomId() {
+        return roomId;
+    }
+    
+    
+    public int getPlayer1Id() {
+        return player1Id;
+    }
+    
+    
+    public int getPlayer2Id() {
+        return player2Id;
+    }
+    
+    
+    public int getWinnerNumber() {
+        return winnerNumber;
+    }
+    
+    
+    public Reason getReason() {
+        return reason;
+    }
+    
+    
+    public int getPresetStoneNumber() {
+        return presetStoneNumber;
+    }
+    
+    
+    public StoneType getPlayer1StoneType() {
+        return player1StoneType;
+    }
+    
+    
+    public long getStartEpochMillis() {
+        return startEpochMillis;
+    }
+    
+    
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+    
+    
+    public TimeControl getTimeControl() {
+        return timeControl;
+    }
+    
+    
+    public long getRemainingMillis(int playerNumber) {
+        return remainingMillis[playerNumber];
+    }
+    
+    
+    public int getMoveCount() {
+        return cells.length;
+    }
+    
+    
+    /**
+     * @param ply 第几手（从 0 开始）
+     */
+    public int getCell(int ply) {
+        return cells[ply] & 0xFF;
+    }
+    
+    
+    public byte[] getCells() {
+        return cells.clone();
+    }
+    
+    
+    /**
+     * 按棋谱摆出棋盘：按顺序落子，在预先放置的棋子数处选择颜色，最后一手连珠时游戏结束。
+     *
+     * @throws IllegalArgumentException 棋谱中有重复的落子
+     */
+    public Board toBoard() {
+        Board board = new Board();
+        board.newGame();
+        try {
+            for (int ply = 0; ply < cells.length; ++ply) {
+                if (ply == presetStoneNumber && player1StoneType != StoneType.SPACE)
+                    board.choosePlayer1Color(player1StoneType);
+                board.putStone(cellI(getCell(ply)), cellJ(getCell(ply)));
+            }
+            if (cells.length == presetStoneNumber && player1StoneType != StoneType.SPACE)
+                board.choosePlayer1Color(player1StoneType);
+        }
+        catch (GameNotStartedException | BadInputStoneException e) {
+            throw new IllegalArgumentException("illegal move sequence", e);
+        }
+        if (!board.hasNoHistory())
+            board.getIndexOfRowStones();
+        return board;
+    }
+    
+    
+    /**
+     * 编码后的字节数
+     */
+    public int getEncodedLength() {
+        return HEADER_LENGTH + cells.length;
+    }
+    
+    
+    public void encode(ByteBuffer buffer) {
+        buffer.putShort((short) getEncodedLength());
+        buffer.put((byte) VERSION);
+        buffer.put((byte) cells.length);
+        buffer.put((byte) (reason.ordinal() << 4 | winnerNumber));
+        buffer.put((byte) presetStoneNumber);
+        buffer.put((byte) player1StoneType.ordinal());
+        buffer.putInt(roomId);
+        buffer.putInt(player1Id);
+        buffer.putInt(player2Id);
+        buffer.putLong(startEpochMillis);
+        buffer.putInt((int) durationMillis);
+        if (timeControl == null) {
+            buffer.put((byte) 0);
+            buffer.put((byte) 0);
+            buffer.putInt(0);
+            buffer.putInt(0);
+        }
+        else {
+            buffer.put((byte) (timeControl.getMode().ordinal() + 1));
+            buffer.put((byte) timeControl.getPeriods());
+            buffer.putInt((int) timeControl.getMainMillis());
+            buffer.putInt((int) (timeControl.getMode() == TimeControl.Mode.FISCHER ? timeControl.getIncrementMillis() : timeControl.getPeriodMillis()));
+        }
+        buffer.putInt((int) remainingMillis[1]);
+        buffer.putInt((int) remainingMillis[2]);
+        buffer.put(cells);
+    }
+    
+    
+    /**
+     * 从缓冲区的当前位置解码一条记录
+     *
+     * @throws IllegalArgumentException 记录损坏或不完整
+     */
+    public static GameRecord decode(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_LENGTH)
+            throw new IllegalArgumentException("truncated game record");
+        int length = buffer.getShort() & 0xFFFF;
+        int version = buffer.get();
+        int moveCount = buffer.get() & 0xFF;
+        if (version != VERSION || length != HEADER_LENGTH + moveCount || moveCount > Board.n * Board.n || buffer.remaining() < length - 4)
+            throw new IllegalArgumentException("bad game record");
+        int result = buffer.get() & 0xFF;
+        Reason[] reasons = Reason.values();
+        StoneType[] stoneTypes = StoneType.values();
+        int presetStoneNumber = buffer.get();
+        int player1StoneType = buffer.get();
+        if ((result >> 4) >= reasons.length || (result & 0xF) > 2 || player1StoneType < 0 || player1StoneType >= stoneTypes.length)
+            throw new IllegalArgumentException("bad game record");
+        int roomId = buffer.getInt(), player1Id = buffer.getInt(), player2Id = buffer.getInt();
+        long startEpochMillis = buffer.getLong();
+        long durationMillis = buffer.getInt() & 0xFFFFFFFFL;
+        int mode = buffer.get(), periods = buffer.get() & 0xFF;
+        long mainMillis = buffer.getInt() & 0xFFFFFFFFL, secondMillis = buffer.getInt() & 0xFFFFFFFFL;
+        TimeControl timeControl;
+        try {
+            switch (mode) {
+                case 0:
+                    timeControl = null;
+                    break;
+                case 1:
+                    timeControl = TimeControl.suddenDeath(mainMillis);
+                    break;
+                case 2:
+                    timeControl = TimeControl.fischer(mainMillis, secondMillis);
+                    break;
+                case 3:
+                    timeControl = TimeControl.byoYomi(mainMillis, periods, secondMillis);
+                    break;
+                default:
+                    throw new IllegalArgumentException("bad game record");
+            }
+        }
+        catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("bad game record");
+        }
+        long player1RemainingMillis = buffer.getInt() & 0xFFFFFFFFL, player2RemainingMillis = buffer.getInt() & 0xFFFFFFFFL;
+        byte[] cells = new byte[moveCount];
+        buffer.get(cells);
+        for (byte cell : cells) {
+            if ((cell & 0xFF) >= Board.n * Board.n)
+                throw new IllegalArgumentException("bad game record");
+        }
+        return new GameRecord(roomId, player1Id, player2Id, result & 0xF, reasons[result >> 4], presetStoneNumber, stoneTypes[player1StoneType],
+                              startEpochMillis, durationMillis, timeControl, player1RemainingMillis, player2RemainingMillis, cells);
+    }
+    
+    
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof GameRecord))
+            return false;
+        GameRecord record = (GameRecord) o;
+        return (roomId == record.roomId && player1Id == record.player1Id && player2Id == record.player2Id && winnerNumber == record.winnerNumber
+                && reason == record.reason && presetStoneNumber == record.presetStoneNumber && player1StoneType == record.player1StoneType
+                && startEpochMillis == record.startEpochMillis && durationMillis == record.durationMillis
+                && String.valueOf(timeControl).equals(String.valueOf(record.timeControl))
+                && Arrays.equals(remainingMillis, record.remainingMillis) && Arrays.equals(cells, record.cells));
+    }
+    
+    
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(cells) + Long.hashCode(startEpochMillis);
+    }
+}
@@ -0,0 +1,348 @@
+package Gomoku;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * 并行检查棋谱库中的所有对局
+ * <pre>
+ * java Gomoku.GameValidator 棋谱库目录 [最多打印的问题数] [线程数]
+ * </pre>
+ * 每局用 Board.putStone 重新下一遍，每手之后和 server 一样调用 getIndexOfRowStones 判断是否连成五子，检查：
+ * 着法是否合法（重复落子、连珠后继续落子）、开局的选择颜色是否在第 0、3 或 5 手，以及按棋盘重新判定的胜负和结束原因是否与记录一致。
+ * 修改 Board 的判定逻辑后可以用真实的对局做回归测试。
+ * 主线程按顺序读取棋谱库，每满一批交给 ForkJoinPool 递归拆分并行检查，同时在检查的批数有上限；各批的结果按顺序合并，问题按对局在库中的顺序列出。
+ */
+public class GameValidator {
+    /**
+     * 问题的种类
+     */
+    public enum Problem {
+        ILLEGAL_MOVE,     // 在已有棋子的位置落子
+        MOVE_AFTER_END,   // 连成五子后还有着法
+        BAD_OPENING,      // 选择颜色的手数不对，或下了 5 手以上仍没有选择颜色
+        RESULT_MISMATCH   // 记录的胜者或结束原因与棋盘不符
+    }
+    
+    
+    /**
+     * 一局棋的一个问题
+     */
+    public static final class Finding {
+        private final long address;
+        private final Problem problem;
+        private final int ply;
+        private final String detail;
+        
+        
+        Finding(long address, Problem problem, int ply, String detail) {
+            this.address = address;
+            this.problem = problem;
+            this.ply = ply;
+            this.detail = detail;
+        }
+        
+        
+        /**
+         * 对局在棋谱库中的地址
+         */
+        public long getAddress() {
+            return address;
+        }
+        
+        
+        public Problem getProblem() {
+            return problem;
+        }
+        
+        
+        /**
+         * 出问题的一手（从 0 开始），胜负不符时为 -1。
+         */
+        public int getPly() {
+            return ply;
+        }
+        
+        
+        public String getDetail() {
+            return detail;
+        }
+        
+        
+        @Override
+        public String toString() {
+            return String.format("%d:%d %s%s %s", address >>> 32, address & 0xFFFFFFFFL, problem, (ply < 0 ? "" : " at ply " + ply), detail);
+        }
+    }
+    
+    
+    /**
+     * 检查的结果，只保留前 maxFindings 个问题，计数包括所有问题。
+     */
+    public static final class Report {
+        private final int maxFindings;
+        private long checkedCount;
+        private final long[] problemCounts;
+        private final List<Finding> findings;
+        
+        
+        Report(int maxFindings) {
+            this.maxFindings = maxFindings;
+            checkedCount = 0;
+            problemCounts = new long[Problem.values().length];
+            findings = new ArrayList<Finding>();
+        }
+        
+        
+        void add(Finding finding) {
+            ++problemCounts[finding.getProblem().ordinal()];
+            if (findings.size() < maxFindings)
+                findings.add(finding);
+        }
+        
+        
+        /**
+         * 把后面一部分对局的结果合并进来
+         */
+        void merge(Report report) {
+            checkedCount += report.checkedCount;
+            for (int problem = 0; problem < problemCounts.length; ++problem)
+                problemCounts[problem] += report.problemCounts[problem];
+            for (Finding finding : report.findings) {
+                if (findings.size() == maxFindings)
+                    break;
+                findings.add(finding);
+            }
+        }
+        
+        
+        public long getCheckedCount() {
+            return checkedCount;
+        }
+        
+        
+        public long getProblemCount(Problem problem) {
+            return problemCounts[problem.ordinal()];
+        }
+        
+        
+        /**
+         * 有问题的对局数（一局最多一个问题）
+         */
+        public long getFlaggedCount() {
+            return Arrays.stream(problemCounts).sum();
+        }
+        
+        
+        public List<Finding> getFindings() {
+            return Collections.unmodifiableList(findings);
+        }
+        
+        
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append("checked ").append(checkedCount).append(" games, flagged ").append(getFlaggedCount());
+            for (Problem problem : Problem.values())
+                builder.append(", ").append(problem).append(' ').append(problemCounts[problem.ordinal()]);
+            return builder.toString();
+        }
+    }
+    
+    
+    public static final int DEFAULT_MAX_FINDINGS = 1000;
+    private static final int BATCH_SIZE = 1 << 14; // 每批的对局数
+    private static final int LEAF_SIZE = 512; // 拆分到这么多局以下时直接检查
+    private static final int IN_FLIGHT_BATCHES = 4; // 同时在检查的批数
+    private static final ThreadLocal<Board> boards = ThreadLocal.withInitial(Board::new); // 每个线程重复使用一个棋盘
+    
+    private final ForkJoinPool pool;
+    private final int maxFindings;
+    
+    
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.err.println("usage: GameValidator <archive directory> [max findings] [threads]");
+            System.exit(1);
+        }
+        int maxFindings = (args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_MAX_FINDINGS);
+        int threads = (args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors());
+        GameValidator validator = new GameValidator(threads, maxFindings);
+        try (GameArchive archive = new GameArchive(Paths.get(args[0]))) {
+            long start = System.nanoTime();
+            Report report = validator.validate(archive);
+            long elapsedMillis = Math.max(1, (System.nanoTime() - start) / 1000000);
+            for (Finding finding : report.getFindings())
+                System.out.println(finding);
+            System.out.println(report);
+            System.out.println(elapsedMillis + " ms, " + report.getCheckedCount() * 60000 / elapsedMillis + " games/min");
+        }
+        finally {
+            validator.shutdown();
+        }
+        System.exit(0);
+    }
+    
+    
+    /**
+     * @param threads     检查的线程数
+     * @param maxFindings 报告中最多保留的问题数
+     */
+    public GameValidator(int threads, int maxFindings) {
+        pool = new ForkJoinPool(threads);
+        this.maxFindings = maxFindings;
+    }
+    
+    
+    /**
+     * 检查棋谱库中的所有对局
+     */
+    public Report validate(GameArchive archive) throws IOException, InterruptedException {
+        Report report = new Report(maxFindings);
+        ArrayDeque<ForkJoinTask<Report>> inFlight = new ArrayDeque<ForkJoinTask<Report>>();
+        long[][] addresses = {new long[BATCH_SIZE]};
+        GameRecord[][] records = {new GameRecord[BATCH_SIZE]};
+        int[] count = {0};
+        try {
+            archive.forEach((address, record) -> {
+                addresses[0][count[0]] = address;
+                records[0][count[0]] = record;
+                if (++count[0] < BATCH_SIZE)
+                    return;
+                if (inFlight.size() == IN_FLIGHT_BATCHES)
+                    report.merge(inFlight.removeFirst().join());
+                inFlight.addLast(pool.submit(new ValidateTask(addresses[0], records[0], 0, BATCH_SIZE, maxFindings)));
+                addresses[0] = new long[BATCH_SIZE];
+                records[0] = new GameRecord[BATCH_SIZE];
+                count[0] = 0;
+            });
+            if (count[0] > 0)
+                inFlight.addLast(pool.submit(new ValidateTask(addresses[0], records[0], 0, count[0], maxFindings)));
+            while (!inFlight.isEmpty())
+                report.merge(inFlight.removeFirst().get());
+        }
+        catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        finally {
+            for (ForkJoinTask<Report> task : inFlight)
+                task.cancel(false);
+        }
+        return report;
+    }
+    
+    
+    public void shutdown() {
+        pool.shutdown();
+    }
+    
+    
+    /**
+     * 检查一批对局中的 [from, to)，超过 LEAF_SIZE 时对半拆分。
+     */
+    @SuppressWarnings("serial") // 只在 ForkJoinPool 中执行，不会被序列化。
+    private static final class ValidateTask extends RecursiveTask<Report> {
+        private final long[] addresses;
+        private final GameRecord[] records;
+        private final int from;
+        private final int to;
+        private final int maxFindings;
+        
+        
+        ValidateTask(long[] addresses, GameRecord[] records, int from, int to, int maxFindings) {
+            this.addresses = addresses;
+            this.records = records;
+            this.from = from;
+            this.to = to;
+            this.maxFindings = maxFindings;
+        }
+        
+        
+        @Override
+        protected Report compute() {
+            if (to - from <= LEAF_SIZE) {
+                Report report = new Report(maxFindings);
+                Board board = boards.get();
+                for (int index = from; index < to; ++index) {
+                    Finding finding = check(board, addresses[index], records[index]);
+                    if (finding != null)
+                        report.add(finding);
+                }
+                report.checkedCount = to - from;
+                return report;
+            }
+            int middle = (from + to) >>> 1;
+            ValidateTask left = new ValidateTask(addresses, records, from, middle, maxFindings);
+            left.fork();
+            Report right = new ValidateTask(addresses, records, middle, to, maxFindings).compute();
+            Report report = left.join();
+            report.merge(right);
+            return report;
+        }
+    }
+    
+    
+    /**
+     * 用棋盘重新下一遍，检查一局棋。
+     *
+     * @return 第一个问题，没有问题时为 null。
+     */
+    static Finding check(Board board, long address, GameRecord record) {
+        int moveCount = record.getMoveCount();
+        int presetStoneNumber = record.getPresetStoneNumber();
+        StoneType player1StoneType = record.getPlayer1StoneType();
+        if (player1StoneType != StoneType.SPACE && (presetStoneNumber != 0 && presetStoneNumber != 3 && presetStoneNumber != 5
+                                                    || presetStoneNumber > moveCount))
+            return new Finding(address, Problem.BAD_OPENING, presetStoneNumber, "color chosen at " + presetStoneNumber + " stones");
+        if (player1StoneType == StoneType.SPACE && moveCount > 5)
+            return new Finding(address, Problem.BAD_OPENING, 5, "no color chosen");
+        board.newGame();
+        int lastPlayerNumber = 0;
+        boolean five = false;
+        for (int ply = 0; ply < moveCount; ++ply) {
+            if (board.isGameOver())
+                return new Finding(address, Problem.MOVE_AFTER_END, ply, "game already over");
+            if (ply == presetStoneNumber && player1StoneType != StoneType.SPACE)
+                board.choosePlayer1Color(player1StoneType);
+            int cell = record.getCell(ply);
+            lastPlayerNumber = board.getNextPlayerNumber();
+            try {
+                board.putStone(GameRecord.cellI(cell), GameRecord.cellJ(cell));
+            }
+            catch (GameNotStartedException | BadInputStoneException e) {
+                return new Finding(address, Problem.ILLEGAL_MOVE, ply, "(" + GameRecord.cellI(cell) + ", " + GameRecord.cellJ(cell) + ") occupied");
+            }
+            five = (board.getIndexOfRowStones().size() >= 5);
+        }
+        int winnerNumber = record.getWinnerNumber();
+        GameRecord.Reason reason = record.getReason();
+        boolean matches;
+        String expected;
+        if (five) {
+            matches = (reason == GameRecord.Reason.FIVE && winnerNumber == lastPlayerNumber);
+            expected = "player " + lastPlayerNumber + " FIVE";
+        }
+        else if (moveCount == Board.n * Board.n) {
+            matches = (reason == GameRecord.Reason.DRAW && winnerNumber == 0);
+            expected = "DRAW";
+        }
+        else {
+            // 棋盘上没有结果：认输和超时必须有胜者，不能是连珠或平局。
+            matches = (reason == GameRecord.Reason.UNKNOWN || winnerNumber != 0 && reason != GameRecord.Reason.FIVE && reason != GameRecord.Reason.DRAW);
+            expected = "RESIGN, TIMEOUT or UNKNOWN";
+        }
+        if (matches)
+            return null;
+        return new Finding(address, Problem.RESULT_MISMATCH, -1, "recorded " + (winnerNumber == 0 ? "" : "player " + winnerNumber + " ") + reason + ", board "
+                                                                 + expected);
+    }
+}
@@ -0,0 +1,14 @@
+package Gomoku;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * 按顺序把对局写入棋谱文件
+ */
+public interface GameWriter extends Closeable {
+    void write(GameRecord record) throws IOException;
+    
+    
+    void flush() throws IOException;
+}
@@ -163,6 +163,44 @@ public class Gomoku extends JFrame {
     }
     
     
+    /**
+     * 一次悔棋至指定手数
+     *
+     * @param retractedStones 被移走的 stone，按从后往前的顺序。
+     * @param previousStone   悔棋完成后的最后一个 stone
+     * @param historySize     悔棋完成后棋盘上的棋子数
+     */
+    public void retractTo(List<Stone> retractedStones, Stone previousStone, int historySize) {
+        display.retractTo(retractedStones, previousStone, historySize);
+    }
+    
+    
+    /**
+     * 按 server 发来的完整对局状态重建界面
+     *
+     * @param playerNumber      本方玩家号
+     * @param gameStarted       游戏是否正在进行
+     * @param playerStoneType   本方执子颜色
+     * @param presetStoneNumber 预先放置的棋子数
+     * @param history           棋盘上的棋子
+     * @param gameMillis        游戏已进行的时间（毫秒）
+     */
+    public void syncState(int playerNumber, boolean gameStarted, StoneType playerStoneType, int presetStoneNumber,
+                          List<Stone> history, long gameMillis) {
+        display.syncState(playerNumber, gameStarted, playerStoneType, presetStoneNumber, history, gameMillis);
+    }
+    
+    
+    /**
+     * 按 server 发来的计时状态显示回合倒计时
+     *
+     * @param clock 计时状态
+     */
+    public void syncClock(ClockState clock) {
+        display.syncClock(clock);
+    }
+    
+    
     /**
      * 设置玩家执子颜色
      *
@@ -174,6 +212,17 @@ public class Gomoku extends JFrame {
     }
     
     
+    /**
+     * 选择执子颜色
+     *
+     * @param choosingPlayerNumber 选择执子颜色的玩家号
+     * @param continueAllowed      是否可以选择继续落子
+     */
+    public void choosePlayerColor(int choosingPlayerNumber, boolean continueAllowed) {
+        display.choosePlayerColor(choosingPlayerNumber, continueAllowed);
+    }
+    
+    
     /**
      * 在聊天面板上添加对方发来的消息
      *
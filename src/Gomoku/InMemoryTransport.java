@@ -0,0 +1,123 @@
+package Gomoku;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * 同一 JVM 内的内存传输通道
+ * 报文以引用的形式直接交给对端，没有系统调用，也不复制或序列化报文。
+ * 对端设置了监听器时由发送方线程直接回调监听器，否则放入对端的接收队列。
+ */
+public class InMemoryTransport implements Transport {
+    private static final byte[] CLOSED = new byte[0]; // 放入接收队列的关闭标记
+    
+    private InMemoryTransport peer;
+    private final LinkedBlockingQueue<byte[]> inbox; // 接收队列
+    private volatile Listener listener;
+    private volatile boolean closed;
+    
+    
+    private InMemoryTransport() {
+        inbox = new LinkedBlockingQueue<byte[]>();
+        listener = null;
+        closed = false;
+    }
+    
+    
+    /**
+     * 创建一对相互连接的内存通道
+     */
+    public static InMemoryTransport[] pair() {
+        InMemoryTransport end1 = new InMemoryTransport();
+        InMemoryTransport end2 = new InMemoryTransport();
+        end1.peer = end2;
+        end2.peer = end1;
+        return new InMemoryTransport[]{end1, end2};
+    }
+    
+    
+    @Override
+    public void send(byte[] message) throws IOException {
+        if (closed || peer.closed)
+            throw new EOFException();
+        peer.deliver(message);
+    }
+    
+    
+    private void deliver(byte[] message) {
+        Listener currentListener = listener;
+        if (currentListener == null) {
+            synchronized (this) { // 与 setListener 互斥，保证先到达的报文先交给监听器。
+                currentListener = listener;
+                if (currentListener == null) {
+                    inbox.add(message);
+                    return;
+                }
+            }
+        }
+        currentListener.onMessage(message);
+    }
+    
+    
+    @Override
+    public byte[] receive() throws IOException {
+        if (closed)
+            throw new EOFException();
+        byte[] message;
+        try {
+            message = inbox.take();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EOFException();
+        }
+        if (message == CLOSED) {
+            inbox.add(CLOSED); // 保留关闭标记，后续调用同样立即返回。
+            throw new EOFException();
+        }
+        return message;
+    }
+    
+    
+    @Override
+    public synchronized boolean setListener(Listener listener) {
+        byte[] message;
+        while ((message = inbox.poll()) != null) { // 转交设置监听器之前已到达的报文
+            if (message == CLOSED)
+                listener.onClose();
+            else
+                listener.onMessage(message);
+        }
+        this.listener = listener;
+        return true;
+    }
+    
+    
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        peer.onPeerClosed();
+    }
+    
+    
+    private void onPeerClosed() {
+        Listener currentListener;
+        synchronized (this) {
+            currentListener = listener;
+            if (currentListener == null) {
+                inbox.add(CLOSED);
+                return;
+            }
+        }
+        currentListener.onClose();
+    }
+    
+    
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+}
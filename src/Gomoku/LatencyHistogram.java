@@ -0,0 +1,120 @@
+package Gomoku;
+
+/**
+ * 对数分桶的延迟直方图
+ * 每个 2 的幂区间再均分为 16 个子桶，相对误差不超过 1/16，记录一次延迟只需一次数组自增。
+ * 非线程安全，多线程记录时每个线程各用一个直方图，最后合并。
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    
+    private final long[] counts;
+    private long totalCount;
+    private long totalNanos;
+    private long maxNanos;
+    
+    
+    public LatencyHistogram() {
+        counts = new long[64 * SUB_BUCKET_COUNT];
+        totalCount = 0;
+        totalNanos = 0;
+        maxNanos = 0;
+    }
+    
+    
+    /**
+     * 记录一次延迟
+     *
+     * @param nanos 延迟（纳秒）
+     */
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        ++counts[bucketIndex(nanos)];
+        ++totalCount;
+        totalNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+    }
+    
+    
+    /**
+     * 合并另一个直方图的记录
+     */
+    public void merge(LatencyHistogram other) {
+        for (int index = 0; index < counts.length; ++index)
+            counts[index] += other.counts[index];
+        totalCount += other.totalCount;
+        totalNanos += other.totalNanos;
+        maxNanos = Math.max(maxNanos, other.maxNanos);
+    }
+    
+    
+    public long getCount() {
+        return totalCount;
+    }
+    
+    
+    public long getMeanNanos() {
+        return (totalCount == 0 ? 0 : totalNanos / totalCount);
+    }
+    
+    
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+    
+    
+    /**
+     * 获取百分位延迟
+     *
+     * @param percentile 百分位（0 到 100）
+     *
+     * @return 延迟（纳秒），为所在桶的上界。
+     */
+    public long getPercentileNanos(double percentile) {
+        if (totalCount == 0)
+            return 0;
+        long rank = (long) Math.ceil(percentile / 100.0 * totalCount);
+        long seen = 0;
+        for (int index = 0; index < counts.length; ++index) {
+            seen += counts[index];
+            if (seen >= Math.max(1, rank))
+                return Math.min(bucketUpperBound(index), maxNanos);
+        }
+        return maxNanos;
+    }
+    
+    
+    /**
+     * 以微秒为单位输出延迟摘要
+     */
+    public String summary() {
+        return String.format("count=%d mean=%.1fus p50=%.1fus p90=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus",
+                             totalCount,
+                             getMeanNanos() / 1e3,
+                             getPercentileNanos(50) / 1e3,
+                             getPercentileNanos(90) / 1e3,
+                             getPercentileNanos(99) / 1e3,
+                             getPercentileNanos(99.9) / 1e3,
+                             maxNanos / 1e3);
+    }
+    
+    
+    private static int bucketIndex(long nanos) {
+        if (nanos < SUB_BUCKET_COUNT)
+            return (int) nanos;
+        int magnitude = 63 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+    
+    
+    private static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT)
+            return index;
+        int magnitude = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+        long subBucket = index % SUB_BUCKET_COUNT;
+        return ((SUB_BUCKET_COUNT + subBucket + 1) << (magnitude - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -0,0 +1,277 @@
+package Gomoku;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * 合成负载生成器，作为 server 容量的常规基准测试。
+ * 启动大量机器人 client，由 server 两两配对，按 Swap2 规则下完整的对局，覆盖新游戏、落子、悔棋、聊天和认输报文。
+ * 机器人平均分布在若干个连接上（每个连接复用多个会话），共用少量工作线程和一个思考时间定时器。
+ * 报告落子往返延迟的直方图；server 在同一进程中运行时，还报告 server 线程的 CPU 占用和内存分配速率。
+ * 往返延迟包括机器人工作线程的排队时间，机器人的工作线程饱和时（可看 -workers 和 -engine random 的对比）延迟主要来自 client 一侧。
+ * server 按进入大厅的顺序配对，且不配对同一连接上的会话；机器人按轮进入大厅，每轮在每个连接上各启动一个，本轮配对后再启动下一轮，
+ * 保证所有机器人都能配对。有机器人没有下完指定的局数（例如连接断开或对局卡住）时以非零状态退出，不报告不完整的结果。
+ *
+ * 用法：java Gomoku.LoadGenerator [-bots 机器人数] [-games 每个机器人的局数] [-think 平均思考时间(ms)] [-connections 连接数]
+ * [-retract 悔棋概率] [-chat 聊天概率] [-defeat 认输概率] [-engine pattern|random] [-workers 机器人工作线程数] [-seed 随机种子]
+ * [-connect 主机:端口]，不指定 -connect 时在本进程的回环地址上启动 server。
+ */
+public class LoadGenerator {
+    public static final int DEFAULT_BOTS = 10000;
+    public static final long PROGRESS_INTERVAL_MILLIS = 5000; // 输出进度的间隔
+    public static final long POLL_INTERVAL_MILLIS = 10; // 检查机器人是否下完的间隔
+    public static final long PAIR_POLL_INTERVAL_MILLIS = 1; // 检查一轮机器人是否已配对的间隔
+    public static final long STALL_TIMEOUT_MILLIS = 2 * Room.NEGOTIATION_TIMEOUT_MILLIS; // 这么久没有配对或落子时认为对局卡住
+    private static final String[] SERVER_THREAD_PREFIXES = {"event-loop-", "room-worker-", "server-timer"}; // server 的线程名称
+    
+    
+    public static void main(String[] args) throws Exception {
+        int botCount = DEFAULT_BOTS;
+        int games = 1;
+        long thinkMillis = 50;
+        int connectionCount = 0;
+        double retractRate = 0.01;
+        double chatRate = 0.02;
+        double defeatRate = 0.002;
+        String engineName = "pattern";
+        int workerCount = RoomExecutor.DEFAULT_WORKER_COUNT;
+        long seed = System.nanoTime();
+        InetSocketAddress address = null;
+        for (int index = 0; index < args.length; ++index) {
+            switch (args[index]) {
+                case "-bots":
+                    botCount = Integer.parseInt(args[++index]);
+                    break;
+                case "-games":
+                    games = Integer.parseInt(args[++index]);
+                    break;
+                case "-think":
+                    thinkMillis = Long.parseLong(args[++index]);
+                    break;
+                case "-connections":
+                    connectionCount = Integer.parseInt(args[++index]);
+                    break;
+                case "-retract":
+                    retractRate = Double.parseDouble(args[++index]);
+                    break;
+                case "-chat":
+                    chatRate = Double.parseDouble(args[++index]);
+                    break;
+                case "-defeat":
+                    defeatRate = Double.parseDouble(args[++index]);
+                    break;
+                case "-engine":
+                    engineName = args[++index];
+                    break;
+                case "-workers":
+                    workerCount = Integer.parseInt(args[++index]);
+                    break;
+                case "-seed":
+                    seed = Long.parseLong(args[++index]);
+                    break;
+                case "-connect":
+                    String hostPort = args[++index];
+                    address = new InetSocketAddress(hostPort.substring(0, hostPort.lastIndexOf(':')),
+                                                    Integer.parseInt(hostPort.substring(hostPort.lastIndexOf(':') + 1)));
+                    break;
+                default:
+                    System.err.println("unknown option: " + args[index]);
+                    System.exit(2);
+            }
+        }
+        botCount += botCount % 2; // 两两配对
+        if (connectionCount <= 0)
+            connectionCount = Math.max(2, botCount / 100);
+        
+        boolean localServer = (address == null);
+        if (localServer) {
+            ServerSocketChannel serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress("127.0.0.1", 0), 4096);
+            new Server(serverChannel, Server.Mode.NIO, Server.DEFAULT_EVENT_LOOP_COUNT, RoomExecutor.DEFAULT_WORKER_COUNT);
+            address = new InetSocketAddress("127.0.0.1", serverChannel.socket().getLocalPort());
+        }
+        
+        SessionMultiplexer[] connections = new SessionMultiplexer[connectionCount];
+        for (int index = 0; index < connectionCount; ++index)
+            connections[index] = new SessionMultiplexer(StreamTransport.connect(address));
+        RoomExecutor executor = new RoomExecutor(workerCount, "bot-worker");
+        executor.start();
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "bot-think-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<Bot> bots = new ArrayList<Bot>(botCount);
+        for (int index = 0; index < botCount; ++index) {
+            Random random = new Random(seed + index);
+            Engine engine = (engineName.equals("random") ? new RandomEngine(random) : new PatternEngine(random));
+            // 同一轮的机器人各在一个连接上
+            Bot bot = new Bot(new GameClient(connections[index % connectionCount], executor), engine, random, games);
+            bot.setThinkTime(scheduler, thinkMillis);
+            bot.setActionRates(retractRate, chatRate, defeatRate);
+            bots.add(bot);
+        }
+        
+        System.out.printf("%d bots on %d connections, %d games each, think %d ms, engine %s, server %s%n",
+                          botCount, connectionCount, games, thinkMillis, engineName, (localServer ? "in-process " + address : address));
+        ThreadSample serverBefore = (localServer ? ThreadSample.take(SERVER_THREAD_PREFIXES) : null);
+        long gcCountBefore = gcCount(), gcMillisBefore = gcMillis();
+        long startNanos = System.nanoTime();
+        // server 的大厅按到达顺序把队首的座位与下一个其他连接的座位配对，而各连接的报文到达顺序不确定，
+        // 一次全部启动时最后剩下的座位可能都在同一个连接上。每轮的座位各在一个连接上，总能配对（连接数为奇数时最多剩下一个，与下一轮配对）。
+        for (int first = 0; first < botCount; first += connectionCount) {
+            int end = Math.min(botCount, first + connectionCount);
+            for (int index = first; index < end; ++index)
+                bots.get(index).start();
+            awaitPaired(bots.subList(0, end), (end == botCount ? 0 : 1));
+        }
+        long nextProgressNanos = startNanos + PROGRESS_INTERVAL_MILLIS * 1000000;
+        int finishedBots = 0;
+        long lastFinishNanos = startNanos; // 最后一个机器人下完的时间
+        long lastProgressNanos = startNanos; // 最近一次有机器人落子或下完的时间
+        long lastMoves = -1;
+        while (finishedBots < botCount) {
+            Thread.sleep(POLL_INTERVAL_MILLIS);
+            int finishedNow = 0;
+            long moves = 0;
+            for (Bot bot : bots) {
+                if (bot.isFinished())
+                    ++finishedNow;
+                moves += bot.getMovesPlayed();
+            }
+            long now = System.nanoTime();
+            if (finishedNow > finishedBots || moves != lastMoves)
+                lastProgressNanos = now;
+            if (finishedNow > finishedBots) {
+                finishedBots = finishedNow;
+                lastFinishNanos = now;
+            }
+            lastMoves = moves;
+            if (now - lastProgressNanos > STALL_TIMEOUT_MILLIS * 1000000)
+                fail(String.format("no progress for %d s, %d of %d bots finished", STALL_TIMEOUT_MILLIS / 1000, finishedBots, botCount));
+            if (now >= nextProgressNanos) {
+                nextProgressNanos += PROGRESS_INTERVAL_MILLIS * 1000000;
+                long gamesPlayed = 0;
+                for (Bot bot : bots)
+                    gamesPlayed += bot.getGamesPlayed();
+                System.out.printf("%6.1f s: %d/%d games, %d moves%n", (now - startNanos) / 1e9, gamesPlayed / 2, (long) botCount * games / 2, moves);
+            }
+        }
+        long elapsedNanos = lastFinishNanos - startNanos;
+        ThreadSample serverAfter = (localServer ? ThreadSample.take(SERVER_THREAD_PREFIXES) : null);
+        
+        LatencyHistogram latency = new LatencyHistogram();
+        long moves = 0, retractions = 0, chats = 0, defeats = 0, gamesPlayed = 0;
+        for (Bot bot : bots) {
+            latency.merge(bot.getMoveLatency());
+            moves += bot.getMovesPlayed();
+            retractions += bot.getRetractions();
+            chats += bot.getChats();
+            defeats += bot.getDefeats();
+            gamesPlayed += bot.getGamesPlayed();
+        }
+        if (gamesPlayed < (long) botCount * games) // 连接断开时机器人也结束
+            fail(String.format("only %d of %d games played", gamesPlayed / 2, (long) botCount * games / 2));
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("%d games in %.1f s (%.1f games/s), %d moves (%.0f moves/s), %d retractions, %d chats, %d defeats%n",
+                          gamesPlayed / 2, seconds, gamesPlayed / 2 / seconds, moves, moves / seconds, retractions, chats, defeats);
+        System.out.println("move round trip: " + latency.summary());
+        if (localServer) {
+            System.out.printf("server: cpu %.1f%% of one core, allocation %.1f MB/s, %.0f bytes/move%n",
+                              100.0 * (serverAfter.cpuNanos - serverBefore.cpuNanos) / elapsedNanos,
+                              (serverAfter.allocatedBytes - serverBefore.allocatedBytes) / 1e6 / seconds,
+                              (double) (serverAfter.allocatedBytes - serverBefore.allocatedBytes) / Math.max(1, moves));
+        }
+        System.out.printf("jvm gc: %d collections, %d ms%n", gcCount() - gcCountBefore, gcMillis() - gcMillisBefore);
+        System.exit(0);
+    }
+    
+    
+    /**
+     * 等待已启动的机器人配对，超过 STALL_TIMEOUT_MILLIS 时失败。
+     *
+     * @param started     已启动的机器人
+     * @param maxUnpaired 允许剩下的未配对的机器人数
+     */
+    private static void awaitPaired(List<Bot> started, int maxUnpaired) throws InterruptedException {
+        long deadlineNanos = System.nanoTime() + STALL_TIMEOUT_MILLIS * 1000000;
+        while (true) {
+            int unpaired = 0;
+            for (Bot bot : started) {
+                if (!bot.isPaired())
+                    ++unpaired;
+            }
+            if (unpaired <= maxUnpaired)
+                return;
+            if (System.nanoTime() > deadlineNanos)
+                fail(String.format("%d of %d bots not paired after %d s", unpaired, started.size(), STALL_TIMEOUT_MILLIS / 1000));
+            Thread.sleep(PAIR_POLL_INTERVAL_MILLIS);
+        }
+    }
+    
+    
+    /**
+     * 有机器人没有下完时退出，不报告不完整的结果。
+     */
+    private static void fail(String reason) {
+        System.err.println("load generator failed: " + reason);
+        System.exit(1);
+    }
+    
+    
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+            count += Math.max(0, collector.getCollectionCount());
+        return count;
+    }
+    
+    
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+            millis += Math.max(0, collector.getCollectionTime());
+        return millis;
+    }
+    
+    
+    /**
+     * 按线程名称筛选的一组线程的 CPU 时间和内存分配量
+     * 只统计采样时仍存活的线程；内存分配量需要 HotSpot 的 com.sun.management.ThreadMXBean，不支持时为 0。
+     */
+    private static class ThreadSample {
+        long cpuNanos;
+        long allocatedBytes;
+        
+        
+        static ThreadSample take(String[] prefixes) {
+            java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            ThreadSample sample = new ThreadSample();
+            for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds())) {
+                if (info == null || !matches(info.getThreadName(), prefixes))
+                    continue;
+                sample.cpuNanos += Math.max(0, threads.getThreadCpuTime(info.getThreadId()));
+                if (threads instanceof com.sun.management.ThreadMXBean)
+                    sample.allocatedBytes += Math.max(0, ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(info.getThreadId()));
+            }
+            return sample;
+        }
+        
+        
+        private static boolean matches(String name, String[] prefixes) {
+            for (String prefix : prefixes) {
+                if (name.startsWith(prefix))
+                    return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package Gomoku;
+
+/**
+ * 只用于打包、拆包报文的 AbstractSocket，不处理任何接收到的报文。
+ * 供基准测试与命令行工具直接构造报文。
+ */
+public class MessagePacker extends AbstractSocket {
+    public MessagePacker(int socketId) {
+        this.socketId = socketId;
+    }
+    
+    
+    @Override
+    protected void handleNewGame(byte[] message) {
+    }
+    
+    
+    @Override
+    protected void handleInquireToNewGame(byte[] message) {
+    }
+    
+    
+    @Override
+    protected void handleAcceptToNewGame(byte[] message) {
+    }
+    
+    
+    @Override
+    protected void handleRejectToNewGame(byte[] message) {
+    }
+    
+    
+    @Override
+    protected void handleGameOver(byte[] message) {
+    }
+    
+    
+    @Override
+    protected void handleAdmitDefeat(byte[] message) {
+    }
+    
+    
+    @Override
+    protected void handlePutStone(byte[] message) {
+    }
+    
+    
+    @Override
+    protected void handleInquireToPutStone(byte[] message) {
+    }
+    
+    
+    @Override
+    protected void handleRetractStone(byte[] message) {
+    }
+    
+    
+    @Override
+    protected void handleInquireToRetractStone(byte[] message) {
+    }
+    
+    
+    @Override
+    protected void handleAcceptToRetractStone(byte[] message) {
+    }
+    
+    
+    @Override
+    protected void handleRejectToRetractStone(byte[] message) {
+    }
+    
+    
+    @Override
+    protected void handleChoosePlayerColor(byte[] message) {
+    }
+    
+    
+    @Override
+    protected void handleSetPlayerColor(byte[] message) {
+    }
+    
+    
+    @Override
+    protected void handleChatText(byte[] message) {
+    }
+    
+    
+    @Override
+    protected void handleStateSync(byte[] message) {
+    }
+    
+    
+    @Override
+    protected void handleInquireToRetractTo(byte[] message) {
+    }
+    
+    
+    @Override
+    protected void handleRetractTo(byte[] message) {
+    }
+    
+    
+    @Override
+    protected void handleClockSync(byte[] message) {
+    }
+}
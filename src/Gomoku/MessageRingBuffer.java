@@ -0,0 +1,135 @@
+package Gomoku;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * 多生产者单消费者（MPSC）环形缓冲区
+ * 接收线程向缓冲区发布消息，服务线程批量取出消息。
+ * 缓冲区为空时服务线程先短暂自旋，随后 park 挂起，由生产者在发布消息后唤醒，空闲时几乎不占用 CPU。
+ *
+ * @param <E> 消息类型
+ */
+public class MessageRingBuffer<E> {
+    private static final int SPIN_TRIES = 100; // 挂起前的自旋次数
+    
+    private final AtomicReferenceArray<E> slots; // 环形缓冲区槽位
+    private final int mask;
+    private final AtomicLong tail; // 下一个可被生产者占用的序号
+    private final AtomicLong head; // 下一个被消费者取出的序号（只由消费者写入）
+    private volatile Thread consumer; // 正在挂起等待的消费者线程，未挂起时为 null
+    
+    
+    /**
+     * @param capacity 缓冲区容量，向上取整为 2 的幂
+     */
+    public MessageRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        slots = new AtomicReferenceArray<E>(size);
+        mask = size - 1;
+        tail = new AtomicLong(0);
+        head = new AtomicLong(0);
+    }
+    
+    
+    /**
+     * 发布一条消息（可被多个线程同时调用）
+     * 缓冲区已满时让出 CPU 直到有空位。
+     *
+     * @param element 待发布的消息
+     */
+    public void publish(E element) {
+        long sequence;
+        while (true) {
+            sequence = tail.get();
+            if (sequence - head.get() > mask) {
+                Thread.yield(); // 缓冲区已满，等待消费者取出消息
+                continue;
+            }
+            if (tail.compareAndSet(sequence, sequence + 1))
+                break;
+        }
+        slots.set((int) sequence & mask, element);
+        Thread waitingConsumer = consumer;
+        if (waitingConsumer != null)
+            LockSupport.unpark(waitingConsumer);
+    }
+    
+    
+    /**
+     * 尝试发布一条消息（可被多个线程同时调用），缓冲区已满时立即返回，不等待。
+     *
+     * @param element 待发布的消息
+     *
+     * @return 是否发布成功
+     */
+    public boolean offer(E element) {
+        long sequence;
+        do {
+            sequence = tail.get();
+            if (sequence - head.get() > mask)
+                return false;
+        } while (!tail.compareAndSet(sequence, sequence + 1));
+        slots.set((int) sequence & mask, element);
+        Thread waitingConsumer = consumer;
+        if (waitingConsumer != null)
+            LockSupport.unpark(waitingConsumer);
+        return true;
+    }
+    
+    
+    /**
+     * 缓冲区中是否没有已发布的消息
+     */
+    public boolean isEmpty() {
+        return slots.get((int) head.get() & mask) == null;
+    }
+    
+    
+    /**
+     * 批量取出消息（只能由唯一的消费者线程调用）
+     * 缓冲区为空时阻塞，直到至少取出一条消息。
+     *
+     * @param handler  消息处理函数
+     * @param maxBatch 单次最多取出的消息数
+     *
+     * @return 取出的消息数
+     */
+    public int drain(Consumer<? super E> handler, int maxBatch) {
+        awaitMessage();
+        int count = 0;
+        long sequence = head.get();
+        while (count < maxBatch) {
+            int index = (int) sequence & mask;
+            E element = slots.get(index);
+            if (element == null)
+                break; // 没有更多已发布的消息
+            slots.lazySet(index, null);
+            head.lazySet(++sequence);
+            ++count;
+            handler.accept(element);
+        }
+        return count;
+    }
+    
+    
+    /**
+     * 等待直到缓冲区中有已发布的消息
+     */
+    private void awaitMessage() {
+        for (int tries = 0; tries < SPIN_TRIES; ++tries) {
+            if (!isEmpty())
+                return;
+            Thread.onSpinWait();
+        }
+        Thread currentThread = Thread.currentThread();
+        while (isEmpty()) {
+            consumer = currentThread;
+            if (isEmpty()) // 设置 consumer 之后再次检查，避免错过生产者的唤醒。
+                LockSupport.park(this);
+            consumer = null;
+        }
+    }
+}
@@ -0,0 +1,469 @@
+package Gomoku;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * 对局的预写日志（write-ahead log）
+ * 房间每次接受的落子、悔棋、选择颜色和认输/超时判负都追加一条定长记录，server 重启后按日志恢复所有房间，client 用恢复令牌重连。
+ * <pre>
+ * 记录（16 字节）：[类型 1][房间编号 4][内容 11]
+ * SEAT       [clientId 1][恢复令牌 8]
+ * NEW_GAME   [玩家 1 的 clientId 1]
+ * PUT        [i 1][j 1][落子方剩余的读秒次数 1][落子方剩余的总时间（毫秒）4]，没有计时的时候读秒次数为 0xFF。
+ * RETRACT_TO [悔棋完成后的棋子数 1]
+ * COLOR      [玩家 1 的颜色 1]
+ * GAME_OVER
+ * CLOSE      双方都已断开，恢复时忽略该房间。
+ * CLOCK      [玩家号 1][剩余的读秒次数 1][剩余的总时间（毫秒）4]，只出现在检查点中。
+ * </pre>
+ * 日志按段存放在目录中，每段是一个预先分配的文件（moves-代-段.wal），映射到内存后直接写入，写满后映射下一段。
+ * 类型字节最后写入，作为记录的提交标记：server 进程崩溃时已写入映射的记录都在操作系统的页缓存中，不会丢失，未写完的记录类型为 0，恢复时视为日志结尾。
+ * 记录长度整除页大小且按记录长度对齐，不会跨页写入一半。
+ * 后台线程把多条记录合并为一次 force（group commit）：每 syncIntervalMillis 毫秒一次，或者积累 syncBatch 条记录时立即一次，
+ * 操作系统崩溃时最多丢失最后一个批次；房间不等待写盘，落子的延迟不受影响。
+ * 恢复时读取旧的各代日志，恢复后房间把当前状态写入新一代日志作为检查点，之后删除旧的日志，日志不会随重启无限增长。
+ */
+public class MoveLog implements Closeable {
+    public static final int RECORD_LENGTH = 16;
+    public static final int DEFAULT_SEGMENT_SIZE = 64 << 20; // 每段的大小，可容纳 400 万条记录。
+    public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 10;
+    public static final int DEFAULT_SYNC_BATCH = 256;
+    
+    static final int SEAT = 1;
+    static final int NEW_GAME = 2;
+    static final int PUT = 3;
+    static final int RETRACT_TO = 4;
+    static final int COLOR = 5;
+    static final int GAME_OVER = 6;
+    static final int CLOSE = 7;
+    static final int CLOCK = 8;
+    private static final int NO_CLOCK = 0xFF;
+    
+    /**
+     * 按日志恢复的房间接收记录
+     */
+    interface Replayer {
+        void onNewGame(int player1ClientId);
+        
+        
+        /**
+         * @param periods 落子方剩余的读秒次数，没有计时的时候为 -1。
+         */
+        void onPut(int i, int j, long mainMillis, int periods);
+        
+        
+        void onRetractTo(int historySize);
+        
+        
+        void onColor(StoneType player1StoneType);
+        
+        
+        void onGameOver();
+        
+        
+        void onClock(int playerNumber, long mainMillis, int periods);
+    }
+    
+    
+    /**
+     * 从日志中恢复的房间：双方的恢复令牌和按顺序排列的对局记录
+     */
+    public static final class RecoveredRoom {
+        private final int roomId;
+        private final long[] resumeTokens; // 下标为 clientId
+        private byte[] records;
+        private int length;
+        
+        
+        private RecoveredRoom(int roomId) {
+            this.roomId = roomId;
+            resumeTokens = new long[3];
+            records = new byte[4 * RECORD_LENGTH];
+            length = 0;
+        }
+        
+        
+        private void add(MappedByteBuffer segment, int position) {
+            if (length == records.length)
+                records = Arrays.copyOf(records, 2 * length);
+            segment.get(position, records, length, RECORD_LENGTH);
+            length += RECORD_LENGTH;
+        }
+        
+        
+        public int getRoomId() {
+            return roomId;
+        }
+        
+        
+        /**
+         * @param clientId client 编号（1 或 2）
+         */
+        public long getResumeToken(int clientId) {
+            return resumeTokens[clientId];
+        }
+        
+        
+        boolean hasBothSeats() {
+            return resumeTokens[1] != 0 && resumeTokens[2] != 0;
+        }
+        
+        
+        /**
+         * 按顺序重放对局记录
+         */
+        void replay(Replayer replayer) {
+            for (int position = 0; position < length; position += RECORD_LENGTH) {
+                byte[] r = records;
+                int p = position + 5;
+                switch (r[position]) {
+                    case NEW_GAME:
+                        replayer.onNewGame(r[p]);
+                        break;
+                    case PUT:
+                        replayer.onPut(r[p], r[p + 1], readInt(r, p + 3) & 0xFFFFFFFFL, (r[p + 2] & 0xFF) == NO_CLOCK ? -1 : r[p + 2] & 0xFF);
+                        break;
+                    case RETRACT_TO:
+                        replayer.onRetractTo(r[p] & 0xFF);
+                        break;
+                    case COLOR:
+                        replayer.onColor(r[p] == 1 ? StoneType.BLACK : StoneType.WHITE);
+                        break;
+                    case GAME_OVER:
+                        replayer.onGameOver();
+                        break;
+                    case CLOCK:
+                        replayer.onClock(r[p], readInt(r, p + 2) & 0xFFFFFFFFL, r[p + 1] & 0xFF);
+                        break;
+                }
+            }
+            records = null; // 只重放一次
+        }
+    }
+    
+    
+    private final Path directory;
+    private final int generation; // 本次运行写入的日志代数
+    private final int segmentSize;
+    private final long syncIntervalMillis;
+    private final int syncBatch;
+    private final List<MappedByteBuffer> fullSegments; // 已写满、尚未写盘的段，不主动写盘时为空。
+    private final Thread syncer;
+    private FileChannel channel; // 当前段的文件
+    private MappedByteBuffer segment; // 当前段的映射
+    private int segmentIndex;
+    private int position; // 当前段的写入位置
+    private int syncedPosition; // 当前段已写盘的位置
+    private int unsyncedRecords; // 尚未写盘的记录数
+    private boolean closed;
+    
+    
+    /**
+     * 在目录中开始新一代的日志，目录中已有的日志不受影响，恢复后由 deleteOlderGenerations 删除。
+     *
+     * @param directory          日志目录，不存在时创建。
+     * @param syncIntervalMillis 写盘的间隔（毫秒），0 表示不主动写盘，只依靠操作系统回写。
+     * @param syncBatch          积累这么多条记录时立即写盘
+     */
+    public MoveLog(Path directory, long syncIntervalMillis, int syncBatch) throws IOException {
+        this(directory, syncIntervalMillis, syncBatch, DEFAULT_SEGMENT_SIZE);
+    }
+    
+    
+    /**
+     * @param segmentSize 每段的大小，按记录长度向下取整。
+     */
+    public MoveLog(Path directory, long syncIntervalMillis, int syncBatch, int segmentSize) throws IOException {
+        Files.createDirectories(directory);
+        this.directory = directory;
+        int lastGeneration = 0;
+        for (Path file : listSegments(directory))
+            lastGeneration = Math.max(lastGeneration, parseGeneration(file));
+        generation = lastGeneration + 1;
+        this.segmentSize = Math.max(RECORD_LENGTH, segmentSize / RECORD_LENGTH * RECORD_LENGTH);
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.syncBatch = Math.max(1, syncBatch);
+        fullSegments = new ArrayList<MappedByteBuffer>();
+        segmentIndex = 0;
+        unsyncedRecords = 0;
+        closed = false;
+        openSegment();
+        syncer = new Thread(this::syncLoop, "move-log-sync");
+        syncer.setDaemon(true);
+        if (syncIntervalMillis > 0)
+            syncer.start();
+    }
+    
+    
+    /**
+     * 读取目录中所有已有的日志，返回尚未关闭的房间，按房间编号排序。
+     * 每段读到第一条未写完的记录为止，之后的内容视为崩溃时丢失。
+     *
+     * @param directory 日志目录，不存在时没有房间。
+     */
+    public static List<RecoveredRoom> recover(Path directory) throws IOException {
+        Map<Integer, RecoveredRoom> rooms = new HashMap<Integer, RecoveredRoom>();
+        if (!Files.isDirectory(directory))
+            return new ArrayList<RecoveredRoom>();
+        for (Path file : listSegments(directory)) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                for (int position = 0; position + RECORD_LENGTH <= segment.capacity(); position += RECORD_LENGTH) {
+                    int type = segment.get(position);
+                    if (type < SEAT || type > CLOCK)
+                        break;
+                    int roomId = segment.getInt(position + 1);
+                    if (type == SEAT) {
+                        int clientId = segment.get(position + 5);
+                        if (clientId == 1 || clientId == 2)
+                            rooms.computeIfAbsent(roomId, RecoveredRoom::new).resumeTokens[clientId] = segment.getLong(position + 6);
+                    }
+                    else if (type == CLOSE)
+                        rooms.remove(roomId);
+                    else {
+                        RecoveredRoom room = rooms.get(roomId);
+                        if (room != null)
+                            room.add(segment, position);
+                    }
+                }
+            }
+        }
+        List<RecoveredRoom> recovered = new ArrayList<RecoveredRoom>(rooms.values());
+        recovered.removeIf(room -> !room.hasBothSeats());
+        recovered.sort((room1, room2) -> Integer.compare(room1.roomId, room2.roomId));
+        return recovered;
+    }
+    
+    
+    /**
+     * 写盘后删除之前各代的日志，检查点写完后调用。
+     */
+    public void deleteOlderGenerations() throws IOException {
+        sync();
+        for (Path file : listSegments(directory)) {
+            if (parseGeneration(file) < generation)
+                Files.delete(file);
+        }
+    }
+    
+    
+    private static List<Path> listSegments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> segments = new ArrayList<Path>();
+            files.filter(file -> file.getFileName().toString().matches("moves-\\d{6}-\\d{6}\\.wal")).forEach(segments::add);
+            segments.sort(null); // 文件名按代和段的顺序排列
+            return segments;
+        }
+    }
+    
+    
+    private static int parseGeneration(Path file) {
+        return Integer.parseInt(file.getFileName().toString().substring(6, 12));
+    }
+    
+    
+    private void openSegment() throws IOException {
+        Path file = directory.resolve(String.format("moves-%06d-%06d.wal", generation, segmentIndex++));
+        channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        position = 0;
+        syncedPosition = 0;
+    }
+    
+    
+    synchronized void appendSeat(int roomId, int clientId, long resumeToken) {
+        int position = reserve(roomId);
+        if (position < 0)
+            return;
+        segment.put(position + 5, (byte) clientId);
+        segment.putLong(position + 6, resumeToken);
+        commit(position, SEAT);
+    }
+    
+    
+    synchronized void appendNewGame(int roomId, int player1ClientId) {
+        int position = reserve(roomId);
+        if (position < 0)
+            return;
+        segment.put(position + 5, (byte) player1ClientId);
+        commit(position, NEW_GAME);
+    }
+    
+    
+    /**
+     * @param periods 落子方剩余的读秒次数，没有计时的时候为 -1。
+     */
+    synchronized void appendPut(int roomId, int i, int j, long mainMillis, int periods) {
+        int position = reserve(roomId);
+        if (position < 0)
+            return;
+        segment.put(position + 5, (byte) i);
+        segment.put(position + 6, (byte) j);
+        segment.put(position + 7, (byte) (periods < 0 ? NO_CLOCK : periods));
+        segment.putInt(position + 8, (int) mainMillis);
+        commit(position, PUT);
+    }
+    
+    
+    synchronized void appendRetractTo(int roomId, int historySize) {
+        int position = reserve(roomId);
+        if (position < 0)
+            return;
+        segment.put(position + 5, (byte) historySize);
+        commit(position, RETRACT_TO);
+    }
+    
+    
+    synchronized void appendColor(int roomId, StoneType player1StoneType) {
+        int position = reserve(roomId);
+        if (position < 0)
+            return;
+        segment.put(position + 5, (byte) (player1StoneType == StoneType.BLACK ? 1 : 2));
+        commit(position, COLOR);
+    }
+    
+    
+    synchronized void appendGameOver(int roomId) {
+        int position = reserve(roomId);
+        if (position >= 0)
+            commit(position, GAME_OVER);
+    }
+    
+    
+    synchronized void appendClose(int roomId) {
+        int position = reserve(roomId);
+        if (position >= 0)
+            commit(position, CLOSE);
+    }
+    
+    
+    synchronized void appendClock(int roomId, int playerNumber, long mainMillis, int periods) {
+        int position = reserve(roomId);
+        if (position < 0)
+            return;
+        segment.put(position + 5, (byte) playerNumber);
+        segment.put(position + 6, (byte) periods);
+        segment.putInt(position + 7, (int) mainMillis);
+        commit(position, CLOCK);
+    }
+    
+    
+    /**
+     * 为一条记录分配位置并写入房间编号，当前段已满时映射下一段。
+     * 追加记录的方法都加锁，加锁的范围只有写入映射的十几个字节，由各房间的工作线程调用。
+     *
+     * @return 记录的位置，日志已关闭时为 -1。
+     */
+    private int reserve(int roomId) {
+        if (closed)
+            return -1;
+        if (position == segmentSize) {
+            if (syncIntervalMillis > 0)
+                fullSegments.add(segment); // 不主动写盘时不保留写满的段，否则长时间运行时映射的内存不断增长。
+            try {
+                channel.close(); // 映射在关闭文件后仍然有效
+                openSegment();
+            }
+            catch (IOException e) {
+                closed = true;
+                System.err.println("move log disabled: " + e);
+                return -1;
+            }
+        }
+        segment.putInt(position + 1, roomId);
+        return position;
+    }
+    
+    
+    /**
+     * 最后写入类型，提交记录。
+     */
+    private void commit(int position, int type) {
+        segment.put(position, (byte) type);
+        this.position = position + RECORD_LENGTH;
+        if (++unsyncedRecords >= syncBatch)
+            notifyAll();
+    }
+    
+    
+    /**
+     * 把已追加的记录写盘
+     */
+    public void sync() {
+        List<MappedByteBuffer> full;
+        MappedByteBuffer current;
+        int from, to;
+        synchronized (this) {
+            full = new ArrayList<MappedByteBuffer>(fullSegments);
+            fullSegments.clear();
+            current = segment;
+            from = syncedPosition;
+            to = position;
+            unsyncedRecords = 0;
+        }
+        for (MappedByteBuffer segment : full)
+            segment.force();
+        if (to > from)
+            current.force(from, to - from);
+        synchronized (this) {
+            if (segment == current)
+                syncedPosition = Math.max(syncedPosition, to);
+        }
+    }
+    
+    
+    /**
+     * 后台写盘：每 syncIntervalMillis 毫秒一次，或者积累 syncBatch 条记录时提前一次。
+     */
+    private void syncLoop() {
+        while (true) {
+            synchronized (this) {
+                long deadline = System.nanoTime() + syncIntervalMillis * 1000000;
+                long remaining;
+                while (!closed && unsyncedRecords < syncBatch && (remaining = deadline - System.nanoTime()) > 0) {
+                    try {
+                        wait(Math.max(1, remaining / 1000000));
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed)
+                    return;
+            }
+            sync();
+        }
+    }
+    
+    
+    @Override
+    public void close() {
+        sync();
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+            try {
+                channel.close();
+            }
+            catch (IOException ignored) {
+            }
+        }
+    }
+    
+    
+    private static int readInt(byte[] buffer, int offset) {
+        return ((buffer[offset] & 0xFF) << 24) | ((buffer[offset + 1] & 0xFF) << 16) | ((buffer[offset + 2] & 0xFF) << 8) | (buffer[offset + 3] & 0xFF);
+    }
+}
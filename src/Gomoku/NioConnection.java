@@ -0,0 +1,220 @@
+package Gomoku;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 由 NIO 事件循环驱动的非阻塞 client 连接
+ */
+public class NioConnection extends Connection {
+    private final Server server;
+    private final SocketChannel channel;
+    private final EventLoop eventLoop;
+    private SelectionKey selectionKey;
+    private byte[] pending; // 尚未接收完整的报文片段
+    private final WireCodec codec;
+    private final ConcurrentLinkedQueue<ByteBuffer> writeQueue; // 待发送的报文
+    private final AtomicInteger queuedBytes; // 队列中尚未发送完的字节数，超过 MAX_QUEUED_BYTES 时关闭连接。
+    private volatile boolean overflowed; // 队列已超过上限，等待关闭，不再发送。
+    private final AtomicBoolean flushScheduled; // 是否已向事件循环提交发送任务
+    private volatile boolean closed;
+    
+    
+    public NioConnection(Server server, SocketChannel channel, EventLoop eventLoop) {
+        this.server = server;
+        this.channel = channel;
+        this.eventLoop = eventLoop;
+        pending = null;
+        codec = new WireCodec();
+        writeQueue = new ConcurrentLinkedQueue<ByteBuffer>();
+        queuedBytes = new AtomicInteger(0);
+        overflowed = false;
+        flushScheduled = new AtomicBoolean(false);
+        closed = false;
+    }
+    
+    
+    public SocketChannel getChannel() {
+        return channel;
+    }
+    
+    
+    /**
+     * 将连接注册到所属的事件循环上，开始接收报文。
+     */
+    @Override
+    public void start() {
+        eventLoop.register(this);
+    }
+    
+    
+    void setSelectionKey(SelectionKey selectionKey) {
+        this.selectionKey = selectionKey;
+        if (!writeQueue.isEmpty())
+            flush();
+    }
+    
+    
+    /**
+     * 通道可读时由事件循环调用
+     *
+     * @param readBuffer 事件循环共享的读缓冲区
+     */
+    void onReadable(ByteBuffer readBuffer) {
+        readBuffer.clear();
+        int count;
+        try {
+            count = channel.read(readBuffer);
+        }
+        catch (IOException e) {
+            count = -1;
+        }
+        if (count < 0) {
+            close();
+            return;
+        }
+        readBuffer.flip();
+        decode(readBuffer);
+    }
+    
+    
+    /**
+     * 从接收到的字节中拆分出完整的报文，不完整的部分留待下次读取。
+     * 格式错误时关闭连接。
+     *
+     * @param input 接收到的字节
+     */
+    private void decode(ByteBuffer input) {
+        ByteBuffer buffer = input;
+        if (pending != null) {
+            byte[] combined = Arrays.copyOf(pending, pending.length + input.remaining());
+            input.get(combined, pending.length, input.remaining());
+            buffer = ByteBuffer.wrap(combined);
+            pending = null;
+        }
+        try {
+            byte[] message;
+            while ((message = codec.decode(buffer)) != null) {
+                if (AbstractSocket.parseMessageType(message) == AbstractSocket.HELLO)
+                    onHello(message);
+                server.onMessage(this, message);
+            }
+        }
+        catch (IOException e) {
+            close();
+            return;
+        }
+        if (buffer.hasRemaining()) {
+            pending = new byte[buffer.remaining()];
+            buffer.get(pending);
+        }
+    }
+    
+    
+    /**
+     * 回复 client 的协议版本协商
+     */
+    private void onHello(byte[] message) {
+        synchronized (codec) {
+            byte[] reply = codec.onHello(message);
+            if (reply != null)
+                enqueue(reply);
+        }
+        scheduleFlush();
+    }
+    
+    
+    @Override
+    public void send(byte[] message) {
+        if (closed || overflowed)
+            return;
+        synchronized (codec) { // 在锁内编码并入队，保证序号与发送顺序一致。
+            enqueue(codec.encode(message));
+        }
+        scheduleFlush();
+    }
+    
+    
+    /**
+     * 把编码后的报文放入发送队列，client 长时间不读取使队列超过 MAX_QUEUED_BYTES 时丢弃报文，
+     * 与空闲的连接一样由 Server 回收，不让内存随积压的报文无限增长。
+     */
+    private void enqueue(byte[] bytes) {
+        if (overflowed)
+            return;
+        if (queuedBytes.addAndGet(bytes.length) > MAX_QUEUED_BYTES) {
+            overflowed = true;
+            server.reap(this);
+            return;
+        }
+        writeQueue.add(ByteBuffer.wrap(bytes));
+    }
+    
+    
+    private void scheduleFlush() {
+        if (eventLoop.inEventLoop())
+            flush();
+        else if (flushScheduled.compareAndSet(false, true))
+            eventLoop.execute(this::flush);
+    }
+    
+    
+    /**
+     * 在事件循环线程上发送队列中的报文，通道写满时等待下一次可写事件。
+     */
+    void flush() {
+        flushScheduled.set(false);
+        if (selectionKey == null || closed)
+            return;
+        try {
+            ByteBuffer buffer;
+            while ((buffer = writeQueue.peek()) != null) {
+                channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                writeQueue.poll();
+                queuedBytes.addAndGet(-buffer.limit());
+            }
+            selectionKey.interestOps(SelectionKey.OP_READ);
+        }
+        catch (IOException | CancelledKeyException e) {
+            close();
+        }
+    }
+    
+    
+    @Override
+    public int getVersion() {
+        return codec.getVersion();
+    }
+    
+    
+    @Override
+    public synchronized void close() {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            channel.close();
+        }
+        catch (IOException ignored) {
+        }
+        writeQueue.clear();
+        server.onClose(this);
+    }
+    
+    
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+}
@@ -0,0 +1,130 @@
+package Gomoku;
+
+import java.util.Random;
+
+/**
+ * 按棋型打分的引擎
+ * 只考虑已有棋子周围两格内的空位，对每个空位分别假设本方和对方在此落子，按四个方向上形成的连子数和活端数打分，
+ * 本方的分数加倍（先成五、再挡五、再成活四……），取最高分的位置，同分时随机选择。
+ * 长连（超过五子）不算赢，不计分。
+ */
+public class PatternEngine implements Engine {
+    private static final int[] dI = {1, 1, 0, -1};
+    private static final int[] dJ = {0, 1, 1, 1};
+    private static final int NEIGHBOR_DISTANCE = 2; // 候选位置与已有棋子的最大距离
+    
+    private final Random random;
+    private long lastScore; // 上一次选中位置的得分
+    
+    
+    public PatternEngine(Random random) {
+        this.random = random;
+        lastScore = 0;
+    }
+    
+    
+    @Override
+    public int chooseMove(Board board) {
+        if (board.hasNoHistory()) {
+            lastScore = 0;
+            return GameRecord.cellIndex((Board.n + 1) / 2, (Board.n + 1) / 2);
+        }
+        StoneType own = board.getNextStoneType();
+        StoneType opponent = (own == StoneType.BLACK ? StoneType.WHITE : StoneType.BLACK);
+        long bestScore = -1;
+        int bestCell = -1, ties = 0;
+        for (int i = 1; i <= Board.n; ++i) {
+            for (int j = 1; j <= Board.n; ++j) {
+                if (board.getStoneType(i, j) != StoneType.SPACE || !hasNeighbor(board, i, j))
+                    continue;
+                long score = 2 * score(board, i, j, own) + score(board, i, j, opponent);
+                if (score > bestScore) {
+                    bestScore = score;
+                    bestCell = GameRecord.cellIndex(i, j);
+                    ties = 1;
+                }
+                else if (score == bestScore && random.nextInt(++ties) == 0) // 蓄水池抽样，同分的位置等概率选中。
+                    bestCell = GameRecord.cellIndex(i, j);
+            }
+        }
+        lastScore = Math.max(bestScore, 0);
+        return bestCell;
+    }
+    
+    
+    /**
+     * 上一次 chooseMove 选中位置的得分（本方得分的两倍加对方得分），自对弈时作为局面的评估记录下来。
+     */
+    public long getLastScore() {
+        return lastScore;
+    }
+    
+    
+    private static boolean hasNeighbor(Board board, int i, int j) {
+        for (int di = -NEIGHBOR_DISTANCE; di <= NEIGHBOR_DISTANCE; ++di) {
+            for (int dj = -NEIGHBOR_DISTANCE; dj <= NEIGHBOR_DISTANCE; ++dj) {
+                if (isOnBoard(i + di, j + dj) && board.getStoneType(i + di, j + dj) != StoneType.SPACE)
+                    return true;
+            }
+        }
+        return false;
+    }
+    
+    
+    private static boolean isOnBoard(int i, int j) {
+        return (i >= 1 && i <= Board.n && j >= 1 && j <= Board.n);
+    }
+    
+    
+    /**
+     * 假设 type 一方在 (i, j) 落子，四个方向上的棋型得分之和。
+     */
+    private static long score(Board board, int i, int j, StoneType type) {
+        long score = 0;
+        for (int direction = 0; direction < 4; ++direction) {
+            int forward = 0, backward = 0;
+            while (isOnBoard(i + (forward + 1) * dI[direction], j + (forward + 1) * dJ[direction])
+                   && board.getStoneType(i + (forward + 1) * dI[direction], j + (forward + 1) * dJ[direction]) == type)
+                ++forward;
+            while (isOnBoard(i + (backward - 1) * dI[direction], j + (backward - 1) * dJ[direction])
+                   && board.getStoneType(i + (backward - 1) * dI[direction], j + (backward - 1) * dJ[direction]) == type)
+                --backward;
+            int openEnds = 0;
+            if (isOpen(board, i + (forward + 1) * dI[direction], j + (forward + 1) * dJ[direction]))
+                ++openEnds;
+            if (isOpen(board, i + (backward - 1) * dI[direction], j + (backward - 1) * dJ[direction]))
+                ++openEnds;
+            score += lineScore(forward - backward + 1, openEnds);
+        }
+        return score;
+    }
+    
+    
+    private static boolean isOpen(Board board, int i, int j) {
+        return isOnBoard(i, j) && board.getStoneType(i, j) == StoneType.SPACE;
+    }
+    
+    
+    /**
+     * 连子的得分
+     *
+     * @param length   连子数
+     * @param openEnds 两端中的空位数
+     */
+    private static long lineScore(int length, int openEnds) {
+        if (length == 5)
+            return 100000;
+        if (length > 5 || openEnds == 0)
+            return 0;
+        switch (length) {
+            case 4:
+                return (openEnds == 2 ? 10000 : 1000);
+            case 3:
+                return (openEnds == 2 ? 1000 : 100);
+            case 2:
+                return (openEnds == 2 ? 100 : 10);
+            default:
+                return openEnds;
+        }
+    }
+}
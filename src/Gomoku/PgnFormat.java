@@ -0,0 +1,383 @@
+package Gomoku;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 仿照国际象棋 PGN 的文本棋谱
+ * <pre>
+ * [Event "Gomoku"]
+ * [Date "2026.10.19"]            开始时间（UTC）
+ * [Time "08:30:00"]
+ * [Room "12"]
+ * [Black "3"]                    玩家编号
+ * [White "4"]
+ * [Result "1-0"]                 1-0 黑胜，0-1 白胜，1/2-1/2 平局，* 未知。
+ * [Termination "five"]           five、draw、resign、timeout、unknown
+ * [TimeControl "fischer:300+5"]  格式见 TimeControl.parse，不计时为 -。
+ * [Swap "3 white"]               开局选择颜色时棋盘上的棋子数和玩家 1 的颜色，没有选择颜色为 none。
+ * [Duration "61000"]             用时（毫秒）
+ * [Remaining "1000 2000"]        结束时玩家 1 和玩家 2 剩余的总时间（毫秒）
+ *
+ * 1. h8 i9 2. j10 h9 ... 1-0
+ * </pre>
+ * 着法为列（a 到 o）加行号（1 到 15），各局之间空一行，{} 中的注释被忽略。
+ * 导入时没有 Swap 标签的对局（其他程序生成的棋谱）黑方为玩家 1，没有 Termination 标签时按最后一手是否连珠判断。
+ */
+public final class PgnFormat {
+    private static final String[] RESULTS = {"1-0", "0-1", "1/2-1/2", "*"};
+    
+    
+    private PgnFormat() {
+    }
+    
+    
+    public static GameReader reader(BufferedReader input) {
+        return new PgnReader(input);
+    }
+    
+    
+    public static GameWriter writer(Writer output) {
+        return new PgnWriter(output);
+    }
+    
+    
+    /**
+     * 黑方的玩家号
+     */
+    private static int blackPlayerNumber(GameRecord record) {
+        return (record.getPlayer1StoneType() == StoneType.WHITE ? 2 : 1);
+    }
+    
+    
+    private static final class PgnReader implements GameReader {
+        private static final int NO_GAME = 0;
+        private static final int VALID = 1;
+        private static final int INVALID = 2;
+        
+        private final BufferedReader input;
+        private String pending; // 已读取、属于下一局的一行
+        private String result; // 当前一局着法末尾的结果，没有时为 null。
+        private long skippedCount;
+        
+        
+        PgnReader(BufferedReader input) {
+            this.input = input;
+            pending = null;
+            result = null;
+            skippedCount = 0;
+        }
+        
+        
+        @Override
+        public GameRecord read() throws IOException {
+            while (true) {
+                Map<String, String> tags = new HashMap<String, String>();
+                byte[] cells = new byte[Board.n * Board.n];
+                int[] moveCount = new int[1];
+                int state = readGame(tags, cells, moveCount);
+                if (state == NO_GAME)
+                    return null;
+                GameRecord record = (state == VALID ? toRecord(tags, Arrays.copyOf(cells, moveCount[0]), result) : null);
+                if (record != null)
+                    return record;
+                ++skippedCount;
+            }
+        }
+        
+        
+        /**
+         * 读取一局的标签和着法，遇到结果、下一局的标签或文件结束时停止。标签后出现过空行或着法时，再遇到的标签行属于下一局。
+         *
+         * @return NO_GAME、VALID 或 INVALID
+         */
+        private int readGame(Map<String, String> tags, byte[] cells, int[] moveCount) throws IOException {
+            boolean started = false, valid = true, inComment = false, inMoves = false, tagsEnded = false;
+            result = null;
+            while (true) {
+                String line = (pending != null ? pending : input.readLine());
+                pending = null;
+                if (line == null)
+                    break;
+                if (!inComment && line.startsWith("[")) {
+                    if (inMoves || tagsEnded) { // 没有结果的上一局，或只有标签的上一局
+                        pending = line;
+                        break;
+                    }
+                    parseTag(line, tags);
+                    started = true;
+                    continue;
+                }
+                if (started && !inComment && line.trim().isEmpty()) {
+                    tagsEnded = true; // 之后的标签属于下一局
+                    continue;
+                }
+                int index = 0, length = line.length();
+                while (index < length && result == null) {
+                    char c = line.charAt(index);
+                    if (inComment) {
+                        inComment = (c != '}');
+                        ++index;
+                        continue;
+                    }
+                    if (c == '{') {
+                        inComment = true;
+                        ++index;
+                        continue;
+                    }
+                    if (Character.isWhitespace(c)) {
+                        ++index;
+                        continue;
+                    }
+                    int end = index;
+                    while (end < length && !Character.isWhitespace(line.charAt(end)) && line.charAt(end) != '{')
+                        ++end;
+                    String token = line.substring(index, end);
+                    index = end;
+                    started = true;
+                    inMoves = true;
+                    if (isResult(token)) {
+                        result = token;
+                        break;
+                    }
+                    int cell = parseMove(token);
+                    if (cell == -2)
+                        continue; // 手数
+                    if (cell < 0 || moveCount[0] == cells.length)
+                        valid = false;
+                    else
+                        cells[moveCount[0]++] = (byte) cell;
+                }
+                if (result != null)
+                    break;
+            }
+            return (!started ? NO_GAME : (valid && inMoves ? VALID : INVALID)); // 只有标签、没有着法和结果的对局不合法
+        }
+        
+        
+        private static boolean isResult(String token) {
+            for (String result : RESULTS) {
+                if (result.equals(token))
+                    return true;
+            }
+            return false;
+        }
+        
+        
+        /**
+         * 解析 [Name "value"]
+         */
+        private static void parseTag(String line, Map<String, String> tags) {
+            int space = line.indexOf(' '), open = line.indexOf('"'), close = line.lastIndexOf('"');
+            if (space < 0 || open < 0 || close <= open)
+                return;
+            tags.put(line.substring(1, space), line.substring(open + 1, close));
+        }
+        
+        
+        /**
+         * 解析着法，例如 h8。
+         *
+         * @return 格子编号，手数（例如 12. 或 12...）为 -2，无法解析为 -1。
+         */
+        private static int parseMove(String token) {
+            if (Character.isDigit(token.charAt(0)) && token.endsWith("."))
+                return -2;
+            int j = token.charAt(0) - 'a' + 1, i = 0;
+            if (j < 1 || j > Board.n || token.length() < 2 || token.length() > 3)
+                return -1;
+            for (int index = 1; index < token.length(); ++index) {
+                char c = token.charAt(index);
+                if (c < '0' || c > '9')
+                    return -1;
+                i = 10 * i + (c - '0');
+            }
+            return (i >= 1 && i <= Board.n ? GameRecord.cellIndex(i, j) : -1);
+        }
+        
+        
+        /**
+         * 由标签和着法生成对局
+         *
+         * @return 对局，标签或着法不合法时为 null。
+         */
+        private static GameRecord toRecord(Map<String, String> tags, byte[] cells, String result) {
+            try {
+                String swap = tags.get("Swap");
+                int presetStoneNumber = 0;
+                StoneType player1StoneType = StoneType.BLACK;
+                if ("none".equals(swap))
+                    player1StoneType = StoneType.SPACE;
+                else if (swap != null) {
+                    String[] fields = swap.split(" ");
+                    presetStoneNumber = Integer.parseInt(fields[0]);
+                    player1StoneType = StoneType.valueOf(fields[1].toUpperCase());
+                }
+                int blackNumber = (player1StoneType == StoneType.WHITE ? 2 : 1);
+                int blackId = parseInt(tags.get("Black")), whiteId = parseInt(tags.get("White"));
+                if (result == null)
+                    result = tags.getOrDefault("Result", "*");
+                String termination = tags.get("Termination");
+                GameRecord.Reason reason = (termination == null ? null : GameRecord.Reason.valueOf(termination.toUpperCase()));
+                int winnerNumber = 0;
+                if (result.equals("1-0"))
+                    winnerNumber = blackNumber;
+                else if (result.equals("0-1"))
+                    winnerNumber = 3 - blackNumber;
+                long startEpochMillis = 0;
+                if (tags.containsKey("Date")) {
+                    String[] date = tags.get("Date").split("\\.");
+                    String[] time = tags.getOrDefault("Time", "00:00:00").split(":");
+                    startEpochMillis = LocalDateTime.of(Integer.parseInt(date[0]), Integer.parseInt(date[1]), Integer.parseInt(date[2]),
+                                                        Integer.parseInt(time[0]), Integer.parseInt(time[1]), Integer.parseInt(time[2]))
+                                                    .toInstant(ZoneOffset.UTC).toEpochMilli();
+                }
+                String timeControl = tags.getOrDefault("TimeControl", "-");
+                String[] remaining = tags.getOrDefault("Remaining", "0 0").split(" ");
+                GameRecord record = new GameRecord(parseInt(tags.get("Room")), (blackNumber == 1 ? blackId : whiteId), (blackNumber == 1 ? whiteId : blackId),
+                                                   winnerNumber, (reason == null ? GameRecord.Reason.UNKNOWN : reason), presetStoneNumber, player1StoneType,
+                                                   startEpochMillis, Long.parseLong(tags.getOrDefault("Duration", "0")),
+                                                   (timeControl.equals("-") ? null : TimeControl.parse(timeControl)),
+                                                   Long.parseLong(remaining[0]), Long.parseLong(remaining[1]), cells);
+                if (reason != null) // 记录了结束原因时只需检查重复落子，不用摆出棋盘。
+                    return (hasDuplicate(cells) ? null : record);
+                Board board = record.toBoard();
+                // 没有记录结束原因：按棋盘判断
+                if (board.isGameOver() && board.getIndexOfRowStones().size() >= 5)
+                    reason = GameRecord.Reason.FIVE;
+                else if (board.isGameOver())
+                    reason = GameRecord.Reason.DRAW;
+                else
+                    return record;
+                if (result.equals("*"))
+                    winnerNumber = (reason == GameRecord.Reason.DRAW ? 0 : (cells.length % 2 == 1 ? blackNumber : 3 - blackNumber));
+                return new GameRecord(record.getRoomId(), record.getPlayer1Id(), record.getPlayer2Id(), winnerNumber, reason, presetStoneNumber,
+                                      player1StoneType, startEpochMillis, record.getDurationMillis(), record.getTimeControl(),
+                                      record.getRemainingMillis(1), record.getRemainingMillis(2), cells);
+            }
+            catch (IllegalArgumentException | IndexOutOfBoundsException | java.time.DateTimeException e) {
+                return null;
+            }
+        }
+        
+        
+        private static boolean hasDuplicate(byte[] cells) {
+            long[] placed = new long[(Board.n * Board.n + 63) / 64];
+            for (byte cell : cells) {
+                int index = cell & 0xFF;
+                if ((placed[index >> 6] & 1L << index) != 0)
+                    return true;
+                placed[index >> 6] |= 1L << index;
+            }
+            return false;
+        }
+        
+        
+        private static int parseInt(String text) {
+            try {
+                return (text == null ? 0 : Integer.parseInt(text));
+            }
+            catch (NumberFormatException e) {
+                return 0; // 其他程序的棋谱中玩家是名字
+            }
+        }
+        
+        
+        @Override
+        public long getSkippedCount() {
+            return skippedCount;
+        }
+        
+        
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+    }
+    
+    
+    private static final class PgnWriter implements GameWriter {
+        private static final int LINE_WIDTH = 80;
+        
+        private final Writer output;
+        private final StringBuilder text;
+        
+        
+        PgnWriter(Writer output) {
+            this.output = output;
+            text = new StringBuilder(4096);
+        }
+        
+        
+        @Override
+        public void write(GameRecord record) throws IOException {
+            int blackNumber = blackPlayerNumber(record);
+            String result;
+            if (record.getWinnerNumber() == 0)
+                result = (record.getReason() == GameRecord.Reason.DRAW ? "1/2-1/2" : "*");
+            else
+                result = (record.getWinnerNumber() == blackNumber ? "1-0" : "0-1");
+            LocalDateTime start = LocalDateTime.ofInstant(Instant.ofEpochMilli(record.getStartEpochMillis()), ZoneOffset.UTC);
+            text.setLength(0);
+            tag("Event", "Gomoku");
+            tag("Date", start.getYear() + "." + twoDigits(start.getMonthValue()) + "." + twoDigits(start.getDayOfMonth()));
+            tag("Time", twoDigits(start.getHour()) + ":" + twoDigits(start.getMinute()) + ":" + twoDigits(start.getSecond()));
+            tag("Room", Integer.toString(record.getRoomId()));
+            tag("Black", Integer.toString(blackNumber == 1 ? record.getPlayer1Id() : record.getPlayer2Id()));
+            tag("White", Integer.toString(blackNumber == 1 ? record.getPlayer2Id() : record.getPlayer1Id()));
+            tag("Result", result);
+            tag("Termination", record.getReason().name().toLowerCase());
+            tag("TimeControl", (record.getTimeControl() == null ? "-" : record.getTimeControl().toString()));
+            tag("Swap", (record.getPlayer1StoneType() == StoneType.SPACE ? "none"
+                                                                            : record.getPresetStoneNumber() + " " + record.getPlayer1StoneType().name().toLowerCase()));
+            tag("Duration", Long.toString(record.getDurationMillis()));
+            tag("Remaining", record.getRemainingMillis(1) + " " + record.getRemainingMillis(2));
+            text.append('\n');
+            int lineStart = text.length();
+            for (int ply = 0; ply < record.getMoveCount(); ++ply) {
+                int cell = record.getCell(ply);
+                String move = (ply % 2 == 0 ? (ply / 2 + 1) + ". " : "") + (char) ('a' + GameRecord.cellJ(cell) - 1) + GameRecord.cellI(cell);
+                if (text.length() - lineStart + move.length() + 1 > LINE_WIDTH) {
+                    text.append('\n');
+                    lineStart = text.length();
+                }
+                else if (text.length() > lineStart)
+                    text.append(' ');
+                text.append(move);
+            }
+            if (text.length() > lineStart)
+                text.append(' ');
+            text.append(result).append("\n\n");
+            output.append(text);
+        }
+        
+        
+        private static String twoDigits(int value) {
+            return (value < 10 ? "0" + value : Integer.toString(value));
+        }
+        
+        
+        private void tag(String name, String value) {
+            text.append('[').append(name).append(" \"").append(value).append("\"]\n");
+        }
+        
+        
+        @Override
+        public void flush() throws IOException {
+            output.flush();
+        }
+        
+        
+        @Override
+        public void close() throws IOException {
+            output.close();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package Gomoku;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Piskvork 的 .psq 棋谱
+ * <pre>
+ * Piskvorky 15x15, 11:11, 0
+ * 8,8,1250      每手一行：列,行,用时（毫秒），坐标从 1 开始。
+ * 9,8,900
+ * ...
+ * </pre>
+ * 着法之后的其他行（引擎名称等）被忽略，同一个文件中可以依次存放多局，每局以 Piskvorky 行开始。
+ * .psq 只记录着法：导入的对局黑方为玩家 1，不经过选择颜色；胜负按最后一手是否连珠判断，用时为所有着法用时之和。
+ * 导出时丢弃开局的选择、玩家和计时等信息。
+ */
+public final class PsqFormat {
+    private static final String HEADER = "Piskvorky";
+    
+    
+    private PsqFormat() {
+    }
+    
+    
+    public static GameReader reader(BufferedReader input) {
+        return new PsqReader(input);
+    }
+    
+    
+    public static GameWriter writer(Writer output) {
+        return new PsqWriter(output);
+    }
+    
+    
+    /**
+     * 由着法生成导入的对局：黑方为玩家 1，最后一手连珠时为胜者，棋盘下满时为平局。
+     *
+     * @return 对局，着法不合法（重复落子）时为 null。
+     */
+    static GameRecord fromMoves(byte[] cells, long durationMillis) {
+        GameRecord moves = new GameRecord(0, 0, 0, 0, GameRecord.Reason.UNKNOWN, 0, StoneType.BLACK, 0, durationMillis, null, 0, 0, cells);
+        Board board;
+        try {
+            board = moves.toBoard();
+        }
+        catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (!board.isGameOver())
+            return moves;
+        if (board.getIndexOfRowStones().size() >= 5)
+            return new GameRecord(0, 0, 0, (cells.length % 2 == 1 ? 1 : 2), GameRecord.Reason.FIVE, 0, StoneType.BLACK, 0, durationMillis, null, 0, 0, cells);
+        return new GameRecord(0, 0, 0, 0, GameRecord.Reason.DRAW, 0, StoneType.BLACK, 0, durationMillis, null, 0, 0, cells);
+    }
+    
+    
+    private static final class PsqReader implements GameReader {
+        private final BufferedReader input;
+        private String line; // 已读取、尚未处理的一行
+        private long skippedCount;
+        
+        
+        PsqReader(BufferedReader input) {
+            this.input = input;
+            line = null;
+            skippedCount = 0;
+        }
+        
+        
+        @Override
+        public GameRecord read() throws IOException {
+            while (true) {
+                if (line == null)
+                    line = input.readLine();
+                while (line != null && !line.startsWith(HEADER)) // 跳到下一局的开始
+                    line = input.readLine();
+                if (line == null)
+                    return null;
+                boolean fits = isStandardBoard(line);
+                byte[] cells = new byte[Board.n * Board.n];
+                int moveCount = 0;
+                long durationMillis = 0;
+                while ((line = input.readLine()) != null && !line.startsWith(HEADER)) {
+                    long[] move = parseMove(line);
+                    if (move == null)
+                        break; // 着法结束
+                    if (move[0] < 1 || move[0] > Board.n || move[1] < 1 || move[1] > Board.n || moveCount == cells.length)
+                        fits = false;
+                    else
+                        cells[moveCount++] = (byte) GameRecord.cellIndex((int) move[1], (int) move[0]);
+                    durationMillis += move[2];
+                }
+                GameRecord record = (fits ? fromMoves(Arrays.copyOf(cells, moveCount), durationMillis) : null);
+                if (record != null)
+                    return record;
+                ++skippedCount;
+            }
+        }
+        
+        
+        /**
+         * 第一行是否为 15x15 的棋盘，例如 Piskvorky 15x15, 11:11, 0。
+         */
+        private static boolean isStandardBoard(String header) {
+            int comma = header.indexOf(',');
+            String size = (comma < 0 ? header.substring(HEADER.length()) : header.substring(HEADER.length(), comma)).trim();
+            return size.equals(Board.n + "x" + Board.n);
+        }
+        
+        
+        /**
+         * 解析着法行“列,行,用时”，用时可以省略。
+         *
+         * @return [列, 行, 用时]，不是着法行时为 null。
+         */
+        private static long[] parseMove(String text) {
+            long[] move = new long[3];
+            int field = 0;
+            boolean digits = false;
+            for (int index = 0; index < text.length(); ++index) {
+                char c = text.charAt(index);
+                if (c >= '0' && c <= '9') {
+                    move[field] = 10 * move[field] + (c - '0');
+                    digits = true;
+                    if (move[field] > Integer.MAX_VALUE)
+                        return null;
+                }
+                else if (c == ',' && digits && field < 2) {
+                    ++field;
+                    digits = false;
+                }
+                else if (c != ' ' && c != '\t' && c != '\r')
+                    return null;
+            }
+            return (field >= 1 && digits ? move : null);
+        }
+        
+        
+        @Override
+        public long getSkippedCount() {
+            return skippedCount;
+        }
+        
+        
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+    }
+    
+    
+    private static final class PsqWriter implements GameWriter {
+        private final Writer output;
+        private final StringBuilder text;
+        
+        
+        PsqWriter(Writer output) {
+            this.output = output;
+            text = new StringBuilder(4096);
+        }
+        
+        
+        @Override
+        public void write(GameRecord record) throws IOException {
+            text.setLength(0);
+            text.append(HEADER).append(' ').append(Board.n).append('x').append(Board.n).append(", 11:11, 0\n");
+            for (int ply = 0; ply < record.getMoveCount(); ++ply) {
+                int cell = record.getCell(ply);
+                text.append(GameRecord.cellJ(cell)).append(',').append(GameRecord.cellI(cell)).append(",0\n");
+            }
+            output.append(text);
+        }
+        
+        
+        @Override
+        public void flush() throws IOException {
+            output.flush();
+        }
+        
+        
+        @Override
+        public void close() throws IOException {
+            output.close();
+        }
+    }
+}
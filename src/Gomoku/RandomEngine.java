@@ -0,0 +1,31 @@
+package Gomoku;
+
+import java.util.Random;
+
+/**
+ * 随机落子的引擎，在所有空位中均匀选择。
+ */
+public class RandomEngine implements Engine {
+    private final Random random;
+    
+    
+    public RandomEngine(Random random) {
+        this.random = random;
+    }
+    
+    
+    @Override
+    public int chooseMove(Board board) {
+        int emptyCells = Board.n * Board.n - board.getHistorySize();
+        if (emptyCells <= 0)
+            return -1;
+        int target = random.nextInt(emptyCells); // 第 target 个空位
+        for (int i = 1; i <= Board.n; ++i) {
+            for (int j = 1; j <= Board.n; ++j) {
+                if (board.getStoneType(i, j) == StoneType.SPACE && target-- == 0)
+                    return GameRecord.cellIndex(i, j);
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,1171 @@
+package Gomoku;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.EmptyStackException;
+
+/**
+ * 游戏房间
+ * 每个房间拥有独立的棋盘、玩家编号映射以及正在进行的协商，房间内的两个 client 编号分别为 1 和 2。
+ * 新建游戏、悔棋和选择执子颜色是房间内的协商（Negotiation）：同一时间只有一个，只有被请求的一方的回答能结束协商，
+ * 其他报文（聊天、认输、落子）照常处理；新建游戏和悔棋的请求在 NEGOTIATION_TIMEOUT_MILLIS 内没有回答视为拒绝，选择颜色由回合计时限制。
+ * 房间状态只由 RoomExecutor 中固定的一个工作线程读写，因此不需要加锁。
+ * 对局的计时由 server 负责：按计时规则记录双方的剩余时间，当前回合在时间轮上登记一个超时，超时的一方判负；等待对方回答请求时暂停计时。
+ * 落子时扣除的用时减去该玩家连接的往返时间（最多 MAX_LAG_CREDIT_MILLIS），网络延迟不计入玩家的用时。
+ * 计时状态附在发给新版 client 的 PUT_STONE 之后，其他变化单独发送 CLOCK_SYNC，client 只显示时间，不再自行判负。
+ * 接受的落子、悔棋、选择颜色和判负写入预写日志（MoveLog），server 重启后按日志重放恢复房间，第一个玩家重连时继续计时。
+ * 结束的对局提交给棋谱库（GameArchive）保存。
+ */
+public class Room extends AbstractSocket {
+    /**
+     * 房间中正在进行的协商
+     */
+    private enum Negotiation {
+        NONE,        // 没有协商
+        NEW_GAME,    // 请求新建游戏，超时视为拒绝。
+        RETRACT,     // 请求悔棋（一步或至指定手数），超时视为拒绝。
+        COLOR_CHOICE // 选择执子颜色，由回合计时限制。
+    }
+    
+    
+    private static final int YES_OPTION = 0; // client 对话框的按键，与 JOptionPane 的取值相同，server 不加载 Swing。
+    private static final int NO_OPTION = 1;
+    public static final long MAX_LAG_CREDIT_MILLIS = 1000; // 每手最多补偿的网络延迟
+    public static final long NEGOTIATION_TIMEOUT_MILLIS = 30000; // 新建游戏和悔棋的请求等待回答的最长时间
+    
+    private final int roomId; // 房间编号
+    private Negotiation negotiation; // 正在进行的协商
+    private int responderClientId; // 需要回答协商的 client 的编号（1 或 2），没有协商时为 0。
+    private TimingWheel.Timeout negotiationTimeout; // 协商的超时，没有超时时为 null。
+    private int negotiationNumber; // 协商的序号，用于识别已经过期的超时。
+    private final Board board; // 棋盘
+    private int player1ClientId; // 玩家 1 的客户端编号（1 或 2）
+    private final Seat[] clients; // 房间内的 client 座位，下标为 clientId（1 或 2）。
+    private byte[] pendingInquiry; // 正在等待回应的请求，client 断线重连后重新发送。
+    private int retractTarget; // 正在请求的悔棋目标手数，只悔一步时为 -1。
+    private long gameStartNanos; // 本局开始的时间
+    private final TimingWheel timingWheel; // 回合超时的定时器，为 null 时不计时。
+    private final RoomExecutor executor; // 超时后在房间的工作线程上判负
+    private final GameClock clock; // 双方的计时
+    private TimingWheel.Timeout turnTimeout; // 当前回合的超时，没有计时或暂停时为 null。
+    private int turnNumber; // 超时的序号，用于识别已经过期的超时。
+    private final MoveLog moveLog; // 对局的预写日志，为 null 时不记录。
+    private boolean restored; // 是否从日志恢复后尚无玩家重连，此时不计时。
+    private final GameArchive archive; // 保存结束的对局，为 null 时不保存。
+    private long gameStartEpochMillis; // 本局开始的时间（epoch 毫秒），写入棋谱库。
+    
+    
+    /**
+     * 创建不计时的房间
+     */
+    public Room(int roomId, Seat client1, Seat client2) {
+        this(roomId, client1, client2, null, null, TimeControl.DEFAULT);
+    }
+    
+    
+    /**
+     * @param timingWheel 回合超时的定时器，为 null 时不计时。
+     * @param executor    房间所在的工作线程
+     * @param timeControl 计时规则
+     */
+    public Room(int roomId, Seat client1, Seat client2, TimingWheel timingWheel, RoomExecutor executor, TimeControl timeControl) {
+        this(roomId, client1, client2, timingWheel, executor, timeControl, null);
+    }
+    
+    
+    /**
+     * @param moveLog 对局的预写日志，为 null 时不记录。
+     */
+    public Room(int roomId, Seat client1, Seat client2, TimingWheel timingWheel, RoomExecutor executor, TimeControl timeControl, MoveLog moveLog) {
+        this(roomId, client1, client2, timingWheel, executor, timeControl, moveLog, null);
+    }
+    
+    
+    /**
+     * @param archive 保存结束的对局的棋谱库，为 null 时不保存。
+     */
+    public Room(int roomId, Seat client1, Seat client2, TimingWheel timingWheel, RoomExecutor executor, TimeControl timeControl, MoveLog moveLog,
+                GameArchive archive) {
+        super();
+        socketId = 0;
+        this.roomId = roomId;
+        board = new Board();
+        negotiation = Negotiation.NONE;
+        responderClientId = 0;
+        negotiationTimeout = null;
+        negotiationNumber = 0;
+        player1ClientId = 0;
+        clients = new Seat[]{null, client1, client2};
+        pendingInquiry = null;
+        retractTarget = -1;
+        gameStartNanos = System.nanoTime();
+        this.timingWheel = timingWheel;
+        this.executor = executor;
+        clock = new GameClock(timeControl);
+        turnTimeout = null;
+        turnNumber = 0;
+        this.moveLog = moveLog;
+        restored = false;
+        this.archive = archive;
+        gameStartEpochMillis = System.currentTimeMillis();
+        if (moveLog != null) {
+            moveLog.appendSeat(roomId, 1, client1.getResumeToken());
+            moveLog.appendSeat(roomId, 2, client2.getResumeToken());
+        }
+        client1.joinRoom(this, 1);
+        client2.joinRoom(this, 2);
+        for (Seat seat : new Seat[]{client1, client2}) {
+            if (seat.getConnection().getVersion() >= WireCodec.VERSION_2) // 旧版 client 不支持断线恢复
+                seat.send(packResumeToken(RESUME_TOKEN, seat.getResumeToken()));
+        }
+    }
+    
+    
+    public Seat getSeat(int clientId) {
+        return clients[clientId];
+    }
+    
+    
+    public int getRoomId() {
+        return roomId;
+    }
+    
+    
+    /**
+     * 处理房间收到的报文，先按正在进行的协商过滤，不是对当前协商的回答被丢弃。
+     * 等待对方回答新建游戏或悔棋时暂停计时。
+     *
+     * @param message 接收到的报文
+     */
+    public void dispatchMessage(byte[] message) {
+        if (negotiate(parseSocketId(message), parseMessageType(message)))
+            handleMessage(message);
+        if (negotiation == Negotiation.NEW_GAME || negotiation == Negotiation.RETRACT)
+            pauseClock();
+        else
+            resumeClock();
+    }
+    
+    
+    /**
+     * 协商的状态转移：回答只在对应的协商中、由被请求的一方发出时有效，有效的回答结束协商；
+     * 协商进行中的新请求直接拒绝，双方同时请求新建游戏视为同意；
+     * 轮到的一方落子时取代正在进行的新建游戏或悔棋请求，被请求的一方落子视为拒绝；认输结束悔棋和选择颜色的协商。
+     *
+     * @param srcClientId 报文来源的 client 编号
+     * @param messageType 报文类型
+     *
+     * @return 是否继续处理该报文
+     */
+    private boolean negotiate(int srcClientId, int messageType) {
+        switch (messageType) {
+            case ACCEPT_TO_NEW_GAME:
+            case REJECT_TO_NEW_GAME:
+                return answer(Negotiation.NEW_GAME, srcClientId);
+            case ACCEPT_TO_RETRACT_STONE:
+            case REJECT_TO_RETRACT_STONE:
+                return answer(Negotiation.RETRACT, srcClientId);
+            case CHOOSE_PLAYER_COLOR:
+                return answer(Negotiation.COLOR_CHOICE, srcClientId);
+            case INQUIRE_TO_NEW_GAME:
+                if (negotiation == Negotiation.NEW_GAME && srcClientId == responderClientId) {
+                    endNegotiation();
+                    byte[] acceptMessage = packMessage(ACCEPT_TO_NEW_GAME, null);
+                    acceptMessage[0] = (byte) srcClientId;
+                    handleAcceptToNewGame(acceptMessage);
+                    return false;
+                }
+                if (negotiation != Negotiation.NONE) {
+                    sendToClient(srcClientId, packMessage(REJECT_TO_NEW_GAME, null));
+                    return false;
+                }
+                return true;
+            case INQUIRE_TO_RETRACT_STONE:
+            case INQUIRE_TO_RETRACT_TO:
+                if (negotiation != Negotiation.NONE) {
+                    sendToClient(srcClientId, packMessage(REJECT_TO_RETRACT_STONE, null));
+                    return false;
+                }
+                return true;
+            case INQUIRE_TO_PUT_STONE:
+                if (negotiation == Negotiation.COLOR_CHOICE)
+                    return false;
+                if (negotiation != Negotiation.NONE && board.isGameStarted() && getPlayerNumber(srcClientId) == board.getNextPlayerNumber()) {
+                    if (srcClientId == responderClientId)
+                        rejectNegotiation();
+                    else
+                        endNegotiation(); // 请求的一方撤回请求
+                    resumeClock();
+                }
+                return (negotiation == Negotiation.NONE);
+            case ADMIT_DEFEAT:
+                if (negotiation == Negotiation.RETRACT)
+                    rejectNegotiation();
+                else if (negotiation == Negotiation.COLOR_CHOICE)
+                    endNegotiation();
+                return true;
+            default:
+                return true;
+        }
+    }
+    
+    
+    /**
+     * 报文是否是对当前协商的回答，是则结束协商。
+     *
+     * @param kind        报文回答的协商
+     * @param srcClientId 报文来源的 client 编号
+     */
+    private boolean answer(Negotiation kind, int srcClientId) {
+        if (negotiation != kind || srcClientId != responderClientId)
+            return false;
+        endNegotiation();
+        return true;
+    }
+    
+    
+    /**
+     * 开始协商，新建游戏和悔棋的请求在时间轮上登记超时。
+     *
+     * @param kind              协商的种类
+     * @param responderClientId 需要回答的 client 编号
+     * @param inquiry           转发给对方的请求，client 断线重连后重新发送；选择颜色时为 null。
+     */
+    private void startNegotiation(Negotiation kind, int responderClientId, byte[] inquiry) {
+        endNegotiation();
+        negotiation = kind;
+        this.responderClientId = responderClientId;
+        pendingInquiry = inquiry;
+        if (timingWheel != null && kind != Negotiation.COLOR_CHOICE) {
+            int number = negotiationNumber;
+            negotiationTimeout = timingWheel.schedule(() -> executor.execute(roomId, () -> onNegotiationTimeout(number)), NEGOTIATION_TIMEOUT_MILLIS);
+        }
+    }
+    
+    
+    private void endNegotiation() {
+        if (negotiationTimeout != null)
+            negotiationTimeout.cancel();
+        negotiationTimeout = null;
+        ++negotiationNumber;
+        negotiation = Negotiation.NONE;
+        responderClientId = 0;
+        pendingInquiry = null;
+    }
+    
+    
+    /**
+     * 结束新建游戏或悔棋的协商，并告知请求的一方被拒绝。
+     */
+    private void rejectNegotiation() {
+        int requesterClientId = 3 - responderClientId;
+        byte[] rejectMessage = packMessage(negotiation == Negotiation.NEW_GAME ? REJECT_TO_NEW_GAME : REJECT_TO_RETRACT_STONE, null);
+        endNegotiation();
+        sendToClient(requesterClientId, rejectMessage);
+    }
+    
+    
+    /**
+     * 请求在 NEGOTIATION_TIMEOUT_MILLIS 内没有回答，视为拒绝，恢复计时。
+     *
+     * @param number 登记超时时的协商序号，协商已经结束时忽略。
+     */
+    private void onNegotiationTimeout(int number) {
+        if (number != negotiationNumber || negotiation == Negotiation.NONE)
+            return;
+        rejectNegotiation();
+        resumeClock();
+    }
+    
+    
+    /**
+     * @param clientId client 编号
+     *
+     * @return 玩家号，尚未开始游戏时为 0。
+     */
+    private int getPlayerNumber(int clientId) {
+        if (player1ClientId == 0)
+            return 0;
+        return (clientId == player1ClientId ? 1 : 2);
+    }
+    
+    
+    /**
+     * 双方都已断开，停止计时，日志中的房间不再恢复。
+     */
+    public void close() {
+        stopClock();
+        if (moveLog != null)
+            moveLog.appendClose(roomId);
+    }
+    
+    
+    /**
+     * 按日志重放对局，只改变棋盘和计时，不向 client 发送报文。
+     * 正在选择颜色时恢复选择颜色的协商，其他协商不写入日志，client 重连后重新请求；计时在第一个玩家重连时开始。
+     *
+     * @param recovered 从日志中恢复的房间
+     */
+    void replay(MoveLog.RecoveredRoom recovered) {
+        int[] lastMoverClientId = {0};
+        recovered.replay(new MoveLog.Replayer() {
+            @Override
+            public void onNewGame(int player1ClientId) {
+                board.newGame();
+                clock.reset();
+                Room.this.player1ClientId = player1ClientId;
+            }
+            
+            
+            @Override
+            public void onPut(int i, int j, long mainMillis, int periods) {
+                int playerNumber = board.getNextPlayerNumber();
+                try {
+                    board.putStone(i, j);
+                }
+                catch (GameNotStartedException | BadInputStoneException ignored) {
+                    return;
+                }
+                lastMoverClientId[0] = (playerNumber == 1 ? player1ClientId : 3 - player1ClientId);
+                if (periods >= 0)
+                    clock.restore(playerNumber, mainMillis, periods);
+            }
+            
+            
+            @Override
+            public void onRetractTo(int historySize) {
+                try {
+                    board.retractTo(historySize);
+                }
+                catch (GameNotStartedException | EmptyStackException ignored) {
+                }
+            }
+            
+            
+            @Override
+            public void onColor(StoneType player1StoneType) {
+                if (!board.isPlayerColorChosen())
+                    board.choosePlayer1Color(player1StoneType);
+            }
+            
+            
+            @Override
+            public void onGameOver() {
+                // 连珠或下满结束的一局和 server 一样保留棋盘，认输和超时结束的一局清空棋盘。
+                if (board.isGameStarted() ? board.getIndexOfRowStones().size() < 5 : board.getHistorySize() < Board.n * Board.n)
+                    board.reset();
+            }
+            
+            
+            @Override
+            public void onClock(int playerNumber, long mainMillis, int periods) {
+                clock.restore(playerNumber, mainMillis, periods);
+            }
+        });
+        // 连珠后不会再有落子，只需检查最后一手，连珠时结束游戏。
+        if (board.isGameStarted() && !board.hasNoHistory() && board.isPlayerColorChosen())
+            board.getIndexOfRowStones();
+        if (board.isGameStarted() && !board.isPlayerColorChosen() && (board.getHistorySize() == 3 || board.getHistorySize() == 5))
+            startNegotiation(Negotiation.COLOR_CHOICE, 3 - lastMoverClientId[0], null);
+        restored = true;
+    }
+    
+    
+    /**
+     * 把当前的对局状态写入日志，作为恢复后新一代日志的检查点。
+     */
+    void checkpoint() {
+        if (moveLog == null || player1ClientId == 0)
+            return;
+        moveLog.appendNewGame(roomId, player1ClientId);
+        if (!board.isGameStarted() && board.hasNoHistory()) {
+            moveLog.appendGameOver(roomId);
+            return;
+        }
+        List<Stone> history = board.getHistory();
+        for (int index = 0; index <= history.size(); ++index) {
+            if (board.isPlayerColorChosen() && index == board.getPresetStoneNumber())
+                moveLog.appendColor(roomId, board.getPlayer1StoneType());
+            if (index < history.size())
+                moveLog.appendPut(roomId, history.get(index).getI(), history.get(index).getJ(), 0, -1);
+        }
+        if (timingWheel != null) {
+            for (int playerNumber = 1; playerNumber <= 2; ++playerNumber)
+                moveLog.appendClock(roomId, playerNumber, clock.getMainMillis(playerNumber), clock.getPeriods(playerNumber));
+        }
+        if (board.isGameOver())
+            moveLog.appendGameOver(roomId);
+    }
+    
+    
+    /**
+     * 当前回合的玩家号：第 5 手后尚未选择颜色时由玩家 1 选择，其他时候为下一手的玩家。
+     */
+    private int getTurnPlayerNumber() {
+        if (!board.isPlayerColorChosen() && board.getHistorySize() == 5)
+            return 1;
+        return board.getNextPlayerNumber();
+    }
+    
+    
+    /**
+     * 开始新的回合，重新登记超时。
+     */
+    private void startTurn() {
+        if (startTurn(System.nanoTime()))
+            broadcastClock();
+    }
+    
+    
+    /**
+     * 开始新的回合，但不发送计时状态。
+     *
+     * @param now 当前时间
+     *
+     * @return 是否在计时
+     */
+    private boolean startTurn(long now) {
+        if (timingWheel == null)
+            return false;
+        clock.startTurn(getTurnPlayerNumber(), now);
+        scheduleTurnTimeout(now);
+        return true;
+    }
+    
+    
+    /**
+     * 在当前阶段结束时登记超时：读秒的每个阶段结束时向双方同步一次计时，最后一个阶段再留出一次往返时间，正在路上的落子不会被判超时。
+     */
+    private void scheduleTurnTimeout(long now) {
+        if (turnTimeout != null)
+            turnTimeout.cancel();
+        int turn = ++turnNumber;
+        long remainingNanos = clock.getRemainingNanos(now), phaseNanos = clock.getPhaseRemainingNanos(now);
+        long delayNanos = (phaseNanos < remainingNanos ? phaseNanos : remainingNanos + getLagCreditNanos(clock.getTurnPlayerNumber()));
+        turnTimeout = timingWheel.schedule(() -> executor.execute(roomId, () -> onTurnTimeout(turn)), (delayNanos + 999999) / 1000000);
+    }
+    
+    
+    private void cancelTurnTimeout() {
+        if (turnTimeout != null)
+            turnTimeout.cancel();
+        turnTimeout = null;
+        ++turnNumber;
+    }
+    
+    
+    /**
+     * 玩家的网络延迟补偿：其连接的往返时间，最多 MAX_LAG_CREDIT_MILLIS。
+     *
+     * @param playerNumber 玩家号
+     */
+    private long getLagCreditNanos(int playerNumber) {
+        Seat seat = clients[playerNumber == 1 ? player1ClientId : 3 - player1ClientId];
+        if (seat == null)
+            return 0;
+        return Math.min(seat.getConnection().getRttNanos(), MAX_LAG_CREDIT_MILLIS * 1000000);
+    }
+    
+    
+    /**
+     * 等待对方回答请求时暂停计时，已用的时间从当前回合的玩家扣除。
+     */
+    private void pauseClock() {
+        if (!clock.isRunning())
+            return;
+        clock.pause(System.nanoTime());
+        cancelTurnTimeout();
+        broadcastClock();
+    }
+    
+    
+    /**
+     * 请求已被回答且回合没有改变，按剩余时间继续计时。
+     */
+    private void resumeClock() {
+        if (clock.getTurnPlayerNumber() == 0 || clock.isRunning())
+            return;
+        long now = System.nanoTime();
+        clock.resume(now);
+        scheduleTurnTimeout(now);
+        broadcastClock();
+    }
+    
+    
+    /**
+     * 游戏结束，停止计时。
+     */
+    private void stopClock() {
+        if (clock.getTurnPlayerNumber() == 0)
+            return;
+        clock.stop(System.nanoTime());
+        cancelTurnTimeout();
+        broadcastClock();
+    }
+    
+    
+    /**
+     * 回合超时：还有读秒时进入下一个阶段，否则当前回合的玩家判负。
+     *
+     * @param turn 登记超时时的序号，回合已经改变时忽略。
+     */
+    private void onTurnTimeout(int turn) {
+        if (turn != turnNumber || !clock.isRunning() || !board.isGameStarted() || board.isGameOver())
+            return;
+        long now = System.nanoTime();
+        if (clock.getRemainingNanos(now) > 0) {
+            scheduleTurnTimeout(now);
+            broadcastClock();
+            return;
+        }
+        if (negotiation == Negotiation.COLOR_CHOICE)
+            endNegotiation();
+        endGameByDefeat(getTurnPlayerNumber(), GameRecord.Reason.TIMEOUT);
+    }
+    
+    
+    /**
+     * 当前的计时状态
+     */
+    private ClockState getClockState() {
+        long now = System.nanoTime();
+        return clock.snapshot(now, (now - gameStartNanos) / 1000000);
+    }
+    
+    
+    /**
+     * 向双方 client 发送计时状态，旧版 client 不支持该报文。
+     */
+    private void broadcastClock() {
+        byte[] clockSyncMessage = packClockSync(getClockState());
+        for (int clientId = 1; clientId <= 2; ++clientId) {
+            Seat client = clients[clientId];
+            if (client != null && client.getConnection().getVersion() >= WireCodec.VERSION_2)
+                client.send(clockSyncMessage);
+        }
+        /**
+         * 向双方 client 发送计时状态
+         * @messageType CLOCK_SYNC
+         * @messageArg clock 计时状态
+         */
+    }
+    
+    
+    /**
+     * client 断线重连后，用一个报文向其发送完整的对局状态。
+     * 若正在等待该 client 回应请求，重新发送请求。
+     *
+     * @param clientId 重连的 client 编号（1 或 2）
+     */
+    public void resync(int clientId) {
+        if (restored) {
+            restored = false;
+            if (board.isGameStarted())
+                startTurn(System.nanoTime());
+        }
+        int playerNumber = 0;
+        StoneType playerStoneType = StoneType.SPACE;
+        if (player1ClientId != 0) {
+            playerNumber = (clientId == player1ClientId ? 1 : 2);
+            if (board.isPlayerColorChosen()) {
+                StoneType player1StoneType = board.getPlayer1StoneType();
+                playerStoneType = (playerNumber == 1 ? player1StoneType : (player1StoneType == StoneType.BLACK ? StoneType.WHITE : StoneType.BLACK));
+            }
+        }
+        sendToClient(clientId, packStateSync(playerNumber, board.isGameStarted(), playerStoneType, board.getPresetStoneNumber(), board.getHistory(),
+                                             (System.nanoTime() - gameStartNanos) / 1000000, timingWheel != null ? getClockState() : null));
+        /**
+         * 向重连的 client 发送对局状态（断线恢复只支持新版 client），计时时包括计时状态。
+         * @messageType STATE_SYNC
+         */
+        if (responderClientId == clientId && pendingInquiry != null)
+            sendToClient(clientId, pendingInquiry);
+    }
+    
+    
+    public void sendToClient(int clientId, byte[] message) {
+        Seat client = clients[clientId];
+        if (client != null)
+            client.send(message);
+    }
+    
+    
+    protected void sendToPlayer(int playerId, byte[] message) {
+        if (playerId == 1)
+            sendToClient(player1ClientId, message);
+        else
+            sendToClient(3 - player1ClientId, message);
+    }
+    
+    
+    /**
+     * server 向双方 client 发送新建游戏命令
+     *
+     * @param message 接收到的报文
+     *
+     * @implNote messageType = NEW_GAME
+     * @implNote server 不可能接收到这个消息
+     */
+    @Override
+    protected void handleNewGame(byte[] message) {
+    }
+    
+    
+    /**
+     * client 请求新建游戏，server 直接转发对方 client。
+     * client 弹出窗口，让用户选择是否开始。
+     * server 直接转发对方 client
+     *
+     * @param message 接收到的报文
+     *
+     * @implNote messageType = INQUIRE_TO_NEW_GAME
+     */
+    @Override
+    protected void handleInquireToNewGame(byte[] message) {
+        int destClientId = 3 - parseSocketId(message); // 从 message 解析 clientId
+        startNegotiation(Negotiation.NEW_GAME, destClientId, packMessage(INQUIRE_TO_NEW_GAME, null)); // 等待对方 client 回应
+        sendToClient(destClientId, pendingInquiry);
+        /**
+         * 直接转发对方 client（报文头可能需要稍作修改）
+         * @messageType INQUIRE_TO_NEW_GAME
+         */
+    }
+    
+    
+    /**
+     * client 同意新建游戏，server 新建游戏，并向双方 client 发送新建游戏命令。
+     *
+     * @param message 接收到的报文
+     *
+     * @implNote messageType = ACCEPT_TO_NEW_GAME
+     * @implNote client 不可能接收到这个消息
+     */
+    @Override
+    protected void handleAcceptToNewGame(byte[] message) {
+        // 接收函数已保证从正确的 client 接收消息
+        int srcClientId = parseSocketId(message); // 从 message 解析 clientId
+        board.newGame();
+        gameStartNanos = System.nanoTime();
+        gameStartEpochMillis = System.currentTimeMillis();
+        clock.reset();
+        player1ClientId = 3 - srcClientId; // 请求新建游戏的玩家的编号为 1，同意新建游戏的玩家的编号为 2（就是本函数 message 的来源）。
+        if (moveLog != null)
+            moveLog.appendNewGame(roomId, player1ClientId);
+        byte[] player1NewGameMessage = packNewGame(1);
+        byte[] player2NewGameMessage = packNewGame(2);
+        sendToClient(player1ClientId, player1NewGameMessage);
+        sendToClient(srcClientId, player2NewGameMessage);
+        /**
+         * 向双方 client 发送新建游戏命令
+         * @messageType NEW_GAME
+         * @messageArg playerNumber 玩家编号
+         */
+        startTurn();
+    }
+    
+    
+    /**
+     * client 拒绝新建游戏，server 直接转发对方 client。
+     *
+     * @param message 接收到的报文
+     *
+     * @implNote messageType = REJECT_TO_NEW_GAME
+     */
+    @Override
+    protected void handleRejectToNewGame(byte[] message) {
+        // 接收函数已保证从正确的 client 接收消息
+        int destClientId = 3 - parseSocketId(message);
+        sendToClient(destClientId, packMessage(REJECT_TO_NEW_GAME, null));
+        /**
+         * 直接转发对方 client（报文头可能需要稍作修改）
+         * @messageType REJECT_TO_NEW_GAME
+         */
+    }
+    
+    
+    /**
+     * server 向双方 client 发送游戏结束命令
+     *
+     * @param message 接收到的报文
+     *
+     * @implNote messageType = GAME_OVER
+     * @implNote server 不可能接收到这个消息
+     */
+    @Override
+    protected void handleGameOver(byte[] message) {
+    }
+    
+    
+    /**
+     * client 认输，server 结束游戏，server 接收后向双方 client 发送游戏结束命令。
+     *
+     * @param message 接收到的报文
+     *
+     * @implNote messageType = ADMIT_DEFEAT
+     * @implNote client 不可能接收到这个消息
+     */
+    @Override
+    protected void handleAdmitDefeat(byte[] message) {
+        int srcClientId = parseSocketId(message); // 从 message 解析 clientId
+        endGameByDefeat(srcClientId == player1ClientId ? 1 : 2, GameRecord.Reason.RESIGN);
+    }
+    
+    
+    /**
+     * 一方认输或超时，向双方 client 发送游戏结束命令。
+     *
+     * @param loserNumber 负者的玩家号
+     * @param reason      结束的原因（认输或超时）
+     */
+    private void endGameByDefeat(int loserNumber, GameRecord.Reason reason) {
+        stopClock();
+        int winnerNumber = 3 - loserNumber;
+        List<Integer> indexOfRowStones = board.getIndexOfRowStones();
+        List<Stone> rowStones = new ArrayList<Stone>();
+        for (int index : indexOfRowStones) {
+            try {
+                rowStones.add(board.getStoneFromIndex(index));
+            }
+            catch (ArrayIndexOutOfBoundsException ignored) {
+            }
+        }
+        byte[] gameOverMessage = packGameOver(winnerNumber, indexOfRowStones, rowStones);
+        sendToClient(1, gameOverMessage);
+        sendToClient(2, gameOverMessage);
+        /**
+         * 向双方 client 发送游戏结束命令
+         * @messageType GAME_OVER
+         * @messageArg winnerNumber     胜者编号
+         * @messageArg indexOfRowStones 连珠的棋子编号
+         * @messageArg rowStones        连珠的棋子
+         */
+        if (moveLog != null)
+            moveLog.appendGameOver(roomId);
+        if (board.isGameStarted())
+            archiveGame(winnerNumber, reason);
+        board.reset();
+    }
+    
+    
+    /**
+     * 把结束的一局提交给棋谱库，由棋谱库的线程写入。
+     *
+     * @param winnerNumber 胜者的玩家号，平局为 0。
+     * @param reason       结束的原因
+     */
+    private void archiveGame(int winnerNumber, GameRecord.Reason reason) {
+        if (archive == null || player1ClientId == 0)
+            return;
+        Connection player1 = clients[player1ClientId].getConnection(), player2 = clients[3 - player1ClientId].getConnection();
+        archive.submit(new GameRecord(roomId, player1.getConnectionId(), player2.getConnectionId(), winnerNumber, reason,
+                                      board.isPlayerColorChosen() ? board.getPresetStoneNumber() : 0, board.getPlayer1StoneType(),
+                                      gameStartEpochMillis, (System.nanoTime() - gameStartNanos) / 1000000, (timingWheel != null ? clock.getTimeControl() : null),
+                                      clock.getMainMillis(1), clock.getMainMillis(2), GameRecord.cellsOf(board)));
+    }
+    
+    
+    /**
+     * server 向双方 client 发送落子命令
+     *
+     * @param message 接收到的报文
+     *
+     * @implNote messageType = PUT_STONE
+     * @implNote server 不可能接收到这个消息
+     */
+    @Override
+    protected void handlePutStone(byte[] message) {
+    }
+    
+    
+    /**
+     * client 请求落子，server 进行处理，若可以落子则向双方 client 发送落子命令。
+     *
+     * @param message 接收到的报文
+     *
+     * @implNote messageType = INQUIRE_TO_PUT_STONE
+     * @implNote client 不可能接收到这个消息
+     */
+    @Override
+    protected void handleInquireToPutStone(byte[] message) {
+        int srcClientId = parseSocketId(message); // 从 message 解析 clientId
+        int playerNumber = (srcClientId == player1ClientId ? 1 : 2);
+        if (playerNumber != board.getNextPlayerNumber())
+            return;
+        Object[] messageArgs = unpackInquireToPutStone(message);
+        long now = System.nanoTime(), creditNanos = 0;
+        if (timingWheel != null && clock.getTurnPlayerNumber() == playerNumber) {
+            creditNanos = getLagCreditNanos(playerNumber);
+            // 扣除网络延迟后仍已超时，落子无效。getRemainingNanos 不会小于 0，所以把补偿算进时间点而不是加到剩余时间上。
+            if (clock.getRemainingNanos(now - creditNanos) == 0) {
+                endGameByDefeat(playerNumber, GameRecord.Reason.TIMEOUT);
+                return;
+            }
+        }
+        try {
+            int i = (Integer) messageArgs[0], j = (Integer) messageArgs[1]; // 从 message 解析 (i, j)
+            Stone previousStone;
+            try {
+                previousStone = board.getLastStone();
+            }
+            catch (EmptyStackException ignored) {
+                previousStone = null;
+            }
+            board.putStone(i, j);
+            Stone stone = board.getLastStone();
+            int historySize = board.getHistorySize();
+            // 先检查是否连珠（棋盘下满时 putStone 已结束游戏），结束时停止计时而不是开始对方的回合。
+            // 没有选择玩家颜色时不超过 5 手，不可能出现连珠。
+            List<Integer> indexOfRowStones = board.getIndexOfRowStones();
+            boolean timed = false;
+            if (timingWheel != null && clock.getTurnPlayerNumber() == playerNumber) {
+                if (!clock.completeTurn(now, creditNanos)) { // 与上面的检查相同，不应发生；发生时同样按超时处理。
+                    try {
+                        board.retractStone();
+                    }
+                    catch (GameNotStartedException | EmptyStackException ignored) {
+                    }
+                    endGameByDefeat(playerNumber, GameRecord.Reason.TIMEOUT);
+                    return;
+                }
+                if (board.isGameOver()) {
+                    clock.stop(now);
+                    cancelTurnTimeout();
+                }
+                else
+                    startTurn(now);
+                timed = true;
+            }
+            if (moveLog != null)
+                moveLog.appendPut(roomId, i, j, timed ? clock.getMainMillis(playerNumber) : 0, timed ? clock.getPeriods(playerNumber) : -1);
+            byte[] putStoneMessage = packPutStone(stone, previousStone, historySize);
+            byte[] timedPutStoneMessage = (timed ? packPutStone(stone, previousStone, historySize, getClockState()) : putStoneMessage);
+            for (int clientId = 1; clientId <= 2; ++clientId) {
+                Seat client = clients[clientId];
+                if (client != null)
+                    client.send(client.getConnection().getVersion() >= WireCodec.VERSION_2 ? timedPutStoneMessage : putStoneMessage);
+            }
+            /**
+             * 向双方 client 发送落子命令，新版 client 同时收到落子后的计时状态。
+             * @messageType PUT_STONE
+             * @messageArg stone         落子的 stone
+             * @messageArg previousStone 落子的 stone 的前一个 stone，若没有则传入 null。
+             * @messageArg historySize   落子完成后棋盘上的棋子数
+             * @messageArg clock         计时状态（仅新版 client）
+             */
+            
+            // 若没有选择玩家颜色
+            if (!board.isPlayerColorChosen() && (board.getHistorySize() == 3 || board.getHistorySize() == 5)) {
+                startNegotiation(Negotiation.COLOR_CHOICE, 3 - srcClientId, null); // 等待对方 client 选择颜色
+            }
+            else {
+                if (board.isGameOver()) {
+                    List<Stone> rowStones = new ArrayList<Stone>();
+                    for (int index : indexOfRowStones) {
+                        try {
+                            rowStones.add(board.getStoneFromIndex(index));
+                        }
+                        catch (ArrayIndexOutOfBoundsException ignored) {
+                        }
+                    }
+                    int winnerNumber;
+                    if (indexOfRowStones.size() >= 5)
+                        winnerNumber = 3 - board.getNextPlayerNumber();
+                    else
+                        winnerNumber = 0; // 平局
+                    if (moveLog != null)
+                        moveLog.appendGameOver(roomId);
+                    archiveGame(winnerNumber, winnerNumber == 0 ? GameRecord.Reason.DRAW : GameRecord.Reason.FIVE);
+                    byte[] gameOverMessage = packGameOver(winnerNumber, indexOfRowStones, rowStones);
+                    sendToClient(1, gameOverMessage);
+                    sendToClient(2, gameOverMessage);
+                    /**
+                     * 向双方 client 发送游戏结束命令
+                     * @messageType GAME_OVER
+                     * @messageArg winnerNumber     胜者编号
+                     * @messageArg indexOfRowStones 连珠的棋子编号
+                     * @messageArg rowStones        连珠的棋子
+                     */
+                    if (!timed)
+                        stopClock();
+                    return;
+                }
+            }
+            if (!timed)
+                startTurn();
+        }
+        catch (GameNotStartedException | BadInputStoneException ignored) {
+        }
+    }
+    
+    
+    /**
+     * server 向双方 client 发送悔棋命令
+     *
+     * @param message 接收到的报文
+     *
+     * @implNote messageType = RETRACT_STONE
+     * @implNote server 不可能接收到这个消息
+     */
+    @Override
+    protected void handleRetractStone(byte[] message) {
+    }
+    
+    
+    /**
+     * client 请求悔棋，server 直接转发对方 client。
+     * client 弹出窗口，让用户选择是否同意。
+     * server 直接转发对方 client
+     *
+     * @param message 报文
+     *
+     * @implNote messageType = INQUIRE_TO_RETRACT_STONE
+     */
+    @Override
+    protected void handleInquireToRetractStone(byte[] message) {
+        int destClientId = 3 - parseSocketId(message); // 从 message 解析 clientId
+        byte[] newMessage = packMessage(INQUIRE_TO_RETRACT_STONE, null);
+        startNegotiation(Negotiation.RETRACT, destClientId, newMessage); // 等待对方 client 回应
+        retractTarget = -1;
+        sendToClient(destClientId, newMessage);
+        /**
+         * 直接转发对方 client（报文头可能需要稍作修改）
+         * @messageType INQUIRE_TO_RETRACT_STONE
+         */
+    }
+    
+    
+    /**
+     * client 同意悔棋，server 悔棋，并向双方 client 发送悔棋命令。
+     *
+     * @param message 接收到的报文
+     *
+     * @implNote messageType = ACCEPT_TO_RETRACT_STONE
+     * @implNote client 不可能接收到这个消息
+     */
+    @Override
+    protected void handleAcceptToRetractStone(byte[] message) {
+        // 接收函数已保证从正确的 client 接收消息
+        if (retractTarget >= 0) {
+            retractTo(retractTarget);
+            retractTarget = -1;
+            return;
+        }
+        try {
+            Stone stone = board.retractStone();
+            Stone previousStone = board.getLastStone();
+            int historySize = board.getHistorySize();
+            if (moveLog != null)
+                moveLog.appendRetractTo(roomId, historySize);
+            byte[] retractStoneMessage = packRetractStone(stone, previousStone, historySize);
+            sendToClient(1, retractStoneMessage);
+            sendToClient(2, retractStoneMessage);
+            /**
+             * 向双方 client 发送悔棋命令
+             * @messageType RETRACT_STONE
+             * @messageArg stone         被移走的 stone
+             * @messageArg previousStone 被移走的 stone 的前一个 stone，因为可以悔棋时棋盘上至少有 4 个棋子，必然是非 null。
+             * @messageArg historySize   悔棋完成后棋盘上的棋子数
+             */
+            startTurn();
+        }
+        catch (GameNotStartedException ignored) {
+        }
+    }
+    
+    
+    /**
+     * 一次悔棋至指定手数，向双方 client 发送一个包含所有被移走棋子的报文。
+     *
+     * @param historySize 悔棋完成后棋盘上的棋子数
+     */
+    private void retractTo(int historySize) {
+        try {
+            List<Stone> retractedStones = board.retractTo(historySize);
+            if (moveLog != null)
+                moveLog.appendRetractTo(roomId, historySize);
+            byte[] retractToMessage = packRetractTo(retractedStones, board.getLastStone(), historySize);
+            sendToClient(1, retractToMessage);
+            sendToClient(2, retractToMessage);
+            /**
+             * 向双方 client 发送悔棋至指定手数命令
+             * @messageType RETRACT_TO
+             * @messageArg retractedStones 被移走的 stone，按从后往前的顺序。
+             * @messageArg previousStone   悔棋完成后的最后一个 stone
+             * @messageArg historySize     悔棋完成后棋盘上的棋子数
+             */
+            startTurn();
+        }
+        catch (GameNotStartedException | EmptyStackException ignored) {
+        }
+    }
+    
+    
+    /**
+     * client 拒绝悔棋，server 直接转发对方 client。
+     *
+     * @param message 接收到的报文
+     *
+     * @implNote messageType = REJECT_TO_RETRACT_STONE
+     */
+    @Override
+    protected void handleRejectToRetractStone(byte[] message) {
+        // 接收函数已保证从正确的 client1 接收消息
+        int destClientId = 3 - parseSocketId(message); // 从 message 解析 clientId
+        byte[] newMessage = packMessage(REJECT_TO_RETRACT_STONE, null);
+        sendToClient(destClientId, newMessage);
+        /**
+         * 直接转发对方 client（报文头可能需要稍作修改）
+         * @messageType REJECT_TO_RETRACT_STONE
+         */
+    }
+    
+    
+    /**
+     * client 选择执子颜色
+     *
+     * @param message 接收到的报文
+     *
+     * @implNote messageType = CHOOSE_PLAYER_COLOR
+     * @implNote client 不可能接收到这个消息
+     */
+    @Override
+    protected void handleChoosePlayerColor(byte[] message) {
+        Object[] messageArgs = unpackChoosePlayerColor(message);
+        int state = (Integer) messageArgs[0]; // 从 message 解析 state （按钮按键）（0执黑 1执白 2继续）
+        boolean choosing = (!board.isPlayerColorChosen() && (board.getHistorySize() == 3 || board.getHistorySize() == 5));
+        if (board.getHistorySize() == 3) {
+            if (state == YES_OPTION)
+                board.choosePlayer1Color(StoneType.WHITE);
+            else if (state == NO_OPTION)
+                board.choosePlayer1Color(StoneType.BLACK);
+        }
+        else if (!board.isPlayerColorChosen() && board.getHistorySize() == 5) {
+            if (state == YES_OPTION)
+                board.choosePlayer1Color(StoneType.BLACK);
+            else
+                board.choosePlayer1Color(StoneType.WHITE);
+        }
+        if (choosing && board.isPlayerColorChosen() && moveLog != null)
+            moveLog.appendColor(roomId, board.getPlayer1StoneType());
+        if (board.isPlayerColorChosen()) {
+            StoneType player1StoneType = board.getPlayer1StoneType();
+            StoneType player2StoneType = (player1StoneType == StoneType.BLACK ? StoneType.WHITE : StoneType.BLACK);
+            int presetStoneNumber = board.getHistorySize();
+            byte[] setPlayer1ColorMessage = packSetPlayerColor(player1StoneType, presetStoneNumber);
+            byte[] setPlayer2ColorMessage = packSetPlayerColor(player2StoneType, presetStoneNumber);
+            sendToPlayer(1, setPlayer1ColorMessage);
+            sendToPlayer(2, setPlayer2ColorMessage);
+            /**
+             * 向双方 client 发送对应的执子颜色
+             * @messageType SET_PLAYER_COLOR
+             * @messageArg playerStoneType   玩家棋子类型
+             * @messageArg presetStoneNumber 预先放置的棋子数
+             */
+        }
+        else {
+            byte[] setPlayerColorMessage = packSetPlayerColor(StoneType.SPACE, 5);
+            sendToClient(1, setPlayerColorMessage);
+            sendToClient(2, setPlayerColorMessage);
+        }
+        if (choosing) // 不在选择颜色时收到的报文不能重置计时
+            startTurn();
+    }
+    
+    
+    /**
+     * server 指定玩家执子颜色
+     *
+     * @param message 接收到的报文
+     *
+     * @implNote messageType = SET_PLAYER_COLOR
+     * @implNote server 不可能接收到这个消息
+     */
+    @Override
+    protected void handleSetPlayerColor(byte[] message) {
+    }
+    
+    
+    /**
+     * client 发送聊天消息，server 直接转发对方 client。
+     *
+     * @param message 接收到的报文
+     *
+     * @implNote messageType = CHAT_TEXT
+     */
+    @Override
+    protected void handleChatText(byte[] message) {
+        Object[] messageArgs = unpackChatText(message);
+        int destClientId = 3 - parseSocketId(message); // 从 message 解析 clientId
+        String chatText = (String) messageArgs[0];
+        sendToClient(destClientId, packChatText(chatText));
+        // 直接转发对方 client
+    }
+    
+    
+    /**
+     * server 向 client 发送完整的对局状态
+     *
+     * @param message 接收到的报文
+     *
+     * @implNote messageType = STATE_SYNC
+     * @implNote server 不可能接收到这个消息
+     */
+    @Override
+    protected void handleStateSync(byte[] message) {
+    }
+    
+    
+    /**
+     * client 请求悔棋至指定手数，server 直接转发对方 client。
+     * 对方 client 不支持该报文时直接回复拒绝。
+     *
+     * @param message 接收到的报文
+     *
+     * @implNote messageType = INQUIRE_TO_RETRACT_TO
+     */
+    @Override
+    protected void handleInquireToRetractTo(byte[] message) {
+        int srcClientId = parseSocketId(message); // 从 message 解析 clientId
+        int destClientId = 3 - srcClientId;
+        int historySize = (Integer) unpackInquireToRetractTo(message)[0];
+        Seat destClient = clients[destClientId];
+        if (!board.canRetractTo(historySize) || destClient.getConnection().getVersion() < WireCodec.VERSION_2) {
+            sendToClient(srcClientId, packMessage(REJECT_TO_RETRACT_STONE, null));
+            return;
+        }
+        startNegotiation(Negotiation.RETRACT, destClientId, packInquireToRetractTo(historySize)); // 等待对方 client 回应
+        retractTarget = historySize;
+        sendToClient(destClientId, pendingInquiry);
+        /**
+         * 直接转发对方 client（报文头可能需要稍作修改）
+         * @messageType INQUIRE_TO_RETRACT_TO
+         * @messageArg historySize 悔棋完成后棋盘上的棋子数
+         */
+    }
+    
+    
+    /**
+     * server 向双方 client 发送悔棋至指定手数命令
+     *
+     * @param message 接收到的报文
+     *
+     * @implNote messageType = RETRACT_TO
+     * @implNote server 不可能接收到这个消息
+     */
+    @Override
+    protected void handleRetractTo(byte[] message) {
+    }
+    
+    
+    /**
+     * server 向双方 client 发送计时状态
+     *
+     * @param message 接收到的报文
+     *
+     * @implNote messageType = CLOCK_SYNC
+     * @implNote server 不可能接收到这个消息
+     */
+    @Override
+    protected void handleClockSync(byte[] message) {
+    }
+}
@@ -0,0 +1,105 @@
+package Gomoku;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 按房间分片的单写者执行器
+ * 固定数量的工作线程各自拥有一个消息队列，每个房间按编号固定分配给其中一个工作线程。
+ * 同一房间的所有报文都由同一个线程依次处理，房间状态无需加锁；不同房间分散在各个工作线程上并行处理。
+ * 其他线程（事件循环、时间轮）提交任务时，队列已满则等待工作线程取出；工作线程自己提交任务时从不等待，
+ * 队列已满的任务放入目标工作线程的溢出队列，否则工作线程向自己（或互相向对方）已满的队列提交任务时会永远等待。
+ */
+public class RoomExecutor {
+    public static final int DEFAULT_WORKER_COUNT = Runtime.getRuntime().availableProcessors();
+    private static final ThreadLocal<Boolean> inWorker = ThreadLocal.withInitial(() -> false); // 当前线程是否为工作线程
+    private static final Runnable WAKE_UP = () -> {}; // 放入溢出队列后唤醒工作线程
+    
+    private final MessageRingBuffer<Runnable>[] taskQueues; // 各工作线程的任务队列
+    private final ConcurrentLinkedQueue<Runnable>[] overflowQueues; // 工作线程提交任务时队列已满，由目标工作线程在队列取空后执行。
+    private final Thread[] workers;
+    
+    
+    public RoomExecutor() {
+        this(DEFAULT_WORKER_COUNT);
+    }
+    
+    
+    public RoomExecutor(int workerCount) {
+        this(workerCount, "room-worker");
+    }
+    
+    
+    /**
+     * @param workerCount 工作线程数
+     * @param name        工作线程名称的前缀，server 与同一 JVM 中的机器人 client 用不同的名称区分各自的线程。
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public RoomExecutor(int workerCount, String name) {
+        taskQueues = new MessageRingBuffer[workerCount];
+        overflowQueues = new ConcurrentLinkedQueue[workerCount];
+        workers = new Thread[workerCount];
+        for (int index = 0; index < workerCount; ++index) {
+            MessageRingBuffer<Runnable> taskQueue = new MessageRingBuffer<Runnable>(Server.MESSAGE_QUEUE_CAPACITY);
+            ConcurrentLinkedQueue<Runnable> overflowQueue = new ConcurrentLinkedQueue<Runnable>();
+            taskQueues[index] = taskQueue;
+            overflowQueues[index] = overflowQueue;
+            workers[index] = new Thread(() -> {
+                inWorker.set(true);
+                while (true) {
+                    taskQueue.drain(RoomExecutor::run, Server.MAX_DRAIN_BATCH); // 队列为空时阻塞，不再空转。
+                    if (taskQueue.isEmpty()) { // 溢出的任务晚于队列中已有的任务提交，队列取空后再执行。
+                        Runnable task;
+                        while ((task = overflowQueue.poll()) != null)
+                            run(task);
+                    }
+                }
+            }, name + "-" + index);
+            workers[index].setDaemon(true);
+        }
+    }
+    
+    
+    /**
+     * 执行一个任务，任务抛出的异常只记录下来，工作线程继续处理后面的任务（包括其他房间的任务）。
+     */
+    private static void run(Runnable task) {
+        try {
+            task.run();
+        }
+        catch (RuntimeException e) {
+            System.err.println(Thread.currentThread().getName() + ": " + e);
+        }
+    }
+    
+    
+    public void start() {
+        for (Thread worker : workers)
+            worker.start();
+    }
+    
+    
+    public int getWorkerCount() {
+        return workers.length;
+    }
+    
+    
+    /**
+     * 在房间所属的工作线程上执行任务，在工作线程上调用时不会阻塞。
+     *
+     * @param roomId 房间编号
+     * @param task   待执行的任务
+     */
+    public void execute(int roomId, Runnable task) {
+        int index = Math.floorMod(roomId, taskQueues.length);
+        if (!inWorker.get()) {
+            taskQueues[index].publish(task);
+            return;
+        }
+        // 溢出队列不为空时后面的任务也放入溢出队列，保持同一线程提交的任务的顺序。
+        ConcurrentLinkedQueue<Runnable> overflowQueue = overflowQueues[index];
+        if (overflowQueue.isEmpty() && taskQueues[index].offer(task))
+            return;
+        overflowQueue.add(task);
+        taskQueues[index].offer(WAKE_UP); // 工作线程可能刚取完溢出队列，正在等待；队列已满时它本来就会醒来。
+    }
+}
@@ -0,0 +1,171 @@
+package Gomoku;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * 多房间吞吐量基准测试
+ * 预先为每个房间生成若干局随机对局的报文，再由多个生产者线程（模拟事件循环）并发提交给 RoomExecutor，
+ * 统计不同工作线程数下每秒处理的报文数，用于检验吞吐量是否随核数线性增长。
+ *
+ * 用法：java Gomoku.RoomThroughputBenchmark [房间数] [每个房间的对局数]
+ */
+public class RoomThroughputBenchmark {
+    private static final int MAX_MOVES_PER_GAME = 60; // 每局最多落子数，超过后认输。
+    
+    
+    public static void main(String[] args) throws InterruptedException {
+        int roomCount = (args.length > 0 ? Integer.parseInt(args[0]) : 4096);
+        int gamesPerRoom = (args.length > 1 ? Integer.parseInt(args[1]) : 4);
+        int cores = Runtime.getRuntime().availableProcessors();
+        
+        Random random = new Random(20190101L);
+        List<List<byte[]>> scripts = new ArrayList<List<byte[]>>();
+        long totalMessages = 0;
+        for (int roomId = 0; roomId < roomCount; ++roomId) {
+            List<byte[]> script = generateScript(random, gamesPerRoom);
+            totalMessages += script.size();
+            scripts.add(script);
+        }
+        System.out.println("rooms: " + roomCount + ", messages: " + totalMessages + ", cores: " + cores);
+        
+        runOnce(scripts, cores, totalMessages); // 预热
+        for (int workerCount = 1; workerCount <= cores; workerCount *= 2) {
+            double throughput = runOnce(scripts, workerCount, totalMessages);
+            System.out.printf("workers: %3d  throughput: %12.0f messages/s%n", workerCount, throughput);
+        }
+        System.exit(0);
+    }
+    
+    
+    /**
+     * 使用指定数量的工作线程处理所有房间的报文
+     *
+     * @return 每秒处理的报文数
+     */
+    private static double runOnce(List<List<byte[]>> scripts, int workerCount, long totalMessages) throws InterruptedException {
+        RoomExecutor roomExecutor = new RoomExecutor(workerCount);
+        roomExecutor.start();
+        int roomCount = scripts.size();
+        Room[] rooms = new Room[roomCount];
+        for (int roomId = 0; roomId < roomCount; ++roomId)
+            rooms[roomId] = new Room(roomId, new Seat(null, new NullConnection(), 0), new Seat(null, new NullConnection(), 0));
+        CountDownLatch finished = new CountDownLatch(roomCount);
+        
+        int producerCount = workerCount;
+        Thread[] producers = new Thread[producerCount];
+        for (int index = 0; index < producerCount; ++index) {
+            int producerId = index;
+            producers[index] = new Thread(() -> {
+                // 每个生产者负责一部分房间，轮流提交各房间的下一条报文，使各局交错进行。
+                int[] positions = new int[roomCount];
+                boolean remaining = true;
+                while (remaining) {
+                    remaining = false;
+                    for (int roomId = producerId; roomId < roomCount; roomId += producerCount) {
+                        List<byte[]> script = scripts.get(roomId);
+                        int position = positions[roomId];
+                        if (position >= script.size())
+                            continue;
+                        remaining = true;
+                        Room room = rooms[roomId];
+                        byte[] message = script.get(position);
+                        if (position == script.size() - 1)
+                            roomExecutor.execute(roomId, () -> {
+                                room.dispatchMessage(message);
+                                finished.countDown();
+                            });
+                        else
+                            roomExecutor.execute(roomId, () -> room.dispatchMessage(message));
+                        positions[roomId] = position + 1;
+                    }
+                }
+            });
+        }
+        long startTime = System.nanoTime();
+        for (Thread producer : producers)
+            producer.start();
+        finished.await();
+        long elapsed = System.nanoTime() - startTime;
+        return totalMessages * 1e9 / elapsed;
+    }
+    
+    
+    /**
+     * 生成一个房间的报文序列：client 1 请求新游戏、client 2 同意，随后按 Swap2 规则轮流随机落子直到分出胜负或达到步数上限。
+     */
+    private static List<byte[]> generateScript(Random random, int gameCount) {
+        Room packer = new Room(0, new Seat(null, new NullConnection(), 0), new Seat(null, new NullConnection(), 0));
+        List<byte[]> script = new ArrayList<byte[]>();
+        Board board = new Board();
+        for (int game = 0; game < gameCount; ++game) {
+            script.add(fromClient(1, packer.packMessage(AbstractSocket.INQUIRE_TO_NEW_GAME, null)));
+            script.add(fromClient(2, packer.packMessage(AbstractSocket.ACCEPT_TO_NEW_GAME, null)));
+            board.newGame(); // client 1 为玩家 1
+            while (!board.isGameOver() && board.getHistorySize() < MAX_MOVES_PER_GAME) {
+                int clientId = board.getNextPlayerNumber();
+                int i, j;
+                do {
+                    i = 1 + random.nextInt(Board.n);
+                    j = 1 + random.nextInt(Board.n);
+                } while (!tryPutStone(board, i, j));
+                script.add(fromClient(clientId, packer.packInquireToPutStone(i, j)));
+                if (board.getHistorySize() == 3) {
+                    script.add(fromClient(2, packer.packChoosePlayerColor(0))); // 玩家 2 选择执黑，玩家 1 执白。
+                    board.choosePlayer1Color(StoneType.WHITE);
+                }
+                else
+                    board.getIndexOfRowStones();
+            }
+            if (!board.isGameOver())
+                script.add(fromClient(1, packer.packMessage(AbstractSocket.ADMIT_DEFEAT, null)));
+            board.reset();
+        }
+        return script;
+    }
+    
+    
+    private static boolean tryPutStone(Board board, int i, int j) {
+        try {
+            board.putStone(i, j);
+            return true;
+        }
+        catch (GameNotStartedException | BadInputStoneException e) {
+            return false;
+        }
+    }
+    
+    
+    private static byte[] fromClient(int clientId, byte[] message) {
+        message[0] = (byte) clientId;
+        return message;
+    }
+    
+    
+    /**
+     * 丢弃所有报文的连接
+     */
+    private static class NullConnection extends Connection {
+        @Override
+        public void start() {
+        }
+        
+        
+        @Override
+        public void send(byte[] message) {
+        }
+        
+        
+        @Override
+        public void close() {
+        }
+        
+        
+        @Override
+        public boolean isClosed() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package Gomoku;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 连接上的一个会话在房间中的座位
+ * 一个连接可以通过不同的会话编号同时进行多个对局，每个会话在大厅中独立配对，加入各自的房间。
+ * 连接断开后座位仍保留在房间中，client 重连后可以用恢复令牌把座位转移到新的连接上。
+ */
+public class Seat {
+    private static final int MAX_PENDING_MESSAGES = Server.MESSAGE_QUEUE_CAPACITY; // 配对前最多暂存的报文数
+    
+    private static final SecureRandom tokenRandom = new SecureRandom();
+    
+    private final Server server;
+    private volatile Connection connection;
+    private volatile int sessionId;
+    private final long resumeToken; // 会话恢复令牌
+    private final AtomicBoolean entered; // 是否已可以配对（或已被放弃）
+    private volatile Room room; // 所在的房间，尚未配对时为 null。
+    private volatile int clientId; // 在房间内的 client 编号（1 或 2）
+    private List<byte[]> pending; // 配对前收到的报文，加入房间后按顺序提交。
+    
+    
+    /**
+     * @param server     所属的 server
+     * @param connection 所在的连接
+     * @param sessionId  会话编号
+     */
+    public Seat(Server server, Connection connection, int sessionId) {
+        this(server, connection, sessionId, tokenRandom.nextLong());
+    }
+    
+    
+    /**
+     * 使用已有的恢复令牌，从日志恢复房间时调用。
+     *
+     * @param resumeToken 会话恢复令牌
+     */
+    Seat(Server server, Connection connection, int sessionId, long resumeToken) {
+        this.server = server;
+        this.connection = connection;
+        this.sessionId = sessionId;
+        this.resumeToken = resumeToken;
+        entered = new AtomicBoolean(false);
+        room = null;
+        clientId = 0;
+        pending = new ArrayList<byte[]>();
+    }
+    
+    
+    /**
+     * 加入房间，并提交配对前收到的报文。
+     *
+     * @param room     房间
+     * @param clientId 在房间内的 client 编号（1 或 2）
+     */
+    public synchronized void joinRoom(Room room, int clientId) {
+        this.clientId = clientId;
+        this.room = room;
+        for (byte[] message : pending)
+            server.dispatch(this, message);
+        pending = null;
+    }
+    
+    
+    /**
+     * 提交收到的报文，尚未配对时暂存。
+     * 加锁保证暂存的报文先于之后收到的报文提交。
+     *
+     * @param message 接收到的报文
+     */
+    public synchronized void deliver(byte[] message) {
+        if (room != null)
+            server.dispatch(this, message);
+        else if (pending.size() < MAX_PENDING_MESSAGES)
+            pending.add(message);
+    }
+    
+    
+    /**
+     * 标记座位可以配对（或已被放弃），每个座位只能标记一次。
+     *
+     * @return 是否是第一次标记
+     */
+    boolean claim() {
+        return entered.compareAndSet(false, true);
+    }
+    
+    
+    boolean isClaimed() {
+        return entered.get();
+    }
+    
+    
+    /**
+     * 把座位转移到新的连接上
+     *
+     * @param connection 新的连接
+     * @param sessionId  新连接上的会话编号
+     */
+    void rebind(Connection connection, int sessionId) {
+        this.sessionId = sessionId;
+        this.connection = connection;
+    }
+    
+    
+    public long getResumeToken() {
+        return resumeToken;
+    }
+    
+    
+    public Connection getConnection() {
+        return connection;
+    }
+    
+    
+    public int getSessionId() {
+        return sessionId;
+    }
+    
+    
+    public Room getRoom() {
+        return room;
+    }
+    
+    
+    public int getClientId() {
+        return clientId;
+    }
+    
+    
+    /**
+     * 向座位上的 client 发送报文，报文的会话编号改写为本座位的会话编号。
+     * 同一个报文可能发往不同会话的两个座位，因此改写时复制报文。
+     *
+     * @param message 待发送的报文
+     */
+    public void send(byte[] message) {
+        int sessionId = this.sessionId;
+        Connection connection = this.connection;
+        if (AbstractSocket.parseSessionId(message) != sessionId) {
+            message = message.clone();
+            message[1] = (byte) ((sessionId >>> 24) & 0xFF);
+            message[2] = (byte) ((sessionId >>> 16) & 0xFF);
+            message[3] = (byte) ((sessionId >>> 8) & 0xFF);
+            message[4] = (byte) (sessionId & 0xFF);
+        }
+        WireTracer.trace(WireTracer.SERVER_OUTBOUND, connection.getConnectionId(), message);
+        connection.send(message);
+    }
+    
+    
+    public boolean isClosed() {
+        return connection.isClosed();
+    }
+}
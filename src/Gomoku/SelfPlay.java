@@ -0,0 +1,393 @@
+package Gomoku;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 不依赖界面和 server 的自对弈，生成调整估值权重用的训练数据。
+ * 每个线程用 PatternEngine 和自己对弈：开局先在棋盘中央随机放 0 到 opening 个棋子，之后每一手记录引擎选中位置的得分，直到连成五子或棋盘下满。
+ * 对局按编号分成若干片，每片写成一个 gzip 压缩的文件 selfplay-NNNNNN.gz：
+ * <pre>
+ * [魔数 4 "GMSP"][版本 1][片号 4][第一局的编号 8][局数 4]
+ * 每局：[编号 8][结果 1：0 平局，1 黑胜，2 白胜][开局的棋子数 1][手数 1][每手的格子编号 手数][开局之后每手的得分 4 × (手数 - 开局的棋子数)]
+ * </pre>
+ * 第 k 手之前的局面由前 k 手的格子编号还原，轮到 k % 2 一方（0 为黑）落子，得分是该方的评估。
+ * 每局的随机数只由种子和对局编号决定，中断后用相同的参数重新运行时跳过已完成的片、重新生成未完成的片，结果与不中断时相同。
+ * 片先写入 .tmp 文件，完成后改名，因此目录中的 .gz 文件都是完整的。
+ * 自对弈没有 Swap2 开局的选择颜色，随机开局起同样的作用。
+ *
+ * 用法：java Gomoku.SelfPlay 输出目录 [-games 局数] [-shard-games 每片的局数] [-threads 线程数] [-opening 最多的开局棋子数]
+ * [-seed 随机种子] [-target 每核每秒的局面数]
+ */
+public class SelfPlay {
+    public static final int MAGIC = 0x474D5350; // "GMSP"
+    public static final int VERSION = 1;
+    public static final int DRAW = 0;
+    public static final int BLACK_WINS = 1;
+    public static final int WHITE_WINS = 2;
+    public static final long PROGRESS_INTERVAL_MILLIS = 5000; // 输出进度的间隔
+    private static final int OPENING_RADIUS = 3; // 开局的棋子放在中心周围这么多格内
+    private static final String PARAMETERS_FILE = "selfplay.parameters";
+    
+    
+    /**
+     * 读取分片文件时每局的处理函数
+     */
+    public interface GameVisitor {
+        /**
+         * @param gameIndex    对局编号
+         * @param outcome      DRAW、BLACK_WINS 或 WHITE_WINS
+         * @param openingPlies 随机开局的棋子数
+         * @param cells        按顺序排列的格子编号，见 GameRecord.cellIndex。
+         * @param scores       开局之后每一手的得分，scores[k] 对应第 openingPlies + k 手。
+         */
+        void visit(long gameIndex, int outcome, int openingPlies, byte[] cells, int[] scores);
+    }
+    
+    
+    private final Path directory;
+    private final long gameCount;
+    private final int shardGames;
+    private final int maxOpeningPlies;
+    private final long seed;
+    private final AtomicInteger nextShard;
+    private final AtomicLong finishedGames;
+    private final AtomicLong positions;
+    private final AtomicInteger skippedShards;
+    private volatile IOException failure;
+    
+    
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.err.println("usage: SelfPlay <output directory> [-games n] [-shard-games n] [-threads n] [-opening n] [-seed n] [-target positions per second per core]");
+            System.exit(1);
+        }
+        long games = 100000;
+        int shardGames = 1000;
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        int opening = 4;
+        long seed = 1;
+        long target = 0;
+        for (int index = 1; index < args.length; ++index) {
+            switch (args[index]) {
+                case "-games":
+                    games = Long.parseLong(args[++index]);
+                    break;
+                case "-shard-games":
+                    shardGames = Integer.parseInt(args[++index]);
+                    break;
+                case "-threads":
+                    threadCount = Integer.parseInt(args[++index]);
+                    break;
+                case "-opening":
+                    opening = Integer.parseInt(args[++index]);
+                    break;
+                case "-seed":
+                    seed = Long.parseLong(args[++index]);
+                    break;
+                case "-target":
+                    target = Long.parseLong(args[++index]);
+                    break;
+                default:
+                    System.err.println("unknown option: " + args[index]);
+                    System.exit(2);
+            }
+        }
+        SelfPlay selfPlay = new SelfPlay(Paths.get(args[0]), games, shardGames, opening, seed);
+        System.out.printf("%d games in %d shards, %d threads, opening up to %d stones, seed %d%n",
+                          games, selfPlay.getShardCount(), threadCount, opening, seed);
+        long startNanos = System.nanoTime();
+        selfPlay.run(threadCount, true);
+        double seconds = Math.max(1, System.nanoTime() - startNanos) / 1e9;
+        long perCore = (long) (selfPlay.getPositionCount() / seconds / threadCount);
+        System.out.printf("%d games, %d positions in %.1f s, %d positions/s per core, %d shards already done%n",
+                          selfPlay.getFinishedGameCount(), selfPlay.getPositionCount(), seconds, perCore, selfPlay.getSkippedShardCount());
+        if (target > 0 && selfPlay.getPositionCount() > 0)
+            System.out.println(perCore >= target ? "target " + target + " positions/s per core reached" : "below target " + target + " positions/s per core");
+    }
+    
+    
+    /**
+     * @param directory       输出目录，已有的参数必须相同。
+     * @param gameCount       总局数
+     * @param shardGames      每片的局数
+     * @param maxOpeningPlies 随机开局最多的棋子数
+     * @param seed            随机种子
+     */
+    public SelfPlay(Path directory, long gameCount, int shardGames, int maxOpeningPlies, long seed) throws IOException {
+        if (gameCount < 0 || shardGames <= 0 || maxOpeningPlies < 0 || maxOpeningPlies > (2 * OPENING_RADIUS + 1) * (2 * OPENING_RADIUS + 1))
+            throw new IllegalArgumentException("bad self-play parameters");
+        this.directory = directory;
+        this.gameCount = gameCount;
+        this.shardGames = shardGames;
+        this.maxOpeningPlies = maxOpeningPlies;
+        this.seed = seed;
+        nextShard = new AtomicInteger();
+        finishedGames = new AtomicLong();
+        positions = new AtomicLong();
+        skippedShards = new AtomicInteger();
+        Files.createDirectories(directory);
+        // 总局数可以改变（继续生成更多的片），其他参数不同时已有的片与新生成的不一致。
+        String parameters = "shardGames=" + shardGames + " opening=" + maxOpeningPlies + " seed=" + seed + " version=" + VERSION;
+        Path parametersFile = directory.resolve(PARAMETERS_FILE);
+        if (Files.exists(parametersFile)) {
+            String existing = new String(Files.readAllBytes(parametersFile), StandardCharsets.UTF_8).trim();
+            if (!existing.equals(parameters))
+                throw new IOException(directory + " was generated with " + existing + ", not " + parameters);
+        }
+        else
+            Files.write(parametersFile, parameters.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    
+    public int getShardCount() {
+        return (int) ((gameCount + shardGames - 1) / shardGames);
+    }
+    
+    
+    public long getFinishedGameCount() {
+        return finishedGames.get();
+    }
+    
+    
+    public long getPositionCount() {
+        return positions.get();
+    }
+    
+    
+    public int getSkippedShardCount() {
+        return skippedShards.get();
+    }
+    
+    
+    public static Path shardPath(Path directory, int shard) {
+        return directory.resolve(String.format("selfplay-%06d.gz", shard));
+    }
+    
+    
+    /**
+     * 用 threadCount 个线程生成所有未完成的片，返回时全部完成。
+     *
+     * @param progress 是否定期输出进度
+     */
+    public void run(int threadCount, boolean progress) throws IOException, InterruptedException {
+        try (Stream<Path> files = Files.list(directory)) { // 上次中断时未完成的片
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (file.getFileName().toString().endsWith(".gz.tmp"))
+                    Files.delete(file);
+            }
+        }
+        List<Thread> threads = new ArrayList<Thread>(threadCount);
+        for (int index = 0; index < threadCount; ++index) {
+            Thread thread = new Thread(this::work, "self-play-" + index);
+            threads.add(thread);
+            thread.start();
+        }
+        long startNanos = System.nanoTime();
+        for (Thread thread : threads) {
+            while (thread.isAlive()) {
+                thread.join(PROGRESS_INTERVAL_MILLIS);
+                if (progress && thread.isAlive()) {
+                    double seconds = (System.nanoTime() - startNanos) / 1e9;
+                    System.out.printf("%d/%d games, %d positions, %.0f positions/s per core%n",
+                                      finishedGames.get(), gameCount, positions.get(), positions.get() / seconds / threadCount);
+                }
+            }
+        }
+        if (failure != null)
+            throw failure;
+    }
+    
+    
+    private void work() {
+        Board board = new Board();
+        byte[] cells = new byte[Board.n * Board.n];
+        int[] scores = new int[Board.n * Board.n];
+        int shard;
+        while (failure == null && (shard = nextShard.getAndIncrement()) < getShardCount()) {
+            try {
+                generateShard(shard, board, cells, scores);
+            }
+            catch (IOException e) {
+                failure = e;
+            }
+        }
+    }
+    
+    
+    /**
+     * 生成一片，已存在时跳过。
+     */
+    private void generateShard(int shard, Board board, byte[] cells, int[] scores) throws IOException {
+        Path file = shardPath(directory, shard);
+        long firstGame = (long) shard * shardGames;
+        int games = (int) Math.min(shardGames, gameCount - firstGame);
+        if (Files.exists(file)) {
+            if (readGameCount(file) == games) {
+                skippedShards.incrementAndGet();
+                return;
+            }
+            Files.delete(file); // 上次的总局数较少，最后一片不满。
+        }
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(temporary), 1 << 16), 1 << 16))) {
+            output.writeInt(MAGIC);
+            output.writeByte(VERSION);
+            output.writeInt(shard);
+            output.writeLong(firstGame);
+            output.writeInt(games);
+            for (long game = firstGame; game < firstGame + games; ++game) {
+                int[] result = playGame(game, board, cells, scores);
+                int outcome = result[0], openingPlies = result[1], moveCount = board.getHistorySize();
+                output.writeLong(game);
+                output.writeByte(outcome);
+                output.writeByte(openingPlies);
+                output.writeByte(moveCount);
+                output.write(cells, 0, moveCount);
+                for (int ply = openingPlies; ply < moveCount; ++ply)
+                    output.writeInt(scores[ply - openingPlies]);
+                finishedGames.incrementAndGet();
+                positions.addAndGet(moveCount - openingPlies);
+            }
+        }
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    
+    /**
+     * 下一局棋，着法写入 cells，得分写入 scores。
+     *
+     * @return [结果, 开局的棋子数]
+     */
+    private int[] playGame(long game, Board board, byte[] cells, int[] scores) {
+        SplittableRandom gameRandom = new SplittableRandom(gameSeed(game));
+        PatternEngine engine = new PatternEngine(new Random(gameRandom.nextLong()));
+        board.newGame();
+        int openingPlies = gameRandom.nextInt(maxOpeningPlies + 1);
+        int center = (Board.n + 1) / 2;
+        for (int ply = 0; ply < openingPlies; ++ply) {
+            int i, j;
+            do {
+                i = center - OPENING_RADIUS + gameRandom.nextInt(2 * OPENING_RADIUS + 1);
+                j = center - OPENING_RADIUS + gameRandom.nextInt(2 * OPENING_RADIUS + 1);
+            } while (board.getStoneType(i, j) != StoneType.SPACE);
+            if (put(board, i, j, cells))
+                return new int[]{(ply % 2 == 0 ? BLACK_WINS : WHITE_WINS), ply + 1};
+        }
+        while (!board.isGameOver()) {
+            int ply = board.getHistorySize();
+            int cell = engine.chooseMove(board);
+            scores[ply - openingPlies] = (int) Math.min(engine.getLastScore(), Integer.MAX_VALUE);
+            if (put(board, GameRecord.cellI(cell), GameRecord.cellJ(cell), cells))
+                return new int[]{(ply % 2 == 0 ? BLACK_WINS : WHITE_WINS), openingPlies};
+        }
+        return new int[]{DRAW, openingPlies};
+    }
+    
+    
+    /**
+     * 一局的随机种子：种子和编号混合后再打散，不同的种子、相邻的编号得到互不相关的随机序列。
+     */
+    private long gameSeed(long game) {
+        long z = seed * 0xBF58476D1CE4E5B9L + game;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+    
+    
+    /**
+     * 落子并记录
+     *
+     * @return 是否连成五子
+     */
+    private static boolean put(Board board, int i, int j, byte[] cells) {
+        cells[board.getHistorySize()] = (byte) GameRecord.cellIndex(i, j);
+        try {
+            board.putStone(i, j);
+        }
+        catch (GameNotStartedException | BadInputStoneException e) {
+            throw new IllegalStateException(e);
+        }
+        return (board.getIndexOfRowStones().size() >= 5);
+    }
+    
+    
+    /**
+     * 分片文件头部记录的局数
+     */
+    private static int readGameCount(Path file) throws IOException {
+        try (DataInputStream input = new DataInputStream(new GZIPInputStream(Files.newInputStream(file)))) {
+            input.readInt();
+            input.readUnsignedByte();
+            input.readInt();
+            input.readLong();
+            return input.readInt();
+        }
+        catch (EOFException e) {
+            return -1;
+        }
+    }
+    
+    
+    /**
+     * 按顺序读取一个分片文件中的对局
+     */
+    public static void read(Path file, GameVisitor visitor) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file), 1 << 16), 1 << 16))) {
+            if (input.readInt() != MAGIC)
+                throw new IOException(file + ": not a self-play shard");
+            if (input.readUnsignedByte() != VERSION)
+                throw new IOException(file + ": unsupported self-play version");
+            input.readInt();
+            input.readLong();
+            int games = input.readInt();
+            for (int game = 0; game < games; ++game) {
+                long gameIndex = input.readLong();
+                int outcome = input.readUnsignedByte(), openingPlies = input.readUnsignedByte(), moveCount = input.readUnsignedByte();
+                byte[] cells = new byte[moveCount];
+                input.readFully(cells);
+                int[] scores = new int[moveCount - openingPlies];
+                for (int index = 0; index < scores.length; ++index)
+                    scores[index] = input.readInt();
+                visitor.visit(gameIndex, outcome, openingPlies, cells, scores);
+            }
+        }
+        catch (EOFException e) {
+            throw new IOException(file + ": truncated self-play shard", e);
+        }
+    }
+    
+    
+    /**
+     * 按片号顺序读取目录中所有完整的分片文件
+     */
+    public static void readAll(Path directory, GameVisitor visitor) throws IOException {
+        List<Path> files = new ArrayList<Path>();
+        try (Stream<Path> paths = Files.list(directory)) {
+            paths.filter(path -> path.getFileName().toString().matches("selfplay-\\d+\\.gz")).forEach(files::add);
+        }
+        Collections.sort(files);
+        for (Path file : files)
+            read(file, visitor);
+    }
+}
@@ -1,41 +1,78 @@
 package Gomoku;
 
-import javax.swing.*;
-import java.net.ServerSocket;
-import java.net.Socket;
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.List;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.EmptyStackException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
-public class Server extends AbstractSocket {
-    public static final int PORT = 10000;
+/**
+ * 大厅服务器
+ * 持续接收 client 连接，按到达顺序将来自不同连接的会话两两配对并创建游戏房间。
+ * 每个连接默认进入大厅的会话为 0，client 可以用 JOIN_LOBBY 在同一连接上打开更多会话，同时进行多个对局。
+ * 默认所有连接由少量 NIO 事件循环线程复用，也可以为每个连接使用一个（虚拟）线程阻塞接收报文。
+ * 打开预写日志（openMoveLog）后，server 重启时按日志恢复所有房间，client 用恢复令牌重连后继续对局。
+ * 打开棋谱库（openArchive）后，所有结束的对局都写入棋谱库。
+ */
+public class Server {
+    /**
+     * 连接的接收方式
+     */
+    public enum Mode {
+        NIO,             // 少量事件循环线程复用所有连接
+        VIRTUAL_THREAD,  // 每个连接一个虚拟线程（JDK 21 及以上，否则退化为平台线程）
+        PLATFORM_THREAD  // 每个连接一个平台线程
+    }
     
-    private boolean waitingForResponse; // 是否正在等待 client 回应
-    private int waitingForResponseClientId; // 是否正在等待的 client 的 ID （1 或 2）
-    private Board board; // 棋盘
-    private int player1ClientId; // 玩家 1 的客户端编号（1 或 2）
-    private final LinkedBlockingDeque<byte[]> messageQueue; // 消息队列，用于存储接收到的消息。
     
-    private final ServerSocket server;
-    private Socket client1;
-    private Socket client2;
+    public static final int PORT = 10000;
+    public static final int MESSAGE_QUEUE_CAPACITY = 1024; // 消息队列容量
+    public static final int MAX_DRAIN_BATCH = 64; // 工作线程单次最多处理的消息数
+    public static final long HANDSHAKE_TIMEOUT_MILLIS = 200; // 等待新连接握手的最长时间
+    public static final long DEFAULT_HEARTBEAT_MILLIS = 5000; // 心跳（PING）的间隔，同时用于测量往返时间。
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 20000; // 新版 client 超过这么久没有任何报文时关闭连接
+    public static final long RECOVERY_GRACE_MILLIS = 120000; // 从日志恢复的房间等待 client 重连的最长时间
+    public static final int DEFAULT_EVENT_LOOP_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private static final int PING_TIMESTAMP_LENGTH = 8; // PONG 报文体的长度
+    private static final int RESUME_TOKEN_LENGTH = 8; // RESUME 报文体的长度
+    private static final long ACCEPT_BACKOFF_MILLIS = 100; // accept 失败（例如文件描述符耗尽）后等待的时间
+    
+    private final ServerSocketChannel server;
+    private final Mode mode;
+    private final EventLoop[] eventLoops;
+    private final RoomExecutor roomExecutor; // 按房间分片处理报文的工作线程
+    private final List<Seat> waitingSeats; // 大厅中等待配对的座位
+    private final ConcurrentHashMap<Long, Seat> resumableSeats; // 恢复令牌到座位的映射
+    private final TimingWheel timer; // 握手超时和所有房间的回合超时
+    private final MessagePacker packer;
+    private volatile TimeControl timeControl; // 新建房间使用的计时规则
+    private MoveLog moveLog; // 对局的预写日志，为 null 时不记录。
+    private GameArchive archive; // 保存结束的对局，为 null 时不保存。
+    private volatile long heartbeatMillis; // 心跳间隔
+    private volatile long idleTimeoutMillis; // 空闲超时，0 表示不回收空闲的连接。
+    private int nextRoomId; // 下一个房间的编号
+    private int activeRooms; // 至少有一方未断开的房间数
+    private int maxRooms; // 房间数上限，达到上限时座位在大厅中等待，0 表示不限。
+    private int nextEventLoop; // 下一个连接分配到的事件循环
     
     
     public static void main(String[] args) {
         try {
-            ServerSocket serverSocket = new ServerSocket(PORT);
-            Socket clientSocket1 = new Socket("127.0.0.1", Server.PORT);
-            Socket clientSocket2 = new Socket("127.0.0.1", Server.PORT);
-            System.out.println("Server0 is running on local port: " + serverSocket.getLocalPort());
-            System.out.println("client1 is running on local port: " + clientSocket1.getLocalPort());
-            System.out.println("client2 is running on local port: " + clientSocket2.getLocalPort());
-            Server server = new Server(serverSocket);
-            Client client1 = new Client(clientSocket1);
+            ServerSocketChannel serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(PORT));
+            System.out.println("Server0 is running on local port: " + serverChannel.socket().getLocalPort());
+            Server server = new Server(serverChannel);
+            // 本地的两个 client 与 server 在同一 JVM 中，直接使用内存通道，不经过回环 TCP。
+            Client client1 = new Client(server.connectInMemory());
             client1.setClientId(1);
-            Client client2 = new Client(clientSocket2);
+            Client client2 = new Client(server.connectInMemory());
             client2.setClientId(2);
         }
         catch (IOException ignored) {
@@ -43,468 +80,509 @@ public class Server extends AbstractSocket {
     }
     
     
-    public Server(ServerSocket server) {
-        super();
-        socketId = 0;
-        board = new Board();
-        waitingForResponse = false;
-        waitingForResponseClientId = 0;
-        player1ClientId = 0;
+    public Server(ServerSocketChannel server) throws IOException {
+        this(server, Mode.NIO, DEFAULT_EVENT_LOOP_COUNT, RoomExecutor.DEFAULT_WORKER_COUNT);
+    }
+    
+    
+    /**
+     * @param server         已绑定端口的 ServerSocketChannel，为 null 时只接受同一 JVM 内的连接。
+     * @param mode           连接的接收方式
+     * @param eventLoopCount 事件循环线程数（仅用于 NIO 方式）
+     * @param workerCount    处理房间报文的工作线程数
+     */
+    public Server(ServerSocketChannel server, Mode mode, int eventLoopCount, int workerCount) throws IOException {
         this.server = server;
-        messageQueue = new LinkedBlockingDeque<byte[]>();
-        
-        try {
-            client1 = server.accept();
-            client2 = server.accept();
-        }
-        catch (IOException ignored) {
-        }
+        this.mode = mode;
+        if (mode != Mode.NIO)
+            eventLoopCount = 0;
+        eventLoops = new EventLoop[eventLoopCount];
+        for (int index = 0; index < eventLoopCount; ++index)
+            eventLoops[index] = new EventLoop("event-loop-" + index);
+        roomExecutor = new RoomExecutor(workerCount);
+        waitingSeats = new ArrayList<Seat>();
+        resumableSeats = new ConcurrentHashMap<Long, Seat>();
+        timer = new TimingWheel("server-timer");
+        packer = new MessagePacker(0);
+        timeControl = TimeControl.DEFAULT;
+        heartbeatMillis = DEFAULT_HEARTBEAT_MILLIS;
+        idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+        moveLog = null;
+        archive = null;
+        nextRoomId = 1;
+        activeRooms = 0;
+        maxRooms = 0;
+        nextEventLoop = 0;
         
         initService();
     }
     
     
     private void initService() {
-        Thread receiveFromClient1 = new Thread(() -> receiveFromClient(client1));
-        
-        Thread receiveFromClient2 = new Thread(() -> receiveFromClient(client2));
-        
-        Thread service = new Thread(() -> {
-            while (true) {
-                if (messageQueue.isEmpty())
-                    continue;
-                else {
-                    byte[] message = messageQueue.pop();
-                    if (waitingForResponse && waitingForResponseClientId != parseSocketId(message))
-                        continue;
-                    else {
-                        waitingForResponse = false;
-                        waitingForResponseClientId = 0;
-                        handleMessage(message);
-                    }
-                }
-            }
-        });
-        
-        receiveFromClient1.start();
-        receiveFromClient2.start();
-        service.start();
+        roomExecutor.start();
+        timer.start();
+        for (EventLoop eventLoop : eventLoops)
+            eventLoop.start();
+        if (server != null)
+            listen(server);
+    }
+    
+    
+    /**
+     * 在另一个已绑定地址的 ServerSocketChannel 上接收连接，例如与 TCP 端口并存的 Unix 域套接字。
+     *
+     * @param channel 已绑定地址的 ServerSocketChannel
+     */
+    public void listen(ServerSocketChannel channel) {
+        new Thread(() -> acceptClients(channel)).start();
     }
     
     
-    private void receiveFromClient(Socket client) {
-        while (!client.isClosed()) {
+    /**
+     * 打开并绑定 Unix 域套接字，删除上次运行遗留的套接字文件。
+     *
+     * @param path 套接字文件路径
+     */
+    public static ServerSocketChannel openUnixDomain(Path path) throws IOException {
+        Files.deleteIfExists(path);
+        ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        channel.bind(UnixDomainSocketAddress.of(path));
+        return channel;
+    }
+    
+    
+    /**
+     * 持续接收 client 连接，并将其分配到事件循环上。
+     * accept 失败时（例如连接数过多导致文件描述符耗尽）记录下来并等待 ACCEPT_BACKOFF_MILLIS 再重试，不空转；
+     * 设置连接失败时关闭这个连接。
+     *
+     * @param server 已绑定地址的 ServerSocketChannel
+     */
+    private void acceptClients(ServerSocketChannel server) {
+        while (server.isOpen()) {
+            SocketChannel channel;
             try {
-                InputStream is = client.getInputStream();
-                byte[] message = receivePacket(is);
-                printMessage(message);
-                messageQueue.add(message);
+                channel = server.accept();
             }
-            catch (IOException ignored) {
+            catch (IOException e) {
+                if (!server.isOpen())
+                    return;
+                System.err.println("accept: " + e);
+                try {
+                    Thread.sleep(ACCEPT_BACKOFF_MILLIS);
+                }
+                catch (InterruptedException interrupted) {
+                    return;
+                }
+                continue;
+            }
+            try {
+                if (channel.getLocalAddress() instanceof InetSocketAddress)
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                if (mode == Mode.NIO) {
+                    channel.configureBlocking(false);
+                    admit(new NioConnection(this, channel, nextEventLoop()));
+                }
+                else
+                    accept(new StreamTransport(channel));
+            }
+            catch (IOException e) {
+                System.err.println("accept: " + e);
+                try {
+                    channel.close();
+                }
+                catch (IOException ignored) {
+                }
             }
         }
     }
     
     
-    public void sendToClient(int clientId, byte[] message) {
-        try {
-            if (clientId == 1)
-                sendPacket(client1.getOutputStream(), message);
-            else
-                sendPacket(client2.getOutputStream(), message);
-        }
-        catch (IOException ignored) {
-        }
+    private synchronized EventLoop nextEventLoop() {
+        EventLoop eventLoop = eventLoops[nextEventLoop];
+        nextEventLoop = (nextEventLoop + 1) % eventLoops.length;
+        return eventLoop;
     }
     
     
-    protected void sendToPlayer(int playerId, byte[] message) {
-        if (playerId == 1)
-            sendToClient(player1ClientId, message);
-        else
-            sendToClient(3 - player1ClientId, message);
+    /**
+     * 接受一个已建立的传输层连接
+     *
+     * @param transport client 的传输层连接
+     */
+    public void accept(Transport transport) {
+        admit(new TransportConnection(this, transport, mode == Mode.VIRTUAL_THREAD));
     }
     
     
     /**
-     * server 向双方 client 发送新建游戏命令
+     * 新连接开始接收报文，会话 0 的座位按连接建立的顺序在大厅中排队，握手之后才可以配对。
+     * client 在 HANDSHAKE_TIMEOUT_MILLIS 内发送 HELLO 或其他报文时立即可以配对，
+     * 不发送任何报文的旧版 client 在超时后可以配对；断线重连的 client 在 HELLO 中声明不使用自动加入的会话 0。
      *
-     * @param message 接收到的报文
-     *
-     * @implNote messageType = NEW_GAME
-     * @implNote server 不可能接收到这个消息
+     * @param connection 新的 client 连接
      */
-    @Override
-    protected void handleNewGame(byte[] message) {
+    private void admit(Connection connection) {
+        Seat seat = new Seat(this, connection, 0);
+        connection.addSeat(seat);
+        queueSeat(seat);
+        connection.start();
+        timer.schedule(() -> enterLobby(seat), HANDSHAKE_TIMEOUT_MILLIS);
+        timer.schedule(() -> heartbeat(connection), HANDSHAKE_TIMEOUT_MILLIS);
     }
     
     
     /**
-     * client 请求新建游戏，server 直接转发对方 client。
-     * client 弹出窗口，让用户选择是否开始。
-     * server 直接转发对方 client
-     *
-     * @param message 接收到的报文
-     *
-     * @implNote messageType = INQUIRE_TO_NEW_GAME
+     * 心跳：定期向连接发送 PING，client 回复的 PONG 用于测量往返时间，房间按往返时间补偿玩家的网络延迟。
+     * 超过空闲超时没有收到任何报文的连接（例如半开的 TCP 连接）被关闭，其座位离开大厅或房间，与断线相同。
+     * 每个连接只在时间轮上登记一个定时任务。发送只放入连接的发送队列，不会阻塞，PING 和关闭都直接在时间轮线程上执行，
+     * 与 reap 相同；关闭要获取 Server 的锁并向房间提交任务，不能交给房间的工作线程。
+     * 旧版 client 不认识 PING，不发送心跳，也不按空闲回收（版本协商可能晚于第一次心跳，仍然定期检查）。
      */
-    @Override
-    protected void handleInquireToNewGame(byte[] message) {
-        int destClientId = 3 - parseSocketId(message); // 从 message 解析 clientId
-        waitingForResponse = true; // 等待对方 client 回应
-        waitingForResponseClientId = destClientId; // 对方的 clientId
-        sendToClient(destClientId, packMessage(INQUIRE_TO_NEW_GAME, null));
-        /**
-         * 直接转发对方 client（报文头可能需要稍作修改）
-         * @messageType INQUIRE_TO_NEW_GAME
-         */
+    private void heartbeat(Connection connection) {
+        if (connection.isClosed())
+            return;
+        if (connection.getVersion() >= WireCodec.VERSION_2) {
+            long now = System.nanoTime(), idleTimeoutMillis = this.idleTimeoutMillis;
+            if (idleTimeoutMillis > 0 && connection.getIdleNanos(now) > idleTimeoutMillis * 1000000) {
+                connection.close();
+                return;
+            }
+            long sentNanos = System.nanoTime();
+            connection.onPingSent(sentNanos);
+            connection.send(packer.packPing(AbstractSocket.PING, sentNanos));
+        }
+        timer.schedule(() -> heartbeat(connection), heartbeatMillis);
     }
     
     
     /**
-     * client 同意新建游戏，server 新建游戏，并向双方 client 发送新建游戏命令。
-     *
-     * @param message 接收到的报文
+     * 回收连接：在时间轮线程上关闭连接，其座位离开大厅或房间，与断线相同。
+     * 关闭连接要获取 Server 的锁并向房间提交任务，不能在房间的工作线程上执行（例如房间发送报文时发现 client 不再读取）。
      *
-     * @implNote messageType = ACCEPT_TO_NEW_GAME
-     * @implNote client 不可能接收到这个消息
+     * @param connection 待关闭的连接
      */
-    @Override
-    protected void handleAcceptToNewGame(byte[] message) {
-        // 接收函数已保证从正确的 client 接收消息
-        int srcClientId = parseSocketId(message); // 从 message 解析 clientId
-        board.newGame();
-        player1ClientId = 3 - srcClientId; // 请求新建游戏的玩家的编号为 1，同意新建游戏的玩家的编号为 2（就是本函数 message 的来源）。
-        byte[] player1NewGameMessage = packNewGame(1);
-        byte[] player2NewGameMessage = packNewGame(2);
-        sendToClient(player1ClientId, player1NewGameMessage);
-        sendToClient(srcClientId, player2NewGameMessage);
-        /**
-         * 向双方 client 发送新建游戏命令
-         * @messageType NEW_GAME
-         * @messageArg playerNumber 玩家编号
-         */
+    void reap(Connection connection) {
+        timer.schedule(connection::close, 0);
     }
     
     
     /**
-     * client 拒绝新建游戏，server 直接转发对方 client。
+     * 为连接上的会话创建座位并进入大厅，会话已有座位时忽略。
      *
-     * @param message 接收到的报文
-     *
-     * @implNote messageType = REJECT_TO_NEW_GAME
+     * @param connection client 连接
+     * @param sessionId  会话编号
      */
-    @Override
-    protected void handleRejectToNewGame(byte[] message) {
-        // 接收函数已保证从正确的 client 接收消息
-        int destClientId = 3 - parseSocketId(message);
-        sendToClient(destClientId, packMessage(REJECT_TO_NEW_GAME, null));
-        /**
-         * 直接转发对方 client（报文头可能需要稍作修改）
-         * @messageType REJECT_TO_NEW_GAME
-         */
+    private void openSeat(Connection connection, int sessionId) {
+        Seat seat = new Seat(this, connection, sessionId);
+        if (connection.addSeat(seat)) {
+            queueSeat(seat);
+            enterLobby(seat);
+        }
     }
     
     
     /**
-     * server 向双方 client 发送游戏结束命令
-     *
-     * @param message 接收到的报文
-     *
-     * @implNote messageType = GAME_OVER
-     * @implNote server 不可能接收到这个消息
+     * 在同一 JVM 内连接 server，返回 client 一端的内存通道。
      */
-    @Override
-    protected void handleGameOver(byte[] message) {
+    public Transport connectInMemory() {
+        InMemoryTransport[] ends = InMemoryTransport.pair();
+        accept(ends[1]);
+        return ends[0];
     }
     
     
     /**
-     * client 认输，server 结束游戏，server 接收后向双方 client 发送游戏结束命令。
-     *
-     * @param message 接收到的报文
-     *
-     * @implNote messageType = ADMIT_DEFEAT
-     * @implNote client 不可能接收到这个消息
+     * 座位在大厅中排队，排队的顺序即配对的顺序。
      */
-    @Override
-    protected void handleAdmitDefeat(byte[] message) {
-        int srcClientId = parseSocketId(message); // 从 message 解析 clientId
-        int winnerNumber = (srcClientId == player1ClientId ? 2 : 1);
-        List<Integer> indexOfRowStones = board.getIndexOfRowStones();
-        List<Stone> rowStones = new ArrayList<Stone>();
-        for (int index : indexOfRowStones) {
-            try {
-                rowStones.add(board.getStoneFromIndex(index));
-            }
-            catch (ArrayIndexOutOfBoundsException ignored) {
-            }
-        }
-        byte[] gameOverMessage = packGameOver(winnerNumber, indexOfRowStones, rowStones);
-        sendToClient(1, gameOverMessage);
-        sendToClient(2, gameOverMessage);
-        /**
-         * 向双方 client 发送游戏结束命令
-         * @messageType GAME_OVER
-         * @messageArg winnerNumber     胜者编号
-         * @messageArg indexOfRowStones 连珠的棋子编号
-         * @messageArg rowStones        连珠的棋子
-         */
-        board.reset();
+    private synchronized void queueSeat(Seat seat) {
+        waitingSeats.add(seat);
     }
     
     
     /**
-     * server 向双方 client 发送落子命令
+     * 座位可以配对，按排队顺序把队首的座位与下一个其他连接的座位配对后创建房间。
+     * 两者之一尚未握手时等待，保证先建立的连接先配对；同一连接的会话之间不配对，配对前收到的报文暂存在座位中。
      *
-     * @param message 接收到的报文
-     *
-     * @implNote messageType = PUT_STONE
-     * @implNote server 不可能接收到这个消息
+     * @param seat 排队中的座位，已可以配对或已被放弃时忽略。
      */
-    @Override
-    protected void handlePutStone(byte[] message) {
+    private synchronized void enterLobby(Seat seat) {
+        if (seat.claim())
+            matchSeats();
     }
     
     
     /**
-     * client 请求落子，server 进行处理，若可以落子则向双方 client 发送落子命令。
-     *
-     * @param message 接收到的报文
+     * 放弃排队中的座位（断线重连的 client 不使用会话 0）
      *
-     * @implNote messageType = INQUIRE_TO_PUT_STONE
-     * @implNote client 不可能接收到这个消息
+     * @return 座位是否尚未可以配对
      */
-    @Override
-    protected void handleInquireToPutStone(byte[] message) {
-        int srcClientId = parseSocketId(message); // 从 message 解析 clientId
-        int playerNumber = (srcClientId == player1ClientId ? 1 : 2);
-        if (playerNumber != board.getNextPlayerNumber())
-            return;
-        Object[] messageArgs = unpackInquireToPutStone(message);
-        try {
-            int i = (Integer) messageArgs[0], j = (Integer) messageArgs[1]; // 从 message 解析 (i, j)
-            Stone previousStone;
-            try {
-                previousStone = board.getLastStone();
-            }
-            catch (EmptyStackException ignored) {
-                previousStone = null;
-            }
-            board.putStone(i, j);
-            Stone stone = board.getLastStone();
-            int historySize = board.getHistorySize();
-            byte[] putStoneMessage = packPutStone(stone, previousStone, historySize);
-            sendToClient(1, putStoneMessage);
-            sendToClient(2, putStoneMessage);
-            /**
-             * 向双方 client 发送落子命令
-             * @messageType PUT_STONE
-             * @messageArg stone         落子的 stone
-             * @messageArg previousStone 落子的 stone 的前一个 stone，若没有则传入 null。
-             * @messageArg historySize   落子完成后棋盘上的棋子数
-             */
-            
-            // 若没有选择玩家颜色
-            if (!board.isPlayerColorChosen() && (board.getHistorySize() == 3 || board.getHistorySize() == 5)) {
-                waitingForResponse = true; // 正在等待 client 回应
-                waitingForResponseClientId = 3 - srcClientId; // 对方的 clientId
-            }
-            else { // 没有选择玩家颜色不可能出现连珠 所以直接用了 else
-                // 检查是否连珠
-                List<Integer> indexOfRowStones = board.getIndexOfRowStones();
-                if (board.isGameOver()) {
-                    List<Stone> rowStones = new ArrayList<Stone>();
-                    for (int index : indexOfRowStones) {
-                        try {
-                            rowStones.add(board.getStoneFromIndex(index));
-                        }
-                        catch (ArrayIndexOutOfBoundsException ignored) {
-                        }
-                    }
-                    int winnerNumber;
-                    if (indexOfRowStones.size() >= 5)
-                        winnerNumber = 3 - board.getNextPlayerNumber();
-                    else
-                        winnerNumber = 0; // 平局
-                    byte[] gameOverMessage = packGameOver(winnerNumber, indexOfRowStones, rowStones);
-                    sendToClient(1, gameOverMessage);
-                    sendToClient(2, gameOverMessage);
-                    /**
-                     * 向双方 client 发送游戏结束命令
-                     * @messageType GAME_OVER
-                     * @messageArg winnerNumber     胜者编号
-                     * @messageArg indexOfRowStones 连珠的棋子编号
-                     * @messageArg rowStones        连珠的棋子
-                     */
+    private synchronized boolean withdraw(Seat seat) {
+        if (!seat.claim())
+            return false;
+        waitingSeats.remove(seat);
+        seat.getConnection().removeSeat(seat);
+        matchSeats();
+        return true;
+    }
+    
+    
+    private void matchSeats() {
+        waitingSeats.removeIf(Seat::isClosed);
+        while (!waitingSeats.isEmpty()) {
+            Seat first = waitingSeats.get(0);
+            Seat second = null;
+            for (Seat waitingSeat : waitingSeats) {
+                if (waitingSeat.getConnection() != first.getConnection()) {
+                    second = waitingSeat;
+                    break;
                 }
             }
-        }
-        catch (GameNotStartedException | BadInputStoneException ignored) {
+            if (!first.isClaimed() || second == null || !second.isClaimed() || (maxRooms > 0 && activeRooms >= maxRooms))
+                return;
+            waitingSeats.remove(first);
+            waitingSeats.remove(second);
+            new Room(nextRoomId++, first, second, timer, roomExecutor, timeControl, moveLog, archive);
+            ++activeRooms;
+            resumableSeats.put(first.getResumeToken(), first);
+            resumableSeats.put(second.getResumeToken(), second);
         }
     }
     
     
     /**
-     * server 向双方 client 发送悔棋命令
-     *
-     * @param message 接收到的报文
+     * 连接接收到完整的报文，按会话编号交给对应的座位。
+     * 未知会话的 JOIN_LOBBY 报文打开新的座位，RESUME 报文恢复断线前的座位，其他报文丢弃。
      *
-     * @implNote messageType = RETRACT_STONE
-     * @implNote server 不可能接收到这个消息
+     * @param connection 接收到报文的连接
+     * @param message    接收到的报文
      */
-    @Override
-    protected void handleRetractStone(byte[] message) {
+    void onMessage(Connection connection, byte[] message) {
+        WireTracer.trace(WireTracer.SERVER_INBOUND, connection.getConnectionId(), message);
+        connection.onReceived(System.nanoTime());
+        int messageType = AbstractSocket.parseMessageType(message);
+        int sessionId = AbstractSocket.parseSessionId(message);
+        Seat seat = connection.getSeat(sessionId);
+        if (messageType == AbstractSocket.HELLO)
+            onHello(connection, message);
+        else if (messageType == AbstractSocket.PONG) {
+            if (message.length >= AbstractSocket.headLength + PING_TIMESTAMP_LENGTH) // 报文过短时丢弃
+                connection.onPong((Long) packer.unpackPing(message)[0], System.nanoTime());
+        }
+        else if (messageType == AbstractSocket.RESUME) {
+            if (message.length >= AbstractSocket.headLength + RESUME_TOKEN_LENGTH) // 报文过短时丢弃
+                resume(connection, sessionId, (Long) packer.unpackResumeToken(message)[0]);
+        }
+        else if (seat != null) {
+            if (!seat.isClaimed()) // 旧版 client 的第一个报文结束握手等待，之后不再获取 Server 的锁。
+                enterLobby(seat);
+            seat.deliver(message);
+        }
+        else if (messageType == AbstractSocket.JOIN_LOBBY)
+            openSeat(connection, sessionId);
     }
     
     
     /**
-     * client 请求悔棋，server 直接转发对方 client。
-     * client 弹出窗口，让用户选择是否同意。
-     * server 直接转发对方 client
-     *
-     * @param message 报文
-     *
-     * @implNote messageType = INQUIRE_TO_RETRACT_STONE
+     * client 完成版本协商，会话 0 立即进入大厅；断线重连的 client 不使用会话 0，将其移除。
      */
-    @Override
-    protected void handleInquireToRetractStone(byte[] message) {
-        int destClientId = 3 - parseSocketId(message); // 从 message 解析 clientId
-        waitingForResponse = true; // 等待对方 client 回应
-        waitingForResponseClientId = destClientId; // 对方的 clientId
-        byte[] newMessage = packMessage(INQUIRE_TO_RETRACT_STONE, null);
-        sendToClient(destClientId, newMessage);
-        /**
-         * 直接转发对方 client（报文头可能需要稍作修改）
-         * @messageType INQUIRE_TO_RETRACT_STONE
-         */
+    private void onHello(Connection connection, byte[] message) {
+        Seat seat = connection.getSeat(0);
+        if (seat == null)
+            return;
+        int flags = (message.length > AbstractSocket.headLength + 1 ? message[AbstractSocket.headLength + 1] : 0);
+        if ((flags & WireCodec.HELLO_RESUMING) == 0)
+            enterLobby(seat);
+        else
+            withdraw(seat);
     }
     
     
     /**
-     * client 同意悔棋，server 悔棋，并向双方 client 发送悔棋命令。
-     *
-     * @param message 接收到的报文
+     * 把断线前的座位转移到新的连接上，并向 client 发送完整的对局状态。
+     * 令牌无效时为该会话打开新的座位。
      *
-     * @implNote messageType = ACCEPT_TO_RETRACT_STONE
-     * @implNote client 不可能接收到这个消息
+     * @param connection 新的连接
+     * @param sessionId  新连接上的会话编号
+     * @param token      会话恢复令牌
      */
-    @Override
-    protected void handleAcceptToRetractStone(byte[] message) {
-        // 接收函数已保证从正确的 client 接收消息
-        try {
-            Stone stone = board.retractStone();
-            Stone previousStone = board.getLastStone();
-            int historySize = board.getHistorySize();
-            byte[] retractStoneMessage = packRetractStone(stone, previousStone, historySize);
-            sendToClient(1, retractStoneMessage);
-            sendToClient(2, retractStoneMessage);
-            /**
-             * 向双方 client 发送悔棋命令
-             * @messageType RETRACT_STONE
-             * @messageArg stone         被移走的 stone
-             * @messageArg previousStone 被移走的 stone 的前一个 stone，因为可以悔棋时棋盘上至少有 4 个棋子，必然是非 null。
-             * @messageArg historySize   悔棋完成后棋盘上的棋子数
-             */
+    private void resume(Connection connection, int sessionId, long token) {
+        Seat seat = resumableSeats.get(token);
+        if (seat == null) {
+            openSeat(connection, sessionId);
+            return;
+        }
+        Seat current = connection.getSeat(sessionId);
+        if (current != null) {
+            if (current == seat || !withdraw(current))
+                return; // 会话已在使用中
         }
-        catch (GameNotStartedException ignored) {
+        synchronized (seat) {
+            seat.getConnection().removeSeat(seat);
+            seat.rebind(connection, sessionId);
+            connection.addSeat(seat);
         }
+        Room room = seat.getRoom();
+        int clientId = seat.getClientId();
+        roomExecutor.execute(room.getRoomId(), () -> room.resync(clientId));
     }
     
     
     /**
-     * client 拒绝悔棋，server 直接转发对方 client。
+     * 将座位收到的报文提交给所在房间的工作线程处理。
+     * 报文的源 Socket 编号由 server 根据座位改写，不信任 client 填写的编号。
      *
+     * @param seat    接收到报文的座位
      * @param message 接收到的报文
+     */
+    void dispatch(Seat seat, byte[] message) {
+        Room room = seat.getRoom();
+        message[0] = (byte) seat.getClientId();
+        roomExecutor.execute(room.getRoomId(), () -> room.dispatchMessage(message));
+    }
+    
+    
+    /**
+     * 连接已关闭，其座位离开大厅。
      *
-     * @implNote messageType = REJECT_TO_RETRACT_STONE
+     * @param connection 已关闭的连接
      */
-    @Override
-    protected void handleRejectToRetractStone(byte[] message) {
-        // 接收函数已保证从正确的 client1 接收消息
-        int destClientId = 3 - parseSocketId(message); // 从 message 解析 clientId
-        byte[] newMessage = packMessage(REJECT_TO_RETRACT_STONE, null);
-        sendToClient(destClientId, newMessage);
-        /**
-         * 直接转发对方 client（报文头可能需要稍作修改）
-         * @messageType REJECT_TO_RETRACT_STONE
-         */
+    synchronized void onClose(Connection connection) {
+        waitingSeats.removeIf(seat -> seat.getConnection() == connection);
+        for (Seat seat : connection.getSeats()) { // 双方都已断开的房间不再可以恢复，也不再计入房间数。
+            Room room = seat.getRoom();
+            if (room != null && room.getSeat(3 - seat.getClientId()).isClosed()) {
+                if (resumableSeats.remove(room.getSeat(1).getResumeToken()) != null) {
+                    --activeRooms;
+                    roomExecutor.execute(room.getRoomId(), room::close);
+                }
+                resumableSeats.remove(room.getSeat(2).getResumeToken());
+            }
+        }
+        matchSeats();
     }
     
     
     /**
-     * client 选择执子颜色
+     * 打开预写日志：按目录中已有的日志恢复房间，把恢复的房间作为检查点写入新一代日志，再删除旧的日志，之后新建的房间都写入日志。
+     * 应在接收连接之前调用（构造时不传入 ServerSocketChannel，恢复后再 listen），否则重连的 client 可能找不到恢复令牌。
+     * 恢复的座位在 client 用恢复令牌重连之前没有连接，RECOVERY_GRACE_MILLIS 内双方都没有重连的房间被关闭。
+     * 恢复的房间使用当前的计时规则，双方的剩余时间按日志恢复。
      *
-     * @param message 接收到的报文
+     * @param directory          日志目录
+     * @param syncIntervalMillis 写盘的间隔（毫秒），0 表示不主动写盘。
+     * @param syncBatch          积累这么多条记录时立即写盘
      *
-     * @implNote messageType = CHOOSE_PLAYER_COLOR
-     * @implNote client 不可能接收到这个消息
+     * @return 恢复的房间数
      */
-    @Override
-    protected void handleChoosePlayerColor(byte[] message) {
-        Object[] messageArgs = unpackChoosePlayerColor(message);
-        int state = (Integer) messageArgs[0]; // 从 message 解析 state （按钮按键）（0执黑 1执白 2继续）
-        if (board.getHistorySize() == 3) {
-            if (state == JOptionPane.YES_OPTION)
-                board.choosePlayer1Color(StoneType.WHITE);
-            else if (state == JOptionPane.NO_OPTION)
-                board.choosePlayer1Color(StoneType.BLACK);
-        }
-        else if (!board.isPlayerColorChosen() && board.getHistorySize() == 5) {
-            if (state == JOptionPane.YES_OPTION)
-                board.choosePlayer1Color(StoneType.BLACK);
-            else
-                board.choosePlayer1Color(StoneType.WHITE);
-        }
-        if (board.isPlayerColorChosen()) {
-            StoneType player1StoneType = board.getPlayer1StoneType();
-            StoneType player2StoneType = (player1StoneType == StoneType.BLACK ? StoneType.WHITE : StoneType.BLACK);
-            int presetStoneNumber = board.getHistorySize();
-            byte[] setPlayer1ColorMessage = packSetPlayerColor(player1StoneType, presetStoneNumber);
-            byte[] setPlayer2ColorMessage = packSetPlayerColor(player2StoneType, presetStoneNumber);
-            sendToPlayer(1, setPlayer1ColorMessage);
-            sendToPlayer(2, setPlayer2ColorMessage);
-            /**
-             * 向双方 client 发送对应的执子颜色
-             * @messageType SET_PLAYER_COLOR
-             * @messageArg playerStoneType   玩家棋子类型
-             * @messageArg presetStoneNumber 预先放置的棋子数
-             */
-        }
-        else {
-            byte[] setPlayerColorMessage = packSetPlayerColor(StoneType.SPACE, 5);
-            sendToClient(1, setPlayerColorMessage);
-            sendToClient(2, setPlayerColorMessage);
+    public synchronized int openMoveLog(Path directory, long syncIntervalMillis, int syncBatch) throws IOException {
+        List<MoveLog.RecoveredRoom> recoveredRooms = MoveLog.recover(directory);
+        MoveLog log = new MoveLog(directory, syncIntervalMillis, syncBatch);
+        Connection detached = new DetachedConnection();
+        for (MoveLog.RecoveredRoom recovered : recoveredRooms) {
+            Seat first = new Seat(this, detached, 0, recovered.getResumeToken(1));
+            Seat second = new Seat(this, detached, 0, recovered.getResumeToken(2));
+            first.claim();
+            second.claim();
+            Room room = new Room(recovered.getRoomId(), first, second, timer, roomExecutor, timeControl, log, archive);
+            room.replay(recovered);
+            room.checkpoint();
+            resumableSeats.put(first.getResumeToken(), first);
+            resumableSeats.put(second.getResumeToken(), second);
+            ++activeRooms;
+            nextRoomId = Math.max(nextRoomId, recovered.getRoomId() + 1);
+            timer.schedule(() -> expireRecoveredRoom(room), RECOVERY_GRACE_MILLIS);
         }
+        log.deleteOlderGenerations();
+        moveLog = log;
+        return recoveredRooms.size();
     }
     
     
     /**
-     * server 指定玩家执子颜色
-     *
-     * @param message 接收到的报文
+     * 打开棋谱库，之后新建的房间（包括从日志恢复的房间）把结束的对局写入棋谱库，应在 openMoveLog 和接收连接之前调用。
      *
-     * @implNote messageType = SET_PLAYER_COLOR
-     * @implNote server 不可能接收到这个消息
+     * @param directory 棋谱库目录
+     */
+    public synchronized void openArchive(Path directory) throws IOException {
+        archive = new GameArchive(directory);
+    }
+    
+    
+    /**
+     * 从日志恢复的房间在等待时间内双方都没有重连，关闭房间。
      */
-    @Override
-    protected void handleSetPlayerColor(byte[] message) {
+    private synchronized void expireRecoveredRoom(Room room) {
+        Seat first = room.getSeat(1), second = room.getSeat(2);
+        if (!first.isClosed() || !second.isClosed() || resumableSeats.remove(first.getResumeToken()) == null)
+            return;
+        resumableSeats.remove(second.getResumeToken());
+        --activeRooms;
+        roomExecutor.execute(room.getRoomId(), room::close);
+        matchSeats();
     }
     
     
     /**
-     * client 发送聊天消息，server 直接转发对方 client。
+     * 设置房间数上限，达到上限时新的座位在大厅中等待，直到有房间的双方都断开。
      *
-     * @param message 接收到的报文
+     * @param maxRooms 房间数上限，0 表示不限。
+     */
+    public synchronized void setMaxRooms(int maxRooms) {
+        this.maxRooms = maxRooms;
+        matchSeats();
+    }
+    
+    
+    /**
+     * 设置计时规则，只影响之后新建的房间。
+     */
+    public void setTimeControl(TimeControl timeControl) {
+        this.timeControl = timeControl;
+    }
+    
+    
+    /**
+     * 设置心跳间隔和空闲超时，只影响之后的心跳。空闲超时应当是心跳间隔的数倍，容忍偶尔丢失或迟到的 PONG。
      *
-     * @implNote messageType = CHAT_TEXT
+     * @param heartbeatMillis   心跳间隔（毫秒）
+     * @param idleTimeoutMillis 空闲超时（毫秒），0 表示不回收空闲的连接。
+     */
+    public void setHeartbeat(long heartbeatMillis, long idleTimeoutMillis) {
+        if (heartbeatMillis <= 0 || idleTimeoutMillis < 0)
+            throw new IllegalArgumentException("heartbeat must be positive and idle timeout non-negative");
+        this.heartbeatMillis = heartbeatMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+    
+    
+    public synchronized int getActiveRooms() {
+        return activeRooms;
+    }
+    
+    
+    /**
+     * 从日志恢复的座位在 client 重连之前所在的连接：视为已断开，发送的报文被丢弃。
      */
-    @Override
-    protected void handleChatText(byte[] message) {
-        Object[] messageArgs = unpackChatText(message);
-        int destClientId = 3 - parseSocketId(message); // 从 message 解析 clientId
-        String chatText = (String) messageArgs[0];
-        sendToClient(destClientId, packChatText(chatText));
-        // 直接转发对方 client
+    private static class DetachedConnection extends Connection {
+        @Override
+        public void start() {
+        }
+        
+        
+        @Override
+        public void send(byte[] message) {
+        }
+        
+        
+        @Override
+        public void close() {
+        }
+        
+        
+        @Override
+        public boolean isClosed() {
+            return true;
+        }
     }
 }
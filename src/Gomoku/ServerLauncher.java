@@ -0,0 +1,102 @@
+package Gomoku;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Paths;
+
+/**
+ * 无界面的 server 启动入口
+ * 只启动大厅、事件循环和房间工作线程，不创建本地 client，不加载任何 Swing 类，可以在没有显示器的机器上运行。
+ * Server.main 仍然用于在同一进程中启动 server 和两个本地 client。
+ *
+ * 用法：java Gomoku.ServerLauncher [-port 端口] [-unix 套接字路径] [-max-rooms 房间数上限] [-mode NIO|VIRTUAL_THREAD|PLATFORM_THREAD]
+ * [-event-loops 事件循环线程数] [-workers 房间工作线程数] [-time 计时规则] [-heartbeat 心跳间隔(ms)] [-idle-timeout 空闲超时(ms)]
+ * [-wal 日志目录] [-wal-sync 写盘间隔(ms)] [-wal-batch 每批写盘的记录数] [-archive 棋谱库目录]
+ * 计时规则的格式见 TimeControl.parse，例如 -time fischer:300+5，默认每手 15 秒；空闲超时为 0 时不回收空闲的连接。
+ * 指定日志目录时先按日志恢复房间，再开始接收连接；写盘间隔为 0 时不主动写盘。
+ */
+public class ServerLauncher {
+    public static void main(String[] args) throws IOException {
+        long startNanos = System.nanoTime();
+        int port = Server.PORT;
+        String unixPath = null;
+        int maxRooms = 0;
+        Server.Mode mode = Server.Mode.NIO;
+        int eventLoopCount = Server.DEFAULT_EVENT_LOOP_COUNT;
+        int workerCount = RoomExecutor.DEFAULT_WORKER_COUNT;
+        TimeControl timeControl = TimeControl.DEFAULT;
+        long heartbeatMillis = Server.DEFAULT_HEARTBEAT_MILLIS;
+        long idleTimeoutMillis = Server.DEFAULT_IDLE_TIMEOUT_MILLIS;
+        String walPath = null;
+        long walSyncMillis = MoveLog.DEFAULT_SYNC_INTERVAL_MILLIS;
+        int walBatch = MoveLog.DEFAULT_SYNC_BATCH;
+        String archivePath = null;
+        for (int index = 0; index < args.length; ++index) {
+            switch (args[index]) {
+                case "-port":
+                    port = Integer.parseInt(args[++index]);
+                    break;
+                case "-unix":
+                    unixPath = args[++index];
+                    break;
+                case "-max-rooms":
+                    maxRooms = Integer.parseInt(args[++index]);
+                    break;
+                case "-mode":
+                    mode = Server.Mode.valueOf(args[++index]);
+                    break;
+                case "-event-loops":
+                    eventLoopCount = Integer.parseInt(args[++index]);
+                    break;
+                case "-workers":
+                    workerCount = Integer.parseInt(args[++index]);
+                    break;
+                case "-time":
+                    timeControl = TimeControl.parse(args[++index]);
+                    break;
+                case "-heartbeat":
+                    heartbeatMillis = Long.parseLong(args[++index]);
+                    break;
+                case "-idle-timeout":
+                    idleTimeoutMillis = Long.parseLong(args[++index]);
+                    break;
+                case "-wal":
+                    walPath = args[++index];
+                    break;
+                case "-wal-sync":
+                    walSyncMillis = Long.parseLong(args[++index]);
+                    break;
+                case "-wal-batch":
+                    walBatch = Integer.parseInt(args[++index]);
+                    break;
+                case "-archive":
+                    archivePath = args[++index];
+                    break;
+                default:
+                    System.err.println("unknown option: " + args[index]);
+                    System.exit(2);
+            }
+        }
+        
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        Server server = new Server(null, mode, eventLoopCount, workerCount);
+        server.setMaxRooms(maxRooms);
+        server.setTimeControl(timeControl);
+        server.setHeartbeat(heartbeatMillis, idleTimeoutMillis);
+        if (archivePath != null)
+            server.openArchive(Paths.get(archivePath));
+        if (walPath != null) {
+            long recoveryStartNanos = System.nanoTime();
+            int recoveredRooms = server.openMoveLog(Paths.get(walPath), walSyncMillis, walBatch);
+            System.out.printf("Recovered %d rooms from %s in %.1f ms%n", recoveredRooms, walPath, (System.nanoTime() - recoveryStartNanos) / 1e6);
+        }
+        server.listen(serverChannel);
+        if (unixPath != null)
+            server.listen(Server.openUnixDomain(Paths.get(unixPath)));
+        System.out.printf("Server0 is running on local port: %d (%s, %d event loops, %d workers, max rooms %s, time %s), started in %.1f ms%n",
+                          serverChannel.socket().getLocalPort(), mode, (mode == Server.Mode.NIO ? eventLoopCount : 0), workerCount,
+                          (maxRooms > 0 ? String.valueOf(maxRooms) : "unlimited"), timeControl, (System.nanoTime() - startNanos) / 1e6);
+    }
+}
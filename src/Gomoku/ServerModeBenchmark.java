@@ -0,0 +1,148 @@
+package Gomoku;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 服务器连接接收方式的基准测试
+ * 分别以平台线程、虚拟线程和 NIO 方式启动 server，比较每个空闲连接占用的内存以及对局中落子往返延迟的 p99。
+ * 每种方式在独立的子进程中运行，避免相互影响。
+ *
+ * 用法：java Gomoku.ServerModeBenchmark [空闲连接数] [同时进行的对局数] [每个对局进行的局数]
+ */
+public class ServerModeBenchmark {
+    private static final int MAX_MOVES_PER_GAME = 60;
+    
+    
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--child")) {
+            runChild(Server.Mode.valueOf(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]), Integer.parseInt(args[4]));
+            return;
+        }
+        int idleConnections = (args.length > 0 ? Integer.parseInt(args[0]) : 2000);
+        int activeGames = (args.length > 1 ? Integer.parseInt(args[1]) : 16);
+        int gamesPerDriver = (args.length > 2 ? Integer.parseInt(args[2]) : 20);
+        
+        System.out.printf("%-16s %14s %14s %8s %10s %10s%n", "mode", "heap/conn(B)", "rss/conn(B)", "threads", "p50(us)", "p99(us)");
+        for (Server.Mode mode : new Server.Mode[]{Server.Mode.PLATFORM_THREAD, Server.Mode.VIRTUAL_THREAD, Server.Mode.NIO}) {
+            String javaPath = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+            ProcessBuilder builder = new ProcessBuilder(javaPath,
+                                                        "-cp", System.getProperty("java.class.path"),
+                                                        ServerModeBenchmark.class.getName(), "--child", mode.name(),
+                                                        Integer.toString(idleConnections),
+                                                        Integer.toString(activeGames),
+                                                        Integer.toString(gamesPerDriver));
+            builder.redirectErrorStream(true);
+            Process process = builder.start();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("RESULT ")) {
+                        String[] fields = line.split(" ");
+                        System.out.printf("%-16s %14s %14s %8s %10s %10s%n", fields[1], fields[2], fields[3], fields[4], fields[5], fields[6]);
+                    }
+                    else if (line.startsWith("NOTE "))
+                        System.out.println(line.substring(5));
+                }
+            }
+            process.waitFor();
+        }
+    }
+    
+    
+    private static void runChild(Server.Mode mode, int idleConnections, int activeGames, int gamesPerDriver) throws Exception {
+        if (mode == Server.Mode.VIRTUAL_THREAD && !TransportConnection.isVirtualThreadSupported())
+            System.out.println("NOTE virtual threads need JDK 21+, VIRTUAL_THREAD falls back to platform threads on " + System.getProperty("java.version"));
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress("127.0.0.1", 0), 4096);
+        int port = serverChannel.socket().getLocalPort();
+        new Server(serverChannel, mode, Server.DEFAULT_EVENT_LOOP_COUNT, RoomExecutor.DEFAULT_WORKER_COUNT);
+        
+        // 空闲连接的内存开销
+        idleConnections -= idleConnections % 2;
+        long heapBefore = usedHeap();
+        long rssBefore = residentSetSize();
+        List<Socket> idleSockets = new ArrayList<Socket>();
+        for (int index = 0; index < idleConnections; ++index)
+            idleSockets.add(new Socket("127.0.0.1", port));
+        Thread.sleep(2000); // 等待 server 接收所有连接并启动接收线程
+        long heapPerConnection = (idleConnections == 0 ? 0 : (usedHeap() - heapBefore) / idleConnections);
+        long rssPerConnection = (idleConnections == 0 ? 0 : (residentSetSize() - rssBefore) / idleConnections);
+        int threadCount = ManagementFactory.getThreadMXBean().getThreadCount();
+        
+        // 对局中的落子往返延迟
+        List<GameDriver> drivers = new ArrayList<GameDriver>();
+        for (int index = 0; index < activeGames; ++index) {
+            Transport client1 = new StreamTransport(new Socket("127.0.0.1", port));
+            Transport client2 = new StreamTransport(new Socket("127.0.0.1", port));
+            drivers.add(new GameDriver(client1, client2, new Random(index), MAX_MOVES_PER_GAME));
+        }
+        LatencyHistogram histogram = new LatencyHistogram();
+        List<Thread> threads = new ArrayList<Thread>();
+        List<LatencyHistogram> histograms = new ArrayList<LatencyHistogram>();
+        for (GameDriver driver : drivers) {
+            LatencyHistogram driverHistogram = new LatencyHistogram();
+            histograms.add(driverHistogram);
+            threads.add(new Thread(() -> {
+                try {
+                    for (int game = 0; game < gamesPerDriver; ++game)
+                        driver.playGame(driverHistogram);
+                }
+                catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }));
+        }
+        for (Thread thread : threads)
+            thread.start();
+        for (Thread thread : threads)
+            thread.join();
+        for (LatencyHistogram driverHistogram : histograms)
+            histogram.merge(driverHistogram);
+        
+        System.out.printf("RESULT %s %d %d %d %.1f %.1f%n", mode.name(), heapPerConnection, rssPerConnection, threadCount,
+                          histogram.getPercentileNanos(50) / 1e3, histogram.getPercentileNanos(99) / 1e3);
+        System.exit(0);
+    }
+    
+    
+    private static long usedHeap() throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int index = 0; index < 3; ++index) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+    
+    
+    /**
+     * 进程的常驻内存（字节），无法读取 /proc 时返回 0。
+     */
+    private static long residentSetSize() {
+        File status = new File("/proc/self/status");
+        if (!status.exists())
+            return 0;
+        try {
+            for (String line : Files.readAllLines(status.toPath())) {
+                if (line.startsWith("VmRSS:"))
+                    return 1024 * Long.parseLong(line.replaceAll("[^0-9]", ""));
+            }
+        }
+        catch (IOException | NumberFormatException ignored) {
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,205 @@
+package Gomoku;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * client 端的会话复用器
+ * 一个连接上可以同时进行多个对局，每个对局占用一个会话编号，收到的报文按会话编号交给对应的监听器。
+ * 会话 0 在连接建立时由 server 自动加入大厅，其余会话通过 JOIN_LOBBY 报文加入。
+ * 设置了重连函数时，连接断开后按指数退避重连，并用 server 发来的恢复令牌恢复每个会话，server 随后发送 STATE_SYNC 重建对局。
+ */
+public class SessionMultiplexer implements Transport.Listener {
+    public static final long INITIAL_RECONNECT_DELAY_MILLIS = 100; // 第一次重连前的等待时间
+    public static final long MAX_RECONNECT_DELAY_MILLIS = 5000; // 重连等待时间的上限
+    public static final int MAX_RECONNECT_ATTEMPTS = 10; // 连续重连失败的最大次数
+    
+    /**
+     * 建立新连接的函数
+     */
+    public interface Reconnector {
+        /**
+         * 建立新的连接，StreamTransport 需要以 WireCodec.HELLO_RESUMING 标志协商版本。
+         */
+        Transport reconnect() throws IOException;
+    }
+    
+    
+    private volatile Transport transport;
+    private final Reconnector reconnector; // 为 null 时不重连
+    private final ConcurrentHashMap<Integer, Transport.Listener> sessions; // 会话编号到监听器的映射
+    private final ConcurrentHashMap<Integer, Long> resumeTokens; // 会话编号到恢复令牌的映射
+    private final AtomicInteger nextSessionId; // 下一个会话编号
+    private boolean started;
+    private final MessagePacker packer;
+    
+    
+    public SessionMultiplexer(Transport transport) {
+        this(transport, null);
+    }
+    
+    
+    /**
+     * @param transport   已建立的连接
+     * @param reconnector 连接断开后建立新连接的函数，为 null 时不重连。
+     */
+    public SessionMultiplexer(Transport transport, Reconnector reconnector) {
+        this.transport = transport;
+        this.reconnector = reconnector;
+        sessions = new ConcurrentHashMap<Integer, Transport.Listener>();
+        resumeTokens = new ConcurrentHashMap<Integer, Long>();
+        nextSessionId = new AtomicInteger(0);
+        started = false;
+        packer = new MessagePacker(0);
+    }
+    
+    
+    public Transport getTransport() {
+        return transport;
+    }
+    
+    
+    /**
+     * 打开一个会话并进入大厅
+     * 第一个会话使用连接自带的会话 0，之后的会话发送 JOIN_LOBBY 报文。
+     *
+     * @param listener 会话的报文监听器
+     *
+     * @return 会话编号
+     */
+    public int openSession(Transport.Listener listener) {
+        int sessionId = nextSessionId.getAndIncrement();
+        sessions.put(sessionId, listener); // 先注册再加入大厅，不会错过对方的报文。
+        if (sessionId != 0)
+            send(pack(sessionId, AbstractSocket.JOIN_LOBBY, 0));
+        start();
+        return sessionId;
+    }
+    
+    
+    private byte[] pack(int sessionId, int messageType, long token) {
+        synchronized (packer) {
+            packer.setSessionId(sessionId);
+            if (messageType == AbstractSocket.RESUME)
+                return packer.packResumeToken(messageType, token);
+            if (messageType == AbstractSocket.PONG)
+                return packer.packPing(messageType, token);
+            return packer.packMessage(messageType, null);
+        }
+    }
+    
+    
+    /**
+     * 开始接收报文，传输层不支持监听器时启动接收线程。
+     */
+    private synchronized void start() {
+        if (started)
+            return;
+        started = true;
+        listen(transport);
+    }
+    
+    
+    private void listen(Transport transport) {
+        if (!transport.setListener(this))
+            TransportConnection.newThread(true, () -> receiveFromServer(transport)).start(); // 支持时使用虚拟线程，大量 client 不占用大量平台线程。
+    }
+    
+    
+    private void receiveFromServer(Transport transport) {
+        while (!transport.isClosed()) {
+            try {
+                onMessage(transport.receive());
+            }
+            catch (IOException e) {
+                transport.close();
+                onClose();
+            }
+        }
+    }
+    
+    
+    /**
+     * 发送报文（可被多个线程同时调用），报文头中的会话编号由发送方填写。
+     * 重连期间发送的报文会丢失，恢复会话后由 STATE_SYNC 同步状态。
+     *
+     * @param message 待发送的报文
+     */
+    public void send(byte[] message) {
+        WireTracer.trace(WireTracer.CLIENT_OUTBOUND, 0, message);
+        try {
+            transport.send(message);
+        }
+        catch (IOException ignored) {
+        }
+    }
+    
+    
+    @Override
+    public void onMessage(byte[] message) {
+        WireTracer.trace(WireTracer.CLIENT_INBOUND, 0, message);
+        int sessionId = AbstractSocket.parseSessionId(message);
+        switch (AbstractSocket.parseMessageType(message)) {
+            case AbstractSocket.HELLO:
+                break;
+            case AbstractSocket.RESUME_TOKEN:
+                resumeTokens.put(sessionId, (Long) packer.unpackResumeToken(message)[0]);
+                break;
+            case AbstractSocket.PING: // server 测量往返时间，原样带回发送时间。
+                send(pack(0, AbstractSocket.PONG, (Long) packer.unpackPing(message)[0]));
+                break;
+            default:
+                Transport.Listener listener = sessions.get(sessionId);
+                if (listener != null)
+                    listener.onMessage(message);
+        }
+    }
+    
+    
+    /**
+     * 连接断开，可以重连时在新线程中重连，否则通知所有会话。
+     */
+    @Override
+    public void onClose() {
+        if (reconnector != null)
+            new Thread(this::reconnect, "reconnect").start();
+        else {
+            for (Transport.Listener listener : sessions.values())
+                listener.onClose();
+        }
+    }
+    
+    
+    /**
+     * 按指数退避重连，成功后恢复所有会话：有令牌的会话发送 RESUME，还在大厅中的会话重新发送 JOIN_LOBBY。
+     */
+    private void reconnect() {
+        long delay = INITIAL_RECONNECT_DELAY_MILLIS;
+        for (int attempt = 0; attempt < MAX_RECONNECT_ATTEMPTS; ++attempt) {
+            try {
+                Thread.sleep(delay);
+                Transport newTransport = reconnector.reconnect();
+                transport = newTransport;
+                listen(newTransport);
+                for (int sessionId : sessions.keySet()) {
+                    Long token = resumeTokens.get(sessionId);
+                    if (token != null)
+                        send(pack(sessionId, AbstractSocket.RESUME, token));
+                    else
+                        send(pack(sessionId, AbstractSocket.JOIN_LOBBY, 0));
+                }
+                return;
+            }
+            catch (IOException e) {
+                delay = Math.min(2 * delay, MAX_RECONNECT_DELAY_MILLIS);
+            }
+            catch (InterruptedException e) {
+                break;
+            }
+        }
+        for (Map.Entry<Integer, Transport.Listener> entry : sessions.entrySet())
+            entry.getValue().onClose();
+    }
+}
@@ -0,0 +1,206 @@
+package Gomoku;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * 基于字节流的传输层，使用 WireCodec 分帧。
+ * TCP 与 Unix 域套接字共用同一套分帧逻辑。
+ */
+public class StreamTransport implements Transport {
+    public static final long NEGOTIATION_TIMEOUT_MILLIS = 5000; // 等待版本协商回复的最长时间
+    
+    private final Closeable socket;
+    private final InputStream is;
+    private final OutputStream os;
+    private final WireCodec codec;
+    private volatile boolean closed;
+    
+    
+    public StreamTransport(Socket socket) throws IOException {
+        this(socket.getInputStream(), socket.getOutputStream(), socket);
+        socket.setTcpNoDelay(true);
+    }
+    
+    
+    /**
+     * Channels.newInputStream 与 newOutputStream 在读写时都持有通道的 blockingLock，
+     * 阻塞读取会挡住其他线程的发送，因此直接调用通道的 read 与 write，两者可以同时进行。
+     *
+     * @param channel 阻塞模式的 SocketChannel（TCP 或 Unix 域套接字）
+     */
+    public StreamTransport(SocketChannel channel) throws IOException {
+        this(new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] buffer = new byte[1];
+                return (read(buffer, 0, 1) < 0 ? -1 : buffer[0] & 0xFF);
+            }
+            
+            
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                return (length == 0 ? 0 : channel.read(ByteBuffer.wrap(buffer, offset, length)));
+            }
+        }, new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+            
+            
+            @Override
+            public void write(byte[] buffer, int offset, int length) throws IOException {
+                ByteBuffer wrapped = ByteBuffer.wrap(buffer, offset, length);
+                while (wrapped.hasRemaining())
+                    channel.write(wrapped);
+            }
+        }, channel);
+        if (channel.getLocalAddress() instanceof InetSocketAddress)
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    }
+    
+    
+    private StreamTransport(InputStream is, OutputStream os, Closeable socket) {
+        this.socket = socket;
+        this.is = new BufferedInputStream(is);
+        this.os = os;
+        codec = new WireCodec();
+        closed = false;
+    }
+    
+    
+    /**
+     * 连接 server
+     *
+     * @param address server 地址，InetSocketAddress 使用 TCP，UnixDomainSocketAddress 使用 Unix 域套接字。
+     */
+    public static StreamTransport connect(SocketAddress address) throws IOException {
+        return connect(address, 0);
+    }
+    
+    
+    /**
+     * 连接 server
+     *
+     * @param address    server 地址
+     * @param helloFlags 版本协商的标志，如 WireCodec.HELLO_RESUMING。
+     */
+    public static StreamTransport connect(SocketAddress address, int helloFlags) throws IOException {
+        StreamTransport transport;
+        if (address instanceof UnixDomainSocketAddress) {
+            SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+            channel.connect(address);
+            transport = new StreamTransport(channel);
+        }
+        else {
+            Socket socket = new Socket();
+            socket.connect(address);
+            transport = new StreamTransport(socket);
+        }
+        transport.negotiate(helloFlags);
+        return transport;
+    }
+    
+    
+    /**
+     * 向对方发起协议版本协商，由连接的主动方调用。
+     * 收到回复之前继续使用 v1 发送，因此不需要等待回复。
+     *
+     * @param flags HELLO 标志，如 WireCodec.HELLO_RESUMING。
+     */
+    public void negotiate(int flags) throws IOException {
+        write(codec.encodeHello(flags));
+    }
+    
+    
+    public WireCodec getCodec() {
+        return codec;
+    }
+    
+    
+    /**
+     * 发送报文，带会话编号的报文在版本协商完成前阻塞等待。
+     *
+     * @throws IOException 发送失败，或对方不支持 v2 而报文带有会话编号。
+     */
+    @Override
+    public void send(byte[] message) throws IOException {
+        if (AbstractSocket.parseSessionId(message) != 0 && codec.getVersion() < WireCodec.VERSION_2) {
+            try {
+                if (codec.awaitNegotiation(NEGOTIATION_TIMEOUT_MILLIS) < WireCodec.VERSION_2)
+                    throw new IOException("sessions require wire protocol v2");
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+        synchronized (os) {
+            os.write(codec.encode(message)); // 在锁内编码，保证序号与发送顺序一致。
+            os.flush();
+        }
+    }
+    
+    
+    private void write(byte[] wire) throws IOException {
+        synchronized (os) {
+            os.write(wire);
+            os.flush();
+        }
+    }
+    
+    
+    /**
+     * 接收报文，HELLO 报文由传输层回复后仍返回给调用者，以便 server 读取其中的标志。
+     */
+    @Override
+    public byte[] receive() throws IOException {
+        byte[] message = codec.read(is);
+        if (AbstractSocket.parseMessageType(message) == AbstractSocket.HELLO) {
+            synchronized (os) {
+                byte[] reply = codec.onHello(message);
+                if (reply != null) {
+                    os.write(reply);
+                    os.flush();
+                }
+            }
+        }
+        return message;
+    }
+    
+    
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            socket.close();
+        }
+        catch (IOException ignored) {
+        }
+    }
+    
+    
+    @Override
+    public int getVersion() {
+        return codec.getVersion();
+    }
+    
+    
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+}
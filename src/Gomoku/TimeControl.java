@@ -0,0 +1,133 @@
+package Gomoku;
+
+/**
+ * 对局的计时规则（不可变）
+ * <pre>
+ * 包干制（SUDDEN_DEATH）：每方一个总时间，用完判负。
+ * 加秒制（FISCHER）：每方一个总时间，每走一手加上固定的秒数。
+ * 读秒制（BYO_YOMI）：总时间用完后进入读秒，每次读秒的时间内走完一手则下一手重新读秒，超时用掉一次读秒，次数用完判负。
+ * </pre>
+ * 原来每手 15 秒的规则即总时间为 0、读秒一次 15 秒的读秒制，为默认规则。
+ */
+public final class TimeControl {
+    /**
+     * 计时方式
+     */
+    public enum Mode {
+        SUDDEN_DEATH, // 包干
+        FISCHER,      // 加秒
+        BYO_YOMI      // 读秒
+    }
+    
+    
+    public static final TimeControl DEFAULT = byoYomi(0, 1, 15000); // 每手 15 秒
+    
+    private final Mode mode;
+    private final long mainMillis; // 每方的总时间
+    private final long incrementMillis; // 加秒制每手增加的时间
+    private final int periods; // 读秒次数
+    private final long periodMillis; // 每次读秒的时间
+    
+    
+    private TimeControl(Mode mode, long mainMillis, long incrementMillis, int periods, long periodMillis) {
+        this.mode = mode;
+        this.mainMillis = mainMillis;
+        this.incrementMillis = incrementMillis;
+        this.periods = periods;
+        this.periodMillis = periodMillis;
+    }
+    
+    
+    public static TimeControl suddenDeath(long mainMillis) {
+        return new TimeControl(Mode.SUDDEN_DEATH, mainMillis, 0, 0, 0);
+    }
+    
+    
+    public static TimeControl fischer(long mainMillis, long incrementMillis) {
+        return new TimeControl(Mode.FISCHER, mainMillis, incrementMillis, 0, 0);
+    }
+    
+    
+    public static TimeControl byoYomi(long mainMillis, int periods, long periodMillis) {
+        if (periods < 1 || periods > 127 || periodMillis <= 0)
+            throw new IllegalArgumentException("byo-yomi needs 1 to 127 periods of positive length");
+        return new TimeControl(Mode.BYO_YOMI, mainMillis, 0, periods, periodMillis);
+    }
+    
+    
+    /**
+     * 解析计时规则，时间以秒为单位：sudden:总时间、fischer:总时间+加秒、byoyomi:总时间+次数x读秒时间。
+     * 例如 sudden:600、fischer:300+5、byoyomi:600+3x30，byoyomi:0+1x15 即默认规则。
+     *
+     * @throws IllegalArgumentException 格式错误
+     */
+    public static TimeControl parse(String text) {
+        int colon = text.indexOf(':');
+        if (colon < 0)
+            throw new IllegalArgumentException("bad time control: " + text);
+        String name = text.substring(0, colon), value = text.substring(colon + 1);
+        try {
+            switch (name) {
+                case "sudden":
+                    return suddenDeath(seconds(value));
+                case "fischer": {
+                    int plus = value.indexOf('+');
+                    return fischer(seconds(value.substring(0, plus)), seconds(value.substring(plus + 1)));
+                }
+                case "byoyomi": {
+                    int plus = value.indexOf('+'), times = value.indexOf('x', plus);
+                    return byoYomi(seconds(value.substring(0, plus)), Integer.parseInt(value.substring(plus + 1, times)),
+                                   seconds(value.substring(times + 1)));
+                }
+                default:
+                    throw new IllegalArgumentException("bad time control: " + text);
+            }
+        }
+        catch (NumberFormatException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("bad time control: " + text);
+        }
+    }
+    
+    
+    private static long seconds(String text) {
+        return Math.round(Double.parseDouble(text) * 1000);
+    }
+    
+    
+    public Mode getMode() {
+        return mode;
+    }
+    
+    
+    public long getMainMillis() {
+        return mainMillis;
+    }
+    
+    
+    public long getIncrementMillis() {
+        return incrementMillis;
+    }
+    
+    
+    public int getPeriods() {
+        return periods;
+    }
+    
+    
+    public long getPeriodMillis() {
+        return periodMillis;
+    }
+    
+    
+    @Override
+    public String toString() {
+        switch (mode) {
+            case SUDDEN_DEATH:
+                return "sudden:" + mainMillis / 1000.0;
+            case FISCHER:
+                return "fischer:" + mainMillis / 1000.0 + "+" + incrementMillis / 1000.0;
+            default:
+                return "byoyomi:" + mainMillis / 1000.0 + "+" + periods + "x" + periodMillis / 1000.0;
+        }
+    }
+}
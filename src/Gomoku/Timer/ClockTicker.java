@@ -0,0 +1,111 @@
+package Gomoku.Timer;
+
+import javax.swing.*;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * 所有计时面板共用的刷新定时器
+ * 只有一个 Swing 定时器，在事件分发线程上运行，不为每次开始、暂停创建线程。
+ * 面板的显示由 System.nanoTime 计算，定时器只决定何时刷新：每次刷新后面板给出下一次显示变化的时间，
+ * 定时器在最早的一次变化时唤醒，同时到期的面板在同一个事件中一起刷新。
+ * 除 runOnEdt 外的方法只能在事件分发线程上调用。
+ */
+final class ClockTicker {
+    /**
+     * 需要定时刷新的面板
+     */
+    interface Ticking {
+        /**
+         * 按当前时间刷新显示
+         *
+         * @param nowNanos 当前时间（System.nanoTime）
+         *
+         * @return 距离下一次显示变化的时间（纳秒），小于 0 表示不再需要刷新。
+         */
+        long tick(long nowNanos);
+    }
+    
+    
+    private static final long SLACK_NANOS = 1000000; // 提前这么多唤醒的面板也一起刷新
+    private static final Map<Ticking, Long> dueNanos = new HashMap<Ticking, Long>(); // 面板到下一次刷新的时间
+    private static final Timer timer = createTimer();
+    
+    
+    private ClockTicker() {
+    }
+    
+    
+    private static Timer createTimer() {
+        Timer timer = new Timer(0, event -> fire());
+        timer.setRepeats(false);
+        return timer;
+    }
+    
+    
+    /**
+     * 在事件分发线程上执行，已经在事件分发线程上时直接执行。
+     * 面板的方法由网络线程调用，都经由这里，按调用的顺序在事件分发线程上执行。
+     */
+    static void runOnEdt(Runnable runnable) {
+        if (SwingUtilities.isEventDispatchThread())
+            runnable.run();
+        else
+            SwingUtilities.invokeLater(runnable);
+    }
+    
+    
+    /**
+     * 立即刷新一次面板，之后按面板给出的时间定时刷新。
+     */
+    static void schedule(Ticking ticking) {
+        long now = System.nanoTime(), next = ticking.tick(now);
+        if (next < 0)
+            dueNanos.remove(ticking);
+        else
+            dueNanos.put(ticking, now + next);
+        reschedule(now);
+    }
+    
+    
+    /**
+     * 不再刷新面板
+     */
+    static void cancel(Ticking ticking) {
+        if (dueNanos.remove(ticking) != null)
+            reschedule(System.nanoTime());
+    }
+    
+    
+    private static void fire() {
+        long now = System.nanoTime();
+        for (Iterator<Map.Entry<Ticking, Long>> iterator = dueNanos.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<Ticking, Long> entry = iterator.next();
+            if (entry.getValue() - now > SLACK_NANOS)
+                continue;
+            long next = entry.getKey().tick(now);
+            if (next < 0)
+                iterator.remove();
+            else
+                entry.setValue(now + next);
+        }
+        reschedule(now);
+    }
+    
+    
+    /**
+     * 把定时器调整到最早的一次刷新，没有面板需要刷新时停止定时器。
+     */
+    private static void reschedule(long now) {
+        if (dueNanos.isEmpty()) {
+            timer.stop();
+            return;
+        }
+        long earliest = Long.MAX_VALUE;
+        for (long due : dueNanos.values())
+            earliest = Math.min(earliest, due - now);
+        timer.setInitialDelay((int) Math.max(0, (earliest + 999999) / 1000000));
+        timer.restart();
+    }
+}
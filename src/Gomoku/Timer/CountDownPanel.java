@@ -1,24 +1,29 @@
 package Gomoku.Timer;
 
-import Gomoku.Display;
-
 import javax.swing.*;
 import java.awt.*;
 import java.text.NumberFormat;
 
-public class CountDownPanel extends JPanel {
-    private Display display;
+/**
+ * 回合倒计时面板
+ * 计时由 server 负责，面板只按 server 发来的剩余时间显示，在两次同步之间按本地时钟递减，由 ClockTicker 在秒数变化时刷新，超时由 server 判负。
+ * 一分钟以上显示为 分:秒，读秒时在秒数后显示剩余的读秒次数。
+ */
+public class CountDownPanel extends JPanel implements ClockTicker.Ticking {
     private int remainingSec;
     public final static int maximumTime = 15;
     public final static int minimumTime = 5;
     private JLabel secLabel;
-    private StartManager startManager;
+    private long deadlineNanos; // 按本地时钟换算的回合截止时间，暂停时无效。
+    private long remainingNanos; // 暂停时的剩余时间
+    private boolean running; // 是否正在倒计时
+    private int periods; // 剩余的读秒次数，没有读秒时为 0。
     
     
-    public CountDownPanel(Display display) {
-        this.display = display;
+    public CountDownPanel() {
         secLabel = new JLabel("");
         remainingSec = maximumTime;
+        remainingNanos = maximumTime * 1000000000L;
         initLayout();
     }
     
@@ -44,20 +49,76 @@ public class CountDownPanel extends JPanel {
     
     
     public void start() {
-        startManager = new StartManager(this);
-        startManager.start();
+        ClockTicker.runOnEdt(() -> {
+            if (running)
+                return;
+            deadlineNanos = System.nanoTime() + remainingNanos;
+            running = true;
+            ClockTicker.schedule(this);
+        });
     }
     
     
     public void pause() {
-        new PauseManager(startManager).start();
+        ClockTicker.runOnEdt(() -> {
+            if (!running)
+                return;
+            remainingNanos = Math.max(0, deadlineNanos - System.nanoTime());
+            running = false;
+            ClockTicker.cancel(this);
+        });
     }
     
     
     public void stop() {
-        new PauseManager(startManager).start();
-        setTime(maximumTime);
-        secLabel.setText("");
+        ClockTicker.runOnEdt(() -> {
+            running = false;
+            ClockTicker.cancel(this);
+            remainingNanos = maximumTime * 1000000000L;
+            setTime(maximumTime);
+            secLabel.setText("");
+        });
+    }
+    
+    
+    /**
+     * 按 server 发来的计时状态显示剩余时间
+     *
+     * @param active          是否有回合正在计时，否则清空显示。
+     * @param running         是否正在计时，暂停时显示剩余时间但不递减。
+     * @param remainingMillis 当前阶段的剩余时间（毫秒）
+     * @param periods         剩余的读秒次数，没有进入读秒时为 0。
+     */
+    public void sync(boolean active, boolean running, long remainingMillis, int periods) {
+        if (!active) {
+            ClockTicker.runOnEdt(() -> this.periods = periods);
+            stop();
+            return;
+        }
+        ClockTicker.runOnEdt(() -> {
+            this.periods = periods;
+            this.running = running;
+            remainingNanos = remainingMillis * 1000000;
+            deadlineNanos = System.nanoTime() + remainingNanos;
+            if (running)
+                ClockTicker.schedule(this);
+            else {
+                ClockTicker.cancel(this);
+                tick(System.nanoTime());
+            }
+        });
+    }
+    
+    
+    @Override
+    public long tick(long nowNanos) {
+        long remaining = Math.max(0, running ? deadlineNanos - nowNanos : remainingNanos);
+        setTime((int) ((remaining + 999999999L) / 1000000000L));
+        showTime();
+        if (!running || remaining == 0)
+            return -1;
+        long untilChange = remaining % 1000000000L;
+        return (untilChange == 0 ? 1000000000L : untilChange);
     }
     
     
@@ -65,7 +126,8 @@ public class CountDownPanel extends JPanel {
         NumberFormat numberFormat = NumberFormat.getInstance();
         numberFormat.setMinimumIntegerDigits(2);
         secLabel.setForeground(remainingSec > minimumTime ? Color.BLACK : Color.RED);
-        secLabel.setText(numberFormat.format(remainingSec));
+        String text = (remainingSec >= 60 ? remainingSec / 60 + ":" + numberFormat.format(remainingSec % 60) : numberFormat.format(remainingSec));
+        secLabel.setText(periods > 1 ? text + "×" + periods : text);
     }
     
     
@@ -77,58 +139,4 @@ public class CountDownPanel extends JPanel {
     public int getSec() {
         return remainingSec;
     }
-    
-    
-    private static class StartManager extends Thread {
-        private CountDownPanel countDownPanel;
-        
-        
-        public StartManager(CountDownPanel countDownPanel) {
-            this.countDownPanel = countDownPanel;
-        }
-        
-        
-        @Override
-        public void run() {
-            int remainSec;
-            remainSec = countDownPanel.getSec();
-            countDownPanel.showTime();
-            
-            while (true) {
-                try {
-                    Thread.sleep(1000);
-                }
-                catch (InterruptedException e) {
-                    break;
-                }
-                --remainSec;
-                if (remainSec < 0 && countDownPanel.display.getPlayerNumber() == countDownPanel.display.getNextPlayerNumber()) {
-                    new Thread(() -> countDownPanel.display.admitDefeat()).start();    // time over!
-                    break;
-                }
-                countDownPanel.setTime(remainSec);
-                countDownPanel.showTime();
-            }
-        }
-    }
-    
-    
-    private static class PauseManager extends Thread {
-        StartManager startManager;
-        
-        
-        public PauseManager(StartManager startManager) {
-            this.startManager = startManager;
-        }
-        
-        
-        @Override
-        public void run() {
-            try {
-                startManager.interrupt();
-            }
-            catch (NullPointerException ignored) {
-            }
-        }
-    }
-}
\ No newline at end of file
+}
@@ -1,5 +1,7 @@
 package Gomoku.Timer;
 
+import Gomoku.ClockState;
+
 public class TimeManager {
     private CountDownPanel countDownPanel;
     private TimerPanel timerPanel;
@@ -12,7 +14,6 @@ public class TimeManager {
     
     
     public void onNewGame() {
-        countDownPanel.start();
         timerPanel.stop();
         timerPanel.start();
     }
@@ -30,32 +31,41 @@ public class TimeManager {
     }
     
     
-    public void onPutStone() {
-        countDownPanel.stop();
-        countDownPanel.start();
-    }
-    
-    
-    public void onRetractStone() {
-        countDownPanel.stop();
-        countDownPanel.start();
-    }
-    
-    
     public void onAdmitDefeat() {
         countDownPanel.pause();
         timerPanel.pause();
     }
     
     
-    public void onDialog() {
-        countDownPanel.pause();
-        timerPanel.pause();
+    /**
+     * 断线重连后按 server 的计时恢复计时器，回合倒计时等待 server 发来的计时状态。
+     *
+     * @param gameMillis 游戏已进行的时间（毫秒）
+     */
+    public void onSync(long gameMillis) {
+        syncGameTime(gameMillis);
+    }
+    
+    
+    /**
+     * 按 server 发来的计时状态显示当前回合玩家的剩余时间，并校准游戏时间。
+     *
+     * @param clock 计时状态
+     */
+    public void onClockSync(ClockState clock) {
+        int turnPlayerNumber = clock.getTurnPlayerNumber();
+        if (turnPlayerNumber == 0) {
+            countDownPanel.sync(false, false, 0, 0);
+            return;
+        }
+        countDownPanel.sync(true, clock.isRunning(), clock.getRemainingMillis(turnPlayerNumber),
+                            clock.isOvertime(turnPlayerNumber) ? clock.getPeriods(turnPlayerNumber) : 0);
+        syncGameTime(clock.getGameMillis());
     }
     
     
-    public void onDialogClose() {
-        countDownPanel.start();
+    private void syncGameTime(long gameMillis) {
+        timerPanel.sync(gameMillis);
         timerPanel.start();
     }
-}
\ No newline at end of file
+}
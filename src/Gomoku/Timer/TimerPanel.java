@@ -4,10 +4,16 @@ import javax.swing.*;
 import java.awt.*;
 import java.text.NumberFormat;
 
-public class TimerPanel extends JPanel {
+/**
+ * 游戏时间面板
+ * 游戏时间由开始计时的 System.nanoTime 和之前累计的时间计算，由 ClockTicker 在秒数变化时刷新，不会累积误差。
+ */
+public class TimerPanel extends JPanel implements ClockTicker.Ticking {
     private int hour, min, sec;
     private JLabel hourLabel, minLabel, secLabel;
-    private StartManager start;
+    private long elapsedNanos; // 暂停前累计的时间
+    private long startNanos; // 本次开始计时的时间
+    private boolean running; // 是否正在计时
     
     
     public TimerPanel() {
@@ -67,22 +73,67 @@ public class TimerPanel extends JPanel {
     }
     
     
-    public void start() {  // startManager or continue
-        start = new StartManager(this);
-        start.start();
+    public void start() {  // start or continue
+        ClockTicker.runOnEdt(() -> {
+            if (running)
+                return;
+            startNanos = System.nanoTime();
+            running = true;
+            ClockTicker.schedule(this);
+        });
     }
     
     
     public void pause() {
-        new PauseManager(start).start();
+        ClockTicker.runOnEdt(() -> {
+            if (!running)
+                return;
+            elapsedNanos += System.nanoTime() - startNanos;
+            running = false;
+            ClockTicker.cancel(this);
+        });
     }
     
     
     public void stop() {
         // refresh data
-        setTime(0, 0, 0);
+        ClockTicker.runOnEdt(() -> {
+            running = false;
+            ClockTicker.cancel(this);
+            setElapsedMillis(0);
+        });
+    }
+    
+    
+    /**
+     * 按 server 的游戏时间校准，保持原来的计时状态。
+     *
+     * @param elapsedMillis 游戏已进行的时间（毫秒）
+     */
+    public void sync(long elapsedMillis) {
+        ClockTicker.runOnEdt(() -> {
+            setElapsedMillis(elapsedMillis);
+            if (running)
+                ClockTicker.schedule(this);
+        });
+    }
+    
+    
+    private void setElapsedMillis(long elapsedMillis) {
+        elapsedNanos = elapsedMillis * 1000000;
+        startNanos = System.nanoTime();
+        long seconds = elapsedMillis / 1000;
+        setTime((int) (seconds / 3600), (int) (seconds / 60 % 60), (int) (seconds % 60));
         showTime();
-        new PauseManager(start).start();
+    }
+    
+    
+    @Override
+    public long tick(long nowNanos) {
+        long elapsed = elapsedNanos + (running ? nowNanos - startNanos : 0), seconds = elapsed / 1000000000L;
+        setTime((int) (seconds / 3600), (int) (seconds / 60 % 60), (int) (seconds % 60));
+        showTime();
+        return (running ? 1000000000L - elapsed % 1000000000L : -1);
     }
     
     
@@ -115,65 +166,4 @@ public class TimerPanel extends JPanel {
     public int getSec() {
         return sec;
     }
-    
-    
-    private static class StartManager extends Thread {
-        TimerPanel timerPanel;
-        
-        
-        public StartManager(TimerPanel timerPanel) {
-            this.timerPanel = timerPanel;
-        }
-        
-        
-        @Override
-        public void run() {
-            int sec, min, hour;
-            sec = timerPanel.getSec();
-            min = timerPanel.getMin();
-            hour = timerPanel.getHour();
-            while (true) {
-                try {
-                    Thread.sleep(1000);
-                }
-                catch (InterruptedException e) {
-                    break;  // break loop
-                }
-                ++sec;
-                if (sec >= 60) {
-                    ++min;
-                    sec = 0;
-                    if (min >= 60) {
-                        ++hour;
-                        min = 0;
-                        if (min >= 24) {
-                            hour = 0;
-                        }
-                    }
-                }
-                timerPanel.setTime(hour, min, sec);
-                timerPanel.showTime();
-            }
-        }
-    }
-    
-    
-    private static class PauseManager extends Thread {
-        StartManager startManager;
-        
-        
-        public PauseManager(StartManager startManager) {
-            this.startManager = startManager;
-        }
-        
-        
-        @Override
-        public void run() {
-            try {
-                startManager.interrupt();
-            }
-            catch (NullPointerException ignored) {
-            }
-        }
-    }
 }
\ No newline at end of file
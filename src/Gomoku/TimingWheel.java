@@ -0,0 +1,199 @@
+package Gomoku;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 分层时间轮定时器
+ * 一个线程按固定的刻度推进时间轮，每层 64 个槽位，共 4 层，第 l 层的一个槽位跨越 64^l 个刻度。
+ * 定时任务按到期刻度与当前刻度的最高不同位放入对应的层，低层转完一圈时把上一层当前槽位中的任务重新分配到下层，
+ * 加入和取消都是 O(1)，每个刻度只处理到期的槽位，单个线程可以维持十万个房间的超时。
+ * 其他线程加入的任务先放入无锁队列，由时间轮线程在下一个刻度放入槽位；取消只做标记，到期时跳过。
+ * 到期的任务在时间轮线程上执行，应当很快返回，例如把实际工作提交到房间的工作线程。
+ */
+public class TimingWheel {
+    public static final long DEFAULT_TICK_MILLIS = 10; // 默认刻度
+    private static final int SLOT_BITS = 6;
+    private static final int SLOT_COUNT = 1 << SLOT_BITS; // 每层的槽位数
+    private static final int LEVEL_COUNT = 4; // 层数，超出最高层范围的任务放入溢出链表。
+    
+    private static final int PENDING = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+    
+    /**
+     * 定时任务的句柄
+     */
+    public static final class Timeout {
+        private final long deadlineTick; // 到期的刻度
+        private final Runnable task;
+        private final AtomicInteger state;
+        private Timeout next; // 槽位链表中的下一个任务，只由时间轮线程访问。
+        
+        
+        private Timeout(long deadlineTick, Runnable task) {
+            this.deadlineTick = deadlineTick;
+            this.task = task;
+            state = new AtomicInteger(PENDING);
+            next = null;
+        }
+        
+        
+        /**
+         * 取消任务（可被任意线程调用）
+         *
+         * @return 是否在到期前取消，任务已执行或已取消时返回 false。
+         */
+        public boolean cancel() {
+            return state.compareAndSet(PENDING, CANCELLED);
+        }
+        
+        
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+        
+        
+        public boolean isExpired() {
+            return state.get() == EXPIRED;
+        }
+    }
+    
+    
+    private final long tickNanos;
+    private final long startNanos; // 第 0 个刻度的时间
+    private final Timeout[][] slots; // [层][槽位] 链表头
+    private Timeout overflow; // 超出最高层范围的任务
+    private final ConcurrentLinkedQueue<Timeout> pending; // 其他线程新加入、尚未放入槽位的任务
+    private long currentTick; // 正在处理的刻度，只由时间轮线程访问。
+    private final Thread worker;
+    
+    
+    public TimingWheel(String name) {
+        this(name, DEFAULT_TICK_MILLIS);
+    }
+    
+    
+    /**
+     * @param name       时间轮线程的名称
+     * @param tickMillis 刻度（毫秒），定时精度不高于一个刻度。
+     */
+    public TimingWheel(String name, long tickMillis) {
+        tickNanos = tickMillis * 1000000;
+        startNanos = System.nanoTime();
+        slots = new Timeout[LEVEL_COUNT][SLOT_COUNT];
+        overflow = null;
+        pending = new ConcurrentLinkedQueue<Timeout>();
+        currentTick = 0;
+        worker = new Thread(this::run, name);
+        worker.setDaemon(true);
+    }
+    
+    
+    public void start() {
+        worker.start();
+    }
+    
+    
+    /**
+     * 加入定时任务（可被任意线程调用）
+     *
+     * @param task        到期时在时间轮线程上执行的任务
+     * @param delayMillis 延迟（毫秒）
+     *
+     * @return 任务的句柄，用于取消。
+     */
+    public Timeout schedule(Runnable task, long delayMillis) {
+        long deadlineNanos = System.nanoTime() - startNanos + Math.max(0, delayMillis) * 1000000;
+        Timeout timeout = new Timeout((deadlineNanos + tickNanos - 1) / tickNanos, task);
+        pending.add(timeout);
+        return timeout;
+    }
+    
+    
+    private void run() {
+        while (true) {
+            long waitNanos = startNanos + currentTick * tickNanos - System.nanoTime();
+            if (waitNanos > 0) {
+                LockSupport.parkNanos(this, waitNanos);
+                continue;
+            }
+            Timeout timeout;
+            while ((timeout = pending.poll()) != null)
+                place(timeout);
+            if (currentTick > 0)
+                cascade();
+            int slot = (int) (currentTick & (SLOT_COUNT - 1));
+            Timeout expired = slots[0][slot];
+            slots[0][slot] = null;
+            while (expired != null) {
+                Timeout next = expired.next;
+                expired.next = null;
+                if (expired.deadlineTick > currentTick) // 不会发生：第 0 层的槽位中只有本圈到期的任务
+                    place(expired);
+                else if (expired.state.compareAndSet(PENDING, EXPIRED)) {
+                    try {
+                        expired.task.run();
+                    }
+                    catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+                expired = next;
+            }
+            ++currentTick;
+        }
+    }
+    
+    
+    /**
+     * 低层转完一圈时，把上一层当前槽位中的任务重新分配到下层，从最高层开始。
+     */
+    private void cascade() {
+        if ((currentTick & ((1L << (SLOT_BITS * LEVEL_COUNT)) - 1)) == 0) {
+            Timeout list = overflow;
+            overflow = null;
+            replace(list);
+        }
+        for (int level = LEVEL_COUNT - 1; level >= 1; --level) {
+            if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) != 0)
+                continue;
+            int slot = (int) ((currentTick >>> (SLOT_BITS * level)) & (SLOT_COUNT - 1));
+            Timeout list = slots[level][slot];
+            slots[level][slot] = null;
+            replace(list);
+        }
+    }
+    
+    
+    private void replace(Timeout list) {
+        while (list != null) {
+            Timeout next = list.next;
+            list.next = null;
+            if (list.state.get() == PENDING) // 已取消的任务在这里丢弃
+                place(list);
+            list = next;
+        }
+    }
+    
+    
+    /**
+     * 把任务放入槽位：到期刻度与当前刻度在第 l 层以上的位相同时放入第 l 层。
+     */
+    private void place(Timeout timeout) {
+        if (timeout.state.get() != PENDING)
+            return;
+        long deadline = Math.max(timeout.deadlineTick, currentTick);
+        for (int level = 0; level < LEVEL_COUNT; ++level) {
+            if ((deadline >>> (SLOT_BITS * (level + 1))) == (currentTick >>> (SLOT_BITS * (level + 1)))) {
+                int slot = (int) ((deadline >>> (SLOT_BITS * level)) & (SLOT_COUNT - 1));
+                timeout.next = slots[level][slot];
+                slots[level][slot] = timeout;
+                return;
+            }
+        }
+        timeout.next = overflow;
+        overflow = timeout;
+    }
+}
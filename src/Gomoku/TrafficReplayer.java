@@ -0,0 +1,346 @@
+package Gomoku;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 流量回放负载测试
+ * 读取 WireTracer 记录的报文（以 -Dgomoku.trace=ALL 运行 server 得到），为每个原连接建立合成连接，
+ * 按原始时间间隔的 1/speed 回放 server 收到的报文，统计吞吐量以及各报文类型从发送到发送方收到对应回复的延迟。
+ * 合成连接按原连接的建立顺序建立，因此在 server 的大厅中按原来的顺序配对。
+ * 每个报文在合成连接收到的报文数达到原连接发出该报文前收到的报文数之后才发送，保持 client 之间的因果顺序，
+ * 即使尽快回放，对方的落子也不会晚于本方依赖它的请求到达。server 转发给对方的报文只统计数量。
+ *
+ * 用法：java Gomoku.TrafficReplayer [-speed 倍速，0 为尽快回放] [-copies 每个原连接的副本数] [-connect host:port] trace-....bin [...]
+ * 未指定 -connect 时在本进程中启动 server，通过回环 TCP 连接。
+ */
+public class TrafficReplayer {
+    public static final long GATE_TIMEOUT_MILLIS = 1000; // 等待原连接发送报文前应收到的报文的最长时间
+    public static final long DRAIN_TIMEOUT_MILLIS = 5000; // 回放结束后等待回复的最长时间
+    
+    private static final int TYPE_COUNT = 32;
+    
+    private final List<Long> times; // 报文的记录时间（纳秒）
+    private final List<Integer> connections; // 报文所属的原连接编号
+    private final List<byte[]> messages; // server 收到的报文，不含由传输层处理的 HELLO。
+    private final List<Long> gates; // 原连接发送报文前已收到的报文数
+    private final TreeMap<Integer, Integer> helloFlags; // 原连接编号到 HELLO 中声明的标志的映射，编号即连接建立的顺序。
+    private final Map<Integer, Long> receivedBefore; // 读取时原连接已收到的报文数
+    private final LatencyHistogram[] histograms; // 下标为请求的报文类型
+    private final AtomicLongArray sentCounts; // 各类型发送的报文数
+    private final AtomicLongArray unansweredCounts; // 各类型没有收到回复的报文数
+    private final AtomicLong receivedCount;
+    private final AtomicLong outstandingCount; // 等待回复的报文数
+    private final AtomicLong gateTimeouts; // 等待超时后直接发送的报文数
+    
+    
+    /**
+     * 回放用的合成连接，一个线程发送，一个线程接收。
+     */
+    private class ReplayConnection {
+        private final StreamTransport transport;
+        private final List<Integer> indices; // 本连接发送的报文在 messages 中的下标
+        private final Map<Integer, ArrayDeque<long[]>> outstanding; // 会话编号到等待回复的请求（发送时间、报文下标）的映射
+        private long received; // 已收到的报文数
+        
+        
+        ReplayConnection(StreamTransport transport, List<Integer> indices) {
+            this.transport = transport;
+            this.indices = indices;
+            outstanding = new HashMap<Integer, ArrayDeque<long[]>>();
+            received = 0;
+        }
+        
+        
+        /**
+         * 按时间和因果顺序发送本连接的报文
+         *
+         * @param startNanos 回放开始的时间
+         * @param firstTime  第一个报文的记录时间
+         * @param speed      回放倍速，0 表示尽快回放。
+         */
+        void replay(long startNanos, long firstTime, double speed) {
+            try {
+                for (int index : indices) {
+                    if (speed > 0) {
+                        long deadline = startNanos + (long) ((times.get(index) - firstTime) / speed);
+                        long delay;
+                        while ((delay = deadline - System.nanoTime()) > 0)
+                            LockSupport.parkNanos(delay);
+                    }
+                    awaitReceived(gates.get(index));
+                    send(index);
+                }
+            }
+            catch (IOException | InterruptedException ignored) {
+            }
+        }
+        
+        
+        private synchronized void awaitReceived(long count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + GATE_TIMEOUT_MILLIS;
+            long delay;
+            while (received < count) {
+                if ((delay = deadline - System.currentTimeMillis()) <= 0) {
+                    gateTimeouts.incrementAndGet();
+                    return;
+                }
+                wait(delay);
+            }
+        }
+        
+        
+        private void send(int index) throws IOException {
+            byte[] message = messages.get(index);
+            int messageType = AbstractSocket.parseMessageType(message);
+            sentCounts.incrementAndGet(messageType);
+            if (expectsResponse(messageType)) {
+                synchronized (this) {
+                    outstanding.computeIfAbsent(AbstractSocket.parseSessionId(message), sessionId -> new ArrayDeque<long[]>())
+                               .add(new long[]{System.nanoTime(), index});
+                }
+                outstandingCount.incrementAndGet();
+            }
+            transport.send(message);
+        }
+        
+        
+        void receive() {
+            try {
+                while (true)
+                    onResponse(transport.receive());
+            }
+            catch (IOException ignored) {
+            }
+        }
+        
+        
+        /**
+         * 在报文所属会话的等待队列中查找对应的请求，记录延迟，并唤醒等待该报文的发送线程。
+         * server 按顺序处理同一会话的请求，因此更早的同类型请求已不会再收到回复。
+         */
+        private synchronized void onResponse(byte[] response) {
+            long now = System.nanoTime();
+            if (AbstractSocket.parseMessageType(response) == AbstractSocket.HELLO)
+                return; // 版本协商的回复不经过座位，没有被记录。
+            receivedCount.incrementAndGet();
+            ++received;
+            notifyAll();
+            ArrayDeque<long[]> queue = outstanding.get(AbstractSocket.parseSessionId(response));
+            if (queue == null)
+                return;
+            long[] matched = null;
+            for (long[] pending : queue) {
+                if (isResponse(messages.get((int) pending[1]), response)) {
+                    matched = pending;
+                    break;
+                }
+            }
+            if (matched == null)
+                return;
+            int requestType = AbstractSocket.parseMessageType(messages.get((int) matched[1]));
+            for (Iterator<long[]> iterator = queue.iterator(); iterator.hasNext(); ) {
+                long[] pending = iterator.next();
+                if (AbstractSocket.parseMessageType(messages.get((int) pending[1])) != requestType)
+                    continue;
+                iterator.remove();
+                outstandingCount.decrementAndGet();
+                if (pending == matched)
+                    break;
+                unansweredCounts.incrementAndGet(requestType);
+            }
+            synchronized (histograms[requestType]) {
+                histograms[requestType].record(now - matched[0]);
+            }
+        }
+    }
+    
+    
+    public static void main(String[] args) throws Exception {
+        double speed = 1;
+        int copies = 1;
+        SocketAddress address = null;
+        List<String> paths = new ArrayList<String>();
+        for (int index = 0; index < args.length; ++index) {
+            if (args[index].equals("-speed"))
+                speed = Double.parseDouble(args[++index]);
+            else if (args[index].equals("-copies"))
+                copies = Integer.parseInt(args[++index]);
+            else if (args[index].equals("-connect")) {
+                String[] hostPort = args[++index].split(":");
+                address = new InetSocketAddress(hostPort[0], Integer.parseInt(hostPort[1]));
+            }
+            else
+                paths.add(args[index]);
+        }
+        if (address == null) {
+            ServerSocketChannel serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress("127.0.0.1", 0));
+            new Server(serverChannel);
+            address = serverChannel.getLocalAddress();
+        }
+        
+        TrafficReplayer replayer = new TrafficReplayer();
+        for (String path : paths)
+            replayer.load(path);
+        replayer.replay(address, speed, copies);
+        System.exit(0);
+    }
+    
+    
+    public TrafficReplayer() {
+        times = new ArrayList<Long>();
+        connections = new ArrayList<Integer>();
+        messages = new ArrayList<byte[]>();
+        gates = new ArrayList<Long>();
+        helloFlags = new TreeMap<Integer, Integer>();
+        receivedBefore = new HashMap<Integer, Long>();
+        histograms = new LatencyHistogram[TYPE_COUNT];
+        for (int index = 0; index < TYPE_COUNT; ++index)
+            histograms[index] = new LatencyHistogram();
+        sentCounts = new AtomicLongArray(TYPE_COUNT);
+        unansweredCounts = new AtomicLongArray(TYPE_COUNT);
+        receivedCount = new AtomicLong(0);
+        outstandingCount = new AtomicLong(0);
+        gateTimeouts = new AtomicLong(0);
+    }
+    
+    
+    /**
+     * 读取跟踪文件中 server 收到的报文，以及每个报文之前原连接已收到的报文数。
+     * 文件应按记录的先后顺序读取，并且记录时没有采样。
+     *
+     * @param path 跟踪文件路径
+     */
+    public void load(String path) throws IOException {
+        WireTraceDecoder.read(Paths.get(path), (epochNanos, point, connectionId, message) -> {
+            if (point == WireTracer.SERVER_OUTBOUND)
+                receivedBefore.merge(connectionId, 1L, Long::sum);
+            if (point != WireTracer.SERVER_INBOUND || message.length < AbstractSocket.headLength)
+                return;
+            if (AbstractSocket.parseMessageType(message) == AbstractSocket.HELLO) {
+                helloFlags.put(connectionId, (message.length > AbstractSocket.headLength + 1 ? (int) message[AbstractSocket.headLength + 1] : 0));
+                return;
+            }
+            helloFlags.putIfAbsent(connectionId, 0);
+            times.add(epochNanos);
+            connections.add(connectionId);
+            messages.add(message);
+            gates.add(receivedBefore.getOrDefault(connectionId, 0L));
+        });
+    }
+    
+    
+    /**
+     * 回放读取的报文并打印统计结果
+     *
+     * @param address server 地址
+     * @param speed   回放倍速，0 表示尽快回放。
+     * @param copies  每个原连接建立的合成连接数
+     */
+    public void replay(SocketAddress address, double speed, int copies) throws IOException, InterruptedException {
+        Map<Integer, List<Integer>> indices = new HashMap<Integer, List<Integer>>(); // 原连接编号到其报文下标的映射
+        for (int index = 0; index < messages.size(); ++index)
+            indices.computeIfAbsent(connections.get(index), connectionId -> new ArrayList<Integer>()).add(index);
+        List<ReplayConnection> replayConnections = new ArrayList<ReplayConnection>();
+        for (int copy = 0; copy < copies; ++copy) {
+            for (Map.Entry<Integer, Integer> entry : helloFlags.entrySet()) {
+                StreamTransport transport = StreamTransport.connect(address, entry.getValue());
+                ReplayConnection replayConnection = new ReplayConnection(transport, indices.getOrDefault(entry.getKey(), new ArrayList<Integer>()));
+                replayConnections.add(replayConnection);
+                Thread receiver = new Thread(replayConnection::receive, "replay-receiver-" + replayConnections.size());
+                receiver.setDaemon(true);
+                receiver.start();
+            }
+        }
+        
+        long startNanos = System.nanoTime();
+        long firstTime = (times.isEmpty() ? 0 : times.get(0));
+        List<Thread> senders = new ArrayList<Thread>();
+        for (ReplayConnection replayConnection : replayConnections) {
+            Thread sender = new Thread(() -> replayConnection.replay(startNanos, firstTime, speed), "replay-sender-" + (senders.size() + 1));
+            senders.add(sender);
+            sender.start();
+        }
+        for (Thread sender : senders)
+            sender.join();
+        long sendNanos = System.nanoTime() - startNanos;
+        long drainDeadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MILLIS;
+        while (outstandingCount.get() > 0 && System.currentTimeMillis() < drainDeadline)
+            Thread.sleep(10);
+        long totalNanos = System.nanoTime() - startNanos;
+        
+        long sent = (long) messages.size() * copies;
+        System.out.printf("connections: %d  sent: %d in %.3fs (%.0f messages/s)  received: %d  total: %.3fs%n",
+                          replayConnections.size(), sent, sendNanos / 1e9, sent / (sendNanos / 1e9), receivedCount.get(), totalNanos / 1e9);
+        for (int messageType = 0; messageType < TYPE_COUNT; ++messageType) {
+            if (sentCounts.get(messageType) == 0)
+                continue;
+            String latency = (expectsResponse(messageType) ? histograms[messageType].summary() : "forwarded to the peer, not timed");
+            long unanswered = unansweredCounts.get(messageType);
+            System.out.printf("%-26s sent=%-8d %s%s%n", WireTraceDecoder.typeName(messageType), sentCounts.get(messageType), latency,
+                              (unanswered > 0 ? " unanswered=" + unanswered : ""));
+        }
+        if (gateTimeouts.get() > 0)
+            System.out.println(gateTimeouts.get() + " messages sent after waiting " + GATE_TIMEOUT_MILLIS + "ms for earlier server messages");
+        if (outstandingCount.get() > 0)
+            System.out.println("still waiting for " + outstandingCount.get() + " responses after " + DRAIN_TIMEOUT_MILLIS + "ms");
+    }
+    
+    
+    /**
+     * 请求类型是否会使发送方收到回复
+     */
+    private static boolean expectsResponse(int messageType) {
+        switch (messageType) {
+            case AbstractSocket.INQUIRE_TO_PUT_STONE:
+            case AbstractSocket.ACCEPT_TO_NEW_GAME:
+            case AbstractSocket.ADMIT_DEFEAT:
+            case AbstractSocket.ACCEPT_TO_RETRACT_STONE:
+            case AbstractSocket.CHOOSE_PLAYER_COLOR:
+            case AbstractSocket.RESUME:
+                return true;
+            default:
+                return false;
+        }
+    }
+    
+    
+    /**
+     * 报文是否是发送方对请求的回复
+     */
+    private static boolean isResponse(byte[] request, byte[] response) {
+        int responseType = AbstractSocket.parseMessageType(response);
+        switch (AbstractSocket.parseMessageType(request)) {
+            case AbstractSocket.INQUIRE_TO_PUT_STONE: // 对方的落子也会发给本方，按坐标区分。
+                return responseType == AbstractSocket.PUT_STONE
+                       && response[AbstractSocket.headLength] == request[AbstractSocket.headLength]
+                       && response[AbstractSocket.headLength + 1] == request[AbstractSocket.headLength + 1];
+            case AbstractSocket.ACCEPT_TO_NEW_GAME:
+                return responseType == AbstractSocket.NEW_GAME;
+            case AbstractSocket.ADMIT_DEFEAT:
+                return responseType == AbstractSocket.GAME_OVER;
+            case AbstractSocket.ACCEPT_TO_RETRACT_STONE:
+                return responseType == AbstractSocket.RETRACT_STONE || responseType == AbstractSocket.RETRACT_TO;
+            case AbstractSocket.CHOOSE_PLAYER_COLOR:
+                return responseType == AbstractSocket.SET_PLAYER_COLOR;
+            case AbstractSocket.RESUME:
+                return responseType == AbstractSocket.STATE_SYNC;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package Gomoku;
+
+import java.io.IOException;
+
+/**
+ * 报文传输层
+ * AbstractSocket 的子类通过 Transport 收发完整的报文，不关心底层是 TCP、Unix 域套接字还是同一 JVM 内的内存通道。
+ */
+public interface Transport {
+    /**
+     * 发送一个完整的报文（可被多个线程同时调用）
+     *
+     * @param message 待发送的报文
+     */
+    void send(byte[] message) throws IOException;
+    
+    
+    /**
+     * 阻塞接收一个完整的报文
+     *
+     * @throws java.io.EOFException 对方已关闭
+     */
+    byte[] receive() throws IOException;
+    
+    
+    void close();
+    
+    
+    boolean isClosed();
+    
+    
+    /**
+     * 获取协商的协议版本，不经过 WireCodec 编码的传输层为最高版本。
+     */
+    default int getVersion() {
+        return WireCodec.MAX_VERSION;
+    }
+    
+    
+    /**
+     * 设置报文监听器，由发送方线程直接把报文交给监听器，不再需要接收线程调用 receive。
+     *
+     * @param listener 报文监听器
+     *
+     * @return 是否支持监听器，不支持时仍需调用 receive 接收报文。
+     */
+    default boolean setListener(Listener listener) {
+        return false;
+    }
+    
+    
+    /**
+     * 报文监听器
+     */
+    interface Listener {
+        void onMessage(byte[] message);
+        
+        
+        void onClose();
+    }
+}
@@ -0,0 +1,85 @@
+package Gomoku;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 传输层基准测试
+ * 同一个 server 同时监听回环 TCP 与 Unix 域套接字，分别在两种传输层上进行对局，
+ * 比较 INQUIRE_TO_PUT_STONE → PUT_STONE 的往返延迟；同一 JVM 内的内存通道作为参照。
+ *
+ * 用法：java Gomoku.TransportBenchmark [同时进行的对局数] [每个对局进行的局数]
+ */
+public class TransportBenchmark {
+    private static final int MAX_MOVES_PER_GAME = 60;
+    
+    
+    public static void main(String[] args) throws Exception {
+        int activeGames = (args.length > 0 ? Integer.parseInt(args[0]) : 8);
+        int gamesPerDriver = (args.length > 1 ? Integer.parseInt(args[1]) : 50);
+        
+        ServerSocketChannel tcpChannel = ServerSocketChannel.open();
+        tcpChannel.bind(new InetSocketAddress("127.0.0.1", 0));
+        Path unixPath = Files.createTempDirectory("gomoku").resolve("server.sock");
+        Server server = new Server(tcpChannel);
+        server.listen(Server.openUnixDomain(unixPath));
+        
+        LatencyHistogram tcp = run(server, new InetSocketAddress("127.0.0.1", tcpChannel.socket().getLocalPort()), activeGames, gamesPerDriver);
+        LatencyHistogram unix = run(server, UnixDomainSocketAddress.of(unixPath), activeGames, gamesPerDriver);
+        LatencyHistogram inMemory = run(server, null, activeGames, gamesPerDriver);
+        
+        System.out.println("loopback TCP: " + tcp.summary());
+        System.out.println("unix socket:  " + unix.summary());
+        System.out.println("in-memory:    " + inMemory.summary());
+        Files.deleteIfExists(unixPath);
+        System.exit(0);
+    }
+    
+    
+    /**
+     * 在指定地址上同时进行若干对局
+     *
+     * @param address server 地址，为 null 时使用内存通道。
+     */
+    private static LatencyHistogram run(Server server, SocketAddress address, int activeGames, int gamesPerDriver) throws Exception {
+        List<GameDriver> drivers = new ArrayList<GameDriver>();
+        for (int index = 0; index < activeGames; ++index) {
+            Transport client1 = (address == null ? server.connectInMemory() : StreamTransport.connect(address));
+            Transport client2 = (address == null ? server.connectInMemory() : StreamTransport.connect(address));
+            drivers.add(new GameDriver(client1, client2, new Random(index), MAX_MOVES_PER_GAME));
+        }
+        // 第一局用于预热，不计入结果。
+        LatencyHistogram histogram = new LatencyHistogram();
+        List<Thread> threads = new ArrayList<Thread>();
+        List<LatencyHistogram> histograms = new ArrayList<LatencyHistogram>();
+        for (GameDriver driver : drivers) {
+            LatencyHistogram driverHistogram = new LatencyHistogram();
+            histograms.add(driverHistogram);
+            threads.add(new Thread(() -> {
+                try {
+                    driver.playGame(new LatencyHistogram());
+                    for (int game = 0; game < gamesPerDriver; ++game)
+                        driver.playGame(driverHistogram);
+                }
+                catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }));
+        }
+        for (Thread thread : threads)
+            thread.start();
+        for (Thread thread : threads)
+            thread.join();
+        for (LatencyHistogram driverHistogram : histograms)
+            histogram.merge(driverHistogram);
+        return histogram;
+    }
+}
@@ -0,0 +1,184 @@
+package Gomoku;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 基于 Transport 的 client 连接
+ * 传输层支持监听器（如内存通道）时由发送方线程直接提交报文；
+ * 否则每个连接一个阻塞接收线程和一个发送线程，可以是平台线程，也可以是 Java 21 的虚拟线程，虚拟线程在阻塞读写时不占用平台线程，可以维持大量空闲连接。
+ * 房间的工作线程发送报文时只放入连接的发送队列，由发送线程写出，client 不读取时只阻塞它自己的发送线程，不影响同一工作线程上的其他房间。
+ */
+public class TransportConnection extends Connection implements Transport.Listener {
+    private static final MethodHandle ofVirtual = findOfVirtual(); // Thread.ofVirtual().unstarted(Runnable)，JDK 21 以下为 null。
+    private static final byte[] END_OF_QUEUE = new byte[0]; // 关闭时放入发送队列，结束发送线程。
+    
+    private final Server server;
+    private final Transport transport;
+    private final boolean virtualThread; // 是否使用虚拟线程接收和发送报文
+    private volatile BlockingQueue<byte[]> sendQueue; // 待发送的报文，传输层支持监听器时为 null，直接发送。
+    private final AtomicInteger queuedBytes; // 发送队列中的字节数，超过 MAX_QUEUED_BYTES 时关闭连接。
+    private volatile boolean overflowed; // 发送队列已超过上限，等待关闭，不再发送。
+    private volatile boolean closed;
+    
+    
+    public TransportConnection(Server server, Transport transport, boolean virtualThread) {
+        this.server = server;
+        this.transport = transport;
+        this.virtualThread = virtualThread;
+        sendQueue = null;
+        queuedBytes = new AtomicInteger(0);
+        overflowed = false;
+        closed = false;
+    }
+    
+    
+    /**
+     * 当前 JVM 是否支持虚拟线程（JDK 21 及以上）
+     */
+    public static boolean isVirtualThreadSupported() {
+        return ofVirtual != null;
+    }
+    
+    
+    /**
+     * 创建线程，不支持虚拟线程时退化为平台线程。
+     *
+     * @param virtualThread 是否创建虚拟线程
+     * @param task          线程执行的任务
+     */
+    public static Thread newThread(boolean virtualThread, Runnable task) {
+        if (virtualThread && ofVirtual != null) {
+            try {
+                return (Thread) ofVirtual.invoke(task);
+            }
+            catch (Throwable ignored) {
+            }
+        }
+        return new Thread(task);
+    }
+    
+    
+    private static MethodHandle findOfVirtual() {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            MethodHandle ofVirtual = lookup.findStatic(Thread.class, "ofVirtual", MethodType.methodType(builderClass));
+            MethodHandle unstarted = lookup.findVirtual(builderClass, "unstarted", MethodType.methodType(Thread.class, Runnable.class));
+            return MethodHandles.foldArguments(unstarted, ofVirtual);
+        }
+        catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+    
+    
+    @Override
+    public void start() {
+        if (!transport.setListener(this)) {
+            sendQueue = new LinkedBlockingQueue<byte[]>();
+            newThread(virtualThread, this::sendToClient).start();
+            newThread(virtualThread, this::receiveFromClient).start();
+        }
+    }
+    
+    
+    private void receiveFromClient() {
+        while (!closed) {
+            try {
+                server.onMessage(this, transport.receive());
+            }
+            catch (IOException e) {
+                close();
+            }
+        }
+    }
+    
+    
+    @Override
+    public void onMessage(byte[] message) {
+        server.onMessage(this, message);
+    }
+    
+    
+    @Override
+    public void onClose() {
+        close();
+    }
+    
+    
+    /**
+     * 发送线程：依次写出发送队列中的报文，直到连接关闭。
+     */
+    private void sendToClient() {
+        try {
+            byte[] message;
+            while ((message = sendQueue.take()) != END_OF_QUEUE) {
+                queuedBytes.addAndGet(-message.length);
+                transport.send(message);
+            }
+        }
+        catch (IOException e) {
+            close();
+        }
+        catch (InterruptedException ignored) {
+        }
+    }
+    
+    
+    /**
+     * 把报文放入发送队列，不在调用者的线程上写 socket；client 长时间不读取使队列超过 MAX_QUEUED_BYTES 时丢弃报文，由 Server 回收连接。
+     */
+    @Override
+    public void send(byte[] message) {
+        if (closed || overflowed)
+            return;
+        BlockingQueue<byte[]> sendQueue = this.sendQueue;
+        if (sendQueue == null) {
+            try {
+                transport.send(message);
+            }
+            catch (IOException e) {
+                close();
+            }
+            return;
+        }
+        if (queuedBytes.addAndGet(message.length) > MAX_QUEUED_BYTES) {
+            overflowed = true;
+            server.reap(this);
+            return;
+        }
+        sendQueue.add(message);
+    }
+    
+    
+    @Override
+    public synchronized void close() {
+        if (closed)
+            return;
+        closed = true;
+        transport.close(); // 发送线程阻塞在写 socket 时也随之结束
+        if (sendQueue != null) {
+            sendQueue.clear();
+            sendQueue.add(END_OF_QUEUE);
+        }
+        server.onClose(this);
+    }
+    
+    
+    @Override
+    public int getVersion() {
+        return transport.getVersion();
+    }
+    
+    
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+}
@@ -0,0 +1,378 @@
+package Gomoku;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * 报文的线路编码，每个连接一个实例。
+ * 内存中的报文格式见 AbstractSocket（socketId、sessionId、length、type），线路上有两个版本：
+ * <pre>
+ * v1: [socketId 1][length 4][type 1][content]
+ * v2: [flags|type 1][type 1]?[seq varint][session varint]?[ack varint]?[length varint][content]
+ *     首字节 bit7 = 1 表示 v2，bit6 表示带 session，bit5 表示带 ack，bit0-4 为报文类型（31 表示类型在下一个字节）。
+ * </pre>
+ * v1 的首字节是非负的 socketId，因此每个报文的版本可以由首字节的最高位判断，两个版本可以在同一连接上混用。
+ * 连接建立后主动方以 v1 格式发送 HELLO [最高版本][标志]，被动方以 v1 格式回复 HELLO [双方共同的最高版本] 后切换发送版本，
+ * 主动方收到回复后切换发送版本。不认识 HELLO 的旧版 server 会忽略这个报文，双方继续使用 v1。
+ * v2 不传输 socketId（收到的报文 socketId 为 0，由 server 按连接改写），sessionId 为 0 时省略，
+ * ack 为对方已收到的最大序号，只在有新的报文需要确认时携带，以与上次确认的差值编码。
+ */
+public class WireCodec {
+    public static final int VERSION_1 = 1;
+    public static final int VERSION_2 = 2;
+    public static final int MAX_VERSION = VERSION_2; // 本端支持的最高版本
+    public static final int MAX_MESSAGE_LENGTH = 1 << 16; // 报文内容的最大长度，超过时视为协议错误。
+    public static final int HELLO_RESUMING = 0x01; // HELLO 标志：断线重连，server 不为该连接自动打开会话 0。
+    
+    private static final int V1_HEAD_LENGTH = 6;
+    private static final int V2_FLAG = 0x80;
+    private static final int HAS_SESSION = 0x40;
+    private static final int HAS_ACK = 0x20;
+    private static final int TYPE_MASK = 0x1F;
+    
+    private volatile int version; // 发送使用的版本
+    private boolean negotiating; // 是否已发送 HELLO、正在等待回复
+    private int sendSequence; // 下一个发送报文的序号
+    private int lastAckSent; // 上次发送的确认序号
+    private volatile int receiveSequence; // 下一个接收报文的序号（只由接收线程写入）
+    private volatile int peerAck; // 对方确认收到的报文数
+    
+    
+    public WireCodec() {
+        version = VERSION_1;
+        negotiating = false;
+        sendSequence = 0;
+        lastAckSent = 0;
+        receiveSequence = 0;
+        peerAck = 0;
+    }
+    
+    
+    public int getVersion() {
+        return version;
+    }
+    
+    
+    /**
+     * 对方确认收到的报文数（v2 连接上有效）
+     */
+    public int getPeerAck() {
+        return peerAck;
+    }
+    
+    
+    /**
+     * 已接收的报文数
+     */
+    public int getReceiveSequence() {
+        return receiveSequence;
+    }
+    
+    
+    /**
+     * 生成发起版本协商的 HELLO 报文（v1 格式）
+     *
+     * @param flags HELLO 标志，如 HELLO_RESUMING。
+     */
+    public synchronized byte[] encodeHello(int flags) {
+        negotiating = true;
+        return encodeV1(helloMessage(MAX_VERSION, flags));
+    }
+    
+    
+    /**
+     * 等待版本协商完成
+     * v1 无法传输会话编号，带会话编号的报文需要等到协商出 v2 之后才能发送。
+     *
+     * @param timeoutMillis 最长等待时间（毫秒）
+     *
+     * @return 协商完成后的发送版本
+     */
+    public synchronized int awaitNegotiation(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long remaining = timeoutMillis;
+        while (negotiating && remaining > 0) {
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+        return version;
+    }
+    
+    
+    /**
+     * 处理接收到的 HELLO 报文
+     *
+     * @param message 接收到的 HELLO 报文（内存格式）
+     *
+     * @return 需要回复对方的报文（线路格式），不需要回复时为 null。
+     */
+    public synchronized byte[] onHello(byte[] message) {
+        int peerVersion = (message.length > AbstractSocket.headLength ? message[AbstractSocket.headLength] & 0xFF : VERSION_1);
+        int agreedVersion = Math.max(VERSION_1, Math.min(peerVersion, MAX_VERSION));
+        if (negotiating) {
+            negotiating = false;
+            version = agreedVersion;
+            notifyAll();
+            return null;
+        }
+        byte[] reply = encodeV1(helloMessage(agreedVersion, 0));
+        version = agreedVersion;
+        return reply;
+    }
+    
+    
+    private static byte[] helloMessage(int version, int flags) {
+        byte[] message = new byte[AbstractSocket.headLength + 2];
+        message[AbstractSocket.headLength - 2] = 2;
+        message[AbstractSocket.headLength - 1] = (byte) AbstractSocket.HELLO;
+        message[AbstractSocket.headLength] = (byte) version;
+        message[AbstractSocket.headLength + 1] = (byte) flags;
+        return message;
+    }
+    
+    
+    /**
+     * 将内存格式的报文编码为线路格式（可被多个线程同时调用，序号按调用顺序分配）
+     *
+     * @param message 内存格式的报文
+     */
+    public synchronized byte[] encode(byte[] message) {
+        return (version == VERSION_1 ? encodeV1(message) : encodeV2(message));
+    }
+    
+    
+    private byte[] encodeV1(byte[] message) {
+        int length = message.length - AbstractSocket.headLength;
+        byte[] wire = new byte[V1_HEAD_LENGTH + length];
+        wire[0] = message[0];
+        System.arraycopy(message, AbstractSocket.headLength - 5, wire, 1, 5); // length 与 type
+        System.arraycopy(message, AbstractSocket.headLength, wire, V1_HEAD_LENGTH, length);
+        ++sendSequence;
+        return wire;
+    }
+    
+    
+    private byte[] encodeV2(byte[] message) {
+        int length = message.length - AbstractSocket.headLength;
+        int type = message[AbstractSocket.headLength - 1] & 0xFF;
+        int session = AbstractSocket.parseSessionId(message);
+        int ack = receiveSequence;
+        byte[] head = new byte[2 + 5 * 4];
+        int position = 1;
+        int flags = V2_FLAG;
+        if (type < TYPE_MASK)
+            flags |= type;
+        else {
+            flags |= TYPE_MASK;
+            head[position++] = (byte) type;
+        }
+        position = putVarint(head, position, sendSequence);
+        if (session != 0) {
+            flags |= HAS_SESSION;
+            position = putVarint(head, position, session);
+        }
+        if (ack != lastAckSent) {
+            flags |= HAS_ACK;
+            position = putVarint(head, position, ack - lastAckSent);
+            lastAckSent = ack;
+        }
+        position = putVarint(head, position, length);
+        head[0] = (byte) flags;
+        byte[] wire = new byte[position + length];
+        System.arraycopy(head, 0, wire, 0, position);
+        System.arraycopy(message, AbstractSocket.headLength, wire, position, length);
+        ++sendSequence;
+        return wire;
+    }
+    
+    
+    private static int putVarint(byte[] buffer, int position, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return position;
+    }
+    
+    
+    /**
+     * 从缓冲区解码一个报文（只能由唯一的接收线程调用）
+     *
+     * @param buffer 接收到的字节，解码成功时 position 移到报文之后，报文不完整时 position 不变。
+     *
+     * @return 内存格式的报文，报文不完整时为 null。
+     *
+     * @throws IOException 报文格式错误
+     */
+    public byte[] decode(ByteBuffer buffer) throws IOException {
+        if (!buffer.hasRemaining())
+            return null;
+        int start = buffer.position();
+        byte[] message = ((buffer.get(start) & V2_FLAG) == 0 ? decodeV1(buffer) : decodeV2(buffer));
+        if (message == null)
+            buffer.position(start);
+        return message;
+    }
+    
+    
+    private byte[] decodeV1(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < V1_HEAD_LENGTH)
+            return null;
+        int length = checkLength(buffer.getInt(buffer.position() + 1));
+        if (buffer.remaining() < V1_HEAD_LENGTH + length)
+            return null;
+        byte[] message = new byte[AbstractSocket.headLength + length];
+        message[0] = buffer.get();
+        buffer.get(message, AbstractSocket.headLength - 5, 5 + length);
+        ++receiveSequence;
+        return message;
+    }
+    
+    
+    private byte[] decodeV2(ByteBuffer buffer) throws IOException {
+        int flags = buffer.get() & 0xFF;
+        int type = flags & TYPE_MASK;
+        if (type == TYPE_MASK) {
+            if (!buffer.hasRemaining())
+                return null;
+            type = buffer.get() & 0xFF;
+        }
+        long sequence = getVarint(buffer);
+        long session = ((flags & HAS_SESSION) != 0 ? getVarint(buffer) : 0);
+        long ack = ((flags & HAS_ACK) != 0 ? getVarint(buffer) : 0);
+        long length = getVarint(buffer);
+        if (sequence < 0 || session < 0 || ack < 0 || length < 0)
+            return null;
+        checkLength((int) length);
+        if (buffer.remaining() < length)
+            return null;
+        checkSequence((int) sequence);
+        byte[] message = newMessage(type, (int) session, (int) length);
+        buffer.get(message, AbstractSocket.headLength, (int) length);
+        peerAck += (int) ack;
+        ++receiveSequence;
+        return message;
+    }
+    
+    
+    /**
+     * 读取一个 varint
+     *
+     * @return 读取到的值，字节不足时为 -1。
+     */
+    private static long getVarint(ByteBuffer buffer) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (!buffer.hasRemaining())
+                return -1;
+            int b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value & 0xFFFFFFFFL;
+        }
+        throw new IOException("malformed varint");
+    }
+    
+    
+    /**
+     * 从输入流阻塞读取一个报文（只能由唯一的接收线程调用）
+     *
+     * @return 内存格式的报文
+     *
+     * @throws EOFException 对方已关闭
+     * @throws IOException  报文格式错误或读取失败
+     */
+    public byte[] read(InputStream is) throws IOException {
+        int first = readByte(is);
+        if ((first & V2_FLAG) == 0) {
+            byte[] head = new byte[5];
+            readFully(is, head);
+            int length = checkLength(((head[0] & 0xFF) << 24) + ((head[1] & 0xFF) << 16) + ((head[2] & 0xFF) << 8) + (head[3] & 0xFF));
+            byte[] message = new byte[AbstractSocket.headLength + length];
+            message[0] = (byte) first;
+            System.arraycopy(head, 0, message, AbstractSocket.headLength - 5, 5);
+            readFully(is, message, AbstractSocket.headLength, length);
+            ++receiveSequence;
+            return message;
+        }
+        int type = first & TYPE_MASK;
+        if (type == TYPE_MASK)
+            type = readByte(is);
+        checkSequence(readVarint(is));
+        int session = ((first & HAS_SESSION) != 0 ? readVarint(is) : 0);
+        int ack = ((first & HAS_ACK) != 0 ? readVarint(is) : 0);
+        int length = checkLength(readVarint(is));
+        byte[] message = newMessage(type, session, length);
+        readFully(is, message, AbstractSocket.headLength, length);
+        peerAck += ack;
+        ++receiveSequence;
+        return message;
+    }
+    
+    
+    private static int readVarint(InputStream is) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readByte(is);
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("malformed varint");
+    }
+    
+    
+    private static int readByte(InputStream is) throws IOException {
+        int b = is.read();
+        if (b < 0)
+            throw new EOFException();
+        return b;
+    }
+    
+    
+    private static void readFully(InputStream is, byte[] buffer) throws IOException {
+        readFully(is, buffer, 0, buffer.length);
+    }
+    
+    
+    private static void readFully(InputStream is, byte[] buffer, int offset, int length) throws IOException {
+        while (length > 0) {
+            int count = is.read(buffer, offset, length);
+            if (count < 0)
+                throw new EOFException();
+            offset += count;
+            length -= count;
+        }
+    }
+    
+    
+    private static int checkLength(int length) throws IOException {
+        if (length < 0 || length > MAX_MESSAGE_LENGTH)
+            throw new IOException("message length out of range: " + length);
+        return length;
+    }
+    
+    
+    private void checkSequence(int sequence) throws IOException {
+        if (sequence != receiveSequence)
+            throw new IOException("unexpected sequence " + sequence + ", expected " + receiveSequence);
+    }
+    
+    
+    private static byte[] newMessage(int type, int session, int length) {
+        byte[] message = new byte[AbstractSocket.headLength + length];
+        message[1] = (byte) ((session >>> 24) & 0xFF);
+        message[2] = (byte) ((session >>> 16) & 0xFF);
+        message[3] = (byte) ((session >>> 8) & 0xFF);
+        message[4] = (byte) (session & 0xFF);
+        message[5] = (byte) ((length >>> 24) & 0xFF);
+        message[6] = (byte) ((length >>> 16) & 0xFF);
+        message[7] = (byte) ((length >>> 8) & 0xFF);
+        message[8] = (byte) (length & 0xFF);
+        message[9] = (byte) type;
+        return message;
+    }
+}
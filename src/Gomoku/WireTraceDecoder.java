@@ -0,0 +1,145 @@
+package Gomoku;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 离线解码 WireTracer 写出的跟踪文件
+ * 用法：java Gomoku.WireTraceDecoder trace-....bin [...]，按文件顺序逐条打印记录的时间、记录点、来源、会话、报文类型和内容。
+ */
+public class WireTraceDecoder {
+    private static final String[] POINT_NAMES = {"server <-", "server ->", "client <-", "client ->"};
+    
+    private static final Map<Integer, String> typeNames = new HashMap<Integer, String>(); // 报文类型到名称的映射
+    
+    private final PrintStream out;
+    
+    
+    static {
+        for (Field field : AbstractSocket.class.getFields()) { // 报文类型即 AbstractSocket 中的 int 常量
+            if (field.getType() == int.class && Modifier.isStatic(field.getModifiers()) && !field.getName().equals("headLength")) {
+                try {
+                    typeNames.put(field.getInt(null), field.getName());
+                }
+                catch (IllegalAccessException ignored) {
+                }
+            }
+        }
+    }
+    
+    
+    public static void main(String[] args) throws IOException {
+        WireTraceDecoder decoder = new WireTraceDecoder(System.out);
+        for (String path : args)
+            decoder.decode(path);
+    }
+    
+    
+    public WireTraceDecoder(PrintStream out) {
+        this.out = out;
+    }
+    
+    
+    /**
+     * 获取报文类型的名称
+     */
+    public static String typeName(int messageType) {
+        return typeNames.getOrDefault(messageType, "TYPE" + messageType);
+    }
+    
+    
+    /**
+     * 跟踪记录的处理函数
+     */
+    public interface RecordHandler {
+        /**
+         * @param epochNanos   记录时间（自 1970 年起的纳秒数）
+         * @param point        记录点（WireTracer.SERVER_INBOUND 等）
+         * @param connectionId server 端的连接编号，client 端或版本 1 的文件为 0。
+         * @param message      报文
+         */
+        void onRecord(long epochNanos, int point, int connectionId, byte[] message);
+    }
+    
+    
+    /**
+     * 解码一个跟踪文件并打印
+     *
+     * @param path 跟踪文件路径
+     */
+    public void decode(String path) throws IOException {
+        out.println("# " + path);
+        read(Paths.get(path), (epochNanos, point, connectionId, message) -> {
+            Instant time = Instant.ofEpochSecond(0, epochNanos);
+            out.println(format(time, point, connectionId, message));
+        });
+    }
+    
+    
+    /**
+     * 按顺序读取一个跟踪文件中的记录，文件末尾不完整的记录（进程被强制结束）被忽略。
+     *
+     * @param path    跟踪文件路径
+     * @param handler 记录的处理函数
+     */
+    public static void read(Path path, RecordHandler handler) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (input.readInt() != WireTracer.MAGIC)
+                throw new IOException(path + ": not a trace file");
+            int version = input.readUnsignedShort();
+            if (version < 1 || version > WireTracer.VERSION)
+                throw new IOException(path + ": unsupported trace version " + version);
+            long epochMillis = input.readLong();
+            long baseNanos = input.readLong();
+            while (true) {
+                long nanos;
+                int point, connectionId;
+                byte[] message;
+                try {
+                    nanos = input.readLong();
+                    point = input.readUnsignedByte();
+                    connectionId = (version >= 2 ? input.readInt() : 0);
+                    message = new byte[input.readInt()];
+                    input.readFully(message);
+                }
+                catch (EOFException e) {
+                    break;
+                }
+                handler.onRecord(epochMillis * 1000000 + (nanos - baseNanos), point, connectionId, message);
+            }
+        }
+    }
+    
+    
+    /**
+     * 格式化一条记录
+     */
+    public String format(Instant time, int point, int connectionId, byte[] message) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(time).append(' ');
+        builder.append(point < POINT_NAMES.length ? POINT_NAMES[point] : "point" + point).append(' ');
+        if (connectionId != 0)
+            builder.append("conn").append(connectionId).append(' ');
+        if (message.length < AbstractSocket.headLength)
+            return builder.append("truncated ").append(message.length).append(" bytes").toString();
+        int messageType = AbstractSocket.parseMessageType(message);
+        builder.append("socket").append(AbstractSocket.parseSocketId(message));
+        builder.append(" session").append(AbstractSocket.parseSessionId(message)).append(' ');
+        builder.append(typeName(messageType)).append(" {");
+        for (int index = AbstractSocket.headLength; index < message.length; ++index)
+            builder.append(index == AbstractSocket.headLength ? " " : ", ").append(message[index] & 0xFF);
+        builder.append(" }");
+        return builder.toString();
+    }
+}
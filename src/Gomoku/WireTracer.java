@@ -0,0 +1,264 @@
+package Gomoku;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 报文跟踪器
+ * 收发报文时把报文的副本和时间戳放入无锁环形缓冲区，由后台线程批量写入按大小轮转的二进制文件，收发线程上不做格式化和 I/O。
+ * 缓冲区已满时丢弃记录而不阻塞收发线程；按级别和采样率过滤，关闭时每个报文只需一次 volatile 读。
+ * 默认配置来自系统属性 gomoku.trace（OFF、CONTROL 或 ALL）、gomoku.trace.sample（每 N 个报文记录一个）和 gomoku.trace.dir（输出目录）。
+ * 跟踪文件用 WireTraceDecoder 解码；级别为 ALL、不采样时 server 收到的报文即完整的流量记录，可用 TrafficReplayer 回放。
+ *
+ * @implNote 文件格式：文件头 [magic 4][version 2][epochMillis 8][nanoTime 8]，
+ * 之后每条记录为 [nanoTime 8][point 1][connectionId 4][length 4][报文]，报文为内存中的报文格式（见 AbstractSocket），多字节整数均为大端序。
+ */
+public class WireTracer {
+    /**
+     * 跟踪级别
+     */
+    public enum Level {
+        OFF,     // 不记录
+        CONTROL, // 不记录落子和聊天等高频报文
+        ALL      // 记录所有报文
+    }
+    
+    
+    public static final int MAGIC = 0x474D4B54; // "GMKT"
+    public static final int VERSION = 2; // 版本 1 的记录没有连接编号
+    public static final int HEADER_LENGTH = 22; // 文件头长度
+    public static final int RECORD_HEAD_LENGTH = 17; // 记录头长度
+    
+    public static final int SERVER_INBOUND = 0;  // server 收到的报文
+    public static final int SERVER_OUTBOUND = 1; // server 发出的报文
+    public static final int CLIENT_INBOUND = 2;  // client 收到的报文
+    public static final int CLIENT_OUTBOUND = 3; // client 发出的报文
+    
+    public static final int BUFFER_CAPACITY = 1 << 16; // 环形缓冲区容量（记录数）
+    public static final int MAX_WRITE_BATCH = 1024; // 后台线程单次最多写入的记录数
+    public static final long DEFAULT_MAX_FILE_BYTES = 64L << 20; // 单个文件的最大字节数
+    public static final int DEFAULT_MAX_FILES = 8; // 保留的文件数
+    public static final long FLUSH_TIMEOUT_MILLIS = 1000; // 进程退出时等待写完记录的最长时间
+    
+    private static final WireTracer global = new WireTracer(Level.valueOf(System.getProperty("gomoku.trace", "OFF")),
+                                                            Integer.getInteger("gomoku.trace.sample", 1),
+                                                            Paths.get(System.getProperty("gomoku.trace.dir", "trace")),
+                                                            DEFAULT_MAX_FILE_BYTES, DEFAULT_MAX_FILES);
+    
+    private volatile Level level;
+    private volatile int sampleRate; // 每 sampleRate 个报文记录一个
+    private final Path directory;
+    private final long maxFileBytes;
+    private final int maxFiles;
+    private final MessageRingBuffer<byte[]> buffer; // 待写入的记录
+    private final LongAdder droppedRecords; // 缓冲区已满时丢弃的记录数
+    private Thread writer; // 后台写入线程，第一次开启跟踪时启动。
+    private final Object fileLock; // 保护以下文件状态，后台线程与进程退出时的刷新共用。
+    private final long startMillis; // 文件名中的启动时间
+    private int fileIndex; // 当前文件的编号
+    private FileChannel file;
+    private long fileBytes; // 当前文件已写入的字节数
+    private final ByteBuffer writeBuffer;
+    
+    
+    /**
+     * @param level        跟踪级别
+     * @param sampleRate   每 sampleRate 个报文记录一个
+     * @param directory    输出目录
+     * @param maxFileBytes 单个文件的最大字节数，超过后写入下一个文件。
+     * @param maxFiles     保留的文件数，超过后删除最早的文件。
+     */
+    public WireTracer(Level level, int sampleRate, Path directory, long maxFileBytes, int maxFiles) {
+        this.directory = directory;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = maxFiles;
+        buffer = new MessageRingBuffer<byte[]>(BUFFER_CAPACITY);
+        droppedRecords = new LongAdder();
+        writer = null;
+        fileLock = new Object();
+        startMillis = System.currentTimeMillis();
+        fileIndex = 0;
+        file = null;
+        fileBytes = 0;
+        writeBuffer = ByteBuffer.allocateDirect(1 << 16);
+        setSampleRate(sampleRate);
+        setLevel(level);
+    }
+    
+    
+    /**
+     * 获取由系统属性配置的跟踪器
+     */
+    public static WireTracer global() {
+        return global;
+    }
+    
+    
+    /**
+     * 用全局跟踪器记录报文
+     *
+     * @param point        记录点（SERVER_INBOUND 等）
+     * @param connectionId server 端的连接编号，client 端为 0。
+     * @param message      报文
+     */
+    public static void trace(int point, int connectionId, byte[] message) {
+        global.record(point, connectionId, message);
+    }
+    
+    
+    /**
+     * 修改跟踪级别，开启跟踪时启动后台写入线程。
+     */
+    public synchronized void setLevel(Level level) {
+        if (level != Level.OFF && writer == null) {
+            writer = new Thread(this::writeRecords, "wire-tracer");
+            writer.setDaemon(true);
+            writer.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(this::flush));
+        }
+        this.level = level;
+    }
+    
+    
+    public Level getLevel() {
+        return level;
+    }
+    
+    
+    public void setSampleRate(int sampleRate) {
+        this.sampleRate = Math.max(1, sampleRate);
+    }
+    
+    
+    public long getDroppedRecords() {
+        return droppedRecords.sum();
+    }
+    
+    
+    /**
+     * 记录报文（可被多个线程同时调用），只复制报文，不做格式化和 I/O。
+     *
+     * @param point        记录点（SERVER_INBOUND 等）
+     * @param connectionId server 端的连接编号，client 端为 0。
+     * @param message      报文
+     */
+    public void record(int point, int connectionId, byte[] message) {
+        Level level = this.level;
+        if (level == Level.OFF)
+            return;
+        if (level == Level.CONTROL && isHighFrequency(AbstractSocket.parseMessageType(message)))
+            return;
+        int sampleRate = this.sampleRate;
+        if (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0)
+            return;
+        byte[] record = new byte[RECORD_HEAD_LENGTH + message.length];
+        ByteBuffer.wrap(record).putLong(System.nanoTime()).put((byte) point).putInt(connectionId).putInt(message.length).put(message);
+        if (!buffer.offer(record))
+            droppedRecords.increment();
+    }
+    
+    
+    private static boolean isHighFrequency(int messageType) {
+        return messageType == AbstractSocket.PUT_STONE || messageType == AbstractSocket.INQUIRE_TO_PUT_STONE || messageType == AbstractSocket.CHAT_TEXT
+               || messageType == AbstractSocket.CLOCK_SYNC || messageType == AbstractSocket.PING || messageType == AbstractSocket.PONG;
+    }
+    
+    
+    /**
+     * 后台线程：批量取出记录写入文件，每批写完后刷新到文件。
+     */
+    private void writeRecords() {
+        while (true) {
+            buffer.drain(this::write, MAX_WRITE_BATCH); // 缓冲区为空时阻塞
+            synchronized (fileLock) {
+                flushBuffer();
+            }
+        }
+    }
+    
+    
+    /**
+     * 等待后台线程写完缓冲区中的记录（进程退出时调用），最多等待 FLUSH_TIMEOUT_MILLIS。
+     */
+    public void flush() {
+        long deadline = System.currentTimeMillis() + FLUSH_TIMEOUT_MILLIS;
+        try {
+            while (!buffer.isEmpty() && System.currentTimeMillis() < deadline)
+                Thread.sleep(1);
+        }
+        catch (InterruptedException ignored) {
+        }
+        synchronized (fileLock) {
+            flushBuffer();
+        }
+    }
+    
+    
+    private void write(byte[] record) {
+        synchronized (fileLock) {
+            try {
+                if (file == null || fileBytes + record.length > maxFileBytes)
+                    rotate();
+                if (writeBuffer.remaining() < record.length)
+                    writeOut();
+                if (writeBuffer.remaining() < record.length) // 超过写缓冲区的报文直接写入
+                    file.write(ByteBuffer.wrap(record));
+                else
+                    writeBuffer.put(record);
+                fileBytes += record.length;
+            }
+            catch (IOException e) {
+                droppedRecords.increment();
+            }
+        }
+    }
+    
+    
+    private void flushBuffer() {
+        try {
+            writeOut();
+        }
+        catch (IOException ignored) {
+        }
+    }
+    
+    
+    private void writeOut() throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining())
+            file.write(writeBuffer);
+        writeBuffer.clear();
+    }
+    
+    
+    /**
+     * 关闭当前文件，打开下一个文件并写入文件头，删除超出保留数量的最早文件。
+     */
+    private void rotate() throws IOException {
+        if (file != null) {
+            writeOut();
+            file.close();
+        }
+        Files.createDirectories(directory);
+        file = FileChannel.open(tracePath(fileIndex), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        Files.deleteIfExists(tracePath(fileIndex - maxFiles));
+        ++fileIndex;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.putInt(MAGIC).putShort((short) VERSION).putLong(System.currentTimeMillis()).putLong(System.nanoTime()).flip();
+        while (header.hasRemaining())
+            file.write(header);
+        fileBytes = HEADER_LENGTH;
+    }
+    
+    
+    private Path tracePath(int index) {
+        return directory.resolve("trace-" + startMillis + "-" + index + ".bin");
+    }
+}
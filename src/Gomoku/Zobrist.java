@@ -0,0 +1,67 @@
+package Gomoku;
+
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * 局面的 Zobrist 散列
+ * 每个格子的黑子和白子各有一个固定的 64 位随机数，局面的散列为棋盘上所有棋子对应随机数的异或，落子和悔棋只需异或一次。
+ * 随机数由固定的种子生成，不同的运行、不同的机器上同一局面的散列相同，可以写入文件作为索引。
+ * 格子编号为 (i - 1) * Board.n + (j - 1)，取值 0 到 224（见 GameRecord.cellIndex）。
+ */
+public final class Zobrist {
+    private static final long SEED = 0x476F6D6F6B75L; // "Gomoku"
+    private static final long[] blackKeys = new long[Board.n * Board.n];
+    private static final long[] whiteKeys = new long[Board.n * Board.n];
+    
+    static {
+        SplittableRandom random = new SplittableRandom(SEED);
+        for (int cell = 0; cell < Board.n * Board.n; ++cell) {
+            blackKeys[cell] = random.nextLong();
+            whiteKeys[cell] = random.nextLong();
+        }
+    }
+    
+    
+    private Zobrist() {
+    }
+    
+    
+    /**
+     * 一个棋子对应的随机数
+     *
+     * @param cell 格子编号
+     * @param ply  第几手（从 0 开始），偶数为黑子，奇数为白子。
+     */
+    public static long key(int cell, int ply) {
+        return (ply % 2 == 0 ? blackKeys[cell] : whiteKeys[cell]);
+    }
+    
+    
+    /**
+     * 按顺序走完前 plies 手后的局面的散列
+     *
+     * @param cells 按顺序排列的格子编号
+     * @param plies 手数
+     */
+    public static long hash(byte[] cells, int plies) {
+        long hash = 0;
+        for (int ply = 0; ply < plies; ++ply)
+            hash ^= key(cells[ply] & 0xFF, ply);
+        return hash;
+    }
+    
+    
+    /**
+     * 棋盘当前局面的散列
+     */
+    public static long hash(Board board) {
+        List<Stone> history = board.getHistory();
+        long hash = 0;
+        for (int ply = 0; ply < history.size(); ++ply) {
+            Stone stone = history.get(ply);
+            hash ^= key(GameRecord.cellIndex(stone.getI(), stone.getJ()), ply);
+        }
+        return hash;
+    }
+}